@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+
+import com.twitter.finagle.httpx.{Method, Request, Response, Status}
+import com.twitter.logging.{Level, Logger}
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.Future
+import gr.grnet.cdmi.capability.SystemWideCapability
+import gr.grnet.cdmi.json.CdmiJson
+import gr.grnet.cdmi.model.{CapabilityModel, ContainerModel, ObjectModel}
+import gr.grnet.cdmi.queue.{CdmiQueue, QueueEngine}
+import gr.grnet.cdmi.service._
+import gr.grnet.cdmi.tls.{TlsConfig, TlsProvider}
+import gr.grnet.common.json.Json
+import gr.grnet.common.text.NormalizePath
+
+import scala.collection.immutable.Seq
+
+/**
+ * A service whose backend answers every call with the same, already built response,
+ * so that benchmarks measure only the layers above the backend. Logging is off.
+ */
+class BenchService extends CdmiRestService
+  with CdmiRestServiceTypes
+  with CdmiRestServiceHandlers
+  with CdmiRestServiceMethods
+  with CdmiRestServiceResponse {
+
+  val log: Logger = {
+    val logger = Logger.get("gr.grnet.cdmi.bench")
+    logger.setLevel(Level.OFF)
+    logger
+  }
+
+  val ok: Future[Response] = Future.value(Response(Status.Ok))
+
+  override def GET_object_cdmi(request: Request, objectPath: List[String]) = ok
+  override def GET_object_noncdmi(request: Request, objectPath: List[String]) = ok
+  override def PUT_object_cdmi_create_or_update(request: Request, objectPath: List[String]) = ok
+  override def PUT_object_noncdmi(request: Request, objectPath: List[String], contentType: String) = ok
+  override def GET_queue_cdmi(request: Request, queuePath: List[String]) = ok
+  override def GET_container_cdmi(request: Request, containerPath: List[String]) = ok
+  override def PUT_container_cdmi_create_or_update(request: Request, containerPath: List[String]) = ok
+  override def GET_domain_cdmi(request: Request, domainPath: List[String]) = ok
+  override def GET_objectById(request: Request, objectIdPath: List[String]) = ok
+  def DELETE_object_or_queue_or_queuevalue_cdmi(request: Request, path: List[String]) = ok
+}
+
+/**
+ * Representative requests and models, shared by the benchmarks.
+ */
+object BenchFixtures {
+  final val CdmiVersion = "1.0.2"
+  final val SpecVersion = "X-CDMI-Specification-Version"
+
+  private[this] def get(uri: String, headers: (String, String)*): Request = {
+    val request = Request(Method.Get, uri)
+    for((name, value) ← headers) request.headerMap.add(name, value)
+    request
+  }
+
+  /**
+   * Builds a fresh request each time, since requests carry their response.
+   */
+  def request(name: String): Request =
+    name match {
+      case "capabilities" ⇒
+        get("/cdmi_capabilities/", SpecVersion → CdmiVersion)
+      case "containerCdmi" ⇒
+        get("/photos/2014/", SpecVersion → CdmiVersion, "Accept" → "application/cdmi-container")
+      case "containerNonCdmi" ⇒
+        get("/photos/2014/", "Accept" → "*/*")
+      case "objectCdmi" ⇒
+        get("/photos/2014/summer/IMG_0042.jpg", SpecVersion → CdmiVersion, "Accept" → "application/cdmi-object")
+      case "objectNonCdmi" ⇒
+        get("/photos/2014/summer/IMG_0042.jpg", "Accept" → "image/jpeg, */*;q=0.8")
+      case "queueCdmi" ⇒
+        get("/jobs/pending", SpecVersion → CdmiVersion, "Accept" → "application/cdmi-queue")
+      case "domain" ⇒
+        get("/cdmi_domains/users/", SpecVersion → CdmiVersion)
+      case "objectById" ⇒
+        get("/cdmi_objectid/0000053F0028A5C6D5FC6C53C9BE90CE1D6DCB65A4F2AEB4", SpecVersion → CdmiVersion)
+      case _ ⇒
+        throw new IllegalArgumentException(s"Unknown request '$name'")
+    }
+
+  /**
+   * A request to a container or a data object with the given `Accept` header, which may be empty.
+   */
+  def requestWithAccept(uri: String, accept: String): Request =
+    if(accept.isEmpty) get(uri, SpecVersion → CdmiVersion)
+    else get(uri, SpecVersion → CdmiVersion, "Accept" → accept)
+
+  /**
+   * A request for a container listing that accepts the given `Accept-Encoding`, which may be empty.
+   */
+  def requestWithEncoding(acceptEncoding: String): Request =
+    if(acceptEncoding.isEmpty) get("/photos/2014/", SpecVersion → CdmiVersion, "Accept" → "application/cdmi-container")
+    else get("/photos/2014/", SpecVersion → CdmiVersion, "Accept" → "application/cdmi-container", "Accept-Encoding" → acceptEncoding)
+
+  /**
+   * The path as `CdmiRestService.routeNormalized` normalizes it before routing.
+   */
+  def normalized(path: String): String = path.normalizePath
+
+  def utf8(s: String): Buf = Buf.ByteArray.Owned(s.getBytes(StandardCharsets.UTF_8))
+
+  def text(size: Int): String = {
+    val sb = new java.lang.StringBuilder(size)
+    while(sb.length < size) sb.append("The quick brown fox jumps over the lazy dog. ")
+    sb.setLength(size)
+    sb.toString
+  }
+
+  val objectModel = ObjectModel(
+    objectID = "0000053F0028A5C6D5FC6C53C9BE90CE1D6DCB65A4F2AEB4",
+    objectName = "IMG_0042.jpg",
+    parentURI = "/photos/2014/summer/",
+    parentID = "0000053F0028A5C6A07F5B6E6A40E45B8E3B6A6FB4C4BC2D",
+    domainURI = "/cdmi_domains/users/",
+    mimetype = "text/plain",
+    metadata = Map("cdmi_size" → "1024", "owner" → "someone"),
+    valuetransferencoding = "utf-8",
+    valuerange = "0-1023",
+    value = text(1024)
+  )
+
+  val containerModel = ContainerModel(
+    objectID = "0000053F0028A5C6A07F5B6E6A40E45B8E3B6A6FB4C4BC2D",
+    objectName = "summer/",
+    parentURI = "/photos/2014/",
+    parentID = "0000053F0028A5C6E0C6E1B4B3B3D2E1F0A9B8C7D6E5F4A3",
+    domainURI = "/cdmi_domains/users/",
+    metadata = Map("owner" → "someone"),
+    childrenrange = "0-99",
+    children = (0 until 100).map(i ⇒ f"IMG_$i%04d.jpg").toList
+  )
+
+  /**
+   * The encoded listing of a container with `count` children.
+   */
+  def listing(count: Int): Buf =
+    CdmiJson.encode(
+      containerModel.copy(
+        childrenrange = if(count == 0) "" else s"0-${count - 1}",
+        children = (0 until count).map(i ⇒ f"IMG_$i%04d.jpg").toList
+      )
+    )
+
+  /**
+   * A reader over `buf`, for Java benchmarks, which cannot reach the `Reader` companion.
+   */
+  def readerOf(buf: Buf): Reader = Reader.fromBuf(buf)
+
+  val capabilityModel = CapabilityModel.rootOf(
+    capabilities = CapabilityModel.booleanCapabilitiesMap(SystemWideCapability.values(): _*),
+    children = List("container/", "dataobject/", "domain/", "queue/")
+  )
+
+  final val QueuePath = List("jobs", "pending")
+
+  def newQueue(engine: QueueEngine): CdmiQueue = engine.create(QueuePath, "", Map()).get
+
+  def deleteQueue(engine: QueueEngine): Unit = engine.delete(QueuePath)
+
+  /**
+   * `count` work items of 64 bytes, to be enqueued together.
+   */
+  def queueValues(count: Int): Seq[(String, Buf)] =
+    Vector.tabulate(count)(i ⇒ ("text/plain", utf8(f"work item $i%054d")))
+
+  /**
+   * A TLS configuration for `protocol` only, with a self-signed certificate for `localhost` that is created
+   * in `dir` by the `openssl` command.
+   */
+  def selfSignedTls(dir: File, provider: TlsProvider, protocol: String): TlsConfig = {
+    val cert = new File(dir, "cert.pem")
+    val key = new File(dir, "key.pem")
+    val openssl = new ProcessBuilder(
+      "openssl", "req", "-x509", "-newkey", "rsa:2048", "-nodes", "-days", "1", "-subj", "/CN=localhost",
+      "-keyout", key.getPath, "-out", cert.getPath
+    ).redirectErrorStream(true).redirectOutput(new File(dir, "openssl.log")).start()
+
+    if(openssl.waitFor() != 0) {
+      throw new IllegalStateException(s"openssl failed, see ${dir.getPath}/openssl.log")
+    }
+
+    TlsConfig(cert.getPath, key.getPath, provider, protocols = Seq(protocol))
+  }
+
+  /**
+   * The generic Jackson-based serialization that the models used before [[gr.grnet.cdmi.json.CdmiJson]].
+   */
+  def legacyJson(model: AnyRef): String = Json.objectToJsonString(model)
+}
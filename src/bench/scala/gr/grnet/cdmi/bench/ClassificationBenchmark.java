@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import com.twitter.finagle.httpx.Request;
+import com.twitter.finagle.httpx.Response;
+import com.twitter.util.Future;
+import gr.grnet.cdmi.service.CdmiPath;
+import gr.grnet.cdmi.service.Negotiated;
+import gr.grnet.cdmi.service.PathRouter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The header classification that {@code handleContainerCall} and {@code handleObjectOrQueueCall}
+ * carry out before delegating to the backend, for the usual {@code Accept} headers, and the
+ * {@link Negotiated} flags it is based on.
+ * An empty {@code accept} means no {@code Accept} header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassificationBenchmark {
+    @Param({
+        "",
+        "*/*",
+        "application/cdmi-container",
+        "application/cdmi-object",
+        "application/cdmi-queue",
+        "text/html, application/xhtml+xml;q=0.9, */*;q=0.8"
+    })
+    public String accept;
+
+    private BenchService service;
+    private Request containerRequest;
+    private CdmiPath containerPath;
+    private Request objectRequest;
+    private CdmiPath objectPath;
+
+    @Setup
+    public void setup() {
+        PathRouter router = PathRouter.Cdmi();
+        service = new BenchService();
+        containerRequest = BenchFixtures.requestWithAccept("/photos/2014/", accept);
+        containerPath = router.route("/photos/2014/");
+        objectRequest = BenchFixtures.requestWithAccept("/photos/2014/IMG_0042.jpg", accept);
+        objectPath = router.route("/photos/2014/IMG_0042.jpg");
+    }
+
+    @Benchmark
+    public int negotiate() {
+        return Negotiated.of(objectRequest);
+    }
+
+    @Benchmark
+    public Future<Response> container() {
+        return service.handleContainerCall(containerRequest, containerPath);
+    }
+
+    @Benchmark
+    public Future<Response> objectOrQueue() {
+        return service.handleObjectOrQueueCall(objectRequest, objectPath);
+    }
+}
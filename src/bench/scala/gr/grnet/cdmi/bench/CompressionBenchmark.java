@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.bench;
+
+import com.twitter.finagle.httpx.Request;
+import com.twitter.finagle.httpx.Response;
+import com.twitter.finagle.httpx.Status;
+import com.twitter.finagle.stats.NullStatsReceiver;
+import com.twitter.io.Buf;
+import com.twitter.io.Reader;
+import com.twitter.util.Await;
+import gr.grnet.cdmi.http.CdmiMediaType;
+import gr.grnet.cdmi.service.ResponseCompression;
+import org.openjdk.jmh.annotations.*;
+import scala.Option;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serving a container listing of 1000 children uncompressed ({@code identity}) against compressing it with gzip
+ * or deflate, at the fastest level and the default one, both at once and as a stream of 8 KB chunks.
+ * The difference in throughput is the latency that compression adds to every response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final int ChunkSize = 8192;
+
+    @Param({"identity", "gzip", "deflate"})
+    public String coding;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private BenchService service;
+    private ResponseCompression compression;
+    private String acceptEncoding;
+    private Buf listing;
+
+    @Setup
+    public void setup() {
+        service = new BenchService();
+        compression = new ResponseCompression(
+            1024,
+            level,
+            ResponseCompression.parseTypes(ResponseCompression.DefaultSkippedTypes()),
+            new NullStatsReceiver()
+        );
+        acceptEncoding = coding.equals("identity") ? "" : coding;
+        listing = BenchFixtures.listing(1000);
+    }
+
+    // Requests are built afresh, since they carry their response and compression leaves its headers on it
+    @Benchmark
+    public Response buffered() {
+        Request request = BenchFixtures.requestWithEncoding(acceptEncoding);
+        Response response = service.bufResponse(request, Status.Ok(), CdmiMediaType.Application_CdmiContainer, listing);
+        return compression.apply(request, response);
+    }
+
+    @Benchmark
+    public long streamed() throws Exception {
+        Request request = BenchFixtures.requestWithEncoding(acceptEncoding);
+        Response response = compression.apply(
+            request,
+            service.streamResponse(request, Status.Ok(), CdmiMediaType.Application_CdmiContainer.value(), BenchFixtures.readerOf(listing))
+        );
+
+        Reader reader = response.reader();
+        long bytes = 0;
+        Option<Buf> chunk = Await.result(reader.read(ChunkSize));
+        while(chunk.isDefined()) {
+            bytes += chunk.get().length();
+            chunk = Await.result(reader.read(ChunkSize));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import com.twitter.finagle.Service;
+import com.twitter.finagle.httpx.Request;
+import com.twitter.finagle.httpx.Response;
+import com.twitter.util.Future;
+import org.openjdk.jmh.annotations.*;
+import scala.PartialFunction;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches representative requests through {@code routingTable} alone and through
+ * the whole filter chain that {@code main()} serves. The backend answers with a constant response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({
+        "capabilities",
+        "containerCdmi",
+        "containerNonCdmi",
+        "objectCdmi",
+        "objectNonCdmi",
+        "queueCdmi",
+        "domain",
+        "objectById"
+    })
+    public String request;
+
+    private Request req;
+    private PartialFunction<Request, Future<Response>> routes;
+    private Service<Request, Response> filtered;
+
+    @Setup
+    public void setup() {
+        BenchService service = new BenchService();
+        req = BenchFixtures.request(request);
+        routes = service.routingTable();
+        filtered = service.filteredService();
+    }
+
+    @Benchmark
+    public Future<Response> routingTable() {
+        return routes.apply(req);
+    }
+
+    @Benchmark
+    public Future<Response> filters() {
+        return filtered.apply(req);
+    }
+}
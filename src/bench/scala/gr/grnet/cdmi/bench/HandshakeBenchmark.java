@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import com.twitter.finagle.ListeningServer;
+import com.twitter.util.Await;
+import gr.grnet.cdmi.tls.TlsEngineFactory;
+import gr.grnet.cdmi.tls.TlsProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clients connecting to the HTTPS listener on localhost, each doing one request over a new connection.
+ * With {@code resume} the clients offer their previous session, so the server resumes it instead of doing
+ * a full handshake; without it every session is invalidated after use. Run with {@code -t} to see how
+ * handshakes scale with the number of clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+    @Param({"auto"})
+    public String provider;
+
+    @Param({"TLSv1.2", "TLSv1.3"})
+    public String protocol;
+
+    @Param({"true", "false"})
+    public boolean resume;
+
+    private static final byte[] Request =
+        "GET /cdmi_capabilities/ HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private File dir;
+    private ListeningServer server;
+    private int port;
+    private SSLSocketFactory clients;
+
+    private static final class TrustAll implements X509TrustManager {
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+        public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("cdmi-tls-bench").toFile();
+        TlsProvider tlsProvider = provider.equals("jdk") ? TlsProvider.Jdk : TlsProvider.Auto;
+        TlsEngineFactory engines = new TlsEngineFactory(BenchFixtures.selfSignedTls(dir, tlsProvider, protocol));
+
+        BenchService service = new BenchService();
+        server = service.serveHttps(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), service.filteredService(), engines);
+        port = ((InetSocketAddress) server.boundAddress()).getPort();
+
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(null, new TrustManager[] { new TrustAll() }, null);
+        clients = context.getSocketFactory();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Await.ready(server.close());
+        for(File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public int connect() throws IOException {
+        try(SSLSocket socket = (SSLSocket) clients.createSocket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            socket.setEnabledProtocols(new String[] { protocol });
+            OutputStream out = socket.getOutputStream();
+            out.write(Request);
+            out.flush();
+
+            // Reading the whole response also takes in any session ticket that follows the handshake
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            for(int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                total += n;
+            }
+
+            if(!resume) {
+                socket.getSession().invalidate();
+            }
+            return total;
+        }
+    }
+}
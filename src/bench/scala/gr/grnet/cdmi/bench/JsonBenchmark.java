@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import com.twitter.io.Buf;
+import gr.grnet.cdmi.json.CdmiJson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing the CDMI models with the generic {@code Json.objectToJsonString} against {@link CdmiJson}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    @Benchmark
+    public String legacyObject() {
+        return BenchFixtures.legacyJson(BenchFixtures.objectModel());
+    }
+
+    @Benchmark
+    public Buf cdmiJsonObject() {
+        return CdmiJson.encode(BenchFixtures.objectModel());
+    }
+
+    @Benchmark
+    public String legacyContainer() {
+        return BenchFixtures.legacyJson(BenchFixtures.containerModel());
+    }
+
+    @Benchmark
+    public Buf cdmiJsonContainer() {
+        return CdmiJson.encode(BenchFixtures.containerModel());
+    }
+
+    @Benchmark
+    public String legacyCapability() {
+        return BenchFixtures.legacyJson(BenchFixtures.capabilityModel());
+    }
+
+    @Benchmark
+    public Buf cdmiJsonCapability() {
+        return CdmiJson.encode(BenchFixtures.capabilityModel());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench
+
+import java.net.URLDecoder
+
+import gr.grnet.cdmi.service.RouteKind
+import gr.grnet.common.text.{NormalizePath, PathToList}
+
+/**
+ * The list-based path matching that `CdmiRestService.routingTable` used before
+ * [[gr.grnet.cdmi.service.PathRouter]], including the eagerly built debug strings.
+ * Kept here only as a benchmark baseline.
+ */
+object LegacyRouting {
+  final case class Routed(kind: RouteKind, path: List[String], debug: String)
+
+  def route(method: String, uri: String, requestPath: String): Routed = {
+    val decodedUri = try URLDecoder.decode(uri, "UTF-8") catch { case e: Exception ⇒ s"(${e.getMessage}) $uri"}
+    val normalizedPath = requestPath.normalizePath
+
+    var debug = s"(original) $method $uri"
+    if(decodedUri != uri) {
+      debug = s"(decoded)  $method $decodedUri"
+    }
+
+    val pathElements = normalizedPath.pathToList
+    val lastIsSlash = normalizedPath(normalizedPath.length - 1) == '/'
+    val pathElementsDebugStr = pathElements.map(s ⇒ "\"" + s + "\"").mkString(" ") + (if(lastIsSlash) " [/]" else "")
+    debug = s"(as list)  $method $pathElementsDebugStr"
+
+    val HAVE_SLASH = true
+    val HAVE_NO_SLASH = false
+
+    (pathElements, lastIsSlash) match {
+      case (Nil, _) ⇒
+        Routed(RouteKind.Root, Nil, debug)
+
+      case ("" :: Nil, _) ⇒
+        Routed(RouteKind.RootNoSlash, Nil, debug)
+
+      case ("" ::  "cdmi_capabilities" :: Nil, HAVE_SLASH) ⇒
+        Routed(RouteKind.Capabilities, Nil, debug)
+
+      case ("" ::  "cdmi_capabilities" :: Nil, HAVE_NO_SLASH) ⇒
+        Routed(RouteKind.CapabilitiesNoSlash, Nil, debug)
+
+      case ("" :: ("cdmi_objectid" | "cdmi_objectId" | "cdmi_objectID") :: objectIdPath, _) ⇒
+        Routed(RouteKind.ObjectById, objectIdPath, debug)
+
+      case ("" ::  "cdmi_domains" :: domainPath, HAVE_SLASH) ⇒
+        Routed(RouteKind.Domain, domainPath, debug)
+
+      case ("" ::  "cdmi_domains" :: Nil, HAVE_NO_SLASH) ⇒
+        Routed(RouteKind.DomainNoSlash, Nil, debug)
+
+      case ("" :: containerPath, HAVE_SLASH) ⇒
+        Routed(RouteKind.Container, containerPath, debug)
+
+      case ("" :: pathList, HAVE_NO_SLASH) ⇒
+        Routed(RouteKind.ObjectOrQueue, pathList, debug)
+
+      case _ ⇒
+        Routed(RouteKind.CatchAll, Nil, debug)
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import com.twitter.io.Buf;
+import gr.grnet.cdmi.objectid.ObjectIDGenerator;
+import gr.grnet.cdmi.objectid.ObjectIDIndex;
+import gr.grnet.cdmi.queue.CdmiQueue;
+import gr.grnet.cdmi.queue.QueueEngine;
+import gr.grnet.cdmi.queue.QueueValue;
+import org.openjdk.jmh.annotations.*;
+import scala.Tuple2;
+import scala.collection.immutable.Seq;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producers enqueueing batches of values to a queue while consumers read and remove them, with the queue
+ * kept in memory or persisted in segment files. Run with {@code -tg} to see how throughput scales with the
+ * number of producers and consumers, e.g. {@code -tg 4,4}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+    @Param({"memory", "fs"})
+    public String backend;
+
+    @Param({"1", "16"})
+    public int batch;
+
+    private File dir;
+    private QueueEngine engine;
+    private CdmiQueue queue;
+    private Seq<Tuple2<String, Buf>> values;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectIDIndex index = ObjectIDIndex.inMemory(1024);
+        if(backend.equals("fs")) {
+            dir = Files.createTempDirectory("cdmi-queue-bench").toFile();
+            engine = QueueEngine.open(dir, index, ObjectIDGenerator.Default(), 64 << 20);
+        }
+        else {
+            engine = QueueEngine.inMemory(index, ObjectIDGenerator.Default());
+        }
+        queue = BenchFixtures.newQueue(engine);
+        values = BenchFixtures.queueValues(batch);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchFixtures.deleteQueue(engine);
+        if(dir != null) {
+            dir.delete();
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    public void enqueue() {
+        queue.enqueue(values);
+    }
+
+    @Benchmark
+    @Group("queue")
+    public Object dequeue() {
+        Seq<QueueValue> read = queue.read(0L, batch);
+        queue.ack(read.size());
+        return read;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench
+
+import java.io.{File, FileInputStream, FileOutputStream}
+import java.util.Properties
+
+import org.openjdk.jmh.profile.GCProfiler
+import org.openjdk.jmh.results.RunResult
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+
+import scala.collection.JavaConverters._
+
+/**
+ * Runs the benchmarks with the GC profiler and compares throughput and allocation per operation
+ * against a recorded baseline, exiting with a non-zero status if any benchmark regressed beyond the threshold.
+ *
+ * System properties:
+ *  - `bench.baseline`: the baseline file, `src/bench/baseline.properties` by default.
+ *  - `bench.threshold`: the tolerated relative regression, `0.10` by default.
+ *  - `bench.include`: a regular expression selecting the benchmarks, all of them by default.
+ *  - `bench.record`: if `true`, (re-)records the baseline instead of checking it.
+ *
+ * Baselines depend on the machine, so record them on the machine that does the checking.
+ */
+object RegressionCheck {
+  final val AllocRateNorm = "gc.alloc.rate.norm"
+
+  /**
+   * Allocations below this many bytes per operation are considered noise.
+   */
+  final val AllocSlack = 16.0
+
+  final case class Measured(ops: Double, bytesPerOp: Option[Double])
+
+  def keyOf(result: RunResult): String = {
+    val params = result.getParams
+    val paramKeys = params.getParamsKeys.asScala.toList.asInstanceOf[List[String]]
+    val benchmark = params.getBenchmark.stripPrefix("gr.grnet.cdmi.bench.")
+    if(paramKeys.isEmpty) benchmark
+    else paramKeys.map(k ⇒ s"$k=${params.getParam(k)}").mkString(s"$benchmark[", ",", "]")
+  }
+
+  def measuredOf(result: RunResult): Measured = {
+    val bytesPerOp =
+      result.getSecondaryResults.asScala collectFirst {
+        case (label, r) if label.endsWith(AllocRateNorm) ⇒ r.getScore
+      }
+    Measured(result.getPrimaryResult.getScore, bytesPerOp)
+  }
+
+  def load(file: File): Properties = {
+    val properties = new Properties()
+    val in = new FileInputStream(file)
+    try properties.load(in) finally in.close()
+    properties
+  }
+
+  def record(file: File, measured: Map[String, Measured]): Unit = {
+    val properties = new Properties()
+    for((key, m) ← measured) {
+      properties.setProperty(s"$key.ops", m.ops.toString)
+      for(b ← m.bytesPerOp) properties.setProperty(s"$key.alloc", b.toString)
+    }
+    val out = new FileOutputStream(file)
+    try properties.store(out, "JMH baseline: ops per time unit and bytes allocated per op") finally out.close()
+  }
+
+  /**
+   * The benchmarks of `measured` that have no throughput, or no allocation, recorded in `baseline`,
+   * as human-readable lines. They cannot be checked, so they fail the check until the baseline is recorded again.
+   */
+  def missing(baseline: Properties, measured: Map[String, Measured]): List[String] =
+    (for {
+      (key, m) ← measured.toList.sortBy(_._1)
+      suffix ← "ops" :: m.bytesPerOp.map(_ ⇒ "alloc").toList
+      if baseline.getProperty(s"$key.$suffix") eq null
+    } yield s"$key: no $key.$suffix in the baseline")
+
+  /**
+   * The regressions of `measured` against `baseline`, as human-readable lines.
+   */
+  def regressions(baseline: Properties, measured: Map[String, Measured], threshold: Double): List[String] =
+    (for {
+      (key, m) ← measured.toList.sortBy(_._1)
+      baseOps = Option(baseline.getProperty(s"$key.ops")).map(_.toDouble)
+      baseAlloc = Option(baseline.getProperty(s"$key.alloc")).map(_.toDouble)
+    } yield {
+      val slower =
+        for(ops ← baseOps if m.ops < ops * (1 - threshold))
+          yield f"$key: throughput ${m.ops}%.3f < baseline $ops%.3f"
+
+      val heavier =
+        for(alloc ← baseAlloc; bytes ← m.bytesPerOp if bytes > alloc * (1 + threshold) + AllocSlack)
+          yield f"$key: allocation $bytes%.1f B/op > baseline $alloc%.1f B/op"
+
+      slower.toList ++ heavier.toList
+    }).flatten
+
+  def main(args: Array[String]): Unit = {
+    val baselineFile = new File(sys.props.getOrElse("bench.baseline", "src/bench/baseline.properties"))
+    val threshold = sys.props.getOrElse("bench.threshold", "0.10").toDouble
+    val include = sys.props.getOrElse("bench.include", "gr\\.grnet\\.cdmi\\.bench\\..*")
+    val isRecording = sys.props.get("bench.record").exists(_.toBoolean)
+
+    if(!isRecording && !baselineFile.isFile) {
+      System.err.println(s"No baseline at $baselineFile; record one first with -Dbench.record=true")
+      sys.exit(1)
+    }
+
+    val options = new OptionsBuilder().
+      include(include).
+      addProfiler(classOf[GCProfiler]).
+      build()
+
+    val measured = (for(result ← new Runner(options).run().asScala) yield keyOf(result) → measuredOf(result)).toMap
+
+    if(isRecording) {
+      record(baselineFile, measured)
+      println(s"Recorded ${measured.size} benchmarks in $baselineFile")
+    }
+    else {
+      val baseline = load(baselineFile)
+      (missing(baseline, measured), regressions(baseline, measured, threshold)) match {
+        case (Nil, Nil) ⇒
+          println(s"No regressions beyond ${threshold * 100}% against $baselineFile")
+
+        case (absent, found) ⇒
+          if(absent.nonEmpty) {
+            System.err.println(s"Benchmarks missing from $baselineFile; record it again with -Dbench.record=true:")
+            for(line ← absent) System.err.println(s"  $line")
+          }
+          if(found.nonEmpty) {
+            System.err.println(s"Regressions beyond ${threshold * 100}% against $baselineFile:")
+            for(line ← found) System.err.println(s"  $line")
+          }
+          sys.exit(1)
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import com.twitter.finagle.httpx.Request;
+import com.twitter.finagle.httpx.Response;
+import com.twitter.finagle.httpx.Status;
+import com.twitter.io.Buf;
+import gr.grnet.common.http.StdMediaType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a response from a {@code CharSequence} body with {@code response()}, which encodes it to UTF-8,
+ * against {@code bufResponse()}, which takes an already encoded body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({"64", "65536"})
+    public int size;
+
+    private BenchService service;
+    private Request request;
+    private String body;
+    private Buf buf;
+
+    @Setup
+    public void setup() {
+        service = new BenchService();
+        request = BenchFixtures.request("objectNonCdmi");
+        body = BenchFixtures.text(size);
+        buf = BenchFixtures.utf8(body);
+    }
+
+    @Benchmark
+    public Response response() {
+        return service.response(request, Status.Ok(), StdMediaType.Text_Plain, body, "");
+    }
+
+    @Benchmark
+    public Response bufResponse() {
+        return service.bufResponse(request, Status.Ok(), StdMediaType.Text_Plain, buf);
+    }
+}
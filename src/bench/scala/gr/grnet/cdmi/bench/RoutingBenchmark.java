@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.bench;
+
+import gr.grnet.cdmi.service.CdmiPath;
+import gr.grnet.cdmi.service.PathRouter;
+import org.openjdk.jmh.annotations.*;
+import scala.collection.immutable.List;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PathRouter} against the list-based matching it replaced. Both normalize the path first.
+ * The {@code ToList} variants include materializing the path elements, which is
+ * what happens when a call reaches {@link gr.grnet.cdmi.service.CdmiRestServiceMethods}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+    @Param({
+        "/",
+        "/cdmi_capabilities/",
+        "/cdmi_domains/users/",
+        "/cdmi_objectid/0000053F0028A5C6D5FC6C53C9BE90CE1D6DCB65A4F2AEB4",
+        "/photos/2014/",
+        "/photos/2014/summer/beach/IMG_0042.jpg"
+    })
+    public String path;
+
+    private final PathRouter router = PathRouter.Cdmi();
+
+    @Benchmark
+    public LegacyRouting.Routed legacy() {
+        return LegacyRouting.route("GET", path, path);
+    }
+
+    @Benchmark
+    public CdmiPath trie() {
+        return router.route(BenchFixtures.normalized(path));
+    }
+
+    @Benchmark
+    public List<String> trieToList() {
+        return router.route(BenchFixtures.normalized(path)).toList();
+    }
+}
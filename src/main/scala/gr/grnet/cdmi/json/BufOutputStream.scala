@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.json
+
+import java.io.OutputStream
+
+import com.twitter.io.Buf
+
+/**
+ * An [[java.io.OutputStream]] that collects what is written in segments and then hands them over
+ * as a [[com.twitter.io.Buf]], without copying. Use `toBuf` once at the end or `drain` repeatedly,
+ * when the output is sent in chunks.
+ *
+ * Segments start small and double in size up to `maxSegmentSize`, so that small payloads
+ * fit in a single array and large ones do not need a large contiguous one.
+ */
+final class BufOutputStream(initialSegmentSize: Int = 1024, maxSegmentSize: Int = 64 * 1024) extends OutputStream {
+  private[this] var full: Buf = Buf.Empty
+  private[this] var segment = new Array[Byte](initialSegmentSize)
+  private[this] var used = 0
+  private[this] var total = 0L
+
+  private[this] def nextSegment(): Unit = {
+    full = full concat Buf.ByteArray.Owned(segment, 0, used)
+    segment = new Array[Byte](math.min(segment.length * 2, maxSegmentSize))
+    used = 0
+  }
+
+  override def write(b: Int): Unit = {
+    if(used == segment.length) { nextSegment() }
+    segment(used) = b.toByte
+    used += 1
+    total += 1
+  }
+
+  override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+    var from = off
+    var remaining = len
+    while(remaining > 0) {
+      if(used == segment.length) { nextSegment() }
+      val n = math.min(remaining, segment.length - used)
+      System.arraycopy(b, from, segment, used, n)
+      used += n
+      from += n
+      remaining -= n
+    }
+    total += len
+  }
+
+  /**
+   * The number of bytes written since the stream was created.
+   */
+  def size: Long = total
+
+  /**
+   * Everything written so far. The stream must not be written to afterwards.
+   */
+  def toBuf: Buf =
+    if(full.isEmpty) Buf.ByteArray.Owned(segment, 0, used)
+    else full concat Buf.ByteArray.Owned(segment, 0, used)
+
+  /**
+   * Everything written since the last `drain`. Writing can continue afterwards.
+   */
+  def drain(): Buf = {
+    val buf = toBuf
+    full = Buf.Empty
+    segment = new Array[Byte](segment.length)
+    used = 0
+    buf
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.json
+
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+import com.fasterxml.jackson.core.io.SerializedString
+import com.fasterxml.jackson.core.{Base64Variants, JsonEncoding, JsonFactory, JsonGenerator}
+import com.twitter.io.Buf
+import gr.grnet.cdmi.model.{CapabilityModel, ContainerModel, ObjectModel, QueueModel}
+import gr.grnet.cdmi.queue.QueueValue
+
+import scala.collection.immutable.Seq
+
+/**
+ * Encodes the CDMI models straight to UTF-8 bytes with a Jackson generator, producing the same JSON
+ * as `Json.objectToJsonString`, except that an empty `percentComplete` is left out. The generator's own buffers are recycled by Jackson and the output
+ * is collected in a [[gr.grnet.cdmi.json.BufOutputStream]], so the payload is copied only once.
+ */
+object CdmiJson {
+  final val Factory = new JsonFactory()
+
+  final val Base64 = Base64Variants.MIME_NO_LINEFEEDS
+
+  object Fields {
+    final val objectType = new SerializedString(JsonField.objectType.jsonField)
+    final val objectID = new SerializedString(JsonField.objectID.jsonField)
+    final val objectName = new SerializedString(JsonField.objectName.jsonField)
+    final val parentURI = new SerializedString(JsonField.parentURI.jsonField)
+    final val parentID = new SerializedString(JsonField.parentID.jsonField)
+    final val domainURI = new SerializedString(JsonField.domainURI.jsonField)
+    final val capabilitiesURI = new SerializedString(JsonField.capabilitiesURI.jsonField)
+    final val completionStatus = new SerializedString(JsonField.completionStatus.jsonField)
+    final val percentComplete = new SerializedString(JsonField.percentComplete.jsonField)
+    final val mimetype = new SerializedString(JsonField.mimetype.jsonField)
+    final val metadata = new SerializedString(JsonField.metadata.jsonField)
+    final val valuetransferencoding = new SerializedString(JsonField.valuetransferencoding.jsonField)
+    final val valuerange = new SerializedString(JsonField.valuerange.jsonField)
+    final val value = new SerializedString(JsonField.value.jsonField)
+    final val capabilities = new SerializedString("capabilities")
+    final val childrenrange = new SerializedString("childrenrange")
+    final val childrenRange = new SerializedString("childrenRange")
+    final val children = new SerializedString("children")
+    final val queueValues = new SerializedString("queueValues")
+  }
+
+  private[this] final class ByteBufferInputStream(bb: ByteBuffer) extends InputStream {
+    override def read(): Int = if(bb.hasRemaining) bb.get() & 0xFF else -1
+
+    override def read(b: Array[Byte], off: Int, len: Int): Int =
+      if(!bb.hasRemaining) -1
+      else {
+        val n = math.min(len, bb.remaining())
+        bb.get(b, off, n)
+        n
+      }
+  }
+
+  def writeStringField(gen: JsonGenerator, name: SerializedString, value: String): Unit = {
+    gen.writeFieldName(name)
+    gen.writeString(value)
+  }
+
+  def writeMap(gen: JsonGenerator, name: SerializedString, map: Map[String, String]): Unit = {
+    gen.writeFieldName(name)
+    gen.writeStartObject()
+    for((k, v) ← map) { gen.writeStringField(k, v) }
+    gen.writeEndObject()
+  }
+
+  def writeStrings(gen: JsonGenerator, name: SerializedString, strings: Iterator[String]): Unit = {
+    gen.writeFieldName(name)
+    gen.writeStartArray()
+    for(s ← strings) { gen.writeString(s) }
+    gen.writeEndArray()
+  }
+
+  /**
+   * Writes the bytes of `buf` as the JSON string `name`, either as they are (`utf-8`) or base64-encoded.
+   * The encoding happens while writing, so there is no intermediate encoded copy.
+   */
+  def writeBytes(gen: JsonGenerator, name: SerializedString, buf: Buf, asUtf8: Boolean): Unit = {
+    gen.writeFieldName(name)
+    writeBytesValue(gen, buf, asUtf8)
+  }
+
+  /**
+   * As `writeBytes`, but for a string that is not a field, e.g. an array element.
+   */
+  def writeBytesValue(gen: JsonGenerator, buf: Buf, asUtf8: Boolean): Unit =
+    buf match {
+      case Buf.ByteArray.Owned(bytes, begin, end) ⇒
+        if(asUtf8) gen.writeUTF8String(bytes, begin, end - begin)
+        else gen.writeBinary(Base64, bytes, begin, end - begin)
+
+      case Buf.ByteBuffer.Owned(bb) if !asUtf8 ⇒
+        gen.writeBinary(Base64, new ByteBufferInputStream(bb.duplicate()), bb.remaining())
+
+      case _ ⇒
+        val bytes = Buf.ByteArray.Owned.extract(buf)
+        if(asUtf8) gen.writeUTF8String(bytes, 0, bytes.length)
+        else gen.writeBinary(Base64, bytes, 0, bytes.length)
+    }
+
+  /**
+   * Writes the fields of `model` up to, and including, `metadata`.
+   */
+  private[this] def writeObjectHead(gen: JsonGenerator, model: ObjectModel): Unit = {
+    writeStringField(gen, Fields.objectType, model.objectType)
+    writeStringField(gen, Fields.objectID, model.objectID)
+    writeStringField(gen, Fields.objectName, model.objectName)
+    writeStringField(gen, Fields.parentURI, model.parentURI)
+    writeStringField(gen, Fields.parentID, model.parentID)
+    writeStringField(gen, Fields.domainURI, model.domainURI)
+    writeStringField(gen, Fields.capabilitiesURI, model.capabilitiesURI)
+    writeStringField(gen, Fields.completionStatus, model.completionStatus)
+    if(model.percentComplete.nonEmpty) { writeStringField(gen, Fields.percentComplete, model.percentComplete) }
+    writeStringField(gen, Fields.mimetype, model.mimetype)
+    writeMap(gen, Fields.metadata, model.metadata)
+  }
+
+  def writeObject(gen: JsonGenerator, model: ObjectModel): Unit = {
+    gen.writeStartObject()
+    writeObjectHead(gen, model)
+    writeStringField(gen, Fields.valuetransferencoding, model.valuetransferencoding)
+    writeStringField(gen, Fields.valuerange, model.valuerange)
+    writeStringField(gen, Fields.value, model.value)
+    gen.writeEndObject()
+  }
+
+  /**
+   * Writes `model`, taking the value from `value` instead of `model.value`.
+   * `valuetransferencoding` must be either `utf-8` or `base64`.
+   */
+  def writeObject(gen: JsonGenerator, model: ObjectModel, valuetransferencoding: String, valuerange: String, value: Buf): Unit = {
+    gen.writeStartObject()
+    writeObjectHead(gen, model)
+    writeStringField(gen, Fields.valuetransferencoding, valuetransferencoding)
+    writeStringField(gen, Fields.valuerange, valuerange)
+    writeBytes(gen, Fields.value, value, asUtf8 = valuetransferencoding == "utf-8")
+    gen.writeEndObject()
+  }
+
+  /**
+   * Writes the fields of `model` up to, and including, `metadata`, provided that `include` accepts their names.
+   */
+  def writeContainerHead(gen: JsonGenerator, model: ContainerModel, include: String ⇒ Boolean = _ ⇒ true): Unit = {
+    def field(name: SerializedString, value: String): Unit =
+      if(include(name.getValue)) { writeStringField(gen, name, value) }
+
+    field(Fields.objectType, model.objectType)
+    field(Fields.objectID, model.objectID)
+    field(Fields.objectName, model.objectName)
+    field(Fields.parentURI, model.parentURI)
+    field(Fields.parentID, model.parentID)
+    field(Fields.domainURI, model.domainURI)
+    field(Fields.capabilitiesURI, model.capabilitiesURI)
+    field(Fields.completionStatus, model.completionStatus)
+    if(model.percentComplete.nonEmpty) { field(Fields.percentComplete, model.percentComplete) }
+    if(include(Fields.metadata.getValue)) { writeMap(gen, Fields.metadata, model.metadata) }
+  }
+
+  def writeContainer(gen: JsonGenerator, model: ContainerModel): Unit = {
+    gen.writeStartObject()
+    writeContainerHead(gen, model)
+    writeStringField(gen, Fields.childrenrange, model.childrenrange)
+    writeStrings(gen, Fields.children, model.children.iterator)
+    gen.writeEndObject()
+  }
+
+  /**
+   * Writes `model` followed by `values`, as the parallel arrays `mimetype`, `valuetransferencoding`,
+   * `valuerange` and `value`. Values of a `text/` mimetype are written as they are, the rest base64-encoded.
+   */
+  def writeQueue(gen: JsonGenerator, model: QueueModel, values: Seq[QueueValue]): Unit = {
+    gen.writeStartObject()
+    writeStringField(gen, Fields.objectType, model.objectType)
+    writeStringField(gen, Fields.objectID, model.objectID)
+    writeStringField(gen, Fields.objectName, model.objectName)
+    writeStringField(gen, Fields.parentURI, model.parentURI)
+    writeStringField(gen, Fields.parentID, model.parentID)
+    writeStringField(gen, Fields.domainURI, model.domainURI)
+    writeStringField(gen, Fields.capabilitiesURI, model.capabilitiesURI)
+    writeStringField(gen, Fields.completionStatus, model.completionStatus)
+    writeMap(gen, Fields.metadata, model.metadata)
+    writeStringField(gen, Fields.queueValues, model.queueValues)
+
+    def isText(value: QueueValue) = value.mimetype.startsWith("text/")
+
+    writeStrings(gen, Fields.mimetype, values.iterator.map(_.mimetype))
+    writeStrings(gen, Fields.valuetransferencoding, values.iterator.map(v ⇒ if(isText(v)) "utf-8" else "base64"))
+    writeStrings(gen, Fields.valuerange, values.iterator.map(v ⇒ if(v.size == 0) "" else s"0-${v.size - 1}"))
+    gen.writeFieldName(Fields.value)
+    gen.writeStartArray()
+    for(v ← values) { writeBytesValue(gen, v.value, asUtf8 = isText(v)) }
+    gen.writeEndArray()
+    gen.writeEndObject()
+  }
+
+  def writeCapability(gen: JsonGenerator, model: CapabilityModel): Unit = {
+    gen.writeStartObject()
+    writeStringField(gen, Fields.objectType, model.objectType)
+    writeStringField(gen, Fields.objectID, model.objectID)
+    writeStringField(gen, Fields.objectName, model.objectName)
+    writeStringField(gen, Fields.parentURI, model.parentURI)
+    writeStringField(gen, Fields.parentID, model.parentID)
+    gen.writeFieldName(Fields.capabilities)
+    gen.writeStartObject()
+    for((k, v) ← model.capabilities) { gen.writeStringField(k.toString, v) }
+    gen.writeEndObject()
+    writeStringField(gen, Fields.childrenRange, model.childrenRange)
+    writeStrings(gen, Fields.children, model.children.iterator)
+    gen.writeEndObject()
+  }
+
+  /**
+   * Runs `write` against a fresh generator and returns the generated bytes.
+   */
+  def encode(write: JsonGenerator ⇒ Unit): Buf = {
+    val out = new BufOutputStream()
+    val gen = Factory.createGenerator(out, JsonEncoding.UTF8)
+    try write(gen)
+    finally gen.close()
+    out.toBuf
+  }
+
+  def encode(model: ObjectModel): Buf = encode(writeObject(_, model))
+
+  def encode(model: ObjectModel, valuetransferencoding: String, valuerange: String, value: Buf): Buf =
+    encode(writeObject(_, model, valuetransferencoding, valuerange, value))
+
+  def encode(model: ContainerModel): Buf = encode(writeContainer(_, model))
+
+  def encode(model: CapabilityModel): Buf = encode(writeCapability(_, model))
+
+  def encode(model: QueueModel, values: Seq[QueueValue]): Buf = encode(writeQueue(_, model, values))
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.json
+
+import java.io.OutputStream
+
+import com.fasterxml.jackson.core.{JsonParseException, JsonToken}
+import com.twitter.io.{Buf, Reader, Writer}
+import com.twitter.util.{Await, Future, FuturePool, Throw}
+
+import scala.util.control.NonFatal
+
+/**
+ * Parses the CDMI body of a request that creates or updates a data object while the body is being read,
+ * so that a large base64 `value` is never held in memory as a whole.
+ *
+ * Fields are read with a Jackson token stream, as [[gr.grnet.cdmi.json.CdmiRequestJson]] reads them. A `value`
+ * that follows `"valuetransferencoding": "base64"` is decoded chunk by chunk into a [[com.twitter.io.Reader]], which
+ * is handed to `onValue`, together with the fields before it, as soon as the value starts. Parsing then waits
+ * whenever a decoded chunk has not been read yet. Any other `value` is read whole. Apart from a streamed value,
+ * at most `maxBytes` of the body are read, after which parsing fails with a
+ * [[gr.grnet.cdmi.json.BodyTooLargeException]].
+ *
+ * The fields after a streamed value are in the resulting body too, so that the caller can apply them afterwards,
+ * except for those that exclude a value, which fail parsing. If parsing fails once the value has started,
+ * the value fails as well; if what `onValue` started fails, parsing fails with the same exception.
+ *
+ * Parsing is blocking, so it runs in a `pool`.
+ *
+ * @note Section 8.2.5 of CDMI 1.0.2: Request Message Body
+ */
+object CdmiObjectStream {
+  /**
+   * Writes to `pipe` in chunks of `chunkSize` bytes, each one once the previous one has been read.
+   */
+  private[this] final class PipeOutputStream(pipe: Writer, chunkSize: Int) extends OutputStream {
+    private[this] var chunk = new Array[Byte](chunkSize)
+    private[this] var used = 0
+
+    override def write(b: Int): Unit = {
+      if(used == chunk.length) { flush() }
+      chunk(used) = b.toByte
+      used += 1
+    }
+
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+      var from = off
+      var remaining = len
+      while(remaining > 0) {
+        if(used == chunk.length) { flush() }
+        val n = math.min(remaining, chunk.length - used)
+        System.arraycopy(b, from, chunk, used, n)
+        used += n
+        from += n
+        remaining -= n
+      }
+    }
+
+    override def flush(): Unit =
+      if(used > 0) {
+        val buf = Buf.ByteArray.Owned(chunk, 0, used)
+        chunk = new Array[Byte](chunkSize)
+        used = 0
+        Await.result(pipe.write(buf))
+      }
+  }
+
+  /**
+   * Parses `body`, which must be a JSON object, in `pool`. The result is the body without any streamed `value`,
+   * and what `onValue` started, if the value was streamed.
+   */
+  def parse[T](
+    body: Reader,
+    chunkSize: Int,
+    maxBytes: Long,
+    pool: FuturePool
+  )(onValue: (CdmiRequestBody, Reader) ⇒ Future[T]): Future[(CdmiRequestBody, Option[Future[T]])] =
+    pool {
+      val in = new ReaderInputStream(body, chunkSize, maxBytes)
+      val parser = CdmiJson.Factory.createParser(in)
+      var pipe: Reader with Writer = null
+      var started: Future[T] = null
+
+      def fail(message: String) = throw new JsonParseException(message, parser.getCurrentLocation)
+
+      try {
+        parser.nextToken() match {
+          case null ⇒
+            (CdmiRequestBody(), None) // An empty body is an empty object
+
+          case JsonToken.START_OBJECT ⇒
+            var result = CdmiRequestBody()
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+              parser.getCurrentName match {
+                case JsonField.value.jsonField if result.isBase64 && !result.excludesValue && (started eq null) ⇒
+                  if(parser.nextToken() != JsonToken.VALUE_STRING) {
+                    fail(s"Expected a string for '${JsonField.value.jsonField}'")
+                  }
+                  val writable = Reader.writable()
+                  pipe = writable
+                  started = onValue(result, writable)
+                  started onFailure { _ ⇒ writable.discard() }
+
+                  val out = new PipeOutputStream(writable, chunkSize)
+                  in.unlimited { parser.readBinaryValue(CdmiJson.Base64, out) }
+                  out.flush()
+                  Await.result(writable.close())
+
+                case name ⇒
+                  result = CdmiRequestJson.parseField(parser, result, allowArrays = false)
+                  if((started ne null) && result.excludesValue) {
+                    fail(s"'$name' cannot be given together with '${JsonField.value.jsonField}'")
+                  }
+              }
+            }
+            (result, Option(started))
+
+          case _ ⇒
+            fail("Expected a JSON object")
+        }
+      }
+      catch {
+        case NonFatal(e) ⇒
+          if(pipe ne null) { pipe.fail(e) }
+          if(started ne null) {
+            started.poll match {
+              case Some(Throw(cause)) ⇒ throw cause
+              case _ ⇒
+            }
+          }
+          throw e
+      }
+      finally parser.close()
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.json
+
+import java.io.StringWriter
+
+import com.fasterxml.jackson.core.{JsonLocation, JsonParseException, JsonParser, JsonToken}
+import com.twitter.io.Buf
+
+import scala.collection.immutable.Seq
+
+/**
+ * The fields of a CDMI request body that a backend acts upon, e.g. when creating or updating
+ * a data object or a container. Fields that are absent from the body are `None`.
+ *
+ * When enqueueing to a queue, `mimetype`, `valuetransferencoding` and `value` may also be arrays, one element
+ * per value. These are then in `mimetypes`, `valuetransferencodings` and `values` instead.
+ *
+ * `deserializevalue` may be given either as a string or as the serialized JSON object itself; it is kept as JSON text.
+ * The `copy`, `move` and `reference` fields are in `copyFrom`, `moveFrom` and `referenceTo`, since `copy` would clash
+ * with the method of the case class. They name their source either by path or by `/cdmi_objectid/` URI.
+ *
+ * @note Section 8.2.5 of CDMI 1.0.2: Request Message Body
+ * @note Section 9.2.5 of CDMI 1.0.2: Request Message Body
+ * @note Section 11.6.5 of CDMI 1.0.2: Request Message Body
+ */
+final case class CdmiRequestBody(
+  mimetype: Option[String] = None,
+  metadata: Option[Map[String, String]] = None,
+  domainURI: Option[String] = None,
+  valuetransferencoding: Option[String] = None,
+  value: Option[String] = None,
+  mimetypes: Option[Seq[String]] = None,
+  valuetransferencodings: Option[Seq[String]] = None,
+  values: Option[Seq[String]] = None,
+  serialize: Option[String] = None,
+  deserialize: Option[String] = None,
+  deserializevalue: Option[String] = None,
+  copyFrom: Option[String] = None,
+  moveFrom: Option[String] = None,
+  referenceTo: Option[String] = None
+) {
+  def isBase64: Boolean = valuetransferencoding.contains("base64")
+
+  /**
+   * Whether the body asks for the data object to be serialized, deserialized, copied, moved or referenced,
+   * which excludes a `value`.
+   */
+  def excludesValue: Boolean =
+    serialize.isDefined || deserialize.isDefined || deserializevalue.isDefined ||
+    copyFrom.isDefined || moveFrom.isDefined || referenceTo.isDefined
+
+  /**
+   * The decoded bytes of `value`, according to `valuetransferencoding`.
+   */
+  def valueBuf: Buf =
+    value match {
+      case None ⇒ Buf.Empty
+      case Some(v) if isBase64 ⇒ Buf.ByteArray.Owned(CdmiJson.Base64.decode(v))
+      case Some(v) ⇒ Buf.Utf8(v)
+    }
+
+  /**
+   * The values to enqueue with their mimetypes, decoded according to their `valuetransferencoding`.
+   * A single `mimetype` or `valuetransferencoding` applies to all values.
+   */
+  def queueValues(defaultMimetype: String): Seq[(String, Buf)] = {
+    val all = values.getOrElse(value.toList)
+
+    def perValue(array: Option[Seq[String]], single: Option[String], default: String, field: JsonField): Seq[String] =
+      array match {
+        case Some(xs) if xs.size == all.size ⇒ xs
+        case Some(xs) ⇒
+          throw new JsonParseException(
+            s"Expected ${all.size} elements in '${field.jsonField}', not ${xs.size}",
+            JsonLocation.NA
+          )
+        case None ⇒ Vector.fill(all.size)(single.getOrElse(default))
+      }
+
+    val mimetypesOf = perValue(mimetypes, mimetype, defaultMimetype, JsonField.mimetype)
+    val encodingsOf = perValue(valuetransferencodings, valuetransferencoding, "utf-8", JsonField.valuetransferencoding)
+
+    (all, mimetypesOf, encodingsOf).zipped.map { (v, mimetype, encoding) ⇒
+      val buf = if(encoding == "base64") Buf.ByteArray.Owned(CdmiJson.Base64.decode(v)) else Buf.Utf8(v)
+      (mimetype, buf)
+    }.toVector
+  }
+}
+
+/**
+ * Parses CDMI request bodies with a Jackson streaming parser. Unknown fields are skipped.
+ */
+object CdmiRequestJson {
+  /**
+   * The next value, which must be a string or a scalar, of `field`.
+   */
+  def stringOf(parser: JsonParser, field: String): String = {
+    parser.nextToken()
+    currentStringOf(parser, field)
+  }
+
+  /**
+   * As `stringOf`, for the current value.
+   */
+  def currentStringOf(parser: JsonParser, field: String): String =
+    parser.getCurrentToken match {
+      case JsonToken.VALUE_STRING ⇒ parser.getText
+      case JsonToken.VALUE_NUMBER_INT | JsonToken.VALUE_NUMBER_FLOAT | JsonToken.VALUE_TRUE | JsonToken.VALUE_FALSE ⇒
+        parser.getText
+      case token ⇒
+        throw new JsonParseException(s"Expected a string for '$field', not $token", parser.getCurrentLocation)
+    }
+
+  private[this] def stringsOf(parser: JsonParser, field: String): Seq[String] = {
+    val strings = Vector.newBuilder[String]
+    while(parser.nextToken() != JsonToken.END_ARRAY) {
+      parser.getCurrentToken match {
+        case JsonToken.VALUE_STRING ⇒ strings += parser.getText
+        case token ⇒
+          throw new JsonParseException(s"Expected strings in '$field', not $token", parser.getCurrentLocation)
+      }
+    }
+    strings.result()
+  }
+
+  /**
+   * A string, or an array of strings if `allowArrays`.
+   */
+  private[this] def stringOrStringsOf(parser: JsonParser, field: String, allowArrays: Boolean): Either[String, Seq[String]] =
+    parser.nextToken() match {
+      case JsonToken.START_ARRAY if allowArrays ⇒ Right(stringsOf(parser, field))
+      case _ ⇒ Left(currentStringOf(parser, field))
+    }
+
+  /**
+   * The next value, which must be an object of metadata, of `field`. Structured values are kept as JSON text.
+   */
+  def mapOf(parser: JsonParser, field: String): Map[String, String] = {
+    if(parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException(s"Expected an object for '$field'", parser.getCurrentLocation)
+    }
+
+    val map = Map.newBuilder[String, String]
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      val key = parser.getCurrentName
+      parser.nextToken() match {
+        case JsonToken.START_OBJECT | JsonToken.START_ARRAY ⇒
+          // Structured metadata values are kept as their JSON text
+          val text = new StringWriter()
+          val gen = CdmiJson.Factory.createGenerator(text)
+          gen.copyCurrentStructure(parser)
+          gen.close()
+          map += key → text.toString
+        case JsonToken.VALUE_NULL ⇒
+        case _ ⇒
+          map += key → parser.getText
+      }
+    }
+    map.result()
+  }
+
+  /**
+   * A string, or the JSON text of an object.
+   */
+  private[this] def stringOrJsonOf(parser: JsonParser, field: String): String =
+    parser.nextToken() match {
+      case JsonToken.START_OBJECT ⇒
+        val text = new StringWriter()
+        val gen = CdmiJson.Factory.createGenerator(text)
+        gen.copyCurrentStructure(parser)
+        gen.close()
+        text.toString
+      case _ ⇒
+        currentStringOf(parser, field)
+    }
+
+  /**
+   * Parses the field whose name is the current token into `body`, skipping it if unknown.
+   * Arrays of values are only accepted if `allowArrays`.
+   */
+  def parseField(parser: JsonParser, body: CdmiRequestBody, allowArrays: Boolean): CdmiRequestBody =
+    parser.getCurrentName match {
+      case JsonField.mimetype.jsonField ⇒
+        stringOrStringsOf(parser, JsonField.mimetype.jsonField, allowArrays) match {
+          case Left(s) ⇒ body.copy(mimetype = Some(s))
+          case Right(xs) ⇒ body.copy(mimetypes = Some(xs))
+        }
+      case JsonField.metadata.jsonField ⇒
+        body.copy(metadata = Some(mapOf(parser, JsonField.metadata.jsonField)))
+      case JsonField.domainURI.jsonField ⇒
+        body.copy(domainURI = Some(stringOf(parser, JsonField.domainURI.jsonField)))
+      case JsonField.valuetransferencoding.jsonField ⇒
+        stringOrStringsOf(parser, JsonField.valuetransferencoding.jsonField, allowArrays) match {
+          case Left(s) ⇒ body.copy(valuetransferencoding = Some(s))
+          case Right(xs) ⇒ body.copy(valuetransferencodings = Some(xs))
+        }
+      case JsonField.value.jsonField ⇒
+        stringOrStringsOf(parser, JsonField.value.jsonField, allowArrays) match {
+          case Left(s) ⇒ body.copy(value = Some(s))
+          case Right(xs) ⇒ body.copy(values = Some(xs))
+        }
+      case JsonField.serialize.jsonField ⇒
+        body.copy(serialize = Some(stringOf(parser, JsonField.serialize.jsonField)))
+      case JsonField.deserialize.jsonField ⇒
+        body.copy(deserialize = Some(stringOf(parser, JsonField.deserialize.jsonField)))
+      case JsonField.deserializevalue.jsonField ⇒
+        body.copy(deserializevalue = Some(stringOrJsonOf(parser, JsonField.deserializevalue.jsonField)))
+      case JsonField.copy.jsonField ⇒
+        body.copy(copyFrom = Some(stringOf(parser, JsonField.copy.jsonField)))
+      case JsonField.move.jsonField ⇒
+        body.copy(moveFrom = Some(stringOf(parser, JsonField.move.jsonField)))
+      case JsonField.reference.jsonField ⇒
+        body.copy(referenceTo = Some(stringOf(parser, JsonField.reference.jsonField)))
+      case _ ⇒
+        parser.nextToken()
+        parser.skipChildren()
+        body
+    }
+
+  /**
+   * Parses `body`, which must be a JSON object. An empty body is parsed as an empty object.
+   * Arrays of values are only accepted if `allowArrays`, i.e. when enqueueing.
+   */
+  def parse(body: Buf, allowArrays: Boolean = false): CdmiRequestBody =
+    if(body.isEmpty) {
+      CdmiRequestBody()
+    }
+    else {
+      val bytes = Buf.ByteArray.Owned.extract(body)
+      val parser = CdmiJson.Factory.createParser(bytes)
+      try {
+        if(parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new JsonParseException("Expected a JSON object", parser.getCurrentLocation)
+        }
+
+        var result = CdmiRequestBody()
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+          result = parseField(parser, result, allowArrays)
+        }
+        result
+      }
+      finally parser.close()
+    }
+}
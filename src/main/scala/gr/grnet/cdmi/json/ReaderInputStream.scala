@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.json
+
+import java.io.InputStream
+
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.Await
+
+/**
+ * An [[java.io.InputStream]] over `reader`, for the blocking Jackson parser. It blocks until `reader` gives
+ * the next chunk, so it must only be read off the Finagle threads.
+ *
+ * Reading fails with a [[gr.grnet.cdmi.json.BodyTooLargeException]] after `maxBytes` bytes, not counting those
+ * read `unlimited`. Closing the stream discards `reader`.
+ */
+final class ReaderInputStream(reader: Reader, chunkSize: Int, maxBytes: Long = Long.MaxValue) extends InputStream {
+  private[this] var chunk: Buf = Buf.Empty
+  private[this] var done = false
+  private[this] var counted = 0L
+  private[this] var isLimited = true
+
+  private[this] def fill(): Boolean = {
+    while(chunk.isEmpty && !done) {
+      Await.result(reader.read(chunkSize)) match {
+        case Some(buf) ⇒ chunk = buf
+        case None ⇒ done = true
+      }
+    }
+    !done || !chunk.isEmpty
+  }
+
+  /**
+   * Runs `f` without counting what it reads towards `maxBytes`.
+   */
+  def unlimited[A](f: ⇒ A): A = {
+    isLimited = false
+    try f finally isLimited = true
+  }
+
+  override def read(): Int = {
+    val b = new Array[Byte](1)
+    if(read(b, 0, 1) == -1) -1 else b(0) & 0xFF
+  }
+
+  override def read(b: Array[Byte], off: Int, len: Int): Int =
+    if(len == 0) 0
+    else if(!fill()) -1
+    else {
+      val n = math.min(len, chunk.length)
+      if(isLimited) {
+        counted += n
+        if(counted > maxBytes) { throw new BodyTooLargeException(maxBytes) }
+      }
+      chunk.slice(0, n).write(b, off)
+      chunk = chunk.slice(n, chunk.length)
+      n
+    }
+
+  override def close(): Unit = reader.discard()
+}
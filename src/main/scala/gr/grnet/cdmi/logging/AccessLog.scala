@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.logging
+
+import java.io.{BufferedWriter, FileOutputStream, OutputStreamWriter, Writer}
+import java.lang.StringBuilder
+import java.net.{InetSocketAddress, SocketAddress}
+import java.nio.charset.StandardCharsets
+import java.text.SimpleDateFormat
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+import java.util.{Date, TimeZone}
+
+import com.twitter.logging.Logger
+
+/**
+ * An access log that keeps request handling out of formatting and I/O.
+ *
+ * Requests `record` their fields into one of `capacity` preallocated entries of a ring buffer and go on.
+ * A single background thread formats the published entries, one line each, and hands them to the `sink`
+ * in batches of up to `batchSize`. When the ring is full, the `overflow` policy decides whether new
+ * entries are dropped or wait. Only a `sampling` fraction of the requests is recorded.
+ *
+ * A line reads:
+ * {{{
+ * 2015-04-20T10:15:30.123+0000 10.0.0.1:53120 Get /container/object 200 1024 'text/plain' 1.1 523us
+ * }}}
+ * where a missing content length, content type or CDMI version shows as `-`.
+ */
+final class AccessLog(
+  capacity: Int,
+  overflow: OverflowPolicy,
+  sampling: Double,
+  sink: AccessLog.Sink,
+  batchSize: Int = AccessLog.DefaultBatchSize
+) {
+  import AccessLog._
+
+  val ringSize: Int = Integer.highestOneBit(math.max(2, capacity) - 1) << 1
+
+  private[this] val mask = ringSize - 1
+  private[this] val entries = Array.fill(ringSize)(new Entry)
+  private[this] val claimed = new AtomicLong()
+  private[this] val consumed = new AtomicLong()
+  private[this] val droppedCount = new AtomicLong()
+  @volatile private[this] var running = true
+
+  private[this] val writer = new Thread(new Runnable { def run(): Unit = drain() }, "cdmi-access-log")
+  writer.setDaemon(true)
+  writer.start()
+
+  /**
+   * The number of entries dropped because the ring was full.
+   */
+  def dropped: Long = droppedCount.get()
+
+  private[this] def isSampled: Boolean = sampling >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampling
+
+  // Returns the claimed sequence or -1 if there is no room and we do not wait for it.
+  private[this] def claim(): Long = {
+    var result = Unclaimed
+    while(result == Unclaimed) {
+      val sequence = claimed.get()
+      if(sequence - consumed.get() >= ringSize) {
+        if(overflow == OverflowPolicy.Drop || !running) result = -1L
+        else LockSupport.parkNanos(BlockedParkNanos)
+      }
+      else if(claimed.compareAndSet(sequence, sequence + 1)) {
+        result = sequence
+      }
+    }
+    result
+  }
+
+  /**
+   * Records one request. Returns `false` if the request was not sampled or the entry was dropped.
+   */
+  def record(
+    remoteAddress: SocketAddress,
+    method: String,
+    uri: String,
+    status: Int,
+    contentLength: Long,
+    contentType: String,
+    cdmiVersion: String,
+    durationNanos: Long
+  ): Boolean =
+    isSampled && {
+      val sequence = claim()
+      if(sequence < 0) {
+        droppedCount.incrementAndGet()
+        false
+      }
+      else {
+        val entry = entries((sequence & mask).toInt)
+        entry.timestamp = System.currentTimeMillis()
+        entry.remoteAddress = remoteAddress
+        entry.method = method
+        entry.uri = uri
+        entry.status = status
+        entry.contentLength = contentLength
+        entry.contentType = contentType
+        entry.cdmiVersion = cdmiVersion
+        entry.durationNanos = durationNanos
+        entry.sequence = sequence // publishes the entry to the writer
+        true
+      }
+    }
+
+  private[this] def drain(): Unit = {
+    val dateFormat = new SimpleDateFormat(TimestampPattern)
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"))
+    val date = new Date()
+    val lines = new StringBuilder(batchSize * 128)
+    var cursor = consumed.get()
+
+    while(running || cursor < claimed.get()) {
+      var count = 0
+      var entry = entries((cursor & mask).toInt)
+      while(count < batchSize && entry.sequence == cursor) {
+        date.setTime(entry.timestamp)
+        entry.formatTo(lines, dateFormat.format(date))
+        entry.clear()
+        cursor += 1
+        consumed.lazySet(cursor)
+        count += 1
+        entry = entries((cursor & mask).toInt)
+      }
+
+      if(count > 0) {
+        try sink.write(lines)
+        catch { case e: Exception ⇒ Logger.get(getClass).error(e, "Could not write the access log") }
+        lines.setLength(0)
+      }
+      else {
+        LockSupport.parkNanos(IdleParkNanos)
+      }
+    }
+  }
+
+  /**
+   * Writes out what has been recorded so far and stops the background writer.
+   */
+  def close(): Unit = {
+    running = false
+    writer.join()
+    sink.close()
+  }
+}
+
+object AccessLog {
+  final val DefaultBatchSize = 256
+  final val TimestampPattern = "yyyy-MM-dd'T'HH:mm:ss.SSSZ"
+
+  private final val Unclaimed = -2L
+  private final val IdleParkNanos = 1000L * 1000L
+  private final val BlockedParkNanos = 50L * 1000L
+
+  /**
+   * Where formatted lines go. It is only ever called from the background writer.
+   */
+  trait Sink {
+    def write(lines: CharSequence): Unit
+    def close(): Unit = {}
+  }
+
+  /**
+   * Appends to `writer`, flushing after each batch.
+   */
+  def writerSink(writer: Writer): Sink =
+    new Sink {
+      def write(lines: CharSequence): Unit = {
+        writer.append(lines)
+        writer.flush()
+      }
+
+      override def close(): Unit = writer.close()
+    }
+
+  def fileSink(path: String): Sink =
+    writerSink(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8)))
+
+  /**
+   * Logs each line at `INFO`.
+   */
+  def loggerSink(log: Logger): Sink =
+    new Sink {
+      def write(lines: CharSequence): Unit = {
+        var start = 0
+        var i = 0
+        while(i < lines.length()) {
+          if(lines.charAt(i) == '\n') {
+            log.info(lines.subSequence(start, i).toString)
+            start = i + 1
+          }
+          i += 1
+        }
+      }
+    }
+
+  private final class Entry {
+    @volatile var sequence = -1L
+    var timestamp = 0L
+    var remoteAddress: SocketAddress = _
+    var method: String = _
+    var uri: String = _
+    var status = 0
+    var contentLength = -1L
+    var contentType: String = _
+    var cdmiVersion: String = _
+    var durationNanos = 0L
+
+    def clear(): Unit = {
+      remoteAddress = null
+      method = null
+      uri = null
+      contentType = null
+      cdmiVersion = null
+    }
+
+    private[this] def orDash(sb: StringBuilder, s: String): StringBuilder =
+      if(s eq null) sb.append('-') else sb.append(s)
+
+    def formatTo(sb: StringBuilder, timestamp: String): Unit = {
+      sb.append(timestamp).append(' ')
+      remoteAddress match {
+        case address: InetSocketAddress if address.getAddress ne null ⇒
+          sb.append(address.getAddress.getHostAddress).append(':').append(address.getPort)
+        case null ⇒
+          sb.append('-')
+        case address ⇒
+          sb.append(address)
+      }
+      sb.append(' ')
+      orDash(sb, method).append(' ')
+      orDash(sb, uri).append(' ')
+      sb.append(status).append(' ')
+      if(contentLength < 0) sb.append('-') else sb.append(contentLength)
+      sb.append(' ')
+      if(contentType eq null) sb.append('-') else sb.append('\'').append(contentType).append('\'')
+      sb.append(' ')
+      orDash(sb, cdmiVersion).append(' ')
+      sb.append(durationNanos / 1000L).append("us\n")
+    }
+  }
+}
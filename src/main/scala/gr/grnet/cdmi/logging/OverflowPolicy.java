@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.logging;
+
+/**
+ * What an {@link AccessLog} does with a new entry when its buffer is full.
+ */
+public enum OverflowPolicy {
+    /** The entry is dropped and counted. Requests never wait for the log. */
+    Drop,
+
+    /** The request waits until the background writer makes room. No entry is lost. */
+    Block,
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.metrics
+
+import java.util.concurrent.atomic.{AtomicLong, AtomicLongArray}
+
+/**
+ * A lock-free histogram of non-negative values, kept in a fixed number of log-linear buckets.
+ * Values below 16 are exact; larger ones fall in one of 16 buckets per power of two, which bounds the
+ * error of the reported percentiles to about 6%, whatever the number of recorded values.
+ */
+final class BucketedHistogram {
+  import BucketedHistogram._
+
+  private[this] val buckets = new AtomicLongArray(BucketCount)
+  private[this] val sumRef = new AtomicLong()
+  private[this] val minRef = new AtomicLong(Long.MaxValue)
+  private[this] val maxRef = new AtomicLong(Long.MinValue)
+
+  def add(value: Long): Unit = {
+    val v = math.max(0L, value)
+    buckets.incrementAndGet(indexOf(v))
+    sumRef.addAndGet(v)
+
+    var min = minRef.get()
+    while(v < min && !minRef.compareAndSet(min, v)) { min = minRef.get() }
+    var max = maxRef.get()
+    while(v > max && !maxRef.compareAndSet(max, v)) { max = maxRef.get() }
+  }
+
+  def snapshot: Snapshot = {
+    val counts = new Array[Long](BucketCount)
+    var count = 0L
+    var i = 0
+    while(i < BucketCount) {
+      counts(i) = buckets.get(i)
+      count += counts(i)
+      i += 1
+    }
+
+    if(count == 0) Snapshot.Empty
+    else Snapshot(count, sumRef.get(), minRef.get(), maxRef.get(), counts)
+  }
+}
+
+object BucketedHistogram {
+  final val SubBucketBits = 4
+  final val SubBuckets = 1 << SubBucketBits
+  final val BucketCount = (64 - SubBucketBits) * SubBuckets
+
+  def indexOf(value: Long): Int =
+    if(value < SubBuckets) value.toInt
+    else {
+      val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      val shift = exponent - SubBucketBits
+      (shift + 1) * SubBuckets + ((value >>> shift) & (SubBuckets - 1)).toInt
+    }
+
+  def lowerBoundOf(index: Int): Long =
+    if(index < SubBuckets) index.toLong
+    else {
+      val shift = index / SubBuckets - 1
+      (SubBuckets + index % SubBuckets).toLong << shift
+    }
+
+  def upperBoundOf(index: Int): Long =
+    if(index < SubBuckets) index.toLong
+    else lowerBoundOf(index) + (1L << (index / SubBuckets - 1)) - 1
+
+  final case class Snapshot(count: Long, sum: Long, min: Long, max: Long, counts: Array[Long]) {
+    def average: Double = if(count == 0) 0.0 else sum.toDouble / count
+
+    /**
+     * The value below which the fraction `q` of the recorded values falls, estimated by the middle
+     * of the bucket that holds it.
+     */
+    def percentile(q: Double): Long =
+      if(count == 0) 0L
+      else {
+        val rank = math.max(1L, math.ceil(q * count).toLong)
+        var seen = 0L
+        var i = 0
+        while(i < counts.length && seen + counts(i) < rank) {
+          seen += counts(i)
+          i += 1
+        }
+        val middle = (lowerBoundOf(i) + upperBoundOf(i)) / 2
+        math.max(min, math.min(max, middle))
+      }
+  }
+
+  object Snapshot {
+    final val Empty = Snapshot(0L, 0L, 0L, 0L, new Array[Long](0))
+  }
+}
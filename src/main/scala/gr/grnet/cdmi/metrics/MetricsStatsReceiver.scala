@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.metrics
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.twitter.finagle.stats.{Counter, Stat, StatsReceiverWithCumulativeGauges}
+import com.twitter.io.Buf
+import gr.grnet.cdmi.json.CdmiJson
+
+import scala.collection.JavaConverters._
+
+/**
+ * A [[com.twitter.finagle.stats.StatsReceiver]] that keeps what it receives in memory, so that it can be
+ * served from an admin endpoint. Counters are atomic longs, stats go to [[gr.grnet.cdmi.metrics.BucketedHistogram]]s
+ * of bounded size and gauges are read when a snapshot is taken.
+ *
+ * Metrics are looked up by name only when they are created; callers are expected to keep the returned
+ * [[com.twitter.finagle.stats.Counter]]s and [[com.twitter.finagle.stats.Stat]]s around.
+ */
+final class MetricsStatsReceiver extends StatsReceiverWithCumulativeGauges {
+  val repr: AnyRef = this
+
+  private[this] val counters = new ConcurrentHashMap[String, AtomicLong]()
+  private[this] val histograms = new ConcurrentHashMap[String, BucketedHistogram]()
+  private[this] val gaugeFunctions = new ConcurrentHashMap[String, () ⇒ Float]()
+
+  private[this] def keyOf(name: Seq[String]): String = name.mkString("/")
+
+  private[this] def getOrCreate[A](map: ConcurrentHashMap[String, A], key: String, create: ⇒ A): A =
+    map.get(key) match {
+      case null ⇒
+        val created = create
+        map.putIfAbsent(key, created) match {
+          case null ⇒ created
+          case existing ⇒ existing
+        }
+
+      case existing ⇒
+        existing
+    }
+
+  def counter(name: String*): Counter = {
+    val value = getOrCreate(counters, keyOf(name), new AtomicLong())
+    new Counter {
+      def incr(delta: Int): Unit = value.addAndGet(delta)
+    }
+  }
+
+  def stat(name: String*): Stat = {
+    val histogram = getOrCreate(histograms, keyOf(name), new BucketedHistogram)
+    new Stat {
+      def add(value: Float): Unit = histogram.add(math.round(value.toDouble))
+    }
+  }
+
+  protected[this] def registerGauge(name: Seq[String], f: ⇒ Float): Unit =
+    gaugeFunctions.put(keyOf(name), () ⇒ f)
+
+  protected[this] def deregisterGauge(name: Seq[String]): Unit =
+    gaugeFunctions.remove(keyOf(name))
+
+  /**
+   * Writes all metrics as one flat JSON object, sorted by name. Histograms are expanded to their
+   * `.count`, `.sum`, `.avg`, `.min`, `.max` and percentile entries.
+   */
+  def writeJson(gen: JsonGenerator): Unit = {
+    gen.writeStartObject()
+
+    val names =
+      (counters.keySet.asScala ++ histograms.keySet.asScala ++ gaugeFunctions.keySet.asScala).toVector.sorted
+
+    for(name ← names) {
+      counters.get(name) match {
+        case null ⇒
+        case value ⇒ gen.writeNumberField(name, value.get())
+      }
+
+      gaugeFunctions.get(name) match {
+        case null ⇒
+        case f ⇒ gen.writeNumberField(name, f())
+      }
+
+      histograms.get(name) match {
+        case null ⇒
+        case histogram ⇒
+          val snapshot = histogram.snapshot
+          gen.writeNumberField(s"$name.count", snapshot.count)
+          gen.writeNumberField(s"$name.sum", snapshot.sum)
+          gen.writeNumberField(s"$name.avg", snapshot.average)
+          gen.writeNumberField(s"$name.min", snapshot.min)
+          gen.writeNumberField(s"$name.max", snapshot.max)
+          for((suffix, q) ← MetricsStatsReceiver.Percentiles) {
+            gen.writeNumberField(s"$name.$suffix", snapshot.percentile(q))
+          }
+      }
+    }
+
+    gen.writeEndObject()
+  }
+
+  def toJson: Buf = CdmiJson.encode(writeJson(_))
+}
+
+object MetricsStatsReceiver {
+  final val Percentiles = Vector("p50" → 0.5, "p90" → 0.9, "p99" → 0.99, "p999" → 0.999)
+}
@@ -53,4 +53,23 @@ object CapabilityModel {
       childrenRange = if(children.size == 0) "0-0" else s"0-${children.size - 1}",
       children = children
     )
+
+  def childOf(
+    objectName: String,
+    children: List[String] = Nil,
+    parentID: String = "",
+    parentURI: String = "/cdmi_capabilities/",
+    objectID: String = "",
+    capabilities: Map[ICapability, String] = Map()
+  ) =
+    CapabilityModel(
+      objectType = CdmiMediaType.Application_CdmiCapability.value(),
+      objectID = objectID,
+      objectName = objectName,
+      parentURI = parentURI,
+      parentID = parentID,
+      capabilities = capabilities,
+      childrenRange = if(children.size == 0) "0-0" else s"0-${children.size - 1}",
+      children = children
+    )
 }
@@ -29,6 +29,7 @@ case class ContainerModel(
   domainURI: String,
   capabilitiesURI: String = "/cdmi_capabilities/container/",
   completionStatus: String = "Complete",
+  percentComplete: String = "", // only while completionStatus is "Processing"
   metadata: Map[String, String] = Map(),
   childrenrange: String,
   children: Seq[String]
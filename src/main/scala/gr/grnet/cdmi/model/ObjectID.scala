@@ -15,7 +15,102 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package gr.grnet.cdmi.model
 
-case class ObjectID(payload: Array[Byte])
+import gr.grnet.cdmi.objectid.{Crc16, Hex}
+
+/**
+ * A CDMI object ID in its binary form, see Section 5.10 of CDMI 1.0.2.
+ * The `payload` has the [[gr.grnet.cdmi.model.ObjectIDLayout]]: a reserved byte, the 3-byte enterprise number,
+ * another reserved byte, the total length, the 2-byte CRC and up to 32 bytes of data.
+ */
+case class ObjectID(payload: Array[Byte]) extends ObjectIDLayout {
+  import ObjectID._
+
+  def reserved0: Byte = payload(0)
+
+  def enterpriseNumber: Int =
+    ((payload(1) & 0xFF) << 16) | ((payload(2) & 0xFF) << 8) | (payload(3) & 0xFF)
+
+  def reserved4: Byte = payload(4)
+
+  def length: Byte = payload(5)
+
+  def crc: Int = ((payload(CrcOffset) & 0xFF) << 8) | (payload(CrcOffset + 1) & 0xFF)
+
+  def data: Array[Byte] = java.util.Arrays.copyOfRange(payload, DataOffset, payload.length)
+
+  /**
+   * `true` iff the length and the CRC agree with the payload.
+   */
+  def isValid: Boolean =
+    payload.length >= MinLength &&
+    payload.length <= MaxLength &&
+    (length & 0xFF) == payload.length &&
+    crc == crcOf(payload)
+
+  def toHex: String = Hex.encode(payload)
+
+  override def equals(other: Any): Boolean =
+    other match {
+      case that: ObjectID ⇒ java.util.Arrays.equals(payload, that.payload)
+      case _ ⇒ false
+    }
+
+  override def hashCode(): Int = java.util.Arrays.hashCode(payload)
+
+  override def toString: String = s"ObjectID($toHex)"
+}
+
+object ObjectID {
+  final val CrcOffset = 6
+  final val DataOffset = 8
+  final val MaxDataLength = 32
+  final val MinLength = DataOffset
+  final val MaxLength = DataOffset + MaxDataLength
+
+  /**
+   * The CRC of `payload`, computed with the CRC field taken as zero.
+   */
+  def crcOf(payload: Array[Byte]): Int = {
+    var crc = Crc16.of(payload, 0, CrcOffset)
+    crc = Crc16.update(crc, 0)
+    crc = Crc16.update(crc, 0)
+    if(payload.length > DataOffset) {
+      var i = DataOffset
+      while(i < payload.length) {
+        crc = Crc16.update(crc, payload(i))
+        i += 1
+      }
+    }
+    crc
+  }
+
+  /**
+   * Packs `data` into an object ID of the given enterprise number and computes its CRC.
+   */
+  def apply(enterpriseNumber: Int, data: Array[Byte]): ObjectID = {
+    require(data.length <= MaxDataLength, s"Object ID data longer than $MaxDataLength bytes")
+
+    val payload = new Array[Byte](DataOffset + data.length)
+    payload(1) = (enterpriseNumber >>> 16).toByte
+    payload(2) = (enterpriseNumber >>> 8).toByte
+    payload(3) = enterpriseNumber.toByte
+    payload(5) = payload.length.toByte
+    System.arraycopy(data, 0, payload, DataOffset, data.length)
+    val crc = crcOf(payload)
+    payload(CrcOffset) = (crc >>> 8).toByte
+    payload(CrcOffset + 1) = crc.toByte
+    ObjectID(payload)
+  }
 
+  /**
+   * Decodes a valid object ID from its hex form.
+   */
+  def fromHex(hex: String): Option[ObjectID] =
+    for {
+      payload ← Hex.decode(hex)
+      objectID = ObjectID(payload) if objectID.isValid
+    } yield objectID
+}
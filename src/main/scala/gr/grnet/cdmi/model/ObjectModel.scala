@@ -28,6 +28,7 @@ case class ObjectModel(
   domainURI: String,
   capabilitiesURI: String = "/cdmi_capabilities/dataobject/",
   completionStatus: String = "Complete",
+  percentComplete: String = "", // only while completionStatus is "Processing"
   mimetype: String,
   metadata: Map[String, String], // e.g. cdmi_size
   valuetransferencoding: String, // "utf-8" or "base64"
@@ -17,5 +17,22 @@
 
 package gr.grnet.cdmi.model
 
-class QueueModel
+import gr.grnet.cdmi.http.CdmiMediaType
 
+/**
+ * A queue object, without its values, which are written separately.
+ *
+ * @note Section 11.3.7 of CDMI 1.0.2: Response Message Body
+ */
+case class QueueModel(
+  objectType: String = CdmiMediaType.Application_CdmiQueue.value(),
+  objectID: String,
+  objectName: String,
+  parentURI: String,
+  parentID: String,
+  domainURI: String,
+  capabilitiesURI: String = "/cdmi_capabilities/queue/",
+  completionStatus: String = "Complete",
+  metadata: Map[String, String] = Map(),
+  queueValues: String
+)
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.notification
+
+import gr.grnet.cdmi.query.QueryDocument
+
+/**
+ * A change of the data object or container at `indexPath`, as captured from the store.
+ *
+ * The `document` of a deleted entry only knows what its `indexPath` and `objectID` tell: its name, its type and
+ * its parent's URI. Conditions on its metadata or media type do not hold for it.
+ */
+final case class Notification(event: NotificationEvent, document: QueryDocument, indexPath: String, time: Long)
+
+object Notification {
+  def deleted(objectID: String, indexPath: String, time: Long): Notification = {
+    val isContainer = indexPath.endsWith("/")
+    val name = indexPath.substring(QueryDocument.parentURIOf(indexPath).length)
+
+    Notification(
+      NotificationEvent.Delete,
+      QueryDocument(objectID, isContainer, name, "", "", Map(), 0L),
+      indexPath,
+      time
+    )
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.notification;
+
+/**
+ * The kinds of change that a notification queue can ask for in its {@code cdmi_notification_events},
+ * by their {@code jsonName}. A moved entry is deleted where it was and created where it is now.
+ */
+public enum NotificationEvent {
+    Create("cdmi_create"),
+    Modify("cdmi_modify"),
+    Delete("cdmi_delete");
+
+    public final String jsonName;
+
+    NotificationEvent(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    public static NotificationEvent ofJsonName(String jsonName) {
+        for(NotificationEvent event : values()) {
+            if(event.jsonName.equals(jsonName)) {
+                return event;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.notification
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+import com.twitter.logging.Logger
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+/**
+ * Delivers [[gr.grnet.cdmi.notification.Notification]]s to the notification queues that subscribed to them.
+ *
+ * The threads that change the store `publish` into one of `capacity` slots of a ring buffer and go on, without
+ * locking and without ever waiting: when the ring is full, the notification is dropped and every subscription
+ * is overflowed. A single background dispatcher takes up to `batchSize` published notifications at a time,
+ * matches each against the candidates that the [[gr.grnet.cdmi.notification.SubscriptionIndex]] gives, and then
+ * enqueues what each subscription got from them as one batch. A subscription whose queue is full is overflowed,
+ * see [[gr.grnet.cdmi.notification.Subscription]], and `overflowed` is called for it once, from the dispatcher.
+ *
+ * Nothing is published while there are no subscriptions.
+ */
+final class NotificationHub(
+  capacity: Int,
+  batchSize: Int,
+  domainURI: String,
+  overflowed: Subscription ⇒ Unit
+) {
+  import NotificationHub._
+
+  val ringSize: Int = Integer.highestOneBit(math.max(2, capacity) - 1) << 1
+
+  private[this] val log = Logger.get(getClass)
+  private[this] val mask = ringSize - 1
+  private[this] val slots = Array.fill(ringSize)(new Slot)
+  private[this] val claimed = new AtomicLong()
+  private[this] val consumed = new AtomicLong()
+  private[this] val lostCount = new AtomicLong()
+  private[this] val subscriptions = new SubscriptionIndex
+  @volatile private[this] var running = true
+
+  private[this] val dispatcher = new Thread(new Runnable { def run(): Unit = drain() }, "cdmi-notifications")
+  dispatcher.setDaemon(true)
+  dispatcher.start()
+
+  def subscribe(subscription: Subscription): Unit = subscriptions.add(subscription)
+
+  def unsubscribe(objectID: String): Unit = subscriptions.remove(objectID)
+
+  def subscription(objectID: String): Option[Subscription] = subscriptions.get(objectID)
+
+  def isListening: Boolean = running && !subscriptions.isEmpty
+
+  /**
+   * The number of notifications dropped because the ring was full.
+   */
+  def lost: Long = lostCount.get()
+
+  /**
+   * Hands `notification` to the dispatcher. Returns `false` if it was dropped, or nobody is listening.
+   */
+  def publish(notification: Notification): Boolean =
+    isListening && {
+      var sequence = Unclaimed
+      while(sequence == Unclaimed) {
+        val next = claimed.get()
+        if(next - consumed.get() >= ringSize) sequence = -1L
+        else if(claimed.compareAndSet(next, next + 1)) sequence = next
+      }
+
+      if(sequence < 0) {
+        lostCount.incrementAndGet()
+        false
+      }
+      else {
+        val slot = slots((sequence & mask).toInt)
+        slot.notification = notification
+        slot.sequence = sequence // publishes the slot to the dispatcher
+        true
+      }
+    }
+
+  private[this] def overflow(subscription: Subscription): Unit =
+    if(subscription.overflowed()) {
+      try overflowed(subscription)
+      catch { case NonFatal(e) ⇒ log.error(e, s"Could not report the overflow of $subscription") }
+    }
+
+  private[this] def dispatch(notification: Notification, touched: mutable.Set[Subscription]): Unit =
+    subscriptions.candidates(notification.indexPath) { subscription ⇒
+      if(subscription.matches(notification, domainURI)) {
+        if(subscription.offer(subscription.render(notification, domainURI))) touched += subscription
+        else overflow(subscription)
+      }
+    }
+
+  private[this] def deliver(subscription: Subscription): Unit =
+    if(subscription.queue.isDeleted) subscriptions.remove(subscription.objectID)
+    else {
+      try subscription.flush()
+      catch { case NonFatal(e) ⇒ log.error(e, s"Could not deliver to $subscription") }
+    }
+
+  private[this] def drain(): Unit = {
+    val touched = mutable.LinkedHashSet[Subscription]()
+    var cursor = consumed.get()
+    var lostSoFar = 0L
+
+    while(running || cursor < claimed.get()) {
+      var count = 0
+      var slot = slots((cursor & mask).toInt)
+      while(count < batchSize && slot.sequence == cursor) {
+        try dispatch(slot.notification, touched)
+        catch { case NonFatal(e) ⇒ log.error(e, s"Could not dispatch ${slot.notification}") }
+        slot.notification = null
+        cursor += 1
+        consumed.lazySet(cursor)
+        count += 1
+        slot = slots((cursor & mask).toInt)
+      }
+
+      val lostNow = lostCount.get()
+      if(lostNow > lostSoFar) {
+        for(subscription ← subscriptions.all) {
+          subscription.lost(lostNow - lostSoFar)
+          overflow(subscription)
+        }
+        lostSoFar = lostNow
+      }
+
+      if(touched.nonEmpty) {
+        touched.foreach(deliver)
+        touched.clear()
+      }
+      else if(count == 0) {
+        LockSupport.parkNanos(IdleParkNanos)
+      }
+    }
+  }
+
+  /**
+   * Delivers what has been published so far and stops the dispatcher.
+   */
+  def close(): Unit = {
+    running = false
+    dispatcher.join()
+  }
+}
+
+object NotificationHub {
+  final val DefaultBatchSize = 256
+
+  private final val Unclaimed = -2L
+  private final val IdleParkNanos = 1000L * 1000L
+
+  private final class Slot {
+    @volatile var sequence = -1L
+    var notification: Notification = _
+  }
+}
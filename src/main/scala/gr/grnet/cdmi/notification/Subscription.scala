@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.notification
+
+import java.util.concurrent.atomic.AtomicLong
+
+import com.fasterxml.jackson.core.{JsonLocation, JsonParseException, JsonToken}
+import com.twitter.io.Buf
+import gr.grnet.cdmi.json.CdmiJson
+import gr.grnet.cdmi.query._
+import gr.grnet.cdmi.queue.CdmiQueue
+
+/**
+ * What a notification queue asks for: the `events` of the data objects and containers in `scope`, each enqueued
+ * into `queue` as a JSON object with the `event` and the fields that `results` names.
+ *
+ * The queue is the buffer of the subscription and holds at most `limit` values that its readers have not removed.
+ * A notification that finds it full is dropped, and the subscription is overflowed from then on, so that its readers
+ * can tell that they missed some. Only the dispatcher of the [[gr.grnet.cdmi.notification.NotificationHub]] offers
+ * and delivers notifications.
+ *
+ * @note Section 21 of CDMI 1.0.2: Notification Queues
+ */
+final class Subscription(
+  val queue: CdmiQueue,
+  val events: Set[NotificationEvent],
+  val scope: QueryScope,
+  val results: ResultsSpecification,
+  val limit: Long
+) {
+  def objectID: String = queue.objectID
+
+  /**
+   * The URI of the container that everything in `scope` is under, e.g. `/photos/` for `"parentURI": "starts /photos/"`.
+   */
+  val prefix: String = Subscription.prefixOf(scope)
+
+  private[this] val deliveredCount = new AtomicLong()
+  private[this] val droppedCount = new AtomicLong()
+  @volatile private[this] var overflow = false
+
+  private[this] val pending = Vector.newBuilder[(String, Buf)]
+  private[this] var pendingCount = 0
+
+  def delivered: Long = deliveredCount.get()
+
+  def dropped: Long = droppedCount.get()
+
+  def isOverflowed: Boolean = overflow
+
+  def matches(notification: Notification, domainURI: String): Boolean =
+    events.contains(notification.event) && scope.matches(notification.document, notification.indexPath, domainURI)
+
+  def render(notification: Notification, domainURI: String): Buf =
+    CdmiJson.encode { gen ⇒
+      gen.writeStartObject()
+      gen.writeStringField(Subscription.EventField, notification.event.jsonName)
+      results.writeFields(gen, notification.document, notification.indexPath, domainURI)
+      gen.writeEndObject()
+    }
+
+  /**
+   * Adds `value` to the next batch, unless that would take the queue over `limit`.
+   */
+  private[notification] def offer(value: Buf): Boolean =
+    if(queue.size + pendingCount >= limit) {
+      droppedCount.incrementAndGet()
+      false
+    }
+    else {
+      pending += ((Subscription.Mimetype, value))
+      pendingCount += 1
+      true
+    }
+
+  /**
+   * Counts `count` notifications that were dropped before they could be matched.
+   */
+  private[notification] def lost(count: Long): Unit = droppedCount.addAndGet(count)
+
+  /**
+   * Marks the subscription overflowed. The result is `true` iff it was not already.
+   */
+  private[notification] def overflowed(): Boolean =
+    if(overflow) false
+    else {
+      overflow = true
+      true
+    }
+
+  /**
+   * Enqueues the next batch.
+   */
+  private[notification] def flush(): Unit =
+    if(pendingCount > 0) {
+      val batch = pending.result()
+      pending.clear()
+      pendingCount = 0
+      queue.enqueue(batch)
+      deliveredCount.addAndGet(batch.size)
+    }
+
+  override def toString: String = s"Subscription($objectID, ${events.map(_.jsonName).mkString(",")}, $scope)"
+}
+
+object Subscription {
+  final val Mimetype = "application/json"
+  final val EventField = "event"
+
+  final val AllEvents: Set[NotificationEvent] = NotificationEvent.values().toSet
+
+  /**
+   * Parses `json`, a JSON array of event names, e.g. `["cdmi_create", "cdmi_delete"]`.
+   */
+  def eventsOf(json: String): Set[NotificationEvent] = {
+    val parser = CdmiJson.Factory.createParser(json)
+    try {
+      if(parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException("Expected an array of notification events", parser.getCurrentLocation)
+      }
+
+      val events = Set.newBuilder[NotificationEvent]
+      while(parser.nextToken() == JsonToken.VALUE_STRING) {
+        NotificationEvent.ofJsonName(parser.getText) match {
+          case null ⇒ throw new JsonParseException(s"Unknown notification event '${parser.getText}'", JsonLocation.NA)
+          case event ⇒ events += event
+        }
+      }
+      if(parser.getCurrentToken != JsonToken.END_ARRAY) {
+        throw new JsonParseException("Expected an array of notification events", parser.getCurrentLocation)
+      }
+      events.result()
+    }
+    finally parser.close()
+  }
+
+  // The container that a `parentURI` condition keeps a clause under, if it is an `==` or `starts` one
+  private[this] def parentURIOf(condition: QueryCondition): Option[String] =
+    condition.operator match {
+      case QueryOperator.Equal | QueryOperator.Starts
+        if condition.field == QueryField.ParentURI && condition.operand.startsWith("/") ⇒
+        Some(condition.operand.substring(0, condition.operand.lastIndexOf('/') + 1))
+      case _ ⇒
+        None
+    }
+
+  def containerOf(clause: QueryClause): String =
+    clause.conditions.flatMap(parentURIOf).sortBy(-_.length).headOption.getOrElse("/")
+
+  /**
+   * The longest URI of a container that all the clauses of `scope` are under.
+   */
+  def prefixOf(scope: QueryScope): String =
+    scope.clauses.map(containerOf) match {
+      case Seq() ⇒ "/"
+      case prefixes ⇒
+        val common = prefixes.reduce { (a, b) ⇒
+          var i = 0
+          while(i < a.length && i < b.length && a.charAt(i) == b.charAt(i)) i += 1
+          a.substring(0, i)
+        }
+        common.substring(0, common.lastIndexOf('/') + 1)
+    }
+}
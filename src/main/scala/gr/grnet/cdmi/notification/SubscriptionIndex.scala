@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.notification
+
+import gr.grnet.cdmi.query.QueryDocument
+
+/**
+ * The [[gr.grnet.cdmi.notification.Subscription]]s of a [[gr.grnet.cdmi.notification.NotificationHub]], keyed by
+ * their `prefix`. The candidates for a notification are those under the containers on the way to it, so matching one
+ * costs as many lookups as the entry is deep, plus one test per candidate, however many subscriptions there are.
+ *
+ * Subscribing is rare and copies the maps. Lookups read them without locking.
+ */
+final class SubscriptionIndex {
+  @volatile private[this] var byPrefix = Map.empty[String, Vector[Subscription]]
+  @volatile private[this] var byID = Map.empty[String, Subscription]
+
+  def isEmpty: Boolean = byID.isEmpty
+
+  def size: Int = byID.size
+
+  def all: Iterable[Subscription] = byID.values
+
+  def get(objectID: String): Option[Subscription] = byID.get(objectID)
+
+  /**
+   * Adds `subscription`, in place of any other one of the same queue.
+   */
+  def add(subscription: Subscription): Unit =
+    synchronized {
+      remove(subscription.objectID)
+      val prefix = subscription.prefix
+      byPrefix = byPrefix.updated(prefix, byPrefix.getOrElse(prefix, Vector()) :+ subscription)
+      byID = byID.updated(subscription.objectID, subscription)
+    }
+
+  def remove(objectID: String): Option[Subscription] =
+    synchronized {
+      val removed = byID.get(objectID)
+      for(subscription ← removed) {
+        val prefix = subscription.prefix
+        byPrefix.getOrElse(prefix, Vector()).filterNot(_ eq subscription) match {
+          case Vector() ⇒ byPrefix -= prefix
+          case rest ⇒ byPrefix = byPrefix.updated(prefix, rest)
+        }
+        byID -= objectID
+      }
+      removed
+    }
+
+  /**
+   * Calls `f` with each subscription that the entry at `indexPath` may be in the scope of.
+   */
+  def candidates(indexPath: String)(f: Subscription ⇒ Unit): Unit = {
+    val map = byPrefix
+    if(map.nonEmpty) {
+      val parentURI = QueryDocument.parentURIOf(indexPath)
+      if(parentURI.isEmpty) {
+        for(subscriptions ← map.get("/"); subscription ← subscriptions) f(subscription)
+      }
+      else {
+        var slash = parentURI.indexOf('/')
+        while(slash >= 0) {
+          for(subscriptions ← map.get(parentURI.substring(0, slash + 1)); subscription ← subscriptions) f(subscription)
+          slash = parentURI.indexOf('/', slash + 1)
+        }
+      }
+    }
+  }
+}
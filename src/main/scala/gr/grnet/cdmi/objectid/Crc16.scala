@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.objectid
+
+/**
+ * The CRC-16 of CDMI object IDs: polynomial `x^16 + x^15 + x^2 + 1`, reflected, with a zero initial value
+ * and no final XOR.
+ */
+object Crc16 {
+  private[this] final val Table: Array[Int] =
+    Array.tabulate(256) { n ⇒
+      var crc = n
+      for(_ ← 0 until 8) {
+        crc = if((crc & 1) != 0) (crc >>> 1) ^ 0xA001 else crc >>> 1
+      }
+      crc
+    }
+
+  @inline def update(crc: Int, b: Int): Int = (crc >>> 8) ^ Table((crc ^ b) & 0xFF)
+
+  def of(bytes: Array[Byte], offset: Int, length: Int): Int = {
+    var crc = 0
+    var i = offset
+    val end = offset + length
+    while(i < end) {
+      crc = update(crc, bytes(i))
+      i += 1
+    }
+    crc
+  }
+}
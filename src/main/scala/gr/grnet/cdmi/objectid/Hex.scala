@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.objectid
+
+/**
+ * Table-driven hex encoding and decoding, working on caller-provided arrays.
+ * Encoding produces upper case digits, as CDMI object IDs are written; decoding accepts either case.
+ */
+object Hex {
+  private[this] final val Digits = "0123456789ABCDEF".toCharArray
+
+  private[this] final val Nibbles: Array[Byte] = {
+    val nibbles = Array.fill[Byte](128)(-1)
+    for(i ← 0 until 10) nibbles('0' + i) = i.toByte
+    for(i ← 0 until 6) {
+      nibbles('A' + i) = (10 + i).toByte
+      nibbles('a' + i) = (10 + i).toByte
+    }
+    nibbles
+  }
+
+  /**
+   * The value of hex digit `c`, or `-1` if it is not one.
+   */
+  @inline def nibble(c: Char): Int = if(c < 128) Nibbles(c).toInt else -1
+
+  /**
+   * Writes `length` bytes of `bytes` from `offset` as `2 * length` digits to `chars` from `charsOffset`.
+   */
+  def encode(bytes: Array[Byte], offset: Int, length: Int, chars: Array[Char], charsOffset: Int): Unit = {
+    var i = 0
+    var j = charsOffset
+    while(i < length) {
+      val b = bytes(offset + i)
+      chars(j) = Digits((b >> 4) & 0xF)
+      chars(j + 1) = Digits(b & 0xF)
+      i += 1
+      j += 2
+    }
+  }
+
+  def encode(bytes: Array[Byte], offset: Int, length: Int): String = {
+    val chars = new Array[Char](2 * length)
+    encode(bytes, offset, length, chars, 0)
+    new String(chars)
+  }
+
+  def encode(bytes: Array[Byte]): String = encode(bytes, 0, bytes.length)
+
+  /**
+   * Decodes the digits of `hex` to `bytes` from `offset`. Returns the number of decoded bytes, or `-1` if
+   * `hex` has an odd length or a character that is not a hex digit, or if it does not fit in `bytes`.
+   */
+  def decode(hex: CharSequence, bytes: Array[Byte], offset: Int): Int = {
+    val length = hex.length()
+    if((length & 1) != 0 || offset + length / 2 > bytes.length) -1
+    else {
+      var i = 0
+      var j = offset
+      var valid = true
+      while(valid && i < length) {
+        val hi = nibble(hex.charAt(i))
+        val lo = nibble(hex.charAt(i + 1))
+        if(hi < 0 || lo < 0) valid = false
+        else {
+          bytes(j) = ((hi << 4) | lo).toByte
+          i += 2
+          j += 1
+        }
+      }
+      if(valid) length / 2 else -1
+    }
+  }
+
+  def decode(hex: CharSequence): Option[Array[Byte]] = {
+    val bytes = new Array[Byte](hex.length() / 2)
+    if(decode(hex, bytes, 0) < 0) None else Some(bytes)
+  }
+
+  /**
+   * The `index`-th byte encoded in `hex`, which must be valid.
+   */
+  @inline def byteAt(hex: CharSequence, index: Int): Int =
+    (nibble(hex.charAt(2 * index)) << 4) | nibble(hex.charAt(2 * index + 1))
+
+  def isHex(hex: CharSequence): Boolean = {
+    var i = 0
+    while(i < hex.length() && nibble(hex.charAt(i)) >= 0) { i += 1 }
+    i == hex.length() && (i & 1) == 0
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.objectid
+
+import java.io.File
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.nio.{ByteBuffer, MappedByteBuffer}
+
+/**
+ * Off-heap storage addressed by `Long` positions. It is made of chunks of `chunkSize` bytes, a power of two,
+ * which are either mapped from a file or, without a file, allocated as direct buffers. Chunks are created when
+ * first accessed, so a mapped file grows (sparsely) as it is used. Values never span two chunks.
+ *
+ * Reads and writes use absolute positions only, so concurrent readers are safe; writers need to be
+ * serialized by the caller.
+ */
+final class MappedChunks private(channel: FileChannel, val chunkSize: Int) {
+  require(Integer.bitCount(chunkSize) == 1, s"Chunk size $chunkSize is not a power of two")
+
+  private[this] val shift = Integer.numberOfTrailingZeros(chunkSize)
+  private[this] val mask = chunkSize - 1
+  @volatile private[this] var chunks = new Array[ByteBuffer](0)
+
+  private[this] def create(index: Int): ByteBuffer = synchronized {
+    if(index >= chunks.length) {
+      chunks = java.util.Arrays.copyOf(chunks, math.max(index + 1, chunks.length * 2))
+    }
+    if(chunks(index) eq null) {
+      val chunk =
+        if(channel eq null) ByteBuffer.allocateDirect(chunkSize)
+        else channel.map(FileChannel.MapMode.READ_WRITE, index.toLong << shift, chunkSize)
+      val updated = chunks.clone()
+      updated(index) = chunk
+      chunks = updated
+    }
+    chunks(index)
+  }
+
+  def chunk(index: Int): ByteBuffer = {
+    val current = chunks
+    if(index < current.length && (current(index) ne null)) current(index) else create(index)
+  }
+
+  @inline private[this] def chunkOf(position: Long): ByteBuffer = chunk((position >>> shift).toInt)
+
+  @inline def offsetOf(position: Long): Int = (position & mask).toInt
+
+  def get(position: Long): Byte = chunkOf(position).get(offsetOf(position))
+
+  def put(position: Long, value: Byte): Unit = chunkOf(position).put(offsetOf(position), value)
+
+  def getInt(position: Long): Int = chunkOf(position).getInt(offsetOf(position))
+
+  def putInt(position: Long, value: Int): Unit = chunkOf(position).putInt(offsetOf(position), value)
+
+  def getLong(position: Long): Long = chunkOf(position).getLong(offsetOf(position))
+
+  def putLong(position: Long, value: Long): Unit = chunkOf(position).putLong(offsetOf(position), value)
+
+  def get(position: Long, bytes: Array[Byte], offset: Int, length: Int): Unit = {
+    val chunk = chunkOf(position)
+    val from = offsetOf(position)
+    var i = 0
+    while(i < length) {
+      bytes(offset + i) = chunk.get(from + i)
+      i += 1
+    }
+  }
+
+  def put(position: Long, bytes: Array[Byte], offset: Int, length: Int): Unit = {
+    val chunk = chunkOf(position)
+    val from = offsetOf(position)
+    var i = 0
+    while(i < length) {
+      chunk.put(from + i, bytes(offset + i))
+      i += 1
+    }
+  }
+
+  /**
+   * Writes any changes of mapped chunks to the file.
+   */
+  def force(): Unit =
+    if(channel ne null) {
+      for(chunk ← chunks if chunk ne null) {
+        chunk.asInstanceOf[MappedByteBuffer].force()
+      }
+    }
+
+  /**
+   * Closes the file. Mappings are released when they are garbage collected.
+   */
+  def close(): Unit = if(channel ne null) channel.close()
+}
+
+object MappedChunks {
+  def mapped(file: File, chunkSize: Int): MappedChunks =
+    new MappedChunks(
+      FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+      chunkSize
+    )
+
+  def offHeap(chunkSize: Int): MappedChunks = new MappedChunks(null, chunkSize)
+}
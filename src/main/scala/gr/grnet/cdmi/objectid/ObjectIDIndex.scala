@@ -0,0 +1,611 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.objectid
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.locks.ReentrantReadWriteLock
+
+/**
+ * An off-heap index from object IDs to paths and back.
+ *
+ * Object IDs are given in hex and kept in binary, up to 40 bytes. Paths are kept as UTF-8 in an append-only log.
+ * Two open-addressing hash tables of `capacity` slots, a power of two, point into the log:
+ *  - the ID table, whose 64-byte slots hold the object ID and the position of its path in the log,
+ *  - the path table, whose 16-byte slots hold the hash of a path and the ID slot it belongs to.
+ *
+ * Lookups in either direction cost one probe sequence and do not touch the heap, apart from the result.
+ * When the tables fill up to `LoadFactor`, including removed slots, they are rebuilt, at twice the capacity
+ * if needed, together with a compacted log. They are also rebuilt when more than `MaxDeadLogFraction` of the log
+ * holds paths that are no longer used, those of removed object IDs and the previous paths of moved ones, so that
+ * renames, which often free the very slots they take, do not grow the log without bound.
+ *
+ * With a directory, the tables and the log are memory-mapped files in it, in chunks of up to 1 GB, so that the
+ * index survives restarts and is bounded by the disk rather than the heap. Slots are written before they are
+ * marked as used, and the log is scanned for complete records on reopening, so an index left by a crashed
+ * process is still usable. Without a directory, the same structures live in direct buffers.
+ *
+ * Readers share a lock and writers take it exclusively.
+ */
+final class ObjectIDIndex private(dir: File, initialCapacity: Long) {
+  import ObjectIDIndex._
+
+  private[this] val lock = new ReentrantReadWriteLock()
+  private[this] val head: MappedChunks = if(dir eq null) null else MappedChunks.mapped(new File(dir, HeadFile), HeadFileSize)
+
+  private[this] var generation = 0L
+  private[this] var tables: Tables = _
+  private[this] var liveCount = 0L
+  private[this] var isClean = true
+
+  /**
+   * `true` iff the index was found in its directory, as opposed to being created empty.
+   */
+  val isReopened: Boolean = (head ne null) && head.getLong(HeadMagic) == Magic
+
+  private[this] final class Tables(val generation: Long, val capacity: Long) {
+    private[this] def chunks(name: String, chunkSize: Int): MappedChunks =
+      if(dir eq null) MappedChunks.offHeap(chunkSize)
+      else MappedChunks.mapped(new File(dir, s"$name.$generation"), chunkSize)
+
+    private[this] def tableChunkSize(bytes: Long): Int = math.min(MaxChunkSize.toLong, bytes).toInt
+
+    val ids = chunks(IdsFile, tableChunkSize(capacity * IdSlotSize))
+    val paths = chunks(PathsFile, tableChunkSize(capacity * PathSlotSize))
+    val log = chunks(LogFile, LogChunkSize)
+    val mask = capacity - 1
+    var logEnd = 0L
+    var deadLogBytes = 0L // Records no longer pointed to, and the padding at the end of log chunks
+    var idSlotsUsed = 0L
+    var pathSlotsUsed = 0L
+
+    def hasRoom: Boolean = {
+      val limit = (capacity * LoadFactor).toLong
+      idSlotsUsed + 1 <= limit && pathSlotsUsed + 2 <= limit &&
+        deadLogBytes <= math.max(MinDeadLogBytes, (logEnd * MaxDeadLogFraction).toLong)
+    }
+
+    //+ Log
+    def append(bytes: Array[Byte]): Long = {
+      val size = 4 + align(bytes.length)
+      val left = LogChunkSize - log.offsetOf(logEnd)
+      if(left < size) {
+        log.putInt(logEnd, SkipMarker)
+        logEnd += left
+        deadLogBytes += left
+      }
+      val position = logEnd
+      log.put(position + 4, bytes, 0, bytes.length)
+      log.putInt(position, bytes.length)
+      logEnd = position + size
+      position
+    }
+
+    def recordSize(position: Long): Long = 4 + align(log.getInt(position))
+
+    /**
+     * Counts the record at `position` as no longer pointed to.
+     */
+    def drop(position: Long): Unit = deadLogBytes += recordSize(position)
+
+    def record(position: Long): Array[Byte] = {
+      val bytes = new Array[Byte](log.getInt(position))
+      log.get(position + 4, bytes, 0, bytes.length)
+      bytes
+    }
+
+    def recordEquals(position: Long, bytes: Array[Byte]): Boolean =
+      log.getInt(position) == bytes.length && {
+        var i = 0
+        while(i < bytes.length && log.get(position + 4 + i) == bytes(i)) { i += 1 }
+        i == bytes.length
+      }
+
+    def recoverLogEnd(from: Long): Unit = {
+      var position = from
+      var scanning = true
+      while(scanning) {
+        val length = log.getInt(position)
+        if(length == SkipMarker) position += LogChunkSize - log.offsetOf(position)
+        else if(length > 0 && length <= LogChunkSize - 4) position += 4 + align(length)
+        else scanning = false
+      }
+      logEnd = position
+    }
+    //- Log
+
+    //+ ID table
+    def idPosition(slot: Long): Long = slot * IdSlotSize
+
+    def idMatches(slot: Long, hex: CharSequence, n: Int): Boolean = {
+      val position = idPosition(slot)
+      ids.get(position + IdLengthField) == n && {
+        var i = 0
+        while(i < n && ids.get(position + IdBytesField + i) == Hex.byteAt(hex, i).toByte) { i += 1 }
+        i == n
+      }
+    }
+
+    def idBytes(slot: Long): Array[Byte] = {
+      val position = idPosition(slot)
+      val bytes = new Array[Byte](ids.get(position + IdLengthField).toInt)
+      ids.get(position + IdBytesField, bytes, 0, bytes.length)
+      bytes
+    }
+
+    def recordOf(slot: Long): Long = ids.getLong(idPosition(slot) + IdRecordField)
+
+    def findId(hex: CharSequence, n: Int, hash: Long): Long = {
+      var slot = hash & mask
+      var result = NotFound
+      var probing = true
+      while(probing) {
+        ids.get(idPosition(slot)) match {
+          case Empty ⇒ probing = false
+          case Used if idMatches(slot, hex, n) ⇒ result = slot; probing = false
+          case _ ⇒ slot = (slot + 1) & mask
+        }
+      }
+      result
+    }
+
+    def insertId(hash: Long, bytes: Array[Byte], record: Long): Long = {
+      var slot = hash & mask
+      while(ids.get(idPosition(slot)) == Used) { slot = (slot + 1) & mask }
+      val position = idPosition(slot)
+      if(ids.get(position) == Empty) { idSlotsUsed += 1 }
+      ids.put(position + IdLengthField, bytes.length.toByte)
+      ids.put(position + IdBytesField, bytes, 0, bytes.length)
+      ids.putLong(position + IdRecordField, record)
+      ids.put(position, Used)
+      slot
+    }
+
+    def removeId(slot: Long): Unit = ids.put(idPosition(slot), Removed)
+    //- ID table
+
+    //+ Path table
+    def pathPosition(slot: Long): Long = slot * PathSlotSize
+
+    def ownerOf(pathSlot: Long): Long = paths.getLong(pathPosition(pathSlot) + PathOwnerField)
+
+    def findPath(bytes: Array[Byte], hash: Long): Long = {
+      var slot = hash & mask
+      var result = NotFound
+      var probing = true
+      while(probing) {
+        val h = paths.getLong(pathPosition(slot))
+        if(h == EmptyHash) probing = false
+        else if(h == hash && recordEquals(recordOf(ownerOf(slot)), bytes)) { result = slot; probing = false }
+        else slot = (slot + 1) & mask
+      }
+      result
+    }
+
+    def findPathOf(idSlot: Long, hash: Long): Long = {
+      var slot = hash & mask
+      var result = NotFound
+      var probing = true
+      while(probing) {
+        val h = paths.getLong(pathPosition(slot))
+        if(h == EmptyHash) probing = false
+        else if(h == hash && ownerOf(slot) == idSlot) { result = slot; probing = false }
+        else slot = (slot + 1) & mask
+      }
+      result
+    }
+
+    def insertPath(hash: Long, idSlot: Long): Unit = {
+      var slot = hash & mask
+      var h = paths.getLong(pathPosition(slot))
+      while(h != EmptyHash && h != RemovedHash) {
+        slot = (slot + 1) & mask
+        h = paths.getLong(pathPosition(slot))
+      }
+      if(h == EmptyHash) { pathSlotsUsed += 1 }
+      val position = pathPosition(slot)
+      paths.putLong(position + PathOwnerField, idSlot)
+      paths.putLong(position, hash)
+    }
+
+    def removePath(slot: Long): Unit = if(slot >= 0) paths.putLong(pathPosition(slot), RemovedHash)
+    //- Path table
+
+    /**
+     * Counts the used slots and the dead log bytes, for an index that was not closed properly.
+     */
+    def recount(): Long = {
+      var live = 0L
+      var liveLogBytes = 0L
+      var slot = 0L
+      idSlotsUsed = 0L
+      pathSlotsUsed = 0L
+      while(slot < capacity) {
+        ids.get(idPosition(slot)) match {
+          case Used ⇒ live += 1; idSlotsUsed += 1; liveLogBytes += recordSize(recordOf(slot))
+          case Removed ⇒ idSlotsUsed += 1
+          case _ ⇒
+        }
+        if(paths.getLong(pathPosition(slot)) != EmptyHash) { pathSlotsUsed += 1 }
+        slot += 1
+      }
+      deadLogBytes = logEnd - liveLogBytes
+      live
+    }
+
+    def force(): Unit = {
+      ids.force()
+      paths.force()
+      log.force()
+    }
+
+    def close(): Unit = {
+      ids.close()
+      paths.close()
+      log.close()
+    }
+  }
+
+  private[this] def deleteFiles(generation: Long): Unit =
+    if(dir ne null) {
+      for(name ← Seq(IdsFile, PathsFile, LogFile)) {
+        new File(dir, s"$name.$generation").delete()
+      }
+    }
+
+  private[this] def writeHead(): Unit =
+    if(head ne null) {
+      head.putLong(HeadGeneration, generation)
+      head.putLong(HeadCapacity, tables.capacity)
+      head.putLong(HeadLiveCount, liveCount)
+      head.putLong(HeadIdSlotsUsed, tables.idSlotsUsed)
+      head.putLong(HeadPathSlotsUsed, tables.pathSlotsUsed)
+      head.putLong(HeadLogEnd, tables.logEnd)
+      head.putLong(HeadDeadLogBytes, tables.deadLogBytes)
+    }
+
+  private[this] def markDirty(): Unit =
+    if(isClean) {
+      isClean = false
+      if(head ne null) head.putInt(HeadClean, 0)
+    }
+
+  locally {
+    if(isReopened) {
+      generation = head.getLong(HeadGeneration)
+      tables = new Tables(generation, head.getLong(HeadCapacity))
+      tables.recoverLogEnd(head.getLong(HeadLogEnd))
+      if(head.getInt(HeadClean) == 1) {
+        liveCount = head.getLong(HeadLiveCount)
+        tables.idSlotsUsed = head.getLong(HeadIdSlotsUsed)
+        tables.pathSlotsUsed = head.getLong(HeadPathSlotsUsed)
+        tables.deadLogBytes = head.getLong(HeadDeadLogBytes)
+      }
+      else {
+        liveCount = tables.recount()
+      }
+    }
+    else {
+      deleteFiles(generation)
+      tables = new Tables(generation, capacityFor(initialCapacity))
+      if(head ne null) {
+        writeHead()
+        head.putInt(HeadFormat, Format)
+        head.putInt(HeadClean, 1)
+        head.putLong(HeadMagic, Magic)
+        head.force()
+      }
+    }
+  }
+
+  private[this] def rebuild(capacity: Long): Unit = {
+    val old = tables
+    deleteFiles(old.generation + 1) // leftovers of an interrupted rebuild
+    val rebuilt = new Tables(old.generation + 1, capacity)
+
+    var slot = 0L
+    while(slot < old.capacity) {
+      if(old.ids.get(old.idPosition(slot)) == Used) {
+        val id = old.idBytes(slot)
+        val path = old.record(old.recordOf(slot))
+        val idSlot = rebuilt.insertId(bytesHashOf(id), id, rebuilt.append(path))
+        rebuilt.insertPath(bytesHashOf(path), idSlot)
+      }
+      slot += 1
+    }
+
+    rebuilt.force()
+    tables = rebuilt
+    generation = rebuilt.generation
+    writeHead() // the new generation takes over from here on
+    if(head ne null) head.force()
+    old.close()
+    deleteFiles(old.generation)
+  }
+
+  private[this] def ensureRoom(): Unit =
+    if(!tables.hasRoom) {
+      val capacity = tables.capacity
+      val needed = (liveCount + 2) / LoadFactor * 2
+      rebuild(if(needed > capacity) capacity * 2 else capacity)
+    }
+
+  private[this] def read[A](f: ⇒ A): A = {
+    val readLock = lock.readLock()
+    readLock.lock()
+    try f finally readLock.unlock()
+  }
+
+  private[this] def write[A](f: ⇒ A): A = {
+    val writeLock = lock.writeLock()
+    writeLock.lock()
+    try f finally writeLock.unlock()
+  }
+
+  /**
+   * The number of object IDs in the index.
+   */
+  def size: Long = read { liveCount }
+
+  def capacity: Long = read { tables.capacity }
+
+  /**
+   * The path of `objectID`, if it is in the index.
+   */
+  def pathOf(objectID: String): Option[String] =
+    lengthOf(objectID) match {
+      case n if n < 0 ⇒ None
+      case n ⇒
+        read {
+          val t = tables
+          t.findId(objectID, n, hexHashOf(objectID, n)) match {
+            case NotFound ⇒ None
+            case slot ⇒ Some(new String(t.record(t.recordOf(slot)), StandardCharsets.UTF_8))
+          }
+        }
+    }
+
+  /**
+   * The object ID of `path`, if it is in the index.
+   */
+  def objectIDOf(path: String): Option[String] = {
+    val bytes = path.getBytes(StandardCharsets.UTF_8)
+    read {
+      val t = tables
+      t.findPath(bytes, bytesHashOf(bytes)) match {
+        case NotFound ⇒ None
+        case slot ⇒ Some(Hex.encode(t.idBytes(t.ownerOf(slot))))
+      }
+    }
+  }
+
+  /**
+   * Maps `objectID` to `path` and back. Any previous path of `objectID` and any previous object ID
+   * of `path` are dropped.
+   */
+  def put(objectID: String, path: String): Unit = {
+    val n = lengthOf(objectID)
+    require(n >= 0, s"Invalid object ID '$objectID'")
+    val bytes = path.getBytes(StandardCharsets.UTF_8)
+    require(4 + align(bytes.length) <= LogChunkSize, s"Path of ${bytes.length} bytes is too long")
+    val idHash = hexHashOf(objectID, n)
+    val pathHash = bytesHashOf(bytes)
+
+    write {
+      ensureRoom()
+      markDirty()
+      val t = tables
+
+      // `path` may have belonged to another object ID
+      val pathSlot = t.findPath(bytes, pathHash)
+      if(pathSlot >= 0 && !t.idMatches(t.ownerOf(pathSlot), objectID, n)) {
+        t.drop(t.recordOf(t.ownerOf(pathSlot)))
+        t.removePath(pathSlot)
+        t.removeId(t.ownerOf(pathSlot))
+        liveCount -= 1
+      }
+
+      t.findId(objectID, n, idHash) match {
+        case NotFound ⇒
+          val id = new Array[Byte](n)
+          Hex.decode(objectID, id, 0)
+          val idSlot = t.insertId(idHash, id, t.append(bytes))
+          t.insertPath(pathHash, idSlot)
+          liveCount += 1
+
+        case idSlot if pathSlot >= 0 && t.ownerOf(pathSlot) == idSlot ⇒
+          // Already there
+
+        case idSlot ⇒
+          val previous = t.record(t.recordOf(idSlot))
+          t.removePath(t.findPathOf(idSlot, bytesHashOf(previous)))
+          t.drop(t.recordOf(idSlot))
+          t.ids.putLong(t.idPosition(idSlot) + IdRecordField, t.append(bytes))
+          t.insertPath(pathHash, idSlot)
+      }
+
+      writeHead()
+    }
+  }
+
+  /**
+   * Removes `objectID` and its path. Returns `false` if it was not in the index.
+   */
+  def remove(objectID: String): Boolean =
+    lengthOf(objectID) match {
+      case n if n < 0 ⇒ false
+      case n ⇒
+        val idHash = hexHashOf(objectID, n)
+        write {
+          val t = tables
+          t.findId(objectID, n, idHash) match {
+            case NotFound ⇒
+              false
+
+            case idSlot ⇒
+              markDirty()
+              t.removePath(t.findPathOf(idSlot, bytesHashOf(t.record(t.recordOf(idSlot)))))
+              t.drop(t.recordOf(idSlot))
+              t.removeId(idSlot)
+              liveCount -= 1
+              writeHead()
+              true
+          }
+        }
+    }
+
+  /**
+   * Writes all changes to the files and marks the index as cleanly closed, until the next change.
+   */
+  def flush(): Unit =
+    write {
+      if(head ne null) {
+        tables.force()
+        writeHead()
+        head.putInt(HeadClean, 1)
+        head.force()
+      }
+      isClean = true
+    }
+
+  def close(): Unit =
+    write {
+      if(head ne null) {
+        tables.force()
+        writeHead()
+        head.putInt(HeadClean, 1)
+        head.force()
+        head.close()
+      }
+      tables.close()
+    }
+
+  override def toString: String =
+    s"ObjectIDIndex(${if(dir eq null) "off-heap" else dir.getPath}, size=$size, capacity=$capacity)"
+}
+
+object ObjectIDIndex {
+  final val DefaultCapacity = 1L << 20
+  final val LoadFactor = 0.7
+
+  /**
+   * The fraction of the log that may be dead before the index is rebuilt, unless fewer than `MinDeadLogBytes` are.
+   */
+  final val MaxDeadLogFraction = 0.5
+  final val MinDeadLogBytes = 1L << 24 // One log chunk
+
+  final val Magic = 0x43444d494f494458L // "CDMIOIDX"
+  final val Format = 1
+
+  private final val HeadFile = "head"
+  private final val IdsFile = "ids"
+  private final val PathsFile = "paths"
+  private final val LogFile = "log"
+
+  private final val HeadFileSize = 4096
+  private final val HeadMagic = 0L
+  private final val HeadFormat = 8L
+  private final val HeadClean = 12L
+  private final val HeadGeneration = 16L
+  private final val HeadCapacity = 24L
+  private final val HeadLiveCount = 32L
+  private final val HeadIdSlotsUsed = 40L
+  private final val HeadPathSlotsUsed = 48L
+  private final val HeadLogEnd = 56L
+  private final val HeadDeadLogBytes = 64L
+
+  private final val MaxChunkSize = 1 << 30
+  private final val LogChunkSize = 1 << 24
+
+  private final val IdSlotSize = 64
+  private final val IdLengthField = 1
+  private final val IdBytesField = 2
+  private final val IdRecordField = 48
+  private final val MaxIdLength = 40
+
+  private final val PathSlotSize = 16
+  private final val PathOwnerField = 8
+
+  private final val Empty: Byte = 0
+  private final val Used: Byte = 1
+  private final val Removed: Byte = 2
+
+  private final val EmptyHash = 0L
+  private final val RemovedHash = 1L
+
+  private final val NotFound = -1L
+  private final val SkipMarker = -1
+
+  private final val FnvOffset = 0xcbf29ce484222325L
+  private final val FnvPrime = 0x100000001b3L
+
+  private def align(length: Int): Int = (length + 3) & ~3
+
+  private def capacityFor(entries: Long): Long =
+    math.max(16L, java.lang.Long.highestOneBit(math.max(1L, (entries / LoadFactor).toLong) - 1) << 1)
+
+  // Never EmptyHash or RemovedHash
+  private def finish(h: Long): Long = {
+    var x = h
+    x ^= x >>> 33
+    x *= 0xff51afd7ed558ccdL
+    x ^= x >>> 33
+    x *= 0xc4ceb9fe1a85ec53L
+    x ^= x >>> 33
+    if(x == EmptyHash || x == RemovedHash) x + 2 else x
+  }
+
+  private def bytesHashOf(bytes: Array[Byte]): Long = {
+    var h = FnvOffset
+    var i = 0
+    while(i < bytes.length) {
+      h = (h ^ (bytes(i) & 0xFF)) * FnvPrime
+      i += 1
+    }
+    finish(h)
+  }
+
+  // The same as `bytesHashOf` the decoded bytes
+  private def hexHashOf(hex: CharSequence, n: Int): Long = {
+    var h = FnvOffset
+    var i = 0
+    while(i < n) {
+      h = (h ^ Hex.byteAt(hex, i)) * FnvPrime
+      i += 1
+    }
+    finish(h)
+  }
+
+  /**
+   * The number of bytes encoded in `objectID`, or `-1` if it is not a valid hex string of at most 40 bytes.
+   */
+  private def lengthOf(objectID: String): Int =
+    if((objectID eq null) || objectID.isEmpty || objectID.length > 2 * MaxIdLength || !Hex.isHex(objectID)) -1
+    else objectID.length / 2
+
+  def inMemory(capacity: Long = DefaultCapacity): ObjectIDIndex = new ObjectIDIndex(null, capacity)
+
+  /**
+   * Opens the index kept in `dir`, creating it if there is none.
+   */
+  def open(dir: File, capacity: Long = DefaultCapacity): ObjectIDIndex = {
+    dir.mkdirs()
+    new ObjectIDIndex(dir, capacity)
+  }
+}
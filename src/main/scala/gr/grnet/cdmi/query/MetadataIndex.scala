@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query
+
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentSkipListMap}
+import java.util.{Collections, NavigableMap}
+
+/**
+ * Secondary indexes over the indexed fields of [[gr.grnet.cdmi.query.QueryDocument]]s, by objectID:
+ *
+ *  - a hash index from a field and a value to the objectIDs that have it, for `==`;
+ *  - a sorted index per field over the same postings, for ranges and `starts`, and one over the values that are
+ *    numbers, for operands that start with `#`;
+ *  - token indexes of the trigrams of values, for `contains`, and of the tags of values, for `tag`;
+ *  - the objectIDs that have each field, for `exists` and for conditions that no other index answers.
+ *
+ * Postings are concurrent sets. Adding to and removing from the postings of a key is serialized by one of `stripes`
+ * locks, chosen by the hash of the key, so that postings that empty are dropped from all indexes that share them.
+ * Updates of a document are serialized by another lock stripe, chosen by its objectID, and only touch the postings
+ * of the fields that changed: the new values are indexed before the old ones are dropped, so a document that
+ * matches both before and after an update is never missed. Queries take no locks.
+ */
+final class MetadataIndex(stripes: Int = MetadataIndex.DefaultStripes) {
+  import MetadataIndex._
+
+  private[this] val stripeMask = Integer.highestOneBit(math.max(1, stripes - 1)) * 2 - 1
+  private[this] val documentLocks = Array.fill(stripeMask + 1)(new Object)
+  private[this] val keyLocks = Array.fill(stripeMask + 1)(new Object)
+
+  private[this] val documents = new ConcurrentHashMap[String, QueryDocument]()
+  private[this] val values = new ConcurrentHashMap[ValueKey, Postings]()
+  private[this] val sortedValues = new ConcurrentHashMap[String, ConcurrentSkipListMap[String, Postings]]()
+  private[this] val numbers = new ConcurrentHashMap[NumberKey, Postings]()
+  private[this] val sortedNumbers = new ConcurrentHashMap[String, ConcurrentSkipListMap[java.lang.Double, Postings]]()
+  private[this] val grams = new ConcurrentHashMap[ValueKey, Postings]()
+  private[this] val ungrammed = new ConcurrentHashMap[String, Postings]()
+  private[this] val tags = new ConcurrentHashMap[ValueKey, Postings]()
+  private[this] val fields = new ConcurrentHashMap[String, Postings]()
+
+  private[this] def stripeOf(key: AnyRef): Int = {
+    val h = key.hashCode
+    (h ^ (h >>> 16)) & stripeMask
+  }
+
+  private[this] def sortedOf[K](index: ConcurrentHashMap[String, ConcurrentSkipListMap[K, Postings]], field: String) =
+    index.get(field) match {
+      case null ⇒
+        val created = new ConcurrentSkipListMap[K, Postings]()
+        index.putIfAbsent(field, created) match {
+          case null ⇒ created
+          case existing ⇒ existing
+        }
+      case existing ⇒ existing
+    }
+
+  private[this] def addTo[K <: AnyRef](index: ConcurrentHashMap[K, Postings], key: K, objectID: String)(
+    created: Postings ⇒ Unit
+  ): Unit =
+    keyLocks(stripeOf(key)).synchronized {
+      index.get(key) match {
+        case null ⇒
+          val postings = newPostings()
+          postings.add(objectID)
+          index.put(key, postings)
+          created(postings)
+
+        case postings ⇒
+          postings.add(objectID)
+      }
+    }
+
+  private[this] def removeFrom[K <: AnyRef](index: ConcurrentHashMap[K, Postings], key: K, objectID: String)(
+    emptied: Postings ⇒ Unit
+  ): Unit =
+    keyLocks(stripeOf(key)).synchronized {
+      index.get(key) match {
+        case null ⇒
+        case postings ⇒
+          if(postings.remove(objectID) && postings.isEmpty) {
+            index.remove(key)
+            emptied(postings)
+          }
+      }
+    }
+
+  private[this] def index(objectID: String, field: String, value: String): Unit = {
+    addTo(values, ValueKey(field, value), objectID) { postings ⇒ sortedOf(sortedValues, field).put(value, postings) }
+
+    val number = QueryCondition.numberOf(value)
+    if(!number.isNaN) {
+      addTo(numbers, NumberKey(field, number), objectID) { postings ⇒ sortedOf(sortedNumbers, field).put(number, postings) }
+    }
+
+    if(isGrammed(field)) {
+      if(value.length > MaxGrammedLength) addTo(ungrammed, field, objectID)(_ ⇒ ())
+      else for(gram ← trigramsOf(value)) addTo(grams, ValueKey(field, gram), objectID)(_ ⇒ ())
+    }
+
+    for(tag ← QueryCondition.tagsOf(value)) addTo(tags, ValueKey(field, tag), objectID)(_ ⇒ ())
+  }
+
+  private[this] def unindex(objectID: String, field: String, value: String): Unit = {
+    removeFrom(values, ValueKey(field, value), objectID) { postings ⇒ sortedOf(sortedValues, field).remove(value, postings) }
+
+    val number = QueryCondition.numberOf(value)
+    if(!number.isNaN) {
+      removeFrom(numbers, NumberKey(field, number), objectID) { postings ⇒
+        sortedOf(sortedNumbers, field).remove(number, postings)
+      }
+    }
+
+    if(isGrammed(field)) {
+      if(value.length > MaxGrammedLength) removeFrom(ungrammed, field, objectID)(_ ⇒ ())
+      else for(gram ← trigramsOf(value)) removeFrom(grams, ValueKey(field, gram), objectID)(_ ⇒ ())
+    }
+
+    for(tag ← QueryCondition.tagsOf(value)) removeFrom(tags, ValueKey(field, tag), objectID)(_ ⇒ ())
+  }
+
+  /**
+   * Adds `document`, or replaces the one with its objectID unless that has a greater version.
+   */
+  def put(document: QueryDocument): Unit = {
+    val objectID = document.objectID
+    documentLocks(stripeOf(objectID)).synchronized {
+      val previous = documents.get(objectID)
+      if((previous eq null) || previous.version <= document.version) {
+        val before = if(previous eq null) Map.empty[String, String] else previous.indexedFields
+        val after = document.indexedFields
+        documents.put(objectID, document)
+
+        for((field, value) ← after) {
+          before.get(field) match {
+            case Some(`value`) ⇒
+            case Some(old) ⇒
+              index(objectID, field, value)
+              unindex(objectID, field, old)
+            case None ⇒
+              index(objectID, field, value)
+              addTo(fields, field, objectID)(_ ⇒ ())
+          }
+        }
+
+        for((field, old) ← before if !after.contains(field)) {
+          removeFrom(fields, field, objectID)(_ ⇒ ())
+          unindex(objectID, field, old)
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the document with the given objectID, if any.
+   */
+  def remove(objectID: String): Unit =
+    documentLocks(stripeOf(objectID)).synchronized {
+      documents.remove(objectID) match {
+        case null ⇒
+        case previous ⇒
+          for((field, value) ← previous.indexedFields) {
+            removeFrom(fields, field, objectID)(_ ⇒ ())
+            unindex(objectID, field, value)
+          }
+      }
+    }
+
+  def size: Int = documents.size
+
+  /**
+   * The document with the given objectID, or `null`.
+   */
+  def get(objectID: String): QueryDocument = documents.get(objectID)
+
+  def objectIDs: java.util.Iterator[String] = documents.keySet().iterator()
+
+  private[this] def postingsOf[K](index: ConcurrentHashMap[K, Postings], key: K): Postings =
+    index.get(key) match {
+      case null ⇒ EmptyPostings
+      case postings ⇒ postings
+    }
+
+  /**
+   * The objectIDs of the documents that have `field`.
+   */
+  def withField(field: String): Postings = postingsOf(fields, field)
+
+  def withValue(field: String, value: String): Postings = postingsOf(values, ValueKey(field, value))
+
+  def withNumber(field: String, number: Double): Postings = postingsOf(numbers, NumberKey(field, number))
+
+  /**
+   * The postings of the values of `field`, in order.
+   */
+  def valuesOf(field: String): NavigableMap[String, Postings] =
+    sortedValues.get(field) match {
+      case null ⇒ EmptyValues
+      case sorted ⇒ sorted
+    }
+
+  /**
+   * The postings of the values of `field` that are numbers, in order.
+   */
+  def numbersOf(field: String): NavigableMap[java.lang.Double, Postings] =
+    sortedNumbers.get(field) match {
+      case null ⇒ EmptyNumbers
+      case sorted ⇒ sorted
+    }
+
+  /**
+   * The objectIDs of the documents whose value of `field` has the trigram `gram`. Values longer than
+   * `MaxGrammedLength` are not broken into trigrams and are in `withoutGrams` instead.
+   */
+  def withGram(field: String, gram: String): Postings = postingsOf(grams, ValueKey(field, gram))
+
+  def withoutGrams(field: String): Postings = postingsOf(ungrammed, field)
+
+  def withTag(field: String, tag: String): Postings = postingsOf(tags, ValueKey(field, tag))
+}
+
+object MetadataIndex {
+  type Postings = java.util.Set[String]
+
+  final val DefaultStripes = 64
+
+  /**
+   * Values of up to this many characters are broken into trigrams for `contains`.
+   */
+  final val MaxGrammedLength = 1024
+
+  final val GramLength = 3
+
+  final val EmptyPostings: Postings = Collections.emptySet[String]()
+
+  private final case class ValueKey(field: String, value: String)
+
+  private final case class NumberKey(field: String, number: Double)
+
+  private final val EmptyValues: NavigableMap[String, Postings] = new ConcurrentSkipListMap[String, Postings]()
+
+  private final val EmptyNumbers: NavigableMap[java.lang.Double, Postings] = new ConcurrentSkipListMap[java.lang.Double, Postings]()
+
+  private def newPostings(): Postings = Collections.newSetFromMap(new ConcurrentHashMap[String, java.lang.Boolean]())
+
+  /**
+   * Whether `contains` conditions on `field` are answered by the trigram index.
+   */
+  def isGrammed(field: String): Boolean = field == QueryField.ObjectName || QueryField.isMetadata(field)
+
+  /**
+   * The distinct substrings of `value` of `GramLength` characters.
+   */
+  def trigramsOf(value: String): Set[String] =
+    if(value.length < GramLength) Set()
+    else (0 to value.length - GramLength).iterator.map(i ⇒ value.substring(i, i + GramLength)).toSet
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query
+
+/**
+ * What a [[gr.grnet.cdmi.query.MetadataIndex]] keeps of a data object or container: the fields that stay the same
+ * when one of its ancestors is moved. Its URI path, and thus its `parentURI`, is looked up by objectID when it matches,
+ * so moving a container tree does not touch the documents under it.
+ *
+ * The `objectName` of a container ends with a `/`.
+ */
+final case class QueryDocument(
+  objectID: String,
+  isContainer: Boolean,
+  objectName: String,
+  parentID: String,
+  mimetype: String,
+  metadata: Map[String, String],
+  version: Long
+) {
+  def objectType: String = if(isContainer) QueryDocument.ContainerType else QueryDocument.ObjectType
+
+  /**
+   * The indexed fields and their values, keyed as in [[gr.grnet.cdmi.query.QueryField]].
+   */
+  def indexedFields: Map[String, String] = {
+    val fields = Map(
+      QueryField.ObjectName → objectName,
+      QueryField.ObjectType → objectType,
+      QueryField.ParentID → parentID
+    )
+    val withMimetype = if(isContainer) fields else fields + (QueryField.Mimetype → mimetype)
+    withMimetype ++ metadata.map { case (name, value) ⇒ (QueryField.metadataOf(name), value) }
+  }
+
+  /**
+   * The value of `field`, or `null` if there is none, given that the document is at `indexPath`.
+   */
+  def valueOf(field: String, indexPath: String, domainURI: String): String =
+    field match {
+      case QueryField.ObjectID ⇒ objectID
+      case QueryField.ObjectName ⇒ objectName
+      case QueryField.ObjectType ⇒ objectType
+      case QueryField.ParentID ⇒ parentID
+      case QueryField.ParentURI ⇒ QueryDocument.parentURIOf(indexPath)
+      case QueryField.DomainURI ⇒ domainURI
+      case QueryField.Mimetype ⇒ if(isContainer) null else mimetype
+      case _ if QueryField.isMetadata(field) ⇒ metadata.getOrElse(QueryField.metadataNameOf(field), null)
+      case _ ⇒ null
+    }
+}
+
+object QueryDocument {
+  final val ObjectType = "application/cdmi-object"
+  final val ContainerType = "application/cdmi-container"
+
+  /**
+   * The URI of the container of the entry at `indexPath`, e.g. `/a/` for both `/a/b` and `/a/b/`.
+   */
+  def parentURIOf(indexPath: String): String = {
+    val end = if(indexPath.endsWith("/")) indexPath.length - 1 else indexPath.length
+    if(end <= 0) "" else indexPath.substring(0, indexPath.lastIndexOf('/', end - 1) + 1)
+  }
+}
+
+/**
+ * The fields that conditions of a [[gr.grnet.cdmi.query.QueryScope]] test. Metadata items are fields
+ * of their own, prefixed with `metadata.`, so that they do not clash with the others.
+ */
+object QueryField {
+  final val ObjectID = "objectID"
+  final val ObjectName = "objectName"
+  final val ObjectType = "objectType"
+  final val ParentURI = "parentURI"
+  final val ParentID = "parentID"
+  final val DomainURI = "domainURI"
+  final val Mimetype = "mimetype"
+  final val Metadata = "metadata"
+
+  final val MetadataPrefix = "metadata."
+
+  final val Known = Set(ObjectID, ObjectName, ObjectType, ParentURI, ParentID, DomainURI, Mimetype)
+
+  /**
+   * The fields that are in the indexes. The others are tested on the documents that the indexes give.
+   */
+  def isIndexed(field: String): Boolean =
+    field == ObjectName || field == ObjectType || field == ParentID || field == Mimetype || isMetadata(field)
+
+  def metadataOf(name: String): String = MetadataPrefix + name
+
+  def isMetadata(field: String): Boolean = field.startsWith(MetadataPrefix)
+
+  def metadataNameOf(field: String): String = field.substring(MetadataPrefix.length)
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query
+
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import com.twitter.io.Buf
+import com.twitter.util.{Future, FuturePool}
+import gr.grnet.cdmi.objectid.ObjectIDIndex
+
+import scala.collection.immutable.Seq
+
+/**
+ * Answers [[gr.grnet.cdmi.query.QueryScope]]s from a [[gr.grnet.cdmi.query.MetadataIndex]].
+ *
+ * Each clause is planned by the [[gr.grnet.cdmi.query.QueryPlanner]] and evaluated as a task of its own on `pool`,
+ * so the clauses of a scope run in parallel. A task tests the candidates that its plan gives against all the
+ * conditions of its clause and hands the matches, rendered by a [[gr.grnet.cdmi.query.ResultsSpecification]], to the
+ * caller `batchSize` at a time while it goes on. A match of several clauses is handed over once.
+ *
+ * The URI path of a candidate is looked up in the `objectIDIndex`. A document whose objectID is no longer there was
+ * left behind by an entry that is gone, and is dropped.
+ */
+final class QueryEngine(
+  val index: MetadataIndex,
+  objectIDIndex: ObjectIDIndex,
+  domainURI: String,
+  pool: FuturePool,
+  batchSize: Int
+) {
+  def plan(scope: QueryScope): Seq[QueryPlan] = scope.clauses.map(QueryPlanner.plan(index, _))
+
+  private[this] def evaluate(
+    plan: QueryPlan,
+    results: ResultsSpecification,
+    seen: java.util.Set[String],
+    matches: AtomicLong,
+    enqueue: Seq[(String, Buf)] ⇒ Unit
+  ): Unit = {
+    val batch = Vector.newBuilder[(String, Buf)]
+    var batched = 0
+
+    for(objectID ← plan.access.candidates) {
+      val document = index.get(objectID)
+      if(document ne null) {
+        objectIDIndex.pathOf(objectID) match {
+          case None ⇒
+            index.remove(objectID)
+
+          case Some(indexPath) ⇒
+            if(plan.clause.matches(document, indexPath, domainURI) && seen.add(objectID)) {
+              batch += ((QueryEngine.ResultMimetype, results.render(document, indexPath, domainURI)))
+              matches.incrementAndGet()
+              batched += 1
+              if(batched == batchSize) {
+                enqueue(batch.result())
+                batch.clear()
+                batched = 0
+              }
+            }
+        }
+      }
+    }
+
+    if(batched > 0) enqueue(batch.result())
+  }
+
+  /**
+   * Evaluates `scope` and hands the matches, as `(mimetype, value)`, to `enqueue`, which may be called by several
+   * threads at once. The result is the number of matches.
+   */
+  def run(scope: QueryScope, results: ResultsSpecification)(enqueue: Seq[(String, Buf)] ⇒ Unit): Future[Long] = {
+    val seen = Collections.newSetFromMap(new ConcurrentHashMap[String, java.lang.Boolean]())
+    val matches = new AtomicLong()
+    val runs = for(p ← plan(scope)) yield pool { evaluate(p, results, seen, matches, enqueue) }
+
+    Future.collect(runs) map { _ ⇒ matches.get }
+  }
+}
+
+object QueryEngine {
+  final val ResultMimetype = "application/json"
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query;
+
+/**
+ * The operators of the conditions of a {@link QueryScope}, as written before their operand,
+ * e.g. {@code "== red"} or {@code "starts /photos/"}. {@code exists} and {@code !exists} take no operand.
+ */
+public enum QueryOperator {
+    Equal("=="),
+    NotEqual("!="),
+    Less("<"),
+    LessOrEqual("<="),
+    Greater(">"),
+    GreaterOrEqual(">="),
+    Starts("starts"),
+    NotStarts("!starts"),
+    Ends("ends"),
+    NotEnds("!ends"),
+    Contains("contains"),
+    NotContains("!contains"),
+    Tag("tag"),
+    NotTag("!tag"),
+    Matches("matches"),
+    NotMatches("!matches"),
+    Exists("exists"),
+    NotExists("!exists");
+
+    public final String symbol;
+
+    QueryOperator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public boolean hasOperand() {
+        return this != Exists && this != NotExists;
+    }
+
+    public static QueryOperator ofSymbol(String symbol) {
+        for(QueryOperator operator : values()) {
+            if(operator.symbol.equals(symbol)) {
+                return operator;
+            }
+        }
+        return null;
+    }
+}
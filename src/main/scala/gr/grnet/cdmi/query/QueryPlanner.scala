@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query
+
+import java.util.NavigableMap
+
+import gr.grnet.cdmi.query.MetadataIndex.Postings
+
+import scala.collection.JavaConverters._
+
+/**
+ * A way to find the candidates of a [[gr.grnet.cdmi.query.QueryClause]] in a [[gr.grnet.cdmi.query.MetadataIndex]],
+ * together with an estimate of how many there are. Candidates still have to be tested against every condition.
+ */
+sealed abstract class QueryAccess {
+  def estimate: Long
+
+  def candidates: Iterator[String]
+}
+
+object QueryAccess {
+  final case class ById(index: MetadataIndex, objectID: String) extends QueryAccess {
+    def estimate: Long = if(index.get(objectID) eq null) 0 else 1
+
+    def candidates: Iterator[String] = if(index.get(objectID) eq null) Iterator.empty else Iterator.single(objectID)
+
+    override def toString: String = "objectID"
+  }
+
+  /**
+   * The postings of a single key of the hash or token indexes.
+   */
+  final case class Lookup(postings: Postings) extends QueryAccess {
+    def estimate: Long = postings.size
+
+    def candidates: Iterator[String] = postings.iterator().asScala
+
+    override def toString: String = "lookup"
+  }
+
+  /**
+   * The postings of a range of a sorted index, whose size is guessed.
+   */
+  final case class Range[K](sorted: NavigableMap[K, Postings], within: K ⇒ Boolean, estimate: Long) extends QueryAccess {
+    def candidates: Iterator[String] =
+      sorted.entrySet().iterator().asScala.takeWhile(e ⇒ within(e.getKey)).flatMap(_.getValue.iterator().asScala)
+
+    override def toString: String = "range"
+  }
+
+  /**
+   * The intersection of the postings of trigrams, driven by the smallest, together with the values that are too
+   * long to have been broken into trigrams.
+   */
+  final case class Grams(postings: Seq[Postings], ungrammed: Postings) extends QueryAccess {
+    private[this] val sorted = postings.sortBy(_.size)
+
+    def estimate: Long = sorted.headOption.map(_.size.toLong).getOrElse(0L) + ungrammed.size
+
+    def candidates: Iterator[String] =
+      sorted match {
+        case Seq() ⇒ ungrammed.iterator().asScala
+        case smallest +: others ⇒
+          smallest.iterator().asScala.filter(id ⇒ others.forall(_.contains(id))) ++ ungrammed.iterator().asScala
+      }
+
+    override def toString: String = "trigrams"
+  }
+
+  final case class Scan(index: MetadataIndex) extends QueryAccess {
+    def estimate: Long = index.size
+
+    def candidates: Iterator[String] = index.objectIDs.asScala
+
+    override def toString: String = "scan"
+  }
+}
+
+final case class QueryPlan(clause: QueryClause, access: QueryAccess) {
+  override def toString: String = s"$clause via $access (~${access.estimate})"
+}
+
+/**
+ * Plans each [[gr.grnet.cdmi.query.QueryClause]] on its own, driving it from the access with the fewest estimated
+ * candidates among those its conditions allow. Hash and token lookups are counted exactly. Sorted ranges are
+ * guessed to keep a fixed fraction of the documents that have their field, as the sizes of ranges are not kept.
+ * Clauses without a condition on an indexed field scan all documents.
+ */
+object QueryPlanner {
+  import QueryOperator._
+
+  /**
+   * A range keeps a third of the values of its field, and a prefix a tenth.
+   */
+  final val RangeSelectivity = 3
+  final val PrefixSelectivity = 10
+
+  private[this] def numericRange(index: MetadataIndex, c: QueryCondition): QueryAccess = {
+    val numbers = index.numbersOf(c.field)
+    val bound = java.lang.Double.valueOf(c.number)
+    val estimate = index.withField(c.field).size / RangeSelectivity
+    c.operator match {
+      case Less ⇒ QueryAccess.Range(numbers.headMap(bound, false), (_: java.lang.Double) ⇒ true, estimate)
+      case LessOrEqual ⇒ QueryAccess.Range(numbers.headMap(bound, true), (_: java.lang.Double) ⇒ true, estimate)
+      case Greater ⇒ QueryAccess.Range(numbers.tailMap(bound, false), (_: java.lang.Double) ⇒ true, estimate)
+      case _ ⇒ QueryAccess.Range(numbers.tailMap(bound, true), (_: java.lang.Double) ⇒ true, estimate)
+    }
+  }
+
+  private[this] def stringRange(index: MetadataIndex, c: QueryCondition): QueryAccess = {
+    val values = index.valuesOf(c.field)
+    val estimate = index.withField(c.field).size / RangeSelectivity
+    c.operator match {
+      case Less ⇒ QueryAccess.Range(values.headMap(c.operand, false), (_: String) ⇒ true, estimate)
+      case LessOrEqual ⇒ QueryAccess.Range(values.headMap(c.operand, true), (_: String) ⇒ true, estimate)
+      case Greater ⇒ QueryAccess.Range(values.tailMap(c.operand, false), (_: String) ⇒ true, estimate)
+      case _ ⇒ QueryAccess.Range(values.tailMap(c.operand, true), (_: String) ⇒ true, estimate)
+    }
+  }
+
+  /**
+   * The access that `condition` allows on its own, if any.
+   */
+  def accessOf(index: MetadataIndex, condition: QueryCondition): Option[QueryAccess] = {
+    val field = condition.field
+    def having = QueryAccess.Lookup(index.withField(field))
+
+    if(field == QueryField.ObjectID) {
+      if(condition.operator == Equal) Some(QueryAccess.ById(index, condition.operand)) else None
+    }
+    else if(!QueryField.isIndexed(field)) {
+      None
+    }
+    else
+      condition.operator match {
+        case Equal if condition.isNumeric ⇒
+          Some(QueryAccess.Lookup(index.withNumber(field, condition.number)))
+
+        case Equal ⇒
+          Some(QueryAccess.Lookup(index.withValue(field, condition.operand)))
+
+        case Less | LessOrEqual | Greater | GreaterOrEqual ⇒
+          Some(if(condition.isNumeric) numericRange(index, condition) else stringRange(index, condition))
+
+        case Starts ⇒
+          val prefix = condition.operand
+          val estimate = index.withField(field).size / PrefixSelectivity
+          Some(QueryAccess.Range(index.valuesOf(field).tailMap(prefix, true), (_: String).startsWith(prefix), estimate))
+
+        case Contains if MetadataIndex.isGrammed(field) && condition.operand.length >= MetadataIndex.GramLength ⇒
+          val grams = MetadataIndex.trigramsOf(condition.operand).toVector.map(index.withGram(field, _))
+          Some(QueryAccess.Grams(grams, index.withoutGrams(field)))
+
+        case Tag ⇒
+          Some(QueryAccess.Lookup(index.withTag(field, condition.operand)))
+
+        case NotExists ⇒
+          None
+
+        case _ ⇒
+          // Every other operator needs the field to be there
+          Some(having)
+      }
+  }
+
+  def plan(index: MetadataIndex, clause: QueryClause): QueryPlan = {
+    val accesses = clause.conditions.flatMap(accessOf(index, _))
+    val access = if(accesses.isEmpty) QueryAccess.Scan(index) else accesses.minBy(_.estimate)
+    QueryPlan(clause, access)
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query
+
+import java.util.regex.{Pattern, PatternSyntaxException}
+
+import com.fasterxml.jackson.core.{JsonLocation, JsonParseException, JsonParser, JsonToken}
+import gr.grnet.cdmi.json.{CdmiJson, CdmiRequestJson}
+
+import scala.collection.immutable.Seq
+
+/**
+ * A condition of a [[gr.grnet.cdmi.query.QueryClause]], e.g. `"color": "== red"`. Operands that start with `#`
+ * are compared as numbers, e.g. `"size": ">= #1024"`, and never match values that are not numbers.
+ * All operators but `!exists` need the field to be there.
+ */
+final case class QueryCondition(field: String, operator: QueryOperator, operand: String) {
+  import QueryOperator._
+
+  val isNumeric: Boolean = operand.length > 1 && operand.charAt(0) == '#'
+
+  val number: Double = if(isNumeric) QueryCondition.numberOf(operand.substring(1)) else Double.NaN
+
+  private[this] val pattern: Pattern =
+    if(operator == Matches || operator == NotMatches) Pattern.compile(operand) else null
+
+  private[this] def compare(value: String): Int =
+    if(isNumeric) {
+      val n = QueryCondition.numberOf(value)
+      if(n.isNaN) Int.MinValue else java.lang.Double.compare(n, number)
+    }
+    else value.compareTo(operand)
+
+  private[this] def isEqual(value: String): Boolean =
+    if(isNumeric) QueryCondition.numberOf(value) == number else value == operand
+
+  private[this] def isOrdered(value: String, p: Int ⇒ Boolean): Boolean = {
+    val c = compare(value)
+    c != Int.MinValue && p(c)
+  }
+
+  /**
+   * Whether `value`, which is `null` if the field is not there, satisfies the condition.
+   */
+  def test(value: String): Boolean =
+    if(value eq null) operator == NotExists
+    else
+      operator match {
+        case Equal ⇒ isEqual(value)
+        case NotEqual ⇒ !isEqual(value)
+        case Less ⇒ isOrdered(value, _ < 0)
+        case LessOrEqual ⇒ isOrdered(value, _ <= 0)
+        case Greater ⇒ isOrdered(value, _ > 0)
+        case GreaterOrEqual ⇒ isOrdered(value, _ >= 0)
+        case Starts ⇒ value.startsWith(operand)
+        case NotStarts ⇒ !value.startsWith(operand)
+        case Ends ⇒ value.endsWith(operand)
+        case NotEnds ⇒ !value.endsWith(operand)
+        case Contains ⇒ value.contains(operand)
+        case NotContains ⇒ !value.contains(operand)
+        case Tag ⇒ QueryCondition.tagsOf(value).contains(operand)
+        case NotTag ⇒ !QueryCondition.tagsOf(value).contains(operand)
+        case Matches ⇒ pattern.matcher(value).find()
+        case NotMatches ⇒ !pattern.matcher(value).find()
+        case Exists ⇒ true
+        case NotExists ⇒ false
+      }
+
+  override def toString: String =
+    if(operator.hasOperand) s"$field ${operator.symbol} $operand" else s"$field ${operator.symbol}"
+}
+
+object QueryCondition {
+  /**
+   * `value` as a number, or `NaN` if it is not one.
+   */
+  def numberOf(value: String): Double =
+    if(value.isEmpty) Double.NaN
+    else {
+      val c = value.charAt(0)
+      if(!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.') Double.NaN
+      else
+        try java.lang.Double.parseDouble(value)
+        catch { case _: NumberFormatException ⇒ Double.NaN }
+    }
+
+  /**
+   * The tags of a metadata value that is a JSON array of strings, e.g. `["cat", "dog"]`.
+   * Other values have no tags.
+   */
+  def tagsOf(value: String): Seq[String] =
+    if(value.isEmpty || value.charAt(0) != '[') Nil
+    else {
+      val parser = CdmiJson.Factory.createParser(value)
+      try {
+        parser.nextToken()
+        val tags = Vector.newBuilder[String]
+        while(parser.nextToken() == JsonToken.VALUE_STRING) {
+          tags += parser.getText
+        }
+        tags.result()
+      }
+      catch { case _: JsonParseException ⇒ Nil }
+      finally parser.close()
+    }
+
+  /**
+   * Parses `spec`, the operator and the operand separated by a space, for `field`.
+   */
+  def parse(field: String, spec: String): QueryCondition = {
+    val trimmed = spec.dropWhile(_ == ' ')
+    val (symbol, operand) =
+      trimmed.indexOf(' ') match {
+        case -1 ⇒ (trimmed, "")
+        case i ⇒ (trimmed.substring(0, i), trimmed.substring(i + 1))
+      }
+
+    def fail(message: String) = throw new JsonParseException(s"$message in '$spec' for '$field'", JsonLocation.NA)
+
+    QueryOperator.ofSymbol(symbol) match {
+      case null ⇒
+        fail(s"Unknown query operator '$symbol'")
+
+      case operator if operator.hasOperand && operand.isEmpty ⇒
+        fail(s"Missing operand of '$symbol'")
+
+      case operator ⇒
+        val condition =
+          try QueryCondition(field, operator, operand)
+          catch { case e: PatternSyntaxException ⇒ fail(s"Invalid regular expression (${e.getDescription})") }
+
+        if(condition.isNumeric && condition.number.isNaN) fail(s"Invalid number '${operand.substring(1)}'")
+        condition
+    }
+  }
+}
+
+/**
+ * Conditions that must all hold, one JSON object of `cdmi_scope_specification`.
+ */
+final case class QueryClause(conditions: Seq[QueryCondition]) {
+  def matches(document: QueryDocument, indexPath: String, domainURI: String): Boolean =
+    conditions.forall(c ⇒ c.test(document.valueOf(c.field, indexPath, domainURI)))
+
+  override def toString: String = conditions.mkString("{", ", ", "}")
+}
+
+/**
+ * The parsed `cdmi_scope_specification` of a query queue: an array of [[gr.grnet.cdmi.query.QueryClause]]s,
+ * any of which a data object or container must satisfy to match, e.g.
+ *
+ * {{{
+ * [
+ *   {"parentURI": "starts /photos/", "metadata": {"camera": "== X100", "iso": ">= #800"}},
+ *   {"metadata": {"keywords": "tag night"}}
+ * ]
+ * }}}
+ *
+ * @note Section 18 of CDMI 1.0.2: Scope Specification
+ */
+final case class QueryScope(clauses: Seq[QueryClause]) {
+  def matches(document: QueryDocument, indexPath: String, domainURI: String): Boolean =
+    clauses.exists(_.matches(document, indexPath, domainURI))
+
+  override def toString: String = clauses.mkString("[", ", ", "]")
+}
+
+object QueryScope {
+  /**
+   * Matches every data object and container.
+   */
+  final val All = QueryScope(Vector(QueryClause(Vector())))
+
+  private[this] def clauseOf(parser: JsonParser): QueryClause = {
+    if(parser.getCurrentToken != JsonToken.START_OBJECT) {
+      throw new JsonParseException("Expected an object of conditions", parser.getCurrentLocation)
+    }
+
+    val conditions = Vector.newBuilder[QueryCondition]
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      parser.getCurrentName match {
+        case QueryField.Metadata ⇒
+          for((name, spec) ← CdmiRequestJson.mapOf(parser, QueryField.Metadata)) {
+            conditions += QueryCondition.parse(QueryField.metadataOf(name), spec)
+          }
+
+        case field if QueryField.Known(field) ⇒
+          conditions += QueryCondition.parse(field, CdmiRequestJson.stringOf(parser, field))
+
+        case field ⇒
+          throw new JsonParseException(s"Unknown query field '$field'", parser.getCurrentLocation)
+      }
+    }
+    QueryClause(conditions.result())
+  }
+
+  /**
+   * Parses `json`, which is an array of objects of conditions or a single such object.
+   */
+  def parse(json: String): QueryScope = {
+    val parser = CdmiJson.Factory.createParser(json)
+    try {
+      parser.nextToken() match {
+        case JsonToken.START_ARRAY ⇒
+          val clauses = Vector.newBuilder[QueryClause]
+          while(parser.nextToken() != JsonToken.END_ARRAY) {
+            clauses += clauseOf(parser)
+          }
+          QueryScope(clauses.result())
+
+        case JsonToken.START_OBJECT ⇒
+          QueryScope(Vector(clauseOf(parser)))
+
+        case _ ⇒
+          throw new JsonParseException("Expected an array of objects of conditions", parser.getCurrentLocation)
+      }
+    }
+    finally parser.close()
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.query
+
+import com.fasterxml.jackson.core.{JsonGenerator, JsonParseException, JsonToken}
+import com.twitter.io.Buf
+import gr.grnet.cdmi.json.CdmiJson
+
+import scala.collection.immutable.Seq
+
+/**
+ * The parsed `cdmi_results_specification` of a query queue: the fields of each match that are enqueued, as a JSON
+ * object, e.g. `{"objectID": "", "parentURI": "", "metadata": {"camera": ""}}`. `"metadata": ""` enqueues all
+ * metadata items. Without a results specification, `objectID`, `objectName` and `parentURI` are enqueued.
+ *
+ * @note Section 19 of CDMI 1.0.2: Results Specification
+ */
+final case class ResultsSpecification(fields: Seq[String], allMetadata: Boolean, metadataNames: Seq[String]) {
+  def hasMetadata: Boolean = allMetadata || metadataNames.nonEmpty
+
+  /**
+   * The JSON object enqueued for `document`, which is at `indexPath`.
+   */
+  def render(document: QueryDocument, indexPath: String, domainURI: String): Buf =
+    CdmiJson.encode { gen ⇒
+      gen.writeStartObject()
+      writeFields(gen, document, indexPath, domainURI)
+      gen.writeEndObject()
+    }
+
+  /**
+   * Writes the fields of `document` into the JSON object that `gen` is writing.
+   */
+  def writeFields(gen: JsonGenerator, document: QueryDocument, indexPath: String, domainURI: String): Unit = {
+    for(field ← fields) {
+      val value = document.valueOf(field, indexPath, domainURI)
+      if(value ne null) { gen.writeStringField(field, value) }
+    }
+
+    if(hasMetadata) {
+      val metadata =
+        if(allMetadata) document.metadata
+        else document.metadata.filterKeys(metadataNames.contains)
+      CdmiJson.writeMap(gen, CdmiJson.Fields.metadata, metadata)
+    }
+  }
+}
+
+object ResultsSpecification {
+  final val Default = ResultsSpecification(Vector(QueryField.ObjectID, QueryField.ObjectName, QueryField.ParentURI), false, Nil)
+
+  /**
+   * Parses `json`, which is a JSON object whose field names are what is enqueued.
+   */
+  def parse(json: String): ResultsSpecification = {
+    val parser = CdmiJson.Factory.createParser(json)
+    try {
+      if(parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException("Expected an object of result fields", parser.getCurrentLocation)
+      }
+
+      val fields = Vector.newBuilder[String]
+      var allMetadata = false
+      val metadataNames = Vector.newBuilder[String]
+      while(parser.nextToken() == JsonToken.FIELD_NAME) {
+        parser.getCurrentName match {
+          case QueryField.Metadata ⇒
+            if(parser.nextToken() == JsonToken.START_OBJECT) {
+              while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                metadataNames += parser.getCurrentName
+                parser.nextToken()
+                parser.skipChildren()
+              }
+            }
+            else allMetadata = true
+
+          case field if QueryField.Known(field) ⇒
+            fields += field
+            parser.nextToken()
+            parser.skipChildren()
+
+          case field ⇒
+            throw new JsonParseException(s"Unknown result field '$field'", parser.getCurrentLocation)
+        }
+      }
+
+      val result = ResultsSpecification(fields.result(), allMetadata, metadataNames.result())
+      if(result.fields.isEmpty && !result.hasMetadata) Default else result
+    }
+    finally parser.close()
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.queue
+
+import java.util.concurrent.atomic.AtomicLong
+
+import com.twitter.io.Buf
+
+import scala.collection.immutable.Seq
+
+/**
+ * A CDMI queue object: its identity and metadata, its values in a [[gr.grnet.cdmi.queue.ValueRing]] and,
+ * if it is persistent, their [[gr.grnet.cdmi.queue.SegmentLog]].
+ *
+ * Values are addressed by their index from the oldest unacknowledged one, which is `0`.
+ * Enqueueing, reading and acknowledging take no locks, so any number of producers and consumers
+ * can work on the queue at once.
+ */
+final class CdmiQueue private[queue](
+  val path: List[String],
+  val objectID: String,
+  val parentID: String,
+  initialMetadata: Map[String, String],
+  initialLastModified: Long,
+  log: SegmentLog
+) {
+  private[this] val ring = {
+    val recovered = if(log eq null) Vector() else log.recovered
+    val nextSeq = recovered.lastOption.map(_.logSeq + 1).getOrElse(if(log eq null) 0L else log.ackedSeq)
+    // New values get the same sequence number in the ring and in the log
+    val ring = new ValueRing(nextSeq - recovered.size)
+    ring.add(recovered)
+    ring
+  }
+
+  private[this] val version = new AtomicLong()
+  @volatile private[this] var meta = (initialMetadata, initialLastModified)
+  @volatile private[this] var deleted = false
+
+  def metadata: Map[String, String] = meta._1
+
+  /**
+   * Milliseconds since the epoch.
+   */
+  def lastModified: Long = meta._2
+
+  /**
+   * Increases with every change of the values or the metadata.
+   */
+  def changes: Long = version.get
+
+  private[queue] def setMetadata(metadata: Map[String, String], lastModified: Long): Unit = {
+    meta = (metadata, lastModified)
+    version.incrementAndGet()
+  }
+
+  def isPersistent: Boolean = log ne null
+
+  /**
+   * Whether the queue has been deleted, after which nothing should be enqueued into it.
+   */
+  def isDeleted: Boolean = deleted
+
+  /**
+   * The number of values in the queue, including any being enqueued right now.
+   */
+  def size: Long = ring.size
+
+  /**
+   * Appends `values`, given as `(mimetype, value)`, in order. Values enqueued by one call are
+   * contiguous in the queue.
+   *
+   * If they cannot be persisted, the values are still delivered from memory so that the queue does
+   * not stall, and the failure is rethrown.
+   */
+  def enqueue(values: Seq[(String, Buf)]): Unit =
+    if(values.nonEmpty) {
+      val first = ring.claim(values.size)
+      def inMemory = values.zipWithIndex map { case ((mimetype, value), i) ⇒ new QueueValue(first + i, mimetype, value) }
+
+      val stored =
+        if(log eq null) inMemory
+        else {
+          try log.append(first, values)
+          catch {
+            case e: Throwable ⇒
+              publish(first, inMemory)
+              throw e
+          }
+        }
+      publish(first, stored)
+    }
+
+  private[this] def publish(first: Long, values: Seq[QueueValue]): Unit = {
+    var seq = first
+    for(value ← values) {
+      ring.publish(seq, value)
+      seq += 1
+    }
+    version.incrementAndGet()
+  }
+
+  /**
+   * Up to `count` values, starting from the one at `index`.
+   */
+  def read(index: Long, count: Int): Seq[QueueValue] = ring.read(index, count)
+
+  /**
+   * Removes up to `count` of the oldest values and returns how many were removed.
+   */
+  def ack(count: Long): Long = {
+    val acked = ring.ack(count)
+    if(acked.count > 0) {
+      if(log ne null) log.ack(acked.last.logSeq + 1)
+      version.incrementAndGet()
+    }
+    acked.count
+  }
+
+  private[queue] def close(): Unit = if(log ne null) log.close()
+
+  private[queue] def delete(): Unit = {
+    deleted = true
+    if(log ne null) log.delete()
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.queue
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardCopyOption}
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+
+import gr.grnet.cdmi.objectid.{ObjectIDGenerator, ObjectIDIndex}
+
+import scala.collection.JavaConverters._
+
+/**
+ * The CDMI queues of a backend, by path. Every queue is in the `objectIDIndex` under its URI path, as data
+ * objects are, so that it is reachable through `/cdmi_objectid/`.
+ *
+ * Without a `root`, queues are kept in memory only. With one, each queue lives in `root/<objectID>/`,
+ * where `queue.properties` holds its identity and metadata and a [[gr.grnet.cdmi.queue.SegmentLog]]
+ * holds its values. Opening the engine recovers every queue and puts it back in the index.
+ *
+ * The engine does not know about containers: making sure that a queue has a parent and does not clash
+ * with other entries is up to the caller.
+ */
+final class QueueEngine private(
+  root: File,
+  objectIDIndex: ObjectIDIndex,
+  objectIDs: ObjectIDGenerator,
+  segmentSize: Int
+) {
+  import QueueEngine._
+
+  private[this] val queues = new ConcurrentHashMap[String, CdmiQueue]()
+
+  private[this] def keyOf(path: List[String]): String = path.mkString("/")
+
+  private[this] def indexPathOf(path: List[String]): String = path.mkString("/", "/", "")
+
+  private[this] def dirOf(objectID: String): File = new File(root, objectID)
+
+  private[this] def writeProperties(queue: CdmiQueue): Unit =
+    if(root ne null) {
+      val properties = new Properties()
+      properties.setProperty(Keys.Path, keyOf(queue.path))
+      properties.setProperty(Keys.ObjectID, queue.objectID)
+      properties.setProperty(Keys.ParentID, queue.parentID)
+      properties.setProperty(Keys.LastModified, queue.lastModified.toString)
+      for((k, v) ← queue.metadata) properties.setProperty(Keys.MetadataPrefix + k, v)
+
+      val dir = dirOf(queue.objectID)
+      val tmp = File.createTempFile("queue", ".properties", dir)
+      try {
+        val out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)
+        try properties.store(out, null) finally out.close()
+        Files.move(tmp.toPath, new File(dir, PropertiesFile).toPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+      }
+      finally Files.deleteIfExists(tmp.toPath)
+    }
+
+  private[this] def readQueue(dir: File): Option[CdmiQueue] = {
+    val file = new File(dir, PropertiesFile)
+    if(!file.isFile) None
+    else {
+      val properties = new Properties()
+      val in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)
+      try properties.load(in) finally in.close()
+
+      val key = properties.getProperty(Keys.Path, "")
+      val metadata =
+        (for {
+          name ← properties.stringPropertyNames().asScala if name.startsWith(Keys.MetadataPrefix)
+        } yield (name.substring(Keys.MetadataPrefix.length), properties.getProperty(name))).toMap
+
+      Some(new CdmiQueue(
+        path = if(key.isEmpty) Nil else key.split('/').toList,
+        objectID = properties.getProperty(Keys.ObjectID),
+        parentID = properties.getProperty(Keys.ParentID, ""),
+        initialMetadata = metadata,
+        initialLastModified = properties.getProperty(Keys.LastModified, "0").toLong,
+        log = SegmentLog.open(dir, segmentSize)
+      ))
+    }
+  }
+
+  private def open(): this.type = {
+    if(root ne null) {
+      root.mkdirs()
+      if(!root.isDirectory) throw new IOException(s"Cannot use $root for queues")
+
+      for {
+        dir ← Option(root.listFiles()).getOrElse(Array()) if dir.isDirectory
+        queue ← readQueue(dir)
+      } {
+        queues.put(keyOf(queue.path), queue)
+        objectIDIndex.put(queue.objectID, indexPathOf(queue.path))
+      }
+    }
+    this
+  }
+
+  def get(path: List[String]): Option[CdmiQueue] = Option(queues.get(keyOf(path)))
+
+  def contains(path: List[String]): Boolean = queues.containsKey(keyOf(path))
+
+  def size: Int = queues.size
+
+  def foreach(f: CdmiQueue ⇒ Unit): Unit = for(queue ← queues.values().asScala) f(queue)
+
+  /**
+   * Creates an empty queue at `path`, unless there is one already.
+   */
+  def create(path: List[String], parentID: String, metadata: Map[String, String]): Option[CdmiQueue] = {
+    val key = keyOf(path)
+    if(queues.containsKey(key)) None
+    else {
+      val objectID = objectIDs.nextHex()
+      val log = if(root eq null) null else SegmentLog.open(dirOf(objectID), segmentSize)
+      val queue = new CdmiQueue(path, objectID, parentID, metadata, System.currentTimeMillis(), log)
+      writeProperties(queue)
+
+      queues.putIfAbsent(key, queue) match {
+        case null ⇒
+          objectIDIndex.put(objectID, indexPathOf(path))
+          Some(queue)
+
+        case _ ⇒
+          queue.delete()
+          None
+      }
+    }
+  }
+
+  /**
+   * Replaces the metadata of the queue at `path`.
+   */
+  def updateMetadata(path: List[String], metadata: Map[String, String]): Option[CdmiQueue] =
+    modifyMetadata(path)(_ ⇒ metadata)
+
+  /**
+   * Replaces the metadata of the queue at `path` with what `f` makes of them, without losing concurrent updates.
+   */
+  def modifyMetadata(path: List[String])(f: Map[String, String] ⇒ Map[String, String]): Option[CdmiQueue] =
+    get(path) map { queue ⇒
+      queue.synchronized {
+        queue.setMetadata(f(queue.metadata), System.currentTimeMillis())
+        writeProperties(queue)
+      }
+      queue
+    }
+
+  /**
+   * Deletes the queue at `path` together with its values.
+   */
+  def delete(path: List[String]): Boolean =
+    queues.remove(keyOf(path)) match {
+      case null ⇒ false
+      case queue ⇒
+        objectIDIndex.remove(queue.objectID)
+        queue.delete()
+        true
+    }
+
+  private[this] def prefixOf(containerPath: List[String]): String =
+    if(containerPath.isEmpty) "" else keyOf(containerPath) + "/"
+
+  /**
+   * Whether there are queues under the container at `containerPath`.
+   */
+  def hasUnder(containerPath: List[String]): Boolean = {
+    val prefix = prefixOf(containerPath)
+    queues.keySet().asScala.exists(_.startsWith(prefix))
+  }
+
+  /**
+   * Deletes all queues under the container at `containerPath`, returning how many there were.
+   */
+  def deleteUnder(containerPath: List[String]): Int = {
+    val prefix = prefixOf(containerPath)
+    val keys = queues.keySet().asScala.filter(_.startsWith(prefix)).toList
+    keys.count(key ⇒ delete(key.split('/').toList))
+  }
+
+  def close(): Unit = for(queue ← queues.values().asScala) queue.close()
+}
+
+object QueueEngine {
+  final val PropertiesFile = "queue.properties"
+
+  private object Keys {
+    final val Path = "path"
+    final val ObjectID = "objectID"
+    final val ParentID = "parentID"
+    final val LastModified = "lastModified"
+    final val MetadataPrefix = "metadata."
+  }
+
+  /**
+   * Queues that live in memory only.
+   */
+  def inMemory(objectIDIndex: ObjectIDIndex, objectIDs: ObjectIDGenerator): QueueEngine =
+    new QueueEngine(null, objectIDIndex, objectIDs, SegmentLog.DefaultSegmentSize)
+
+  /**
+   * Queues persisted under `root`, which is created if needed. Existing queues are recovered.
+   */
+  def open(
+    root: File,
+    objectIDIndex: ObjectIDIndex,
+    objectIDs: ObjectIDGenerator,
+    segmentSize: Int = SegmentLog.DefaultSegmentSize
+  ): QueueEngine =
+    new QueueEngine(root, objectIDIndex, objectIDs, segmentSize).open()
+}
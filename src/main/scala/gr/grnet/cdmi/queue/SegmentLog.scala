@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.queue
+
+import java.io.{File, IOException}
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardOpenOption}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+import com.twitter.io.Buf
+
+import scala.collection.JavaConverters._
+import scala.collection.immutable.Seq
+
+/**
+ * The persistent part of a CDMI queue: an append-only log of its values in memory-mapped segment files,
+ * together with a small mapped `head` file that records how far the values have been acknowledged.
+ *
+ * Appenders reserve room for a batch of records in the current segment with a single atomic add and copy
+ * their bytes in without any locking; when a segment is full, the next one is started. Right after the
+ * reservation, every record of the batch is stamped with its size and marked as incomplete; it is only
+ * marked complete once its bytes are in, so a crash never resurrects half a value. An appender that dies
+ * before stamping leaves its reservation zero-filled, and recovery steps over it to the records that
+ * later appenders completed. Values read back are views of the mapping, not copies.
+ *
+ * Segments are deleted as soon as all of their values are acknowledged, so after a restart `recovered`
+ * only scans the segments that still hold unacknowledged values: recovery is bounded by the backlog of
+ * the queue and not by its history.
+ *
+ * Writes reach the page cache immediately and survive a crash of the process; `force` also makes them
+ * survive a crash of the machine.
+ */
+final class SegmentLog private(val dir: File, segmentSize: Int) {
+  import SegmentLog._
+
+  private[this] final class Segment(val number: Long, val buffer: MappedByteBuffer, start: Long) {
+    val position = new AtomicLong(start)
+    val maxSeq = new AtomicLong(-1L)
+    // Appenders that may hold a reservation, see `append`
+    val writers = new AtomicInteger()
+
+    def file: File = segmentFile(dir, number)
+
+    /**
+     * Reserves `size` bytes and returns their position, or -1 if they do not fit.
+     */
+    def reserve(size: Int): Int = {
+      val at = position.getAndAdd(size)
+      if(at + size <= buffer.capacity()) at.toInt else -1
+    }
+
+    /**
+     * Makes all further reservations fail.
+     */
+    def seal(): Unit = position.getAndAdd(Sealed)
+
+    def isSealed: Boolean = position.get >= Sealed
+
+    /**
+     * Whether the segment can never again hold a value with a `logSeq` at or above `seq`.
+     */
+    def isDoneBelow(seq: Long): Boolean = isSealed && writers.get == 0 && maxSeq.get < seq
+
+    def seen(seq: Long): Unit = {
+      var max = maxSeq.get
+      while(seq > max && !maxSeq.compareAndSet(max, seq)) { max = maxSeq.get }
+    }
+  }
+
+  private[this] val head = map(new File(dir, HeadFile), HeadSize)
+  private[this] val acked = new AtomicLong(
+    if(head.getLong(HeadMagic) == Magic) head.getLong(HeadAcked)
+    else {
+      head.putLong(HeadAcked, 0L)
+      head.putLong(HeadMagic, Magic)
+      0L
+    }
+  )
+
+  private[this] val segments = new ConcurrentLinkedQueue[Segment]()
+  @volatile private[this] var current: Segment = _
+  private[this] var nextNumber = 0L // guarded by this
+
+  /**
+   * The unacknowledged values found in the segments, in `logSeq` order.
+   */
+  val recovered: Seq[QueueValue] = recover()
+
+  /**
+   * All values with a `logSeq` below this one have been acknowledged.
+   */
+  def ackedSeq: Long = acked.get
+
+  private[this] def recover(): Seq[QueueValue] = {
+    val numbers =
+      Option(dir.list()).getOrElse(Array()).toList.collect {
+        case name if name.startsWith(SegmentPrefix) ⇒ name.substring(SegmentPrefix.length).toLong
+      }.sorted
+
+    val ackedBelow = acked.get
+    val values = Vector.newBuilder[QueueValue]
+    for(number ← numbers) {
+      val file = segmentFile(dir, number)
+      val segment = new Segment(number, map(file, file.length().toInt), Sealed)
+      val buffer = segment.buffer
+      val capacity = buffer.capacity()
+      var at = if(capacity >= SegmentHeaderSize && buffer.getLong(0) == Magic) SegmentHeaderSize else capacity
+      var done = false
+      while(!done && at + RecordHeaderSize <= capacity) {
+        val marker = buffer.getInt(at)
+        val size = math.abs(marker)
+        if(marker == 0) {
+          // A reservation that was never stamped, or the unreserved end of the segment.
+          // Records that were reserved after it may still be complete.
+          at += RecordAlignment
+        }
+        else if(size < RecordHeaderSize + 4 || size % RecordAlignment != 0 || at + size > capacity) {
+          done = true
+        }
+        else if(marker < 0) {
+          // Incomplete records are skipped
+          at += size
+        }
+        else {
+          val mimetypeLength = buffer.getInt(at + 4)
+          val valueLengthAt = at + RecordHeaderSize + mimetypeLength
+          val valueLength =
+            if(mimetypeLength < 0 || RecordHeaderSize + mimetypeLength + 4 > size) -1
+            else buffer.getInt(valueLengthAt)
+          if(valueLength < 0 || RecordHeaderSize + mimetypeLength + 4 + valueLength > size) {
+            done = true
+          }
+          else {
+            val seq = buffer.getLong(at + 8)
+            segment.seen(seq)
+            if(seq >= ackedBelow) {
+              val mimetype = stringAt(buffer, at + RecordHeaderSize, mimetypeLength)
+              values += new QueueValue(seq, mimetype, sliceOf(buffer, valueLengthAt + 4, valueLength))
+            }
+            at += size
+          }
+        }
+      }
+
+      if(segment.isDoneBelow(ackedBelow)) Files.deleteIfExists(file.toPath)
+      else segments.add(segment)
+      nextNumber = number + 1
+    }
+
+    values.result().sortBy(_.logSeq)
+  }
+
+  // Records are: completion marker, mimetype length, logSeq, mimetype bytes, value length, value bytes, padding
+  private[this] def recordSizeOf(mimetype: Array[Byte], value: Buf): Int =
+    alignUp(RecordHeaderSize + mimetype.length + 4 + value.length)
+
+  private[this] def roll(full: Segment, size: Int): Unit = synchronized {
+    if(current eq full) {
+      if(full ne null) full.seal()
+      val number = nextNumber
+      nextNumber += 1
+      val capacity = math.max(segmentSize, SegmentHeaderSize + size)
+      val buffer = map(segmentFile(dir, number), capacity)
+      buffer.putLong(0, Magic)
+      val segment = new Segment(number, buffer, SegmentHeaderSize)
+      segments.add(segment)
+      current = segment
+    }
+  }
+
+  /**
+   * Appends `values`, giving them consecutive `logSeq`s starting from `firstSeq`.
+   * Returns the appended values, backed by the log.
+   */
+  def append(firstSeq: Long, values: Seq[(String, Buf)]): Seq[QueueValue] = {
+    val mimetypes = values.map(_._1.getBytes(StandardCharsets.UTF_8)).toArray
+    val sizes = new Array[Int](mimetypes.length)
+    var total = 0
+    for(((_, value), i) ← values.iterator.zipWithIndex) {
+      sizes(i) = recordSizeOf(mimetypes(i), value)
+      total += sizes(i)
+    }
+
+    // A segment is only deleted once it is sealed and has no writers, so we register as a writer before
+    // reserving: either the reservation precedes the seal and the segment waits for us, or it fails.
+    var segment = current
+    var at = -1
+    while(at < 0) {
+      if(segment ne null) {
+        segment.writers.incrementAndGet()
+        at = segment.reserve(total)
+        if(at < 0) segment.writers.decrementAndGet()
+      }
+      if(at < 0) {
+        roll(segment, total)
+        segment = current
+      }
+    }
+
+    try appendAt(segment, at, firstSeq, values, mimetypes, sizes)
+    finally segment.writers.decrementAndGet()
+  }
+
+  private[this] def appendAt(
+    segment: Segment,
+    start: Int,
+    firstSeq: Long,
+    values: Seq[(String, Buf)],
+    mimetypes: Array[Array[Byte]],
+    sizes: Array[Int]
+  ): Seq[QueueValue] = {
+    val buffer = segment.buffer
+
+    // Stamp the whole batch before copying any value in, so that recovery can step over its records
+    var at = start
+    var seq = firstSeq
+    var i = 0
+    while(i < sizes.length) {
+      buffer.putInt(at, -sizes(i))
+      buffer.putInt(at + 4, mimetypes(i).length)
+      buffer.putLong(at + 8, seq)
+      at += sizes(i)
+      seq += 1
+      i += 1
+    }
+
+    val result = Vector.newBuilder[QueueValue]
+    at = start
+    seq = firstSeq
+    i = 0
+    for((mimetype, value) ← values) {
+      val size = sizes(i)
+      val mimetypeBytes = mimetypes(i)
+      val bytes = Buf.ByteArray.Owned.extract(value)
+      val out = buffer.duplicate()
+      out.position(at + RecordHeaderSize)
+      out.put(mimetypeBytes)
+      out.putInt(bytes.length)
+      val valueAt = out.position()
+      out.put(bytes)
+      buffer.putInt(at, size)
+
+      segment.seen(seq)
+      result += new QueueValue(seq, mimetype, sliceOf(buffer, valueAt, bytes.length))
+      at += size
+      seq += 1
+      i += 1
+    }
+    result.result()
+  }
+
+  /**
+   * Records that all values with a `logSeq` below `nextSeq` are acknowledged and deletes the segments
+   * that hold nothing else.
+   */
+  def ack(nextSeq: Long): Unit = {
+    var seen = acked.get
+    while(nextSeq > seen && !acked.compareAndSet(seen, nextSeq)) { seen = acked.get }
+
+    // Concurrent acknowledgements may write out of order, so keep writing until the latest one sticks
+    var latest = acked.get
+    var written = -1L
+    while(latest != written) {
+      head.putLong(HeadAcked, latest)
+      written = latest
+      latest = acked.get
+    }
+
+    val ackedBelow = acked.get
+    for(segment ← segments.iterator().asScala) {
+      if(segment.isDoneBelow(ackedBelow) && segments.remove(segment)) {
+        Files.deleteIfExists(segment.file.toPath)
+      }
+    }
+  }
+
+  def force(): Unit = {
+    head.force()
+    for(segment ← segments.iterator().asScala) { segment.buffer.force() }
+  }
+
+  /**
+   * Forces the log to disk. Mappings are released when they are garbage collected.
+   */
+  def close(): Unit = force()
+
+  /**
+   * Removes all files of the log.
+   */
+  def delete(): Unit = {
+    for(file ← Option(dir.listFiles()).getOrElse(Array())) { Files.deleteIfExists(file.toPath) }
+    Files.deleteIfExists(dir.toPath)
+  }
+}
+
+object SegmentLog {
+  final val Magic = 0x43444d4951534547L // "CDMIQSEG"
+  final val DefaultSegmentSize = 8 << 20
+
+  final val HeadFile = "head"
+  final val SegmentPrefix = "segment."
+
+  private final val HeadSize = 4096
+  private final val HeadMagic = 0
+  private final val HeadAcked = 8
+
+  private final val Sealed = 1L << 40
+
+  private final val SegmentHeaderSize = 16
+  private final val RecordHeaderSize = 16
+
+  private final val RecordAlignment = 8
+
+  private def alignUp(size: Int): Int = (size + RecordAlignment - 1) & ~(RecordAlignment - 1)
+
+  private def segmentFile(dir: File, number: Long): File = new File(dir, f"$SegmentPrefix$number%010d")
+
+  private def map(file: File, size: Int): MappedByteBuffer = {
+    val channel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    try channel.map(FileChannel.MapMode.READ_WRITE, 0L, size)
+    finally channel.close()
+  }
+
+  private def sliceOf(buffer: ByteBuffer, at: Int, length: Int): Buf = {
+    val slice = buffer.duplicate()
+    slice.position(at)
+    slice.limit(at + length)
+    Buf.ByteBuffer.Owned(slice.slice())
+  }
+
+  private def stringAt(buffer: ByteBuffer, at: Int, length: Int): String = {
+    val bytes = new Array[Byte](length)
+    val in = buffer.duplicate()
+    in.position(at)
+    in.get(bytes)
+    new String(bytes, StandardCharsets.UTF_8)
+  }
+
+  /**
+   * Opens the log in `dir`, creating it if needed, and recovers its unacknowledged values.
+   */
+  def open(dir: File, segmentSize: Int = DefaultSegmentSize): SegmentLog = {
+    dir.mkdirs()
+    if(!dir.isDirectory) throw new IOException(s"Cannot create $dir")
+    new SegmentLog(dir, segmentSize)
+  }
+}
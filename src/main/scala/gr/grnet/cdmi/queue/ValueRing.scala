@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.queue
+
+import java.util.concurrent.atomic.{AtomicLong, AtomicReference, AtomicReferenceArray}
+
+import scala.collection.immutable.Seq
+
+/**
+ * A lock-free, unbounded, multi-producer/multi-consumer sequence of [[gr.grnet.cdmi.queue.QueueValue]]s.
+ *
+ * Producers `claim` a run of sequence numbers with a single atomic add and `publish` a value into each of them,
+ * in any order and from any thread. Consumers `read` the published values from the head without removing them
+ * and `ack` them, which moves the head forward past a run of published values with a single compare-and-set.
+ *
+ * Values live in chunks of `ChunkSize` slots that are linked as the tail grows and become garbage once
+ * the head moves past them.
+ */
+final class ValueRing(first: Long = 0L) {
+  import ValueRing._
+
+  private[this] val head = new AtomicLong(first)
+  private[this] val tail = new AtomicLong(first)
+  private[this] val headChunk = new AtomicReference[Chunk](new Chunk(first - (first & ChunkMask)))
+  @volatile private[this] var tailChunk: Chunk = headChunk.get
+
+  /**
+   * The sequence number of the oldest value that has not been acknowledged.
+   */
+  def headSeq: Long = head.get
+
+  /**
+   * The sequence number the next claimed value will get.
+   */
+  def tailSeq: Long = tail.get
+
+  /**
+   * The number of claimed values that have not been acknowledged, including those not yet published.
+   */
+  def size: Long = math.max(0L, tail.get - head.get)
+
+  /**
+   * Claims `n` consecutive sequence numbers and returns the first of them.
+   * Each of them must then be published exactly once.
+   */
+  def claim(n: Int): Long = tail.getAndAdd(n)
+
+  def publish(seq: Long, value: QueueValue): Unit = {
+    val chunk = chunkFor(seq, create = true)
+    chunk.slots.set((seq & ChunkMask).toInt, value)
+  }
+
+  /**
+   * Claims a sequence number for each of `values` and publishes them in order.
+   */
+  def add(values: Seq[QueueValue]): Long = {
+    val seq = claim(values.size)
+    var i = seq
+    for(value ← values) {
+      publish(i, value)
+      i += 1
+    }
+    seq
+  }
+
+  // The chunk holding `seq`, or `null` if the head has already moved past it.
+  private[this] def chunkFor(seq: Long, create: Boolean): Chunk = {
+    val hint = tailChunk
+    var chunk = if(hint.base <= seq) hint else headChunk.get
+    if(chunk.base > seq) return null
+
+    while(seq - chunk.base >= ChunkSize) {
+      var next = chunk.next.get
+      if(next eq null) {
+        if(!create) return null
+        val created = new Chunk(chunk.base + ChunkSize)
+        next = if(chunk.next.compareAndSet(null, created)) created else chunk.next.get
+      }
+      chunk = next
+    }
+    if(create && chunk.base > tailChunk.base) { tailChunk = chunk }
+    chunk
+  }
+
+  private[this] def valueAt(seq: Long): QueueValue = {
+    val chunk = chunkFor(seq, create = false)
+    if(chunk eq null) null else chunk.slots.get((seq & ChunkMask).toInt)
+  }
+
+  /**
+   * Up to `max` published values, skipping the `skip` oldest ones. Reading stops at the first value
+   * that is claimed but not yet published.
+   */
+  def read(skip: Long, max: Int): Seq[QueueValue] = {
+    val builder = Vector.newBuilder[QueueValue]
+    var count = 0
+    val h = head.get
+    var seq = h + skip
+    val end = tail.get
+    while(count < max && seq < end) {
+      val value = valueAt(seq)
+      if(value eq null) {
+        if(head.get != h) return read(skip, max) // the head moved under us, start over
+        return builder.result()
+      }
+      builder += value
+      count += 1
+      seq += 1
+    }
+    builder.result()
+  }
+
+  /**
+   * Acknowledges up to `n` of the oldest values, stopping at the first one that is not yet published.
+   */
+  def ack(n: Long): Acked = {
+    while(true) {
+      val h = head.get
+      var last: QueueValue = null
+      var k = 0L
+      var done = false
+      while(!done && k < n) {
+        val value = valueAt(h + k)
+        if(value eq null) done = true
+        else {
+          last = value
+          k += 1
+        }
+      }
+
+      if(k == 0) {
+        if(head.get == h) return NoneAcked
+      }
+      else if(head.compareAndSet(h, h + k)) {
+        dropChunksBefore(h + k)
+        return Acked(k, last)
+      }
+    }
+    NoneAcked
+  }
+
+  private[this] def dropChunksBefore(seq: Long): Unit = {
+    var chunk = headChunk.get
+    while(chunk.base + ChunkSize <= seq) {
+      val next = chunk.next.get
+      if((next eq null) || !headChunk.compareAndSet(chunk, next)) return
+      chunk = next
+    }
+  }
+}
+
+object ValueRing {
+  final val ChunkSize = 1024
+
+  /**
+   * The outcome of `ack`: how many values were acknowledged and the last of them.
+   */
+  final case class Acked(count: Long, last: QueueValue)
+
+  final val NoneAcked = Acked(0L, null)
+  private final val ChunkMask = ChunkSize - 1L
+
+  private final class Chunk(val base: Long) {
+    val slots = new AtomicReferenceArray[QueueValue](ChunkSize)
+    val next = new AtomicReference[Chunk]()
+  }
+}
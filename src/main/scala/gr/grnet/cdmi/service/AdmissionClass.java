@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service;
+
+/**
+ * Enumerates how requests are admitted by {@link AdmissionGate}s.
+ * Reads and writes go through gates of their own, so that heavy uploads do not starve reads.
+ */
+public enum AdmissionClass {
+    Exempt, // cheap requests, such as those for "/cdmi_capabilities/", which are always served
+    Read,   // GET and HEAD
+    Write,  // everything else
+}
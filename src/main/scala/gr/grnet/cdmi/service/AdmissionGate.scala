@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.util.{Comparator, PriorityQueue}
+
+import com.twitter.finagle.stats.StatsReceiver
+import com.twitter.util.{Future, Promise, Time, TimerTask, Timer}
+
+/**
+ * Runs at most `maxConcurrent` requests at a time and queues at most `maxPending` more, earliest due first and in
+ * arrival order among those equally due. A request that finds the queue full, or that is still queued at its deadline,
+ * is shed.
+ * A `maxConcurrent` of zero means no limit.
+ *
+ * When `latencyTargetMicros` is positive, the gate keeps a moving average of the latency of the requests it
+ * has admitted, from their arrival to their completion. While that average exceeds the target the backend is
+ * considered overloaded: requests that cannot run at once are shed instead of queued, and so are those already queued.
+ *
+ * Reported to `receiver` are the `admitted`, `queued` and `shed` counters and the `running`, `pending` and
+ * `latency_us` gauges.
+ */
+final class AdmissionGate(
+  val maxConcurrent: Int,
+  val maxPending: Int,
+  val latencyTargetMicros: Long,
+  timer: Timer,
+  receiver: StatsReceiver
+) {
+  private[this] final class Waiter(val due: Time, val sequence: Long) extends Promise[Boolean] {
+    @volatile var timeout: TimerTask = _
+  }
+
+  private[this] val waiters = new PriorityQueue[Waiter](16, new Comparator[Waiter] {
+    def compare(a: Waiter, b: Waiter): Int = {
+      val byDue = a.due.compare(b.due)
+      if(byDue != 0) byDue else java.lang.Long.compare(a.sequence, b.sequence)
+    }
+  })
+  private[this] var arrivals = 0L
+  private[this] var running = 0
+  private[this] var averageMicros = 0.0
+
+  private[this] val admitted = receiver.counter("admitted")
+  private[this] val queued = receiver.counter("queued")
+  private[this] val shed = receiver.counter("shed")
+  private[this] val runningGauge = receiver.addGauge("running") { synchronized(running).toFloat }
+  private[this] val pendingGauge = receiver.addGauge("pending") { synchronized(waiters.size()).toFloat }
+  private[this] val latencyGauge = receiver.addGauge("latency_us") { synchronized(averageMicros).toFloat }
+
+  private[this] def overloaded: Boolean = latencyTargetMicros > 0 && averageMicros > latencyTargetMicros
+
+  def isOverloaded: Boolean = synchronized(overloaded)
+
+  /**
+   * Resolves to `true` when the request may run, after which the caller must `release` the gate,
+   * or to `false` when the request is shed. While it waits, it goes before those that are due later.
+   */
+  def admit(deadline: Time, due: Time = Time.Top): Future[Boolean] = {
+    var taken = false
+    val waiter = synchronized {
+      if(maxConcurrent <= 0 || running < maxConcurrent) {
+        running += 1
+        taken = true
+        null
+      }
+      else if(overloaded || waiters.size() >= maxPending || deadline <= Time.now) {
+        null
+      }
+      else {
+        arrivals += 1
+        val waiter = new Waiter(due, arrivals)
+        waiters.add(waiter)
+        waiter
+      }
+    }
+
+    if(taken) {
+      admitted.incr()
+      Future.True
+    }
+    else if(waiter ne null) {
+      queued.incr()
+      if(deadline < Time.Top) {
+        waiter.timeout = timer.schedule(deadline) { expire(waiter) }
+      }
+      waiter.setInterruptHandler { case _ ⇒ expire(waiter) }
+      waiter
+    }
+    else {
+      shed.incr()
+      Future.False
+    }
+  }
+
+  private[this] def expire(waiter: Waiter): Unit =
+    if(synchronized(waiters.remove(waiter))) {
+      shed.incr()
+      waiter.setValue(false)
+    }
+
+  /**
+   * Gives the slot of a request that arrived at `startNanos` (as in `System.nanoTime()`) to the next one queued.
+   */
+  def release(startNanos: Long): Unit = {
+    val latencyMicros = (System.nanoTime() - startNanos) / 1000L
+    var next: Waiter = null
+    var dropped: List[Waiter] = Nil
+
+    synchronized {
+      averageMicros =
+        if(averageMicros == 0.0) latencyMicros.toDouble
+        else averageMicros + (latencyMicros - averageMicros) * AdmissionGate.Smoothing
+
+      if(overloaded) {
+        while(!waiters.isEmpty) { dropped = waiters.poll() :: dropped }
+      }
+      else {
+        next = waiters.poll()
+      }
+
+      if(next eq null) { running -= 1 } // otherwise the slot passes to `next`
+    }
+
+    for(waiter ← dropped) {
+      if(waiter.timeout ne null) { waiter.timeout.cancel() }
+      shed.incr()
+      waiter.setValue(false)
+    }
+
+    if(next ne null) {
+      if(next.timeout ne null) { next.timeout.cancel() }
+      admitted.incr()
+      next.setValue(true)
+    }
+  }
+}
+
+object AdmissionGate {
+  /**
+   * The weight of the latest latency in the moving average.
+   */
+  final val Smoothing = 0.1
+
+  /**
+   * Parses comma-separated `<operation>=<max concurrent>` entries, e.g. `PUT_object_noncdmi=16,GET_object_noncdmi=64`,
+   * where each `<operation>` is the name of an [[gr.grnet.cdmi.service.Operation]].
+   */
+  def parseLimits(spec: String): Map[Operation, Int] =
+    spec.split(',').map(_.trim).filter(_.nonEmpty).map { entry ⇒
+      def fail() = throw new IllegalArgumentException(s"Expected <operation>=<max concurrent> instead of '$entry'")
+
+      entry.split('=') match {
+        case Array(name, limit) ⇒
+          try { (Operation.valueOf(name.trim), limit.trim.toInt) }
+          catch { case _: IllegalArgumentException ⇒ fail() } // NumberFormatException included
+        case _ ⇒
+          fail()
+      }
+    }.toMap
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.io.{ByteArrayOutputStream, InputStream}
+import java.nio.channels.WritableByteChannel
+import java.util.concurrent.atomic.AtomicBoolean
+
+import com.twitter.io.{Buf, InputStreamReader, Reader}
+import com.twitter.util.{Future, Return}
+
+/**
+ * Helpers for request and response bodies that are transferred as streams of chunks.
+ * Memory use is bounded by the chunk size and not by the size of the body.
+ */
+object Bodies {
+  /**
+   * The body of `request` as a [[com.twitter.io.Reader]].
+   * For a chunked request this is the request's own reader, metered by the current [[gr.grnet.cdmi.service.BodyMeter]]
+   * if there is one, otherwise a reader over the already received content.
+   */
+  def readerOf(request: com.twitter.finagle.httpx.Request): Reader =
+    if(!request.isChunked) Reader.fromBuf(request.content)
+    else BodyMeter.current match {
+      case Some(meter) ⇒ metered(request.reader, meter)
+      case None ⇒ request.reader
+    }
+
+  /**
+   * Passes on the chunks of `source`, calling `meter` with the size of each as it is read.
+   */
+  def metered(source: Reader, meter: Long ⇒ Unit): Reader = new Reader {
+    def read(max: Int): Future[Option[Buf]] =
+      source.read(max) onSuccess {
+        case Some(buf) ⇒ meter(buf.length.toLong)
+        case None ⇒
+      }
+
+    def discard(): Unit = source.discard()
+  }
+
+  /**
+   * Passes on the chunks of `source` and calls `done`, once, when it is read to its end, fails or is discarded.
+   */
+  def ensuring(source: Reader)(done: ⇒ Unit): Reader = new Reader {
+    private[this] val finished = new AtomicBoolean(false)
+
+    private[this] def finish(): Unit = if(finished.compareAndSet(false, true)) done
+
+    def read(max: Int): Future[Option[Buf]] =
+      source.read(max) respond {
+        case Return(Some(_)) ⇒
+        case _ ⇒ finish()
+      }
+
+    def discard(): Unit =
+      try source.discard() finally finish()
+  }
+
+  /**
+   * Streams `in` using chunks of at most `chunkSize` bytes. The stream is closed when exhausted or discarded.
+   */
+  def readerOf(in: InputStream, chunkSize: Int): Reader = new InputStreamReader(in, chunkSize)
+
+  /**
+   * Reads the whole of `reader`, provided it has at most `maxBytes` bytes.
+   * Otherwise the reader is discarded and the result is `None`.
+   * Fails with a [[gr.grnet.cdmi.service.DeadlineExceededException]] if the request deadline passes meanwhile.
+   */
+  def readAll(reader: Reader, maxBytes: Long, chunkSize: Int): Future[Option[Buf]] = {
+    val out = new ByteArrayOutputStream()
+
+    def loop(): Future[Option[Buf]] =
+      reader.read(chunkSize) flatMap {
+        case None ⇒
+          Future.value(Some(Buf.ByteArray.Owned(out.toByteArray)))
+
+        case Some(buf) if out.size() + buf.length > maxBytes ⇒
+          reader.discard()
+          Future.value(None)
+
+        case Some(buf) ⇒
+          RequestDeadline.check()
+          val bytes = new Array[Byte](buf.length)
+          buf.write(bytes, 0)
+          out.write(bytes)
+          loop()
+      }
+
+    loop()
+  }
+
+  /**
+   * Reads exactly `length` bytes from `reader` into a single array, which is allocated upfront.
+   * Fails if `reader` has fewer bytes and ignores any excess.
+   */
+  def readFully(reader: Reader, length: Int, chunkSize: Int): Future[Buf] = {
+    val bytes = new Array[Byte](length)
+
+    def loop(offset: Int): Future[Buf] =
+      if(offset == length) {
+        reader.discard()
+        Future.value(Buf.ByteArray.Owned(bytes))
+      }
+      else {
+        reader.read(math.min(chunkSize, length - offset)) flatMap {
+          case None ⇒
+            Future.exception(new java.io.EOFException(s"Expected $length bytes, got $offset"))
+
+          case Some(buf) ⇒
+            val n = math.min(buf.length, length - offset)
+            buf.slice(0, n).write(bytes, offset)
+            loop(offset + n)
+        }
+      }
+
+    loop(0)
+  }
+
+  /**
+   * Concatenates the given readers, each of which is created only when the previous one is exhausted.
+   */
+  def concat(parts: List[() ⇒ Reader]): Reader = new Reader {
+    private[this] var rest = parts
+    private[this] var current: Reader = null
+
+    def read(max: Int): Future[Option[Buf]] = synchronized {
+      if(current eq null) {
+        rest match {
+          case Nil ⇒
+            Future.None
+
+          case part :: tail ⇒
+            current = part()
+            rest = tail
+            read(max)
+        }
+      }
+      else {
+        val reader = current
+        reader.read(max) flatMap {
+          case None ⇒
+            synchronized { if(current eq reader) { current = null } }
+            read(max)
+
+          case some ⇒
+            Future.value(some)
+        }
+      }
+    }
+
+    def discard(): Unit = synchronized {
+      if(current ne null) { current.discard() }
+      current = null
+      rest = Nil
+    }
+  }
+
+  /**
+   * Drains `reader` into `channel`, one chunk at a time, and returns the number of bytes written.
+   * Fails with a [[gr.grnet.cdmi.service.DeadlineExceededException]] if the request deadline passes meanwhile.
+   */
+  def copy(reader: Reader, channel: WritableByteChannel, chunkSize: Int): Future[Long] = {
+    def loop(written: Long): Future[Long] =
+      reader.read(chunkSize) flatMap {
+        case None ⇒
+          Future.value(written)
+
+        case Some(buf) ⇒
+          RequestDeadline.check()
+          val bb = Buf.ByteBuffer.Owned.extract(Buf.ByteBuffer.coerce(buf)).duplicate()
+          val length = bb.remaining()
+          while(bb.hasRemaining) { channel.write(bb) }
+          loop(written + length)
+      }
+
+    loop(0L)
+  }
+}
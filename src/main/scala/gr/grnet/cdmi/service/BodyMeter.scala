@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.context.Contexts
+
+/**
+ * What the chunks of the streamed request body being served are counted by as they are read, as set by
+ * `Filters.QosScheduling`. Like [[gr.grnet.cdmi.service.RequestDeadline]], it travels along with the futures of
+ * the request, and `Bodies.readerOf` meters the readers that it gives out by it.
+ */
+object BodyMeter {
+  private[this] val key = new Contexts.local.Key[Long ⇒ Unit]
+
+  def let[R](meter: Long ⇒ Unit)(f: ⇒ R): R = Contexts.local.let(key, meter)(f)
+
+  def current: Option[Long ⇒ Unit] = Contexts.local.get(key)
+}
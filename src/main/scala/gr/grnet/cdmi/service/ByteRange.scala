@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+/**
+ * An inclusive range of bytes, as used by both the HTTP `Range` header and the CDMI `value:<range>` query.
+ */
+final case class ByteRange(first: Long, last: Long) {
+  def length: Long = last - first + 1
+
+  /**
+   * The CDMI representation, e.g. `0-1023`, as used in `valuerange`.
+   */
+  def toCdmi: String = s"$first-$last"
+
+  /**
+   * The value of the HTTP `Content-Range` header.
+   */
+  def toContentRange(size: Long): String = s"bytes $first-$last/$size"
+}
+
+object ByteRange {
+  /**
+   * More ranges than this in one request are not honored; the whole representation is sent instead.
+   */
+  final val MaxRanges = 16
+
+  private[this] def parseLong(s: String): Long =
+    if(s.isEmpty || s.length > 18 || !s.forall(c ⇒ c >= '0' && c <= '9')) -1L else s.toLong
+
+  /**
+   * Parses one `first-last`, `first-` or `-suffixLength` range spec, for a representation of `size` bytes.
+   * Returns `Left(())` on a syntax error, `Right(None)` if the range is not satisfiable.
+   */
+  private[this] def parseSpec(spec: String, size: Long): Either[Unit, Option[ByteRange]] = {
+    val dash = spec.indexOf('-')
+    if(dash == -1) {
+      Left(())
+    }
+    else {
+      val a = spec.substring(0, dash).trim
+      val b = spec.substring(dash + 1).trim
+
+      if(a.isEmpty) {
+        // suffix
+        val suffix = parseLong(b)
+        if(suffix < 0) Left(())
+        else if(suffix == 0 || size == 0) Right(None)
+        else Right(Some(ByteRange(math.max(0L, size - suffix), size - 1)))
+      }
+      else {
+        val first = parseLong(a)
+        val last = if(b.isEmpty) Long.MaxValue else parseLong(b)
+        if(first < 0 || last < 0 || last < first) Left(())
+        else if(first >= size) Right(None)
+        else Right(Some(ByteRange(first, math.min(last, size - 1))))
+      }
+    }
+  }
+
+  /**
+   * Parses the value of an HTTP `Range` header (RFC 7233) for a representation of `size` bytes.
+   *
+   * Returns `None` if the header must be ignored, either because it is invalid or because it asks
+   * for too many ranges, and `Some(Nil)` if none of the ranges is satisfiable.
+   */
+  def parseHttp(header: String, size: Long): Option[List[ByteRange]] = {
+    val h = header.trim
+    if(!h.startsWith("bytes=")) {
+      None
+    }
+    else {
+      val specs = h.substring("bytes=".length).split(',')
+      if(specs.length > MaxRanges) {
+        None
+      }
+      else {
+        var ranges: List[ByteRange] = Nil
+        var ok = true
+        for(spec ← specs if ok) {
+          parseSpec(spec.trim, size) match {
+            case Left(_) ⇒ ok = false
+            case Right(None) ⇒
+            case Right(Some(range)) ⇒ ranges = range :: ranges
+          }
+        }
+
+        if(ok) Some(ranges.reverse) else None
+      }
+    }
+  }
+
+  /**
+   * Parses a CDMI range, e.g. the `0-1023` of `?value:0-1023`, for a value of `size` bytes.
+   * Returns `None` if the range is invalid or not satisfiable.
+   */
+  def parseCdmi(spec: String, size: Long): Option[ByteRange] =
+    if(spec.startsWith("-")) None
+    else parseSpec(spec, size).right.toOption.flatten
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+import com.twitter.io.Buf
+import gr.grnet.cdmi.json.CdmiJson
+import gr.grnet.cdmi.model.CapabilityModel
+
+/**
+ * An immutable snapshot of the capability tree under `/cdmi_capabilities/`, with every capability object
+ * already encoded to JSON and tagged with a strong `ETag`. Serving a capability object is then only a lookup,
+ * and so is serving it compressed, after the first time.
+ *
+ * A service that changes its capabilities at runtime builds a new registry and swaps it in,
+ * see `CdmiRestService.rebuildCapabilities`.
+ */
+final class CapabilityRegistry private(entries: Map[String, CapabilityRegistry.Entry]) {
+  /**
+   * The root capabilities object, `/cdmi_capabilities/`.
+   */
+  def root: CapabilityRegistry.Entry = entries(CapabilityRegistry.RootPath)
+
+  /**
+   * A capabilities object by its path under `/cdmi_capabilities/`, without trailing slash, e.g. `container`.
+   */
+  def get(path: String): Option[CapabilityRegistry.Entry] = entries.get(path)
+
+  def paths: Iterable[String] = entries.keys
+}
+
+object CapabilityRegistry {
+  final val RootPath = ""
+
+  final case class Entry(model: CapabilityModel, body: Buf, etag: String) {
+    private[this] val variants = new AtomicReferenceArray[Buf](ContentCoding.values().length)
+
+    /**
+     * The `body` compressed with `coding` at `level`. It is compressed on first use and kept for as long as
+     * the registry is served.
+     */
+    def bodyOf(coding: ContentCoding, level: Int): Buf = {
+      val variant = variants.get(coding.ordinal())
+      if(variant ne null) variant
+      else {
+        val compressed = ResponseCompression.compress(body, coding, level)
+        variants.set(coding.ordinal(), compressed)
+        compressed
+      }
+    }
+  }
+
+  def entryOf(model: CapabilityModel): Entry = {
+    val body = CdmiJson.encode(model)
+    Entry(model, body, EntityTags.strongOf(body))
+  }
+
+  /**
+   * Builds a registry from the root capabilities and its children, keyed by their path under `/cdmi_capabilities/`.
+   * The children of the root are set to exactly the given ones.
+   */
+  def apply(root: CapabilityModel, children: Map[String, CapabilityModel]): CapabilityRegistry = {
+    val childNames = children.keys.toList.sorted.map(path ⇒ s"$path/")
+    val rootModel = root.copy(
+      children = childNames,
+      childrenRange = if(childNames.isEmpty) "0-0" else s"0-${childNames.size - 1}"
+    )
+
+    val entries =
+      for((path, model) ← children) yield (path, entryOf(model))
+
+    new CapabilityRegistry(entries + (RootPath → entryOf(rootModel)))
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import gr.grnet.cdmi.model.ContainerModel
+import com.twitter.util.Future
+
+/**
+ * Backends that can list the children of a container page by page mix this in.
+ *
+ * Doing so enables the default `GET_container_cdmi`, which honors `?children:<range>` and streams
+ * the `children` array as pages arrive from the backend, and makes the server advertise
+ * `cdmi_list_children` and `cdmi_list_children_range`.
+ *
+ * @note Section 9.4 of CDMI 1.0.2: Read a Container Object using CDMI Content Type
+ */
+trait CdmiContainerListingMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * Returns the container at `containerPath`, or `None` if there is no such container.
+   * The `childrenrange` and `children` of the result are not used.
+   */
+  def GET_container_model(request: Request, containerPath: List[String]): Future[Option[ContainerModel]]
+
+  /**
+   * Opens a cursor over the children of the container at `containerPath`, positioned at child `offset`.
+   * Skipping to `offset` should not require listing the preceding children, if the backend can avoid it.
+   */
+  def GET_container_children(request: Request, containerPath: List[String], offset: Long): Future[ChildrenCursor]
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.ConcurrentHashMap
+
+import com.twitter.util.{Duration, Future, Time}
+
+/**
+ * Backends that can copy and move data objects and container trees mix this in.
+ *
+ * A data object or container is created from another one with a `copy` or `move` field in the body of a CDMI `PUT`,
+ * naming the source by path or by `/cdmi_objectid/` URI. The backend does the copying, so values are never routed
+ * through the client. Mixing this in makes the server advertise the respective container and system-wide capabilities.
+ *
+ * Transfers into a target are tracked here, so that a transfer that outlives its request, e.g. a copy of a large
+ * container tree, can be reported by the target's `completionStatus` and `percentComplete`. A transfer that fails
+ * keeps being reported, as `Error`, until the target is deleted or transferred into again.
+ *
+ * @note Section 8.2.5 of CDMI 1.0.2: Request Message Body
+ * @note Section 9.2.5 of CDMI 1.0.2: Request Message Body
+ */
+trait CdmiCopyMoveMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  def copyMoveParallelism: Int = math.max(1, copyParallelism())
+
+  /**
+   * How long a `PUT` waits for a copy or move of a container before answering with `202 Accepted`.
+   */
+  def copyMoveWait: Duration = Duration.fromMilliseconds(math.max(0, copyWait()))
+
+  private[this] val transfers = new ConcurrentHashMap[String, Transfer]()
+
+  /**
+   * The transfer into the entry at `indexPath`, which is a URI path, if it is running or has failed.
+   */
+  def transferInto(indexPath: String): Option[Transfer] =
+    if(transfers.isEmpty) None else Option(transfers.get(indexPath))
+
+  /**
+   * Runs `run` as the transfer into `indexPath`, outside of the deadline of the request, since it may outlive it.
+   * The result is `None` if another transfer into `indexPath` is still running.
+   */
+  def track(indexPath: String)(run: Transfer ⇒ Future[Unit]): Option[Transfer] = {
+    val transfer = new Transfer
+
+    @annotation.tailrec
+    def register(): Boolean =
+      transfers.putIfAbsent(indexPath, transfer) match {
+        case null ⇒ true
+        case running if !running.isDone ⇒ false
+        case failed ⇒ transfers.replace(indexPath, failed, transfer) || register()
+      }
+
+    if(!register()) None
+    else {
+      RequestDeadline.let(Time.Top) {
+        Future(run(transfer)).flatten respond { outcome ⇒
+          transfer.complete(outcome)
+          if(outcome.isReturn) transfers.remove(indexPath, transfer)
+        }
+      }
+      Some(transfer)
+    }
+  }
+
+  /**
+   * Forgets a failed transfer into `indexPath`, e.g. once the target is deleted.
+   */
+  def forgetTransfer(indexPath: String): Unit =
+    transferInto(indexPath) match {
+      case Some(transfer) if transfer.isDone ⇒ transfers.remove(indexPath, transfer)
+      case _ ⇒
+    }
+
+  /**
+   * Starts copying the data object or container at `sourceUri`, which is either a path or a `/cdmi_objectid/` URI,
+   * to `targetPath`. A given `mimetype` or `metadata` replaces that of the source.
+   * The result is `None` if there is no such data object, or container if `isContainer`.
+   */
+  def copy(
+    request: Request,
+    sourceUri: String,
+    targetPath: List[String],
+    isContainer: Boolean,
+    mimetype: Option[String],
+    metadata: Option[Map[String, String]]
+  ): Future[Option[Transfer]]
+
+  /**
+   * Starts moving the data object or container at `sourceUri` to `targetPath`. This is as `copy`, except that
+   * the source is deleted and the moved entries keep their objectIDs if the backend can rename them.
+   */
+  def move(request: Request, sourceUri: String, targetPath: List[String], isContainer: Boolean): Future[Option[Transfer]]
+}
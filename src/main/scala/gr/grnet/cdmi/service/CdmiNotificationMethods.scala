@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+/**
+ * Backends that deliver notifications mix this in.
+ *
+ * A notification queue is a queue whose `cdmi_queue_type` is `cdmi_notification_queue`. The backend enqueues
+ * a JSON object for every change of the `cdmi_notification_events` of the data objects and containers in its
+ * `cdmi_scope_specification`, with the fields that its `cdmi_results_specification` names. The queue holds at most
+ * `notificationQueueValues` values; if changes are dropped because it is full, its `cdmi_notification_status`
+ * turns from `Active` to `Overflowed` until its metadata are updated. Mixing this in makes the server advertise
+ * `cdmi_notification`.
+ *
+ * @note Section 21 of CDMI 1.0.2: Notification Queues
+ */
+trait CdmiNotificationMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  def notificationRingCapacity: Int = math.max(2, notificationRingSize())
+
+  /**
+   * Number of changes dispatched, and notifications enqueued into each queue, together.
+   */
+  def notificationBatchValues: Int = math.max(1, notificationBatchSize())
+
+  def notificationQueueValues: Long = math.max(1L, notificationQueueLimit().toLong)
+}
+
+object CdmiNotificationMethods {
+  final val NotificationQueueType = "cdmi_notification_queue"
+
+  final val Active     = "Active"
+  final val Overflowed = "Overflowed"
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import gr.grnet.cdmi.objectid.ObjectIDIndex
+
+/**
+ * Backends that keep an [[gr.grnet.cdmi.objectid.ObjectIDIndex]] of their data objects and containers mix this in.
+ *
+ * The handlers then resolve `/cdmi_objectid/<objectID>` and `/cdmi_objectid/<objectID>/<rest>` to the path
+ * of the object, or of a child of the container, and serve them exactly like by-path requests, so that the
+ * `*_objectById` methods are only used by backends that do not have an index.
+ *
+ * @note Section 5.10 CDMI 1.0.2: Object Identifiers
+ */
+trait CdmiObjectIDIndexing { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * The index of the objectIDs to the paths of the objects.
+   * Container paths end with a slash, data object paths do not.
+   */
+  def objectIDIndex: ObjectIDIndex
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.ForkJoinPool
+
+import com.twitter.io.Reader
+import com.twitter.util.{Future, FuturePool}
+import gr.grnet.cdmi.json.{CdmiObjectStream, CdmiRequestBody}
+
+/**
+ * Backends that take the `value` of a data object from a CDMI body as a stream mix this in.
+ *
+ * The CDMI bodies of `PUT_object_cdmi_create` and `PUT_object_cdmi_create_or_update`, and of
+ * `POST_object_to_container_cdmi` if `isStreamingPostedObjects`, are then not buffered by `BodyAggregation`.
+ * The backend parses them with `parseObjectBody` while they arrive, and a base64 `value` reaches it as a
+ * [[com.twitter.io.Reader]] of decoded chunks, so that memory use does not depend on the size of the value and
+ * writing starts before the body has been read. The rest of the body is still subject to `maxRequestSize`.
+ */
+trait CdmiObjectStreamMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * Whether the backend also parses the bodies of `POST_object_to_container_cdmi` with `parseObjectBody`.
+   */
+  def isStreamingPostedObjects: Boolean = false
+
+  /**
+   * Where bodies are parsed. Each parse blocks a thread for as long as the body takes to arrive, so there are
+   * as many threads as `maxConcurrentWrites`, which must then be limited.
+   */
+  lazy val objectBodyPool: FuturePool = {
+    val threads = maxConcurrentWrites()
+    if(threads <= 0) {
+      throw new IllegalArgumentException(s"Streamed CDMI bodies need a positive ${maxConcurrentWrites.name}, not $threads")
+    }
+    FuturePool(new ForkJoinPool(threads))
+  }
+
+  /**
+   * Parses the CDMI body of `request`, calling `onValue` with the fields before a base64 `value` and its decoded
+   * chunks, as soon as the value starts. The result is the body without any streamed value, and what `onValue`
+   * started, if it was called. See [[gr.grnet.cdmi.json.CdmiObjectStream]].
+   */
+  def parseObjectBody[T](request: Request)(onValue: (CdmiRequestBody, Reader) ⇒ Future[T]): Future[(CdmiRequestBody, Option[Future[T]])] =
+    CdmiObjectStream.parse(Bodies.readerOf(request), streamChunkBytes, maxRequestBytes, objectBodyPool)(onValue)
+}
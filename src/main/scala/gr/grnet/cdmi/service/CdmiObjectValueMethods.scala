@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.util.Future
+
+/**
+ * Backends that can provide data object values as [[gr.grnet.cdmi.service.ObjectValue]]s mix this in.
+ *
+ * Doing so enables the default `GET_object_noncdmi`, which then serves whole values, single byte ranges
+ * and multiple byte ranges, and makes the server advertise `cdmi_read_value_range`.
+ */
+trait CdmiObjectValueMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * Returns the value of the data object at `objectPath`, or `None` if there is no such data object.
+   * The value must not be read here; reading happens as the response is written.
+   */
+  def GET_object_value(request: Request, objectPath: List[String]): Future[Option[ObjectValue]]
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+/**
+ * A routed request path. This is a view over the (normalized) request path and records the routing
+ * decision together with the offset after which the handler-specific path elements begin.
+ *
+ * No copying takes place until [[gr.grnet.cdmi.service.CdmiPath#toList]] is called, which is
+ * what the third layer, [[gr.grnet.cdmi.service.CdmiRestServiceMethods]], receives.
+ *
+ * The path elements are computed exactly like splitting the remainder of the path on `/`,
+ * with any trailing empty elements dropped.
+ */
+final class CdmiPath(val kind: RouteKind, val path: String, val from: Int, val lastIsSlash: Boolean) {
+  /**
+   * The part of the path after the reserved prefix, if any.
+   */
+  def remainder: String = if(from >= path.length) "" else path.substring(from)
+
+  /**
+   * The index just after the last non-slash character.
+   */
+  private[this] def end: Int = {
+    var i = path.length
+    while(i > from && path.charAt(i - 1) == '/') { i -= 1 }
+    i
+  }
+
+  def isEmpty: Boolean = end <= from
+
+  def nonEmpty: Boolean = !isEmpty
+
+  def size: Int = {
+    val e = end
+    if(e <= from) 0
+    else {
+      var count = 1
+      var i = from
+      while(i < e) {
+        if(path.charAt(i) == '/') { count += 1 }
+        i += 1
+      }
+      count
+    }
+  }
+
+  def apply(index: Int): String = {
+    val e = end
+    var i = from
+    var n = 0
+    while(i <= e && e > from) {
+      var j = i
+      while(j < e && path.charAt(j) != '/') { j += 1 }
+      if(n == index) {
+        return path.substring(i, j)
+      }
+      n += 1
+      i = j + 1
+    }
+
+    throw new IndexOutOfBoundsException(s"$index in $this")
+  }
+
+  def last: String = apply(size - 1)
+
+  lazy val toList: List[String] = {
+    var list: List[String] = Nil
+    var j = end
+    var i = j - 1
+    if(j > from) {
+      while(i >= from) {
+        if(path.charAt(i) == '/') {
+          list = path.substring(i + 1, j) :: list
+          j = i
+        }
+        i -= 1
+      }
+      list = path.substring(from, j) :: list
+    }
+    list
+  }
+
+  /**
+   * The path as a list of quoted elements. Only meant for debugging.
+   */
+  def toDebugString: String =
+    toList.map(s ⇒ "\"" + s + "\"").mkString(" ") + (if(lastIsSlash) " [/]" else "")
+
+  override def toString: String = s"$kind($path)"
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.util.DefaultTimer
+import com.twitter.util.{Duration, Time}
+import gr.grnet.cdmi.metadata.DataSystemMetadata
+
+/**
+ * Backends that schedule requests by the quality of service of their domain mix this in.
+ *
+ * Every request belongs to the domain that `domainOf` gives, and waits in the `qosScheduler` as the `cdmi_throughput`
+ * and `cdmi_latency` that `qosOf` gives for that domain ask, before it is admitted. Among the requests waiting for
+ * admission, those of latency sensitive domains go first. The throughput and the latency that a domain gets are
+ * reported as the `cdmi_throughput_provided` and `cdmi_latency_provided` metadata of what is in it. Mixing this in
+ * makes the server advertise `cdmi_throughput` and `cdmi_latency` for domains.
+ *
+ * @note Sections 16.4 and 16.5 of CDMI 1.0.2: Data System Metadata
+ */
+trait CdmiQosMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * The URI of the domain that `request`, routed to `cdmiPath`, belongs to.
+   */
+  def domainOf(request: Request, cdmiPath: CdmiPath): String
+
+  /**
+   * The quality of service that the domain `domainURI` asks for.
+   */
+  def qosOf(domainURI: String): QosSpec
+
+  lazy val qosScheduler: QosScheduler =
+    new QosScheduler(domainURI ⇒ qosOf(domainURI), DefaultTimer.twitter, statsReceiver.scope("qos"))
+
+  /**
+   * When a request that arrives now, and may wait for admission until `waitUntil`, is due: sooner by the
+   * `cdmi_latency` of its domain, if that asks for one.
+   */
+  def qosDue(request: Request, waitUntil: Time): Time = {
+    val latency = qosOf(domainOf(request, routePath(request))).latency
+    if(latency <= 0) waitUntil
+    else {
+      val latencyDue = Time.now + Duration.fromMilliseconds(latency)
+      if(latencyDue < waitUntil) latencyDue else waitUntil
+    }
+  }
+
+  /**
+   * The `cdmi_throughput_provided` and `cdmi_latency_provided` metadata of what is in the domain `domainURI`,
+   * once any of its requests have completed.
+   */
+  def qosProvided(domainURI: String): Map[String, String] =
+    qosScheduler.provided(domainURI) match {
+      case None ⇒ Map()
+      case Some((throughput, latency)) ⇒
+        Map(
+          DataSystemMetadata.cdmi_throughput_provided.name() → throughput.toString,
+          DataSystemMetadata.cdmi_latency_provided.name() → latency.toString
+        )
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+/**
+ * The fields of a CDMI query string, e.g. `?value:0-1023;metadata`.
+ * Each field is either a plain name or a `name:argument` pair, and fields are separated by `;`.
+ *
+ * @note Section 8.4.2 of CDMI 1.0.2: Read a Data Object using CDMI Content Type
+ * @note Section 9.4.2 of CDMI 1.0.2: Read a Container Object using CDMI Content Type
+ */
+final case class CdmiQuery(fields: List[(String, String)]) {
+  def isEmpty: Boolean = fields.isEmpty
+
+  def contains(name: String): Boolean = fields.exists(_._1 == name)
+
+  /**
+   * The argument of the first field with the given `name`.
+   * A field without an argument has the empty string as its argument.
+   */
+  def argOf(name: String): Option[String] = fields.collectFirst { case (`name`, arg) ⇒ arg }
+
+  /**
+   * The requested `value:<range>`, for a value of `size` bytes.
+   */
+  def valueRange(size: Long): Option[ByteRange] =
+    argOf("value").filter(_.nonEmpty).flatMap(ByteRange.parseCdmi(_, size))
+
+  /**
+   * The argument of `children:<range>`, if any.
+   */
+  def childrenRangeArg: Option[String] = argOf("children").filter(_.nonEmpty)
+
+  /**
+   * The requested `children:<range>` as the indices of the first and last child.
+   * This is `None` if there is no range or if it is invalid.
+   */
+  def childrenRange: Option[(Long, Long)] = childrenRangeArg.flatMap(CdmiQuery.parseIndexRange)
+}
+
+object CdmiQuery {
+  final val Empty = CdmiQuery(Nil)
+
+  def parse(query: String): CdmiQuery =
+    if((query eq null) || query.isEmpty) {
+      Empty
+    }
+    else {
+      val fields =
+        for {
+          field ← query.split(';').toList if field.nonEmpty
+        } yield {
+          field.indexOf(':') match {
+            case -1 ⇒ (field, "")
+            case i  ⇒ (field.substring(0, i), field.substring(i + 1))
+          }
+        }
+
+      CdmiQuery(fields)
+    }
+
+  /**
+   * Parses `first-last`, where `0 <= first <= last`.
+   */
+  def parseIndexRange(spec: String): Option[(Long, Long)] =
+    spec.indexOf('-') match {
+      case -1 ⇒ None
+      case i  ⇒
+        try {
+          val first = spec.substring(0, i).toLong
+          val last = spec.substring(i + 1).toLong
+          if(first >= 0 && last >= first) Some((first, last)) else None
+        }
+        catch { case _: NumberFormatException ⇒ None }
+    }
+
+  /**
+   * Parses the argument of `value` for a queue: nothing for the oldest value, `<index>` for a single value
+   * or `<first>-<last>`. Indices count from the oldest value.
+   */
+  def parseQueueRange(spec: String): Option[(Long, Long)] =
+    if(spec.isEmpty) Some((0L, 0L))
+    else if(spec.indexOf('-') >= 0) parseIndexRange(spec)
+    else
+      try Some(spec.toLong).filter(_ >= 0).map(i ⇒ (i, i))
+      catch { case _: NumberFormatException ⇒ None }
+
+  /**
+   * Parses a positive count. Nothing counts as one.
+   */
+  def parseCount(spec: String): Option[Long] =
+    if(spec.isEmpty) Some(1L)
+    else
+      try Some(spec.toLong).filter(_ > 0)
+      catch { case _: NumberFormatException ⇒ None }
+
+  /**
+   * Parses the query part of a request URI. Note that we do not URL-decode the query,
+   * since CDMI query fields are not `key=value` parameters.
+   */
+  def ofUri(uri: String): CdmiQuery =
+    uri.indexOf('?') match {
+      case -1 ⇒ Empty
+      case i  ⇒ parse(uri.substring(i + 1))
+    }
+}
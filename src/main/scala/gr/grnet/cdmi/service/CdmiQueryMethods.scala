@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.{ConcurrentHashMap, ForkJoinPool}
+
+import com.twitter.util.{Future, FuturePool, Time, Try}
+
+/**
+ * Backends that answer query queues mix this in.
+ *
+ * A query queue is a queue whose `cdmi_queue_type` is `cdmi_query_queue`. When it is created, or its
+ * `cdmi_scope_specification` or `cdmi_results_specification` is updated, the backend finds the data objects and
+ * containers in scope and enqueues the requested fields of each, while its `cdmi_query_status` is `Processing`.
+ * Mixing this in makes the server advertise `cdmi_query` and the supported kinds of conditions.
+ *
+ * @note Section 22 of CDMI 1.0.2: Query Queues
+ */
+trait CdmiQueryMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * Number of matches enqueued together.
+   */
+  def queryBatchValues: Int = math.max(1, queryBatchSize())
+
+  /**
+   * Where queries are evaluated, one task per clause of the scope specification, so that at most
+   * `queryParallelism` clauses are evaluated at a time.
+   */
+  lazy val queryPool: FuturePool =
+    FuturePool(new ForkJoinPool(math.max(1, queryParallelism())))
+
+  private[this] val queries = new ConcurrentHashMap[String, AnyRef]()
+
+  /**
+   * Runs `run` as the query of the query queue with `objectID`, outside of the deadline of the request, since it
+   * may outlive it. A query of the same queue that is still running is superseded: the `isCurrent` it was given
+   * turns `false`, which it checks between batches. `complete` is called with the outcome of `run` unless it has
+   * been superseded by then.
+   */
+  def trackQuery(objectID: String)(run: (() ⇒ Boolean) ⇒ Future[Unit])(complete: Try[Unit] ⇒ Unit): Unit = {
+    val token = new AnyRef
+    queries.put(objectID, token)
+    val isCurrent = () ⇒ queries.get(objectID) eq token
+
+    RequestDeadline.let(Time.Top) {
+      Future(run(isCurrent)).flatten respond { outcome ⇒
+        if(queries.remove(objectID, token)) complete(outcome)
+      }
+    }
+  }
+
+  /**
+   * Stops the query of the query queue with `objectID`, if there is one running, e.g. once the queue is deleted.
+   */
+  def forgetQuery(objectID: String): Unit = queries.remove(objectID)
+}
+
+object CdmiQueryMethods {
+  final val QueryQueueType = "cdmi_query_queue"
+
+  final val Processing = "Processing"
+  final val Complete   = "Complete"
+  final val Error      = "Error"
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.util.Future
+import gr.grnet.cdmi.model.QueueModel
+import gr.grnet.cdmi.queue.CdmiQueue
+
+/**
+ * Backends that keep their queue objects in [[gr.grnet.cdmi.queue.CdmiQueue]]s mix this in.
+ *
+ * Doing so enables the default `GET_queue_cdmi`, `POST_queue_value_cdmi` and `DELETE_queue_values_cdmi`,
+ * which read, enqueue and remove values in batches, and makes the server advertise `cdmi_queues`.
+ * Creating, updating and deleting the queues themselves is still up to the backend.
+ *
+ * @note Section 11 of CDMI 1.0.2: Queue Objects
+ */
+trait CdmiQueueMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * Returns the queue at `queuePath` together with its model, or `None` if there is no such queue.
+   * The `queueValues` of the model are not used.
+   */
+  def GET_queue(request: Request, queuePath: List[String]): Future[Option[(QueueModel, CdmiQueue)]]
+}
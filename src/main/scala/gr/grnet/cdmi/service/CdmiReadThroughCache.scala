@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+
+import com.twitter.finagle.httpx.Method.{Get, Head}
+import com.twitter.finagle.httpx.Status
+import com.twitter.finagle.netty3.ChannelBufferBuf
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.{Future, Promise, Return}
+import org.jboss.netty.buffer.ChannelBuffers
+
+/**
+ * Serves CDMI reads of data objects, containers and domains, and the values of small data objects, from a
+ * [[gr.grnet.cdmi.service.ResponseCache]] when `cacheSize` is set, together with the validators that conditional
+ * requests are evaluated against.
+ *
+ * Concurrent misses of the same response are coalesced into one backend call, whose response is cached if it is a
+ * `200 OK` of at most `cacheMaxEntrySize` KB. Ranged reads are not cached. A successful write through this server drops
+ * what it may have changed: the path and its parent container, and everything under containers and domains.
+ * Writes by `/cdmi_objectid/` and moves, whose source is not known here, drop everything.
+ * Changes made behind the server's back, and copies answered with `202 Accepted` that go on in the background,
+ * are seen once cached responses expire, after `cacheTtl` ms.
+ */
+trait CdmiReadThroughCache extends CdmiRestServiceHandlers { self: CdmiRestService
+                                                                with CdmiRestServiceTypes
+                                                                with CdmiRestServiceMethods
+                                                                with CdmiRestServiceResponse ⇒
+
+  lazy val responseCache: Option[ResponseCache] =
+    if(cacheSize() <= 0) None
+    else Some(new ResponseCache(cacheSize().toLong << 20, ResponseCache.DefaultSegments, statsReceiver.scope("cache")))
+
+  def cacheMaxEntryBytes: Int = math.max(0, cacheMaxEntrySize()) << 10
+
+  def cacheTtlNanos: Long = TimeUnit.MILLISECONDS.toNanos(math.max(0, cacheTtl()).toLong)
+
+  private[this] lazy val coalesced = statsReceiver.scope("cache").counter("coalesced")
+
+  /**
+   * The loads in progress, by path and variant.
+   */
+  private[this] val loads = new ConcurrentHashMap[String, Future[Option[Cached]]]()
+
+  private[this] final val ValidatorsVariant = "validators"
+
+  private[this] def loadKeyOf(path: String, variant: String): String = path + '\u0000' + variant
+
+  private[this] def expiresAt: Long = System.nanoTime() + cacheTtlNanos
+
+  /**
+   * Looks up the `variant` of `path`, or else loads it with `load` once for all concurrent callers.
+   * `load` gives what is returned to the caller that runs it, together with what is cached for it.
+   */
+  private[this] def readThrough[A](cache: ResponseCache, path: String, variant: String)(
+    fromCache: Cached ⇒ Option[A]
+  )(
+    load: ⇒ Future[(A, Option[Cached])]
+  )(
+    fallback: ⇒ Future[A]
+  ): Future[A] =
+    cache.get(path, variant) match {
+      case null ⇒
+        val loadKey = loadKeyOf(path, variant)
+        val promise = new Promise[Option[Cached]]
+        loads.putIfAbsent(loadKey, promise) match {
+          case null ⇒
+            val epoch = cache.epochOf(path)
+            load respond { outcome ⇒
+              val cached = outcome match {
+                case Return((_, c)) ⇒ c
+                case _ ⇒ None
+              }
+              for(c ← cached) cache.put(path, variant, c, epoch)
+              loads.remove(loadKey, promise)
+              promise.setValue(cached)
+            } map (_._1)
+
+          case loading ⇒
+            coalesced.incr()
+            loading flatMap { cached ⇒
+              cached.flatMap(fromCache) match {
+                case Some(a) ⇒ Future.value(a)
+                case None ⇒ fallback
+              }
+            }
+        }
+
+      case cached ⇒
+        fromCache(cached) match {
+          case Some(a) ⇒ Future.value(a)
+          case None ⇒ fallback
+        }
+    }
+
+  private[this] def cachedValidators(cache: ResponseCache, path: String)(
+    load: ⇒ Future[Option[Validators]]
+  ): Future[Option[Validators]] =
+    readThrough[Option[Validators]](cache, path, ValidatorsVariant) {
+      case cached: CachedValidators ⇒ Some(Some(cached.validators))
+      case _ ⇒ None
+    } {
+      load map { current ⇒ (current, current.map(new CachedValidators(_, expiresAt))) }
+    } {
+      load
+    }
+
+  private[this] def isUncachedHeader(name: String): Boolean =
+    name.equalsIgnoreCase(HeaderNames.Content_Length) || name.equalsIgnoreCase(HeaderNames.Transfer_Encoding)
+
+  private[this] def cachedHeadersOf(response: Response): Array[(String, String)] =
+    response.headerMap.filterNot(h ⇒ isUncachedHeader(h._1)).toArray
+
+  private[this] def responseOf(request: Request, cached: CachedResponse): Response = {
+    val response = Response(request.version, Status.Ok)
+    for((name, value) ← cached.headers) response.headerMap.add(name, value)
+    response.content = ChannelBufferBuf.Owned(ChannelBuffers.wrappedBuffer(cached.body.duplicate()))
+    response.contentLength = cached.body.capacity()
+    response
+  }
+
+  /**
+   * Reads `reader` until it ends or `limit` bytes have been read. The flag tells if it has ended.
+   */
+  private[this] def readAtMost(reader: Reader, limit: Int): Future[(Buf, Boolean)] = {
+    def loop(read: Buf): Future[(Buf, Boolean)] =
+      if(read.length >= limit) Future.value((read, false))
+      else reader.read(limit - read.length) flatMap {
+        case None ⇒ Future.value((read, true))
+        case Some(buf) ⇒ loop(read concat buf)
+      }
+
+    loop(Buf.Empty)
+  }
+
+  /**
+   * `response`, or an equivalent one if its body had to be read, and what to cache for it.
+   */
+  private[this] def captured(request: Request, response: Response): Future[(Response, Option[Cached])] =
+    if(response.status != Status.Ok) {
+      Future.value((response, None))
+    }
+    else if(!response.isChunked) {
+      val body = response.content
+      if(body.length > cacheMaxEntryBytes) Future.value((response, None))
+      else Future.value((response, Some(CachedResponse(cachedHeadersOf(response), body, expiresAt))))
+    }
+    else {
+      val reader = response.reader
+      readAtMost(reader, cacheMaxEntryBytes + 1) map {
+        case (body, true) ⇒
+          val cached = CachedResponse(cachedHeadersOf(response), body, expiresAt)
+          (responseOf(request, cached), Some(cached))
+
+        case (prefix, false) ⇒
+          val parts = List(() ⇒ Reader.fromBuf(prefix), () ⇒ reader)
+          val restreamed = Response(request.version, response.status, Bodies.concat(parts))
+          for((name, value) ← response.headerMap if !isUncachedHeader(name)) restreamed.headerMap.add(name, value)
+          (restreamed, None)
+      }
+    }
+
+  private[this] def cachedRead(cache: ResponseCache, operation: Operation, perform: Dispatch): Dispatch =
+    (request, path) ⇒
+      if(request.method != Get || request.headerMap.contains(HeaderNames.Range)) perform(request, path)
+      else {
+        val uri = request.uri
+        val q = uri.indexOf('?')
+        val variant = if(q < 0) operation.name() else operation.name() + uri.substring(q)
+
+        readThrough[Response](cache, path.path, variant) {
+          case cached: CachedResponse ⇒ Some(responseOf(request, cached))
+          case _ ⇒ None
+        } {
+          perform(request, path) flatMap (captured(request, _))
+        } {
+          perform(request, path)
+        }
+      }
+
+  private[this] def parentOf(path: String): String = {
+    val end = if(path.endsWith("/")) path.length - 1 else path.length
+    path.substring(0, path.lastIndexOf('/', end - 1) + 1)
+  }
+
+  /**
+   * Drops what is cached, or being loaded, for `path`, for everything under it if `isTree`, and for its parent.
+   */
+  def invalidateCached(cache: ResponseCache, path: String, isTree: Boolean): Unit = {
+    if(isTree) cache.invalidateUnder(path) else cache.invalidate(path)
+    val parent = parentOf(path)
+    if(parent.nonEmpty) cache.invalidate(parent)
+
+    val keys = loads.keySet().iterator()
+    while(keys.hasNext) {
+      val key = keys.next()
+      val keyPath = key.substring(0, key.indexOf('\u0000'))
+      if(keyPath == parent || (if(isTree) keyPath.startsWith(path) else keyPath == path)) keys.remove()
+    }
+  }
+
+  def invalidateAllCached(cache: ResponseCache): Unit = {
+    cache.invalidateAll()
+    loads.clear()
+  }
+
+  /**
+   * Whether the body of a CDMI `PUT` may ask for a move, whose source is then changed too.
+   */
+  private[this] def mayMove(request: Request): Boolean =
+    request.isChunked || request.contentString.contains("\"move\"")
+
+  private[this] def invalidating(perform: Dispatch)(invalidate: (Request, CdmiPath) ⇒ Unit): Dispatch =
+    (request, path) ⇒
+      perform(request, path) ensure { invalidate(request, path) }
+
+  override def performerOf(operation: Operation): Dispatch = {
+    val perform = super.performerOf(operation)
+
+    responseCache match {
+      case None ⇒
+        perform
+
+      case Some(cache) ⇒
+        def onPath(isTree: Boolean) = invalidating(perform) { (_, path) ⇒
+          invalidateCached(cache, path.path, isTree)
+        }
+
+        def onPathOrMove(isTree: Boolean) = invalidating(perform) { (request, path) ⇒
+          if(mayMove(request)) invalidateAllCached(cache) else invalidateCached(cache, path.path, isTree)
+        }
+
+        operation match {
+          case Operation.GET_object_cdmi |
+               Operation.GET_object_noncdmi |
+               Operation.GET_container_cdmi |
+               Operation.GET_domain_cdmi ⇒
+            cachedRead(cache, operation, perform)
+
+          case Operation.PUT_object_cdmi_create |
+               Operation.PUT_object_cdmi_create_or_update ⇒
+            onPathOrMove(isTree = false)
+
+          case Operation.PUT_container_cdmi_create |
+               Operation.PUT_container_cdmi_create_or_update ⇒
+            onPathOrMove(isTree = true)
+
+          case Operation.PUT_object_noncdmi |
+               Operation.DELETE_object_noncdmi |
+               Operation.PUT_queue_cdmi_create |
+               Operation.PUT_queue_cdmi_update |
+               Operation.POST_queue_value_cdmi |
+               Operation.DELETE_object_or_queue_or_queuevalue_cdmi ⇒
+            onPath(isTree = false)
+
+          case Operation.POST_object_to_container_cdmi |
+               Operation.POST_queue_to_container_cdmi |
+               Operation.DELETE_container_cdmi |
+               Operation.PUT_domain_cdmi |
+               Operation.DELETE_domain_cdmi ⇒
+            onPath(isTree = true)
+
+          case Operation.POST_objectById |
+               Operation.PUT_objectById ⇒
+            invalidating(perform) { (_, _) ⇒ invalidateAllCached(cache) }
+
+          case _ ⇒
+            perform
+        }
+    }
+  }
+
+  override def handleContainerCall(request: Request, path: CdmiPath): Future[Response] =
+    responseCache match {
+      case Some(cache) if request.method == Get || request.method == Head ⇒
+        def validators(methods: CdmiValidatorMethods) =
+          cachedValidators(cache, path.path) { methods.GET_container_validators(request, path.toList) }
+
+        withPreconditions(request, validators) { dispatch(request, path) }
+
+      case _ ⇒
+        super.handleContainerCall(request, path)
+    }
+
+  override def handleObjectOrQueueCall(request: Request, path: CdmiPath): Future[Response] =
+    responseCache match {
+      case Some(cache) if request.method == Get || request.method == Head ⇒
+        def validators(methods: CdmiValidatorMethods) =
+          cachedValidators(cache, path.path) { methods.GET_object_validators(request, path.toList) }
+
+        withPreconditions(request, validators) { dispatch(request, path) }
+
+      case _ ⇒
+        super.handleObjectOrQueueCall(request, path)
+    }
+}
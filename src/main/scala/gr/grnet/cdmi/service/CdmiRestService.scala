@@ -20,30 +20,84 @@ package gr.grnet.cdmi.service
 import java.io.File
 import java.lang.StringBuilder
 import java.net.{InetSocketAddress, URLDecoder}
+import java.util.zip.Deflater
 
 import com.twitter.app.GlobalFlag
-import com.twitter.finagle.Httpx
-import com.twitter.finagle.httpx.{Status, Version}
+import com.twitter.conversions.time._
+import com.twitter.finagle.{Httpx, ListeningServer}
+import com.twitter.finagle.httpx.{Method, Status, Version}
 import com.twitter.finagle.netty3.Netty3ListenerTLSConfig
-import com.twitter.finagle.ssl.Ssl
+import com.twitter.finagle.stats.{BroadcastStatsReceiver, DefaultStatsReceiver, StatsReceiver}
+import com.twitter.finagle.util.DefaultTimer
 import com.twitter.logging.Logger
-import com.twitter.util.{Await, Future, FutureTransformer}
-import gr.grnet.cdmi.capability.SystemWideCapability
+import com.twitter.util.{Await, Future, FutureTransformer, Return, Throw, Time}
+import gr.grnet.cdmi.capability.{ContainerCapability, DataObjectCapability, DataSystemCapability, QueueCapability, SystemWideCapability}
 import gr.grnet.cdmi.http.{CdmiHeader, CdmiMediaType}
+import gr.grnet.cdmi.logging.{AccessLog, OverflowPolicy}
+import gr.grnet.cdmi.metrics.MetricsStatsReceiver
 import gr.grnet.cdmi.model.CapabilityModel
+import gr.grnet.cdmi.tls.{TlsConfig, TlsEngineFactory, TlsProvider}
 import gr.grnet.common.http.{StdHeader, StdMediaType}
-import gr.grnet.common.text.{NormalizePath, PathToList}
+import gr.grnet.common.text.NormalizePath
 import org.jboss.netty.handler.codec.http.HttpVersion
 
 import scala.collection.immutable.Seq
+import scala.util.control.NonFatal
 
 object port          extends GlobalFlag[InetSocketAddress](new InetSocketAddress(8080), "http port")
 object dev           extends GlobalFlag[Boolean](false, "enable development mode")
+object adminPort     extends GlobalFlag[InetSocketAddress](new InetSocketAddress(9990), "admin http port, serving /admin/metrics.json")
+object backend       extends GlobalFlag[String]("memory", "Storage of the reference server: memory or fs")
+object backendRoot   extends GlobalFlag[String]("", "Root directory of the fs storage of the reference server")
+object objectIdEnterpriseNumber extends GlobalFlag[Int](0, "IANA Private Enterprise Number stamped on the objectIDs of the reference server")
+object objectIdIndexCapacity    extends GlobalFlag[Int](1 << 20, "Initial number of objectIDs the index of the reference server holds before it grows")
+object qosDomains       extends GlobalFlag[String]("", "Comma-separated <domain>=<throughput (bytes/s)>/<latency (ms)> of the domains of the reference server, e.g. bulk=10485760/0,web=0/50")
+object queueSegmentSize extends GlobalFlag[Int](8, "Size (MB) of the files the fs storage of the reference server appends queue values to")
 object tolerateDoubleSlash extends GlobalFlag[Boolean](false, "Tolerate // in URIs. If true, will collapse them to /")
-object maxRequestSize  extends GlobalFlag[Int](10, "Max request size (MB)")
+object maxRequestSize  extends GlobalFlag[Int](10, "Max request size (MB) of CDMI bodies. Streamed data object bodies are not limited")
+object streamChunkSize extends GlobalFlag[Int](64, "Chunk size (KB) for streamed data object bodies")
+object listingPageSize extends GlobalFlag[Int](1000, "Number of container children fetched from the backend at a time")
+object serializeParallelism extends GlobalFlag[Int](8, "Max number of children of a container looked up at a time while serializing it")
+object deserializeParallelism extends GlobalFlag[Int](4, "Max number of serialized trees parsed at a time")
+object deserializeBatchSize extends GlobalFlag[Int](256, "Number of data objects created together while deserializing")
+object copyParallelism extends GlobalFlag[Int](16, "Max number of entries copied at a time by a copy or move of a container tree")
+object copyWait        extends GlobalFlag[Int](1000, "Time (ms) a copy or move of a container is waited for before it is answered with 202 and goes on in the background")
+object queryParallelism extends GlobalFlag[Int](4, "Max number of clauses of query queue scope specifications evaluated at a time")
+object queryBatchSize   extends GlobalFlag[Int](256, "Number of query matches enqueued together")
+object notificationRingSize   extends GlobalFlag[Int](65536, "Number of changes waiting to be matched against notification queues before new ones are dropped")
+object notificationBatchSize  extends GlobalFlag[Int](256, "Number of changes matched, and notifications enqueued into each notification queue, together")
+object notificationQueueLimit extends GlobalFlag[Int](100000, "Max number of values in a notification queue. Further notifications are dropped and the queue is reported overflowed")
+object cacheSize         extends GlobalFlag[Int](0, "Size (MB) of the cache of GET responses and validators kept in front of the backend. 0 disables it")
+object cacheMaxEntrySize extends GlobalFlag[Int](64, "Max size (KB) of a response body kept in the cache, e.g. the value of a small data object")
+object cacheTtl          extends GlobalFlag[Int](10000, "Time (ms) a cached response is served for, which bounds staleness from changes not made through this server")
+object compression          extends GlobalFlag[Boolean](true, "Compress responses with gzip or deflate, as their Accept-Encoding allows")
+object compressionMinSize   extends GlobalFlag[Int](1024, "Responses smaller than this (bytes) are not compressed")
+object compressionLevel     extends GlobalFlag[Int](6, "Deflate level of compressed responses, from 1 (fastest) to 9 (smallest)")
+object compressionSkipTypes extends GlobalFlag[String](ResponseCompression.DefaultSkippedTypes, "Comma-separated Content-Type prefixes of responses that are not compressed, being compressed already")
+object maxConcurrentReads  extends GlobalFlag[Int](256, "Max number of reads (GET, HEAD) served at a time. 0 means no limit")
+object maxConcurrentWrites extends GlobalFlag[Int](64, "Max number of writes (PUT, POST, DELETE) served at a time. 0 means no limit")
+object maxPendingReads     extends GlobalFlag[Int](1024, "Max number of reads waiting to be served once maxConcurrentReads are running")
+object maxPendingWrites    extends GlobalFlag[Int](128, "Max number of writes waiting to be served once maxConcurrentWrites are running")
+object maxPendingWait      extends GlobalFlag[Int](1000, "Max time (ms) a request waits to be served before it is shed with 503")
+object operationLimits     extends GlobalFlag[String]("", "Comma-separated <operation>=<max concurrent> limits of single operations, within those of their class, e.g. PUT_object_noncdmi=16")
+object readLatencyTarget   extends GlobalFlag[Int](0, "Average read latency (ms) above which reads that would wait are shed with 503. 0 disables shedding")
+object writeLatencyTarget  extends GlobalFlag[Int](0, "Average write latency (ms) above which writes that would wait are shed with 503. 0 disables shedding")
+object requestTimeout      extends GlobalFlag[Int](0, "Time (ms) from its arrival that a request has to complete. 0 means no deadline")
+object retryAfter          extends GlobalFlag[Int](1, "Seconds sent in Retry-After with a 503 of a shed request")
+object accessLogPath     extends GlobalFlag[String]("", "Access log file. If empty, the access log goes to the service log")
+object accessLogCapacity extends GlobalFlag[Int](8192, "Number of access log entries buffered for the background writer")
+object accessLogOverflow extends GlobalFlag[String]("drop", "What to do when the access log buffer is full: drop or block")
+object accessLogSampling extends GlobalFlag[Double](1.0, "Fraction of requests written to the access log")
 object sslPort       extends GlobalFlag[InetSocketAddress](new InetSocketAddress(443), "https port")
 object sslCertPath   extends GlobalFlag[String]("", "SSL certificate path")
 object sslKeyPath    extends GlobalFlag[String]("", "SSL key path")
+object sslWithHttp   extends GlobalFlag[Boolean](false, "Serve http on port as well as https on sslPort")
+object sslProvider   extends GlobalFlag[String]("auto", "TLS implementation: jdk, openssl, or auto for openssl if its native library is available")
+object sslProtocols  extends GlobalFlag[String]("", "Comma-separated TLS protocols to enable, e.g. TLSv1.2. If empty, those of the TLS implementation")
+object sslCiphers    extends GlobalFlag[String]("", "Comma-separated TLS cipher suites to enable, by their OpenSSL names, e.g. ECDHE-RSA-AES128-GCM-SHA256, or JDK ones. If empty, those of the TLS implementation")
+object sslSessionCacheSize extends GlobalFlag[Int](TlsConfig.DefaultSessionCacheSize, "Number of TLS sessions kept for resumption, with the jdk provider only. 0 means no limit")
+object sslSessionTimeout   extends GlobalFlag[Int](TlsConfig.DefaultSessionTimeout, "Time (sec) a TLS session can be resumed for, with the jdk provider only")
+object sslSessionTickets   extends GlobalFlag[Boolean](true, "Also resume TLS sessions with stateless session tickets, with the jdk provider only and where the JDK supports them")
 
 /**
  * A skeleton for the implementation of a CDMI-compliant REST service.
@@ -60,6 +114,86 @@ trait CdmiRestService { self: CdmiRestServiceTypes
 
   def isToleratingDoubleSlash = tolerateDoubleSlash()
 
+  def maxRequestBytes: Long = maxRequestSize().toLong * 1024 * 1024
+
+  def streamChunkBytes: Int = streamChunkSize() * 1024
+
+  def listingPageChildren: Int = math.max(1, listingPageSize())
+
+  /**
+   * Returns `true` iff the body of `request` is handed to the backend as a stream and is not buffered.
+   * This is the case for creating/updating a data object using a non-CDMI content type, by its path or, if the
+   * backend mixes in [[gr.grnet.cdmi.service.CdmiObjectIDIndexing]], by its objectID, and also using the CDMI
+   * content type if `isStreamingCdmiObject`.
+   *
+   * @note Section 8.3 of CDMI 1.0.2: Create a Data Object using a Non-CDMI Content Type
+   * @note Section 8.7 of CDMI 1.0.2: Update a Data Object using a Non-CDMI Content Type
+   */
+  def isStreamingRequest(request: Request): Boolean =
+    (request.method == Method.Put && {
+      val negotiated = Negotiated.of(request)
+      !negotiated.hasSpecVersion && !negotiated.isCdmiLikeContentType
+    } && {
+      val path = routePath(request)
+      path.kind match {
+        case RouteKind.ObjectOrQueue ⇒ true
+        // `handleObjectByIdCall` resolves these to the data object and streams them as above
+        case RouteKind.ObjectById ⇒ path.nonEmpty && self.isInstanceOf[CdmiObjectIDIndexing]
+        case _ ⇒ false
+      }
+    }) ||
+    isStreamingCdmiObject(request)
+
+  /**
+   * CDMI bodies that create or update a data object are streamed iff the backend mixes in
+   * [[gr.grnet.cdmi.service.CdmiObjectStreamMethods]], which parses them while they arrive.
+   */
+  def isStreamingCdmiObject(request: Request): Boolean =
+    self match {
+      case streaming: CdmiObjectStreamMethods ⇒
+        val negotiated = Negotiated.of(request)
+        negotiated.hasSpecVersion && negotiated.isObjectContentType && {
+          val kind = routePath(request).kind
+          (request.method == Method.Put && kind == RouteKind.ObjectOrQueue) ||
+          (request.method == Method.Post && kind == RouteKind.Container && streaming.isStreamingPostedObjects)
+        }
+
+      case _ ⇒
+        false
+    }
+
+  /**
+   * When a request that arrives now and may wait for admission until `waitUntil` is due. Those that are due sooner
+   * are admitted first. Unless the backend schedules by quality of service, all are equally due and wait in order.
+   */
+  def admissionDue(request: Request, waitUntil: Time): Time =
+    self match {
+      case qos: CdmiQosMethods ⇒ qos.qosDue(request, waitUntil)
+      case _ ⇒ Time.Top
+    }
+
+  /**
+   * Cheap requests, those for the root and for the capabilities, are exempt from admission control,
+   * so they are served even while reads and writes are being shed.
+   */
+  def admissionClassOf(request: Request): AdmissionClass =
+    routePath(request).kind match {
+      case RouteKind.Root | RouteKind.RootNoSlash | RouteKind.Capabilities | RouteKind.CapabilitiesNoSlash ⇒
+        AdmissionClass.Exempt
+
+      case _ ⇒
+        request.method match {
+          case Method.Get | Method.Head ⇒ AdmissionClass.Read
+          case _ ⇒ AdmissionClass.Write
+        }
+    }
+
+  /**
+   * The time by which a request that has just arrived must be done. See [[gr.grnet.cdmi.service.RequestDeadline]].
+   */
+  def requestDeadline(request: Request): Time =
+    if(requestTimeout() > 0) Time.now + requestTimeout().milliseconds else Time.Top
+
   def isCdmiCapabilitiesUri(uri: String): Boolean = {
     val uriToCheck = if(isToleratingDoubleSlash) uri.normalizePath else uri
     (uriToCheck == "/cdmi_capabilities/") || (uriToCheck == "/cdmi_capabilities")
@@ -93,11 +227,52 @@ trait CdmiRestService { self: CdmiRestServiceTypes
   def flags: Seq[GlobalFlag[_]] = Seq(
     port,
     dev,
+    adminPort,
     tolerateDoubleSlash,
     maxRequestSize,
+    streamChunkSize,
+    listingPageSize,
+    serializeParallelism,
+    deserializeParallelism,
+    deserializeBatchSize,
+    copyParallelism,
+    copyWait,
+    queryParallelism,
+    queryBatchSize,
+    notificationRingSize,
+    notificationBatchSize,
+    notificationQueueLimit,
+    cacheSize,
+    cacheMaxEntrySize,
+    cacheTtl,
+    compression,
+    compressionMinSize,
+    compressionLevel,
+    compressionSkipTypes,
+    maxConcurrentReads,
+    maxConcurrentWrites,
+    maxPendingReads,
+    maxPendingWrites,
+    maxPendingWait,
+    operationLimits,
+    readLatencyTarget,
+    writeLatencyTarget,
+    requestTimeout,
+    retryAfter,
+    accessLogPath,
+    accessLogCapacity,
+    accessLogOverflow,
+    accessLogSampling,
     sslPort,
     sslCertPath,
-    sslKeyPath
+    sslKeyPath,
+    sslWithHttp,
+    sslProvider,
+    sslProtocols,
+    sslCiphers,
+    sslSessionCacheSize,
+    sslSessionTimeout,
+    sslSessionTickets
   )
 
   object MediaTypes {
@@ -134,42 +309,41 @@ trait CdmiRestService { self: CdmiRestServiceTypes
     def isCdmiLike(mediaType: String): Boolean = (mediaType ne null) && mediaType.startsWith("application/cdmi-")
   }
 
+  /**
+   * Tests the preferred media type of `Accept`, taking `q` weights into account. See [[gr.grnet.cdmi.service.Negotiated]],
+   * which handlers use directly to test all the negotiation headers at once.
+   */
   object Accept {
     /**
      * Checks the `Accept` header value and returns `true` iff its first media type makes `p` succeed.
      * Returns `false` if `Accept` either does not exist or is empty.
      *
-     * @note We ignore any `q` weights and we rely only on what media type comes first.
+     * @note This ignores any `q` weights and relies only on what media type comes first.
      */
     def checkAcceptByFirstElem(request: Request)(p: (String) ⇒ Boolean): Boolean = {
       val mediaTypes = request.acceptMediaTypes
-      mediaTypes.nonEmpty && {
-        val first = mediaTypes(0)
-        // FIXME we ignore any weights and we just check if the first is what we want
-        p(first)
-      }
+      mediaTypes.nonEmpty && p(mediaTypes(0))
     }
 
-    def isAny(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(_ == "*/*")
+    def isAny(request: Request): Boolean = Negotiated.of(request).isAnyAccept
 
-    def isCdmiObject(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(_ == MediaTypes.Application_CdmiObject)
+    def isCdmiObject(request: Request): Boolean = Negotiated.of(request).isObjectAccept
 
-    def isCdmiObjectOrAny(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(first ⇒ first == MediaTypes.Application_CdmiObject || first == "*/*")
+    def isCdmiObjectOrAny(request: Request): Boolean = {
+      val negotiated = Negotiated.of(request)
+      negotiated.isObjectAccept || negotiated.isAnyAccept
+    }
 
-    def isCdmiContainer(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(_ == MediaTypes.Application_CdmiContainer)
+    def isCdmiContainer(request: Request): Boolean = Negotiated.of(request).isContainerAccept
 
-    def isCdmiContainerOrAny(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(first ⇒ first == MediaTypes.Application_CdmiContainer || first == "*/*")
+    def isCdmiContainerOrAny(request: Request): Boolean = {
+      val negotiated = Negotiated.of(request)
+      negotiated.isContainerAccept || negotiated.isAnyAccept
+    }
 
-    def isCdmiQueue(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(_ == MediaTypes.Application_CdmiQueue)
+    def isCdmiQueue(request: Request): Boolean = Negotiated.of(request).isQueueAccept
 
-    def isCdmiLike(request: Request): Boolean =
-      checkAcceptByFirstElem(request)(MediaTypes.isCdmiLike)
+    def isCdmiLike(request: Request): Boolean = Negotiated.of(request).isCdmiLikeAccept
   }
 
   object HeaderNames {
@@ -178,21 +352,148 @@ trait CdmiRestService { self: CdmiRestServiceTypes
     final val Accept = StdHeader.Accept.headerName()
     final val WWW_Authenticate = StdHeader.WWW_Authenticate.headerName()
     final val Content_Length = StdHeader.Content_Length.headerName()
+    final val Transfer_Encoding = "Transfer-Encoding"
+    final val Range = "Range"
+    final val Content_Range = "Content-Range"
+    final val Accept_Ranges = "Accept-Ranges"
+    final val Retry_After = "Retry-After"
+    final val ETag = "ETag"
+    final val Last_Modified = "Last-Modified"
+    final val Vary = "Vary"
+    final val If_Match = Preconditions.If_Match
+    final val If_None_Match = Preconditions.If_None_Match
+    final val If_Modified_Since = Preconditions.If_Modified_Since
+    final val If_Unmodified_Since = Preconditions.If_Unmodified_Since
+  }
+
+  /**
+   * Keeps the metrics that are served on the admin port.
+   */
+  lazy val metricsStatsReceiver: MetricsStatsReceiver = new MetricsStatsReceiver
+
+  /**
+   * Where request metrics are reported: the `metricsStatsReceiver` and whatever Finagle has loaded as its default.
+   */
+  def statsReceiver: StatsReceiver =
+    BroadcastStatsReceiver(Seq(metricsStatsReceiver, DefaultStatsReceiver)).scope("cdmi")
+
+  lazy val requestMetrics: RequestMetrics = new RequestMetrics(statsReceiver)
+
+  /**
+   * Compresses responses, unless `compression` is off.
+   */
+  lazy val responseCompression: Option[ResponseCompression] =
+    if(!compression()) None
+    else
+      Some(
+        new ResponseCompression(
+          math.max(0, compressionMinSize()),
+          math.max(Deflater.BEST_SPEED, math.min(Deflater.BEST_COMPRESSION, compressionLevel())),
+          ResponseCompression.parseTypes(compressionSkipTypes()),
+          statsReceiver.scope("compression")
+        )
+      )
+
+  lazy val readGate: AdmissionGate =
+    new AdmissionGate(
+      maxConcurrentReads(),
+      maxPendingReads(),
+      readLatencyTarget().toLong * 1000L,
+      DefaultTimer.twitter,
+      statsReceiver.scope("admission").scope("read")
+    )
+
+  lazy val writeGate: AdmissionGate =
+    new AdmissionGate(
+      maxConcurrentWrites(),
+      maxPendingWrites(),
+      writeLatencyTarget().toLong * 1000L,
+      DefaultTimer.twitter,
+      statsReceiver.scope("admission").scope("write")
+    )
+
+  def admissionGate(admissionClass: AdmissionClass): AdmissionGate =
+    if(admissionClass == AdmissionClass.Read) readGate else writeGate
+
+  /**
+   * The gates of the operations limited by `operationLimits`. A request passes the gate of its class first,
+   * and then, once it has been resolved to an operation, the gate of that operation, queueing as many as its class does.
+   */
+  lazy val operationGates: Map[Operation, AdmissionGate] =
+    AdmissionGate.parseLimits(operationLimits()) map { case (operation, limit) ⇒
+      val maxPending = if(operation.name().startsWith("GET_")) maxPendingReads() else maxPendingWrites()
+      val gate = new AdmissionGate(
+        limit,
+        maxPending,
+        0L,
+        DefaultTimer.twitter,
+        statsReceiver.scope("admission").scope("operation").scope(operation.name())
+      )
+      (operation, gate)
+    }
+
+  /**
+   * Serves `request` once `gate` admits it, waiting for at most `maxPendingWait` and not past `deadline`.
+   * The gate is released once the response has been sent, streamed body included, see `whenSent`.
+   * A request that is not admitted is shed with 503, giving `reason`, and its body is not read.
+   */
+  def admitted(
+    request: Request,
+    gate: AdmissionGate,
+    deadline: Time,
+    due: Time ⇒ Time,
+    reason: ⇒ String
+  )(serve: ⇒ Future[Response]): Future[Response] = {
+    val start = System.nanoTime()
+    val waitUntil = Time.now + maxPendingWait().milliseconds
+    val waitDeadline = if(waitUntil < deadline) waitUntil else deadline
+
+    gate.admit(waitDeadline, due(waitDeadline)) flatMap {
+      case true ⇒
+        (try serve catch { case NonFatal(e) ⇒ Future.exception(e) }) transform {
+          case Return(response) ⇒
+            Future.value(whenSent(response) { gate.release(start) })
+          case Throw(e) ⇒
+            gate.release(start)
+            Future.exception(e)
+        }
+
+      case false ⇒
+        if(request.isChunked) { request.reader.discard() }
+        serviceUnavailable(request, retryAfter(), reason)
+    }
   }
 
   object Filters {
-    final val LogBeginRequestFilter = new Filter {
-      def apply(request: Request, service: Service): Future[Response] = {
-        logBeginRequest(request)
-        service(request)
-      }
+    // Routes the request once, for the filters and the handlers after this one, which get the path from `routePath`
+    final val Routing = new Filter {
+      def apply(request: Request, service: Service): Future[Response] =
+        RoutedPath.let(request, routeNormalized(request)) { service(request) }
+    }
+
+    final val RequestMetricsFilter = new Filter {
+      def apply(request: Request, service: Service): Future[Response] =
+        requestMetrics.measure(request, requestMetrics.total)(service(request))
+    }
+
+    // Responses are compressed as their request accepts, unless they are small or compressed already.
+    // Streamed bodies are compressed as they are streamed out.
+    final val Compression = new Filter {
+      def apply(request: Request, service: Service): Future[Response] =
+        responseCompression match {
+          case None ⇒ service(request)
+          case Some(compressor) ⇒ service(request) map { response ⇒ compressor(request, response) }
+        }
     }
 
-    final val LogEndRequestFilter = new Filter {
+    final val AccessLogFilter = new Filter {
       def apply(request: Request, service: Service): Future[Response] = {
-        for(response ← service(request)) yield {
-          logEndRequest(request, response)
-          response
+        logBeginRequest(request)
+        val start = System.nanoTime()
+
+        service(request) respond {
+          case Return(response) ⇒ logEndRequest(request, response, System.nanoTime() - start)
+          case Throw(_) ⇒ // `RogueExceptionHandler` has turned any failure to a response
         }
       }
     }
@@ -216,6 +517,75 @@ trait CdmiRestService { self: CdmiRestServiceTypes
     }
 
 
+    // Requests wait for a slot in the `admissionGate` of their class, for at most `maxPendingWait`, and are shed
+    // with 503 if they do not get one. This comes before `BodyAggregation`, so the bodies of shed requests are not read.
+    // A slot is held until the response has been sent, so a streamed download counts for as long as it streams.
+    // Whatever the request runs sees its `RequestDeadline` and gives up once it has passed, again with 503.
+    final val AdmissionControl = new Filter {
+      override def apply(request: Request, service: Service): Future[Response] = {
+        val deadline = requestDeadline(request)
+
+        def Serve(): Future[Response] =
+          RequestDeadline.let(deadline) {
+            try service(request) catch { case NonFatal(e) ⇒ Future.exception(e) }
+          } rescue {
+            case e: DeadlineExceededException ⇒
+              if(request.isChunked) { request.reader.discard() }
+              serviceUnavailable(request, retryAfter(), e.getMessage)
+          }
+
+        admissionClassOf(request) match {
+          case AdmissionClass.Exempt ⇒
+            Serve()
+
+          case admissionClass ⇒
+            admitted(
+              request,
+              admissionGate(admissionClass),
+              deadline,
+              admissionDue(request, _),
+              s"Too many ${admissionClass.name().toLowerCase}s, try again later"
+            ) { Serve() }
+        }
+      }
+    }
+
+    // Requests of a backend that schedules by quality of service wait in the `qosScheduler` as their domain asks,
+    // before admission, so that a throttled domain does not hold the slots that the others need. What they move in and
+    // out is charged to their domain: a received body as the request starts, streamed bodies chunk by chunk as they
+    // are read, through the `BodyMeter` of the request and a metered response reader.
+    final val QosScheduling = new Filter {
+      override def apply(request: Request, service: Service): Future[Response] =
+        self match {
+          case qos: CdmiQosMethods if admissionClassOf(request) != AdmissionClass.Exempt ⇒
+            val start = System.nanoTime()
+            val domainURI = qos.domainOf(request, routePath(request))
+            val requestBytes = if(request.isChunked) 0L else request.length.toLong
+            val charge = (bytes: Long) ⇒ qos.qosScheduler.charge(domainURI, bytes)
+
+            qos.qosScheduler.acquire(domainURI, requestBytes, requestDeadline(request)) flatMap {
+              case true ⇒
+                BodyMeter.let(charge) { service(request) } map { response ⇒
+                  qos.qosScheduler.complete(domainURI, requestBytes, start)
+                  if(response.isChunked) metered(response, charge)
+                  else {
+                    charge(response.length.toLong)
+                    response
+                  }
+                } onFailure { _ ⇒
+                  qos.qosScheduler.complete(domainURI, requestBytes, start)
+                }
+
+              case false ⇒
+                if(request.isChunked) { request.reader.discard() }
+                serviceUnavailable(request, retryAfter(), s"The domain $domainURI is over its cdmi_throughput, try again later")
+            }
+
+          case _ ⇒
+            service(request)
+        }
+    }
+
     final val DoubleSlashCheck = new Filter {
       override def apply(request: Request, service: Service): Future[Response] = {
         val uri = request.uri
@@ -229,6 +599,38 @@ trait CdmiRestService { self: CdmiRestServiceTypes
       }
     }
 
+    // The server streams request bodies, so we buffer here all those that are not meant to be streamed.
+    // These are the CDMI (JSON) bodies, which are subject to `maxRequestSize`.
+    final val BodyAggregation = new Filter {
+      override def apply(request: Request, service: Service): Future[Response] = {
+        val maxBytes = maxRequestBytes
+        def TooLarge() =
+          requestEntityTooLarge(request, s"Request body exceeds ${maxRequestSize()} MB")
+
+        if(isStreamingRequest(request)) {
+          service(request)
+        }
+        else if(request.contentLength.exists(_ > maxBytes)) {
+          if(request.isChunked) { request.reader.discard() }
+          TooLarge()
+        }
+        else if(!request.isChunked) {
+          service(request)
+        }
+        else {
+          Bodies.readAll(Bodies.readerOf(request), maxBytes, streamChunkBytes) flatMap {
+            case Some(buf) ⇒
+              request.setChunked(false)
+              request.content = buf
+              service(request)
+
+            case None ⇒
+              TooLarge()
+          }
+        }
+      }
+    }
+
     // If X-CDMI-Specification-Version is present then we check the value
     final val CdmiHeaderCheck = new Filter {
       override def apply(request: Request, service: Service): Future[Response] = {
@@ -262,15 +664,215 @@ trait CdmiRestService { self: CdmiRestServiceTypes
 
   val defaultSystemWideCapabilities = CapabilityModel.rootOf(
     capabilities = Map(
-      SystemWideCapability.cdmi_dataobjects → true.toString,
-      SystemWideCapability.cdmi_metadata_maxitems → 0.toString // TODO no metadata currently supported
-    )
+      SystemWideCapability.cdmi_dataobjects → true.toString
+    ),
+    children = List("container/", "dataobject/", "domain/", "queue/")
   )
 
-  def systemWideCapabilities: CapabilityModel = defaultSystemWideCapabilities
+  def systemWideCapabilities: CapabilityModel = {
+    val queues = if(isServingQueues) Map(SystemWideCapability.cdmi_queues → true.toString) else Map()
+    val serialization = if(isSerializing) Map(SystemWideCapability.cdmi_serialization_json → true.toString) else Map()
+    val copyMove =
+      if(isCopyingAndMoving)
+        CapabilityModel.booleanCapabilitiesMap(
+          SystemWideCapability.cdmi_object_copy_from_local,
+          SystemWideCapability.cdmi_object_move_from_local,
+          SystemWideCapability.cdmi_object_move_from_ID,
+          SystemWideCapability.cdmi_copy_dataobject_by_ID
+        )
+      else
+        Map()
+    val query =
+      if(isQuerying)
+        CapabilityModel.booleanCapabilitiesMap(
+          SystemWideCapability.cdmi_query,
+          SystemWideCapability.cdmi_query_regex,
+          SystemWideCapability.cdmi_query_contains,
+          SystemWideCapability.cdmi_query_tags
+        )
+      else
+        Map()
+
+    val notification =
+      if(isNotifying) Map(SystemWideCapability.cdmi_notification → true.toString) else Map()
+
+    defaultSystemWideCapabilities.copy(
+      capabilities = defaultSystemWideCapabilities.capabilities ++ queues ++ serialization ++ copyMove ++ query ++ notification
+    )
+  }
 
+  /**
+   * Query queues are answered iff the backend mixes in [[gr.grnet.cdmi.service.CdmiQueryMethods]].
+   */
+  def isQuerying: Boolean = this.isInstanceOf[CdmiQueryMethods]
+
+  /**
+   * Notification queues are delivered to iff the backend mixes in [[gr.grnet.cdmi.service.CdmiNotificationMethods]].
+   */
+  def isNotifying: Boolean = this.isInstanceOf[CdmiNotificationMethods]
+
+  /**
+   * Data objects and container trees are copied and moved iff the backend mixes in
+   * [[gr.grnet.cdmi.service.CdmiCopyMoveMethods]].
+   */
+  def isCopyingAndMoving: Boolean = this.isInstanceOf[CdmiCopyMoveMethods]
+
+  /**
+   * Data objects and container trees are serialized and deserialized iff the backend mixes in
+   * [[gr.grnet.cdmi.service.CdmiSerializationMethods]].
+   */
+  def isSerializing: Boolean = this.isInstanceOf[CdmiSerializationMethods]
+
+  /**
+   * Byte ranges of data object values are served iff the backend provides [[gr.grnet.cdmi.service.ObjectValue]]s.
+   */
+  def isServingValueRanges: Boolean = this.isInstanceOf[CdmiObjectValueMethods]
+
+  def dataObjectCapabilities: CapabilityModel =
+    CapabilityModel.childOf(
+      objectName = "dataobject/",
+      capabilities =
+        (if(isServingValueRanges)
+          CapabilityModel.booleanCapabilitiesMap(
+            DataObjectCapability.cdmi_read_value,
+            DataObjectCapability.cdmi_read_value_range
+          )
+        else
+          Map()) ++
+        (if(isSerializing)
+          CapabilityModel.booleanCapabilitiesMap(DataObjectCapability.cdmi_modify_deserialize_dataobject)
+        else
+          Map())
+    )
+
+  /**
+   * Container children are listed page by page iff the backend mixes in [[gr.grnet.cdmi.service.CdmiContainerListingMethods]].
+   */
+  def isListingChildren: Boolean = this.isInstanceOf[CdmiContainerListingMethods]
+
+  def containerCapabilities: CapabilityModel =
+    CapabilityModel.childOf(
+      objectName = "container/",
+      capabilities =
+        (if(isListingChildren)
+          CapabilityModel.booleanCapabilitiesMap(
+            ContainerCapability.cdmi_list_children,
+            ContainerCapability.cdmi_list_children_range
+          )
+        else
+          Map()) ++
+        (if(isSerializing)
+          CapabilityModel.booleanCapabilitiesMap(
+            ContainerCapability.cdmi_serialize_dataobject,
+            ContainerCapability.cdmi_serialize_container,
+            ContainerCapability.cdmi_deserialize_dataobject,
+            ContainerCapability.cdmi_deserialize_container,
+            ContainerCapability.cdmi_modify_deserialize_container
+          )
+        else
+          Map()) ++
+        (if(isCopyingAndMoving)
+          CapabilityModel.booleanCapabilitiesMap(
+            ContainerCapability.cdmi_copy_dataobject,
+            ContainerCapability.cdmi_copy_container,
+            ContainerCapability.cdmi_move_dataobject,
+            ContainerCapability.cdmi_move_container
+          )
+        else
+          Map())
+    )
+
+  /**
+   * Requests are scheduled by the quality of service that their domain asks for iff the backend mixes in
+   * [[gr.grnet.cdmi.service.CdmiQosMethods]].
+   */
+  def isSchedulingQos: Boolean = this.isInstanceOf[CdmiQosMethods]
+
+  def domainCapabilities: CapabilityModel =
+    CapabilityModel.childOf(
+      objectName = "domain/",
+      capabilities =
+        if(isSchedulingQos)
+          CapabilityModel.booleanCapabilitiesMap(DataSystemCapability.cdmi_throughput, DataSystemCapability.cdmi_latency)
+        else
+          Map()
+    )
+
+  /**
+   * Queue values are read, enqueued and removed iff the backend mixes in [[gr.grnet.cdmi.service.CdmiQueueMethods]].
+   */
+  def isServingQueues: Boolean = this.isInstanceOf[CdmiQueueMethods]
+
+  def queueCapabilities: CapabilityModel =
+    CapabilityModel.childOf(
+      objectName = "queue/",
+      capabilities =
+        if(isServingQueues)
+          CapabilityModel.booleanCapabilitiesMap(
+            QueueCapability.cdmi_read_value,
+            QueueCapability.cdmi_read_metadata,
+            QueueCapability.cdmi_modify_value,
+            QueueCapability.cdmi_modify_metadata,
+            QueueCapability.cdmi_delete_queue
+          )
+        else
+          Map()
+    )
+
+  /**
+   * The children of the root capabilities object, keyed by their path under `/cdmi_capabilities/`.
+   */
+  def capabilityChildren: Map[String, CapabilityModel] =
+    Map(
+      "container" → containerCapabilities,
+      "dataobject" → dataObjectCapabilities,
+      "domain" → domainCapabilities,
+      "queue" → queueCapabilities
+    )
+
+  @volatile private[this] var capabilityRegistryRef: CapabilityRegistry = _
+
+  /**
+   * The pre-encoded capability tree, built from `systemWideCapabilities` and `capabilityChildren`
+   * on first use.
+   */
+  def capabilityRegistry: CapabilityRegistry = {
+    val registry = capabilityRegistryRef
+    if(registry eq null) rebuildCapabilities() else registry
+  }
+
+  /**
+   * Rebuilds the capability tree and atomically replaces the one being served.
+   * Backends call this whenever their capabilities change at runtime.
+   */
+  def rebuildCapabilities(): CapabilityRegistry = synchronized {
+    val registry = CapabilityRegistry(systemWideCapabilities, capabilityChildren)
+    capabilityRegistryRef = registry
+    registry
+  }
+
+  def accessLogOverflowPolicy: OverflowPolicy =
+    accessLogOverflow().toLowerCase match {
+      case "drop" ⇒ OverflowPolicy.Drop
+      case "block" ⇒ OverflowPolicy.Block
+      case other ⇒ throw new IllegalArgumentException(s"Unknown ${accessLogOverflow.name} policy '$other'")
+    }
+
+  def accessLogSink: AccessLog.Sink =
+    accessLogPath() match {
+      case null | "" ⇒ AccessLog.loggerSink(log)
+      case path ⇒ AccessLog.fileSink(path)
+    }
+
+  lazy val accessLog: AccessLog =
+    new AccessLog(accessLogCapacity(), accessLogOverflowPolicy, accessLogSampling(), accessLogSink)
+
+  lazy val accessLogDroppedGauge = statsReceiver.addGauge("access_log", "dropped") { accessLog.dropped.toFloat }
+
+  /**
+   * Logs the interesting request headers, in debug mode only. What is logged for every request goes to the `accessLog`.
+   */
   def logBeginRequest(request: Request): Unit = {
-    log.info(s"### BEGIN ${request.remoteSocketAddress} ${request.method} ${request.uri} ###")
     val headers = request.headerMap
     log.ifDebug({
       val sb = new StringBuilder()
@@ -289,84 +891,104 @@ trait CdmiRestService { self: CdmiRestServiceTypes
     })
   }
 
-  def logEndRequest(request: Request, response: Response): Unit = {
-    val contentLength = response.contentLength.getOrElse(-1)
-    val contentType   = response.contentType.map(ct ⇒ s"'$ct'").getOrElse("''")
-    val code = response.status.code
-    val method = request.method
-    val uri = request.uri
-    log.info(s"### END ${request.remoteSocketAddress} $code $contentLength $contentType $method ${uri} ###")
+  def logEndRequest(request: Request, response: Response, durationNanos: Long): Unit = {
+    val responseHeaders = response.headerMap
+    accessLog.record(
+      request.remoteSocketAddress,
+      request.method.toString,
+      request.uri,
+      response.statusCode,
+      responseHeaders.get(HeaderNames.Content_Length) match {
+        case Some(length) ⇒ try length.toLong catch { case _: NumberFormatException ⇒ -1L }
+        case None ⇒ -1L
+      },
+      responseHeaders.get(HeaderNames.Content_Type).orNull,
+      request.headerMap.get(HeaderNames.X_CDMI_Specification_Version).orNull,
+      durationNanos
+    )
   }
 
   def headersToLog = List(HeaderNames.X_CDMI_Specification_Version, HeaderNames.Content_Type, HeaderNames.Accept)
 
+  /**
+   * The reserved top-level path segments, from which the [[gr.grnet.cdmi.service.PathRouter]] is built.
+   */
+  def reservedPrefixes: Seq[ReservedPrefix] = ReservedPrefix.Cdmi
+
+  /**
+   * Built once and shared by all requests.
+   */
+  lazy val pathRouter: PathRouter = new PathRouter(reservedPrefixes)
+
+  /**
+   * Routes the normalized request path, so that `.` and `..` segments, and tolerated double slashes,
+   * resolve before the reserved prefixes are matched.
+   */
+  def routeNormalized(request: Request): CdmiPath = pathRouter.route(request.path.normalizePath)
+
+  /**
+   * The path that `request` is routed to: the one that `Filters.Routing` carries along with it,
+   * or, for a request that has not gone through that filter, `routeNormalized(request)`.
+   */
+  def routePath(request: Request): CdmiPath =
+    RoutedPath.of(request) match {
+      case Some(path) ⇒ path
+      case None ⇒ routeNormalized(request)
+    }
+
   def routingTable: PartialFunction[Request, Future[Response]] = {
     case request ⇒
       def NotAllowed() = notAllowed(request)
 
-      val method = request.method
-      val uri = request.uri
-      val decodedUri = try URLDecoder.decode(uri, "UTF-8") catch { case e: Exception ⇒ s"(${e.getMessage}) $uri"}
-      val requestPath = request.path
-      val normalizedPath = requestPath.normalizePath
+      val cdmiPath = routePath(request)
 
-      log.debug(s"(original) $method $uri")
-      if(decodedUri != uri) {
-        log.debug(s"(decoded)  $method $decodedUri")
+      log.ifDebug {
+        val method = request.method
+        val uri = request.uri
+        val decodedUri = try URLDecoder.decode(uri, "UTF-8") catch { case e: Exception ⇒ s"(${e.getMessage}) $uri"}
+        val sb = new StringBuilder(s"(original) $method $uri")
+        if(decodedUri != uri) {
+          sb.append(s"\n(decoded)  $method $decodedUri")
+        }
+        sb.append(s"\n(as list)  $method ${cdmiPath.toDebugString} => ${cdmiPath.kind}")
+        sb.toString
       }
 
-      val pathElements = normalizedPath.pathToList
-      val lastIsSlash = normalizedPath(normalizedPath.length - 1) == '/'
-      val pathElementsDebugStr = pathElements.map(s ⇒ "\"" + s + "\"").mkString(" ") + (if(lastIsSlash) " [/]" else "")
-      log.debug(s"(as list)  $method $pathElementsDebugStr")
-
-      val HAVE_SLASH = true
-      val HAVE_NO_SLASH = false
-
-      (pathElements, lastIsSlash) match {
-        case (Nil, _) ⇒
+      cdmiPath.kind match {
+        case RouteKind.Root ⇒
           // "/"
-          log.debug("handleRootCall")
           handleRootCall(request)
 
-        case ("" :: Nil, _) ⇒
+        case RouteKind.RootNoSlash ⇒
           // ""
-          log.debug("handleRootNoSlashCall")
           handleRootNoSlashCall(request)
 
-        case ("" ::  "cdmi_capabilities" :: Nil, HAVE_SLASH) ⇒
-          // "/cdmi_capabilities/"
-          log.debug("handleCapabilitiesCall")
-          handleCapabilitiesCall(request)
+        case RouteKind.Capabilities ⇒
+          // "/cdmi_capabilities/" or "/cdmi_capabilities/.../"
+          handleCapabilitiesCall(request, cdmiPath)
 
-        case ("" ::  "cdmi_capabilities" :: Nil, HAVE_NO_SLASH) ⇒
-          // "/cdmi_capabilities"
-          log.debug("handleCapabilitiesNoSlashCall")
+        case RouteKind.CapabilitiesNoSlash ⇒
+          // "/cdmi_capabilities" or "/cdmi_capabilities/..."
           handleCapabilitiesNoSlashCall(request)
 
-        case ("" :: ("cdmi_objectid" | "cdmi_objectId" | "cdmi_objectID") :: objectIdPath, _) ⇒
-          log.debug("handleObjectByIdCall")
-          handleObjectByIdCall(request, objectIdPath)
+        case RouteKind.ObjectById ⇒
+          handleObjectByIdCall(request, cdmiPath)
 
-        case ("" ::  "cdmi_domains" :: domainPath, HAVE_SLASH) ⇒
+        case RouteKind.Domain ⇒
           // "/cdmi_domains/"
-          log.debug("handleDomainCall")
           // According to Section 10.1 CDMI 1.0.2, this prefix is reserved for domain URIs
-          handleDomainCall(request, domainPath)
+          handleDomainCall(request, cdmiPath)
 
-        case ("" ::  "cdmi_domains" :: Nil, HAVE_NO_SLASH) ⇒
+        case RouteKind.DomainNoSlash ⇒
           // "/cdmi_domains"
-          log.debug("handleDomainNoSlashCall")
           handleDomainNoSlashCall(request)
 
-        case ("" :: containerPath, HAVE_SLASH) ⇒
-          log.debug("handleContainerCall")
+        case RouteKind.Container ⇒
           // An ending slash means a container-related call
-          handleContainerCall(request, containerPath)
+          handleContainerCall(request, cdmiPath)
 
-        case ("" :: pathList /* for object or queue */, HAVE_NO_SLASH) ⇒
-          log.debug("handleObjectOrQueueCall")
-          handleObjectOrQueueCall(request, pathList)
+        case RouteKind.ObjectOrQueue ⇒
+          handleObjectOrQueueCall(request, cdmiPath)
 
         case _ ⇒
           log.warning("CATCHALL")
@@ -384,16 +1006,46 @@ trait CdmiRestService { self: CdmiRestServiceTypes
 
   def mainService: Service =
     new Service {
-      override def apply(request: Request): Future[Response] = routingTable(request)
+      val routes = routingTable
+
+      override def apply(request: Request): Future[Response] = routes(request)
     }
 
   def mainFilters: Vector[Filter] =
     Vector(
       Filters.RogueExceptionHandler,
+      Filters.Compression,
       Filters.DoubleSlashCheck,
-      Filters.CdmiHeaderCheck
+      Filters.CdmiHeaderCheck,
+      Filters.QosScheduling,
+      Filters.AdmissionControl,
+      Filters.BodyAggregation
     )
 
+  /**
+   * The `mainService` behind the `mainFilters`, with metrics and the access log around them, and outermost the
+   * routing of the request path. This is what is served.
+   */
+  def filteredService: Service = {
+    val fullFilters = Vector(Filters.Routing, Filters.RequestMetricsFilter, Filters.AccessLogFilter) ++ mainFilters
+    (fullFilters :\ mainService) { (filter, service) ⇒ filter andThen service }
+  }
+
+  /**
+   * Serves the metrics as JSON under `/admin/metrics.json`.
+   */
+  def adminService: Service =
+    new Service {
+      override def apply(request: Request): Future[Response] =
+        request.path match {
+          case "/admin/metrics.json" ⇒
+            bufResponse(request, Status.Ok, StdMediaType.Application_Json, metricsStatsReceiver.toJson).future
+
+          case _ ⇒
+            notFound(request)
+        }
+    }
+
   def haveSslCertPath =
     sslCertPath() match {
       case null ⇒ false
@@ -408,20 +1060,59 @@ trait CdmiRestService { self: CdmiRestServiceTypes
       case _ ⇒ true
     }
 
+  def tlsProvider: TlsProvider =
+    sslProvider().toLowerCase match {
+      case "auto" ⇒ TlsProvider.Auto
+      case "jdk" ⇒ TlsProvider.Jdk
+      case "openssl" ⇒ TlsProvider.OpenSsl
+      case other ⇒ throw new IllegalArgumentException(s"Unknown ${sslProvider.name} '$other'")
+    }
+
+  def tlsConfig: TlsConfig =
+    TlsConfig(
+      certPath = sslCertPath(),
+      keyPath = sslKeyPath(),
+      provider = tlsProvider,
+      protocols = TlsConfig.listOf(sslProtocols()),
+      ciphers = TlsConfig.listOf(sslCiphers()),
+      sessionCacheSize = sslSessionCacheSize(),
+      sessionTimeout = sslSessionTimeout(),
+      sessionTickets = sslSessionTickets()
+    )
+
+  def serveHttp(address: InetSocketAddress, service: Service): ListeningServer =
+    Httpx.server.
+      withStreaming(enabled = true).
+      serve(address, service)
+
+  def serveHttps(address: InetSocketAddress, service: Service, engines: TlsEngineFactory): ListeningServer =
+    Httpx.server.
+      withStreaming(enabled = true).
+      withTls(Netty3ListenerTLSConfig(engines)).
+      serve(address, service)
+
   def main(): Unit = {
     printBanner()
     logFlags()
+    log.info(s"Reserved prefixes: ${pathRouter.prefixes.map(_.segment).mkString(", ")}")
+    log.info(s"Capabilities: ${rebuildCapabilities().paths.toList.sorted.map(p ⇒ s"/cdmi_capabilities/$p/".replace("//", "/")).mkString(", ")}")
+
+    val service = filteredService
+    accessLogDroppedGauge
+    self match {
+      case streaming: CdmiObjectStreamMethods ⇒ streaming.objectBodyPool // fails on an unlimited maxConcurrentWrites
+      case _ ⇒
+    }
+    sys.addShutdownHook(accessLog.close())
 
-    val fullFilters = Vector(Filters.LogBeginRequestFilter) ++ mainFilters ++ Vector(Filters.LogEndRequestFilter)
-    val service = (fullFilters :\ mainService) { (filter, service) ⇒ filter andThen service }
+    log.info("Starting admin HTTP server on " + adminPort().getPort)
+    Httpx.server.serve(adminPort(), adminService)
 
     (haveSslCertPath, haveSslKeyPath) match {
       case (false, false) ⇒
         // No SSL. Just start an http server
         log.info("Starting HTTP server on " + port().getPort)
-        val server = Httpx.serve(port(), service)
-
-        Await.ready(server)
+        Await.ready(serveHttp(port(), service))
 
       case (_, false) | (false, _) ⇒
         System.err.println(s"You specified only one of ${sslCertPath.name}, ${sslKeyPath.name}. Either omit them both or given them values")
@@ -446,13 +1137,23 @@ trait CdmiRestService { self: CdmiRestServiceTypes
           sys.exit(2)
         }
 
-        log.info("Starting HTTPS server on " + sslPort().getPort)
-        val server = Httpx.server.
-          withTls(Netty3ListenerTLSConfig(() => Ssl.server(sslCertPath(), sslKeyPath(), null, null, null))).
-          serve(sslPort(), service)
+        val engines = new TlsEngineFactory(tlsConfig)
+        log.info(s"TLS: ${engines.describe()}")
+        for(setting ← engines.unappliedSettings) {
+          log.warning(s"TLS: ${engines.provider} keeps its own session cache; the $setting given is not applied")
+        }
 
+        log.info("Starting HTTPS server on " + sslPort().getPort)
+        val httpsServer = serveHttps(sslPort(), service, engines)
 
-        Await.ready(server)
+        if(sslWithHttp()) {
+          log.info("Starting HTTP server on " + port().getPort)
+          val httpServer = serveHttp(port(), service)
+          Await.all(httpsServer, httpServer)
+        }
+        else {
+          Await.ready(httpsServer)
+        }
     }
   }
 }
@@ -17,8 +17,10 @@
 
 package gr.grnet.cdmi.service
 
-import com.twitter.finagle.httpx.Method.{Delete, Get, Post, Put}
-import com.twitter.util.Future
+import com.twitter.finagle.httpx.Method.{Get, Post, Put}
+import com.twitter.finagle.httpx.Status
+import com.twitter.util.{Future, Time}
+import gr.grnet.cdmi.objectid.ObjectIDIndex
 
 trait CdmiRestServiceHandlers { self: CdmiRestService
                                  with CdmiRestServiceTypes
@@ -29,360 +31,169 @@ trait CdmiRestServiceHandlers { self: CdmiRestService
   @inline final def OPTIONAL [T](t: T) = t // for documentation purposes; communicates spec-defined behavior
   @inline final def HELPER   [T](t: T) = t // for documentation purposes; communicates not spec-defined behavior but one that is helping to understand the situation
 
-  def handleContainerCall(request: Request, containerPath: List[String]): Future[Response] = {
-    def NotAllowed() = notAllowed(request)
-    
-    val method = request.method
-    val headers = request.headerMap
-    val hSpecVersion = headers.get(HeaderNames.X_CDMI_Specification_Version).orNull
-    val hContentType = headers.get(HeaderNames.Content_Type).orNull
-    val mediaType = request.mediaType.orNull // Content-Type without any baggage
-    val hAccept = headers.get(HeaderNames.Accept).orNull
-
-    val haveContentType = hContentType ne null
-    val haveSpecVersion = hSpecVersion ne null
-    val haveAccept = hAccept ne null
-
-    val isContainerAccept = haveAccept && Accept.isCdmiContainer(request)
-    val isObjectAccept = !isContainerAccept && Accept.isCdmiObject(request)
-    val isAnyAccept =  !isObjectAccept && Accept.isAny(request)
-    val isQueueAccept = !isAnyAccept && Accept.isCdmiQueue(request)
-    val isContainerContentType = haveContentType && MediaTypes.isCdmiContainer(mediaType)
-    val isObjectContentType = !isContainerContentType && MediaTypes.isCdmiObject(mediaType)
-    val isQueueContentType = !isObjectContentType && MediaTypes.isCdmiQueue(mediaType)
-
-    def handleContainerCdmiCall(): Future[Response] =
-      method match {
-        case Get if OPTIONAL(isContainerAccept || isAnyAccept || !haveAccept) ⇒
-          GET_container_cdmi(request, containerPath)
-
-        case Get if HELPER(Accept.isCdmiLike(request)) ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR017,
-            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
-            s". Should be '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiContainer}'"
-          )
-
-        case Get /*if HELPER(haveAccept) */⇒
-          badRequest(
-            request,
-            StdErrorRef.BR018,
-            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
-            s". Should be '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiContainer}'"
-          )
-
-        case Put if MANDATORY(isContainerContentType) && OPTIONAL(isContainerAccept || isAnyAccept) ⇒
-          // Section 9.2 Create a Container Object using CDMI Content Type
-          PUT_container_cdmi_create(request, containerPath)
-
-        case Put if MANDATORY(isContainerContentType) && OPTIONAL(!haveAccept) ⇒
-          // Section 9.2 Create a Container Object using CDMI Content Type
-          // Section 9.5 Update a Container Object using CDMI Content Type
-          PUT_container_cdmi_create_or_update(request, containerPath)
-
-        case Put if MediaTypes.isCdmiLike(mediaType) ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR019,
-            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
-            s". Should be '${HeaderNames.Content_Type}: ${MediaTypes.Application_CdmiContainer}'"
-          )
-
-        case Put if MANDATORY(haveContentType) ⇒
-          // This is an irrelevant content type
-          badRequest(
-            request,
-            StdErrorRef.BR020,
-            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present"
-          )
-
-        case Put ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR021,
-            s"'${HeaderNames.Content_Type}' is not set"
-          )
-
-        case Post if MANDATORY(isObjectContentType) && OPTIONAL(isObjectAccept || isAnyAccept || !haveAccept) ⇒
-          // Section 9.8 Create (POST) a New Data Object using CDMI Content Type
-          POST_object_to_container_cdmi(request, containerPath)
-
-        case Post if MANDATORY(isQueueContentType) && OPTIONAL(isQueueAccept || isAnyAccept || !haveAccept) ⇒
-          // Section 9.10 Create (POST) a New Queue Object using CDMI Content Type
-          POST_queue_to_container_cdmi(request, containerPath)
-
-        case Post ⇒
-          // I could refine the errors more, just like I did with other cases but this manual procedure is getting
-          // tedious, it already is error prone and certainly is the wrong way to implement a specification, as far
-          // as I am concerned.
-          // We really need to derive an implementation automatically from the specification.
-          NotAllowed()
-
-        case Delete ⇒
-          // Section 9.6 Delete a Container Object using CDMI Content Type
-          DELETE_container_cdmi(request, containerPath)
-
-        case _ ⇒
-          NotAllowed()
-      }
+  /**
+   * The request headers that select the representation of a data object, queue or container.
+   */
+  final val RepresentationVary = s"${HeaderNames.Accept}, ${HeaderNames.X_CDMI_Specification_Version}"
+
+  /**
+   * The validators of the representation that `request` selects, given those of the resource.
+   * The CDMI JSON of an entry and its non-CDMI form are different bytes, so their tags end in `-cdmi` and `-raw`.
+   * A CDMI query, e.g. `?value:0-1023` or `?metadata`, selects part of the JSON, whose tag is weak.
+   *
+   * @note RFC 7232 Section 2.3: ETag
+   */
+  def representationValidators(request: Request, validators: Validators): Validators =
+    if(request.headerMap.contains(HeaderNames.X_CDMI_Specification_Version)) {
+      validators.ofRepresentation(Validators.CdmiRepresentation, weak = request.uri.indexOf('?') >= 0)
+    }
+    else validators.ofRepresentation(Validators.RawRepresentation, weak = false)
+
+  /**
+   * Evaluates the conditional headers of `request` before running `handle`, if the backend mixes in
+   * [[gr.grnet.cdmi.service.CdmiValidatorMethods]]. Validators are fetched for every `GET` and `HEAD`,
+   * so that successful reads carry them, and for other methods only when there are conditional headers.
+   * They are compared as the validators of the representation that the request selects, which depends on
+   * the headers in `Vary`.
+   */
+  def withPreconditions(
+    request: Request,
+    validators: CdmiValidatorMethods ⇒ Future[Option[Validators]]
+  )(handle: ⇒ Future[Response]): Future[Response] =
+    self match {
+      case methods: CdmiValidatorMethods
+        if Preconditions.isSafe(request.method) || Preconditions.hasConditionalHeaders(request) ⇒
+
+        validators(methods) flatMap { resource ⇒
+          val current = resource.map(representationValidators(request, _))
+          Preconditions.evaluate(request, current) match {
+            case PreconditionOutcome.Proceed ⇒
+              current match {
+                case Some(v) if Preconditions.isSafe(request.method) ⇒
+                  handle map { response ⇒
+                    response.status match {
+                      case Status.Ok | Status.PartialContent ⇒ addVary(addValidators(response, v), RepresentationVary)
+                      case _ ⇒ response
+                    }
+                  }
+
+                case _ ⇒
+                  handle
+              }
+
+            case PreconditionOutcome.NotModified ⇒
+              notModified(request, current.getOrElse(Validators.Empty)) map { addVary(_, RepresentationVary) }
+
+            case PreconditionOutcome.Failed ⇒
+              preconditionFailed(request)
+          }
+        }
+
+      case _ ⇒
+        handle
+    }
 
-    def handleContainerNonCdmiCall(): Future[Response] =
-      method match {
-        case Get ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR022,
-            s"Requested to read a container without setting ${HeaderNames.X_CDMI_Specification_Version}"
-          )
-        case Put ⇒
-          NotAllowed()
-        case Post ⇒
-          NotAllowed()
-        case Delete ⇒
-          NotAllowed()
-        case _ ⇒
-          NotAllowed()
+  /**
+   * Runs `handle`, which implements `operation`, measuring it in `requestMetrics`.
+   * If the [[gr.grnet.cdmi.service.RequestDeadline]] has passed by now, e.g. while the body was being read,
+   * `handle` is not run at all. If `operationLimits` limits `operation`, `handle` runs once its gate admits it.
+   */
+  def measured(request: Request, operation: Operation)(handle: ⇒ Future[Response]): Future[Response] =
+    requestMetrics.measure(request, operation) {
+      if(RequestDeadline.isExpired) serviceUnavailable(request, retryAfter(), "Request deadline exceeded")
+      else operationGates.get(operation) match {
+        case None ⇒
+          handle
+        case Some(gate) ⇒
+          admitted(request, gate, RequestDeadline.current, _ ⇒ Time.Top, s"Too many $operation operations, try again later") {
+            handle
+          }
       }
+    }
 
-    haveSpecVersion match {
-      case true  ⇒
-        log.debug("handleContainerCdmiCall")
-        handleContainerCdmiCall()
-
-      case false ⇒
-        log.debug("handleContainerNonCdmiCall")
-        handleContainerNonCdmiCall()
+  type Dispatch = (Request, CdmiPath) ⇒ Future[Response]
+
+  /**
+   * Runs `operation` for the resource at `path`.
+   */
+  def performerOf(operation: Operation): Dispatch =
+    operation match {
+      case Operation.GET_capabilities ⇒ (request, path) ⇒
+        if(path.isEmpty) GET_capabilities(request) else GET_capabilities(request, path.toList)
+
+      case Operation.GET_objectById ⇒ (request, path) ⇒ GET_objectById(request, path.toList)
+      case Operation.POST_objectById ⇒ (request, path) ⇒ POST_objectById(request, path.toList)
+      case Operation.PUT_objectById ⇒ (request, path) ⇒ PUT_objectById(request, path.toList)
+
+      case Operation.GET_object_cdmi ⇒ (request, path) ⇒ GET_object_cdmi(request, path.toList)
+      case Operation.GET_object_noncdmi ⇒ (request, path) ⇒ GET_object_noncdmi(request, path.toList)
+      case Operation.PUT_object_cdmi_create ⇒ (request, path) ⇒ PUT_object_cdmi_create(request, path.toList)
+      case Operation.PUT_object_cdmi_create_or_update ⇒ (request, path) ⇒ PUT_object_cdmi_create_or_update(request, path.toList)
+      case Operation.PUT_object_noncdmi ⇒ (request, path) ⇒
+        val contentType = request.headerMap.get(HeaderNames.Content_Type).orNull
+        PUT_object_noncdmi_stream(request, path.toList, contentType, Bodies.readerOf(request))
+      case Operation.DELETE_object_noncdmi ⇒ (request, path) ⇒ DELETE_object_noncdmi(request, path.toList)
+
+      case Operation.GET_container_cdmi ⇒ (request, path) ⇒ GET_container_cdmi(request, path.toList)
+      case Operation.PUT_container_cdmi_create ⇒ (request, path) ⇒ PUT_container_cdmi_create(request, path.toList)
+      case Operation.PUT_container_cdmi_create_or_update ⇒ (request, path) ⇒ PUT_container_cdmi_create_or_update(request, path.toList)
+      case Operation.POST_object_to_container_cdmi ⇒ (request, path) ⇒ POST_object_to_container_cdmi(request, path.toList)
+      case Operation.POST_queue_to_container_cdmi ⇒ (request, path) ⇒ POST_queue_to_container_cdmi(request, path.toList)
+      case Operation.DELETE_container_cdmi ⇒ (request, path) ⇒ DELETE_container_cdmi(request, path.toList)
+
+      case Operation.GET_domain_cdmi ⇒ (request, path) ⇒ GET_domain_cdmi(request, path.toList)
+      case Operation.PUT_domain_cdmi ⇒ (request, path) ⇒ PUT_domain_cdmi(request, path.toList)
+      case Operation.DELETE_domain_cdmi ⇒ (request, path) ⇒ DELETE_domain_cdmi(request, path.toList)
+
+      case Operation.GET_queue_cdmi ⇒ (request, path) ⇒ GET_queue_cdmi(request, path.toList)
+      case Operation.PUT_queue_cdmi_create ⇒ (request, path) ⇒ PUT_queue_cdmi_create(request, path.toList)
+      case Operation.PUT_queue_cdmi_update ⇒ (request, path) ⇒ PUT_queue_cdmi_update(request, path.toList)
+      case Operation.POST_queue_value_cdmi ⇒ (request, path) ⇒ POST_queue_value_cdmi(request, path.toList)
+
+      case Operation.DELETE_object_or_queue_or_queuevalue_cdmi ⇒ (request, path) ⇒
+        DELETE_object_or_queue_or_queuevalue_cdmi(request, path.toList)
     }
-  }
 
-  def handleObjectOrQueueCall(request: Request, pathList: List[String]): Future[Response] = {
-    def NotAllowed() = notAllowed(request)
-    val headers = request.headerMap
-    val method = request.method
+  def dispatchOf(outcome: DispatchOutcome): Dispatch =
+    outcome match {
+      case DispatchOutcome.Perform(operation) ⇒
+        val perform = performerOf(operation)
+        (request, path) ⇒ measured(request, operation) { perform(request, path) }
 
-    val hSpecVersion = headers.get(HeaderNames.X_CDMI_Specification_Version).orNull
-    val hContentType = headers.get(HeaderNames.Content_Type).orNull
-    val mediaType = request.mediaType.orNull // Content-Type without any baggage
-    val hAccept = headers.get(HeaderNames.Accept).orNull
-
-    val haveContentType = hContentType ne null
-    val haveSpecVersion = hSpecVersion ne null
-    val haveAccept = hAccept ne null
-
-    val isQueueContentType = MediaTypes.isCdmiQueue(mediaType)
-    val isObjectContentType = !isQueueContentType && MediaTypes.isCdmiObject(mediaType)
-    val isQueueAccept = Accept.isCdmiQueue(request)
-    val isObjectAccept = !isQueueAccept && Accept.isCdmiObject(request)
-    val isAnyAccept = !isQueueAccept && !isObjectAccept && Accept.isAny(request)
-
-    // Separation of queues and data objects is not well defined
-    // and this is an approximate solution/approach.
-    //
-    // In particular:
-    //  - Section 11.2 of CDMI 1.0.2 "Create a Queue Object using CDMI Content Type"
-    //      requires Content-Type: application/cdmi-queue and
-    //      requires the presence of X-CDMI-Specification-Version header
-    //  - Section 11.3 of CDMI 1.0.2 "Read a Queue Object using CDMI Content Type"
-    //      has an optional Accept header and
-    //      requires the presence of X-CDMI-Specification-Version header
-    //  - Section 11.4 of CDMI 1.0.2 "Update a Queue Object using CDMI Content Type"
-    //      requires Content-Type: application/cdmi-queue and
-    //      requires the presence of X-CDMI-Specification-Version header
-    //  - Section 11.5 of CDMI 1.0.2 "Delete a Queue Object using CDMI Content Type"
-    //      requires the presence of X-CDMI-Specification-Version header
-    //  - Section 11.6 of CDMI 1.0.2 "Enqueue a New Queue Value using CDMI Content Type"
-    //      requires Content-Type: application/cdmi-queue and
-    //      requires the presence of X-CDMI-Specification-Version header
-    //  - Section 11.7 of CDMI 1.0.2 "Delete a Queue Object Value using CDMI Content Type"
-    //      requires the presence of X-CDMI-Specification-Version header
-    //
-    //
-    // The common requirement for queue operations is the presence of X-CDMI-Specification-Version
-    // header and this is what we check first:
-
-    // Handles all cases when the header X-CDMI-Specification-Version is present
-    // That the version is valid must be guaranteed by the filters run before we reach here.
-    // This is true with the default setup.
-    def handleObjectOrQueueCdmiCall(): Future[Response] = {
-      method match {
-        //+ GET //////////////////////////////////////////////////////////////
-        case Get if OPTIONAL(isQueueAccept) ⇒
-          // Section 11.3 Read a Queue Object using CDMI Content Type
-          GET_queue_cdmi(request, pathList)
-
-        case Get if OPTIONAL(isObjectAccept || isAnyAccept) || HELPER(!haveAccept) ⇒
-          // If `Accept` is not present or it is '*/*', we default to data objects.
-          // Section 8.4 Read a Data Object using CDMI Content Type
-          GET_object_cdmi(request, pathList)
-
-        case Get if HELPER(Accept.isCdmiLike(request)) ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR006,
-            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
-              s". Should be '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiObject}'" +
-              s" or '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiQueue}'"
-          )
-
-        case Get if HELPER(haveAccept) ⇒
-          // There must be an irrelevant media type in `Accept`
-          badRequest(
-            request,
-            StdErrorRef.BR004,
-            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present"
-          )
-        //- GET //////////////////////////////////////////////////////////////
-
-        //+ PUT //////////////////////////////////////////////////////////////
-        case Put if MANDATORY(isQueueContentType) && MANDATORY(isQueueAccept) ⇒
-          // Section 11.2 Create a Queue Object using CDMI Content Type
-          PUT_queue_cdmi_create(request, pathList)
-
-        case Put if MANDATORY(isQueueContentType) ⇒
-          // Section 11.4 Update a Queue Object using CDMI Content Type
-          PUT_queue_cdmi_update(request, pathList)
-
-        case Put if MANDATORY(isObjectContentType) && OPTIONAL(isObjectAccept || isAnyAccept) ⇒
-          // Section 8.2 Create a Data Object Using CDMI Content Type
-          PUT_object_cdmi_create(request, pathList)
-
-        case Put if MANDATORY(isObjectContentType) ⇒
-          // Section 8.2 Create a Data Object Using CDMI Content Type
-          // Section 8.6 Update a Data Object using CDMI Content Type
-          PUT_object_cdmi_create_or_update(request, pathList)
-
-        case Put if MANDATORY(MediaTypes.isCdmiLike(mediaType)) ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR007,
-            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
-              s". Should be '${HeaderNames.Content_Type}: ${MediaTypes.Application_CdmiObject}'" +
-              s" or '${HeaderNames.Content_Type}: ${MediaTypes.Application_CdmiQueue}'"
-          )
-
-        case Put if MANDATORY(haveContentType) ⇒
-          // This is an irrelevant content type
-          badRequest(
-            request,
-            StdErrorRef.BR016,
-            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present"
-          )
-
-        case Put ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR005,
-            s"'${HeaderNames.Content_Type}' is not set"
-          )
-        //- PUT //////////////////////////////////////////////////////////////
-
-        //+ POST /////////////////////////////////////////////////////////////
-        case Post if isQueueContentType ⇒
-          // Section 11.6 Enqueue a New Queue Value using CDMI Content Type
-          POST_queue_value_cdmi(request, pathList)
-
-        case Post ⇒
-          NotAllowed()
-
-        //- POST /////////////////////////////////////////////////////////////
-
-        //+ DELETE ///////////////////////////////////////////////////////////
-        case Delete ⇒
-          // No other way to understand if this is about a data object or a queue object or a queue object value
-          // Section  8.8 Delete a Data Object using CDMI Content Type
-          // Section 11.5 Delete a Queue Object using CDMI Content Type
-          // Section 11.7 Delete a Queue Object Value using CDMI Content Type
-          DELETE_object_or_queue_or_queuevalue_cdmi(request, pathList)
-
-        //- DELETE ///////////////////////////////////////////////////////////
-
-        case _ ⇒
-          NotAllowed()
-      }
-    }
+      case DispatchOutcome.Reject(ref, message) ⇒
+        (request, _) ⇒ badRequest(request, ref, message(request))
 
-    // Handles all cases when the header X-CDMI-Specification-Version is absent.
-    def handleObjectOrQueueNonCdmiCall(): Future[Response] = {
-      method match {
-        //+ GET //////////////////////////////////////////////////////////////
-        case Get if HELPER(isAnyAccept) || HELPER(!haveAccept) ⇒
-          // Section 8.5 Read a Data Object using a Non-CDMI Content Type
-          GET_object_noncdmi(request, pathList)
-
-        case Get if HELPER(Accept.isCdmiLike(request)) ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR013,
-            s"Bad use of CDMI-aware '${HeaderNames.Accept}: $hAccept' without the presence of '${HeaderNames.X_CDMI_Specification_Version}'"
-          )
-
-        case Get ⇒
-          // Let the implementation handle any other value for the `Accept` header.
-          // Section 8.5 Read a Data Object using a Non-CDMI Content Type
-          GET_object_noncdmi(request, pathList)
-        //- GET //////////////////////////////////////////////////////////////
-
-        //+ PUT //////////////////////////////////////////////////////////////
-        case Put if MANDATORY(haveContentType) && MANDATORY(MediaTypes.isCdmiLike(mediaType)) ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR014,
-            s"Bad use of CDMI-aware '${HeaderNames.Content_Type}: $hContentType' without the presence of '${HeaderNames.X_CDMI_Specification_Version}'"
-          )
-
-        case Put if MANDATORY(haveContentType) ⇒
-          // Section 8.3 Create a Data Object using a Non-CDMI Content Type
-          // Section 8.7 Update a Data Object using a Non-CDMI Content Type
-          PUT_object_noncdmi(request, pathList, hContentType)
-
-        case Put ⇒
-          badRequest(
-            request,
-            StdErrorRef.BR015,
-            s"'${HeaderNames.Content_Type}' is not set"
-          )
-        //- PUT //////////////////////////////////////////////////////////////
-
-        //+ POST /////////////////////////////////////////////////////////////
-        case Post ⇒
-          NotAllowed()
-        //- POST /////////////////////////////////////////////////////////////
-
-        //+ DELETE ///////////////////////////////////////////////////////////
-        case Delete ⇒
-          // Section 8.9 Delete a Data Object using a Non-CDMI Content Type
-          DELETE_object_noncdmi(request, pathList)
-        //+ DELETE ///////////////////////////////////////////////////////////
-
-        case _ ⇒
-          NotAllowed()
-      }
+      case DispatchOutcome.NotAllowed ⇒
+        (request, _) ⇒ notAllowed(request)
     }
 
-    haveSpecVersion match {
-      case true  ⇒
-        log.debug("handleObjectOrQueueCdmiCall")
-        handleObjectOrQueueCdmiCall()
+  /**
+   * The rules to dispatch containers, data objects and queues, domains and capabilities by.
+   */
+  def dispatchRules: scala.collection.immutable.Seq[DispatchRule] = DispatchRules.All
 
-      case false ⇒
-        log.debug("handleObjectOrQueueNonCdmiCall")
-        handleObjectOrQueueNonCdmiCall()
-    }
+  lazy val dispatchTable: DispatchTable[Dispatch] = new DispatchTable[Dispatch](dispatchRules, dispatchOf)
+
+  def dispatch(request: Request, path: CdmiPath): Future[Response] = {
+    val kind = path.kind
+    val negotiated = if(dispatchTable.isNegotiated(kind)) Negotiated.of(request) else Negotiated.Empty
+    dispatchTable(request.method, kind, negotiated)(request, path)
   }
 
-  def handleDomainCall(request: Request, domainPath: List[String]): Future[Response] = {
-    def NotAllowed() = notAllowed(request)
-    val method = request.method
+  def handleContainerCall(request: Request, path: CdmiPath): Future[Response] = {
+    def validators(methods: CdmiValidatorMethods) = methods.GET_container_validators(request, path.toList)
 
-    method match {
-      case Get    ⇒ GET_domain_cdmi(request, domainPath)
-      case Put    ⇒ PUT_domain_cdmi(request, domainPath)
-      case Delete ⇒ DELETE_domain_cdmi(request, domainPath)
-      case _             ⇒ NotAllowed()
-    }
+    withPreconditions(request, validators) { dispatch(request, path) }
+  }
+
+  def handleObjectOrQueueCall(request: Request, path: CdmiPath): Future[Response] = {
+    def validators(methods: CdmiValidatorMethods) = methods.GET_object_validators(request, path.toList)
+
+    withPreconditions(request, validators) { dispatch(request, path) }
   }
 
+  def handleDomainCall(request: Request, path: CdmiPath): Future[Response] = dispatch(request, path)
+
   def handleDomainNoSlashCall(request: Request): Future[Response] =
     badRequest(
       request,
@@ -394,32 +205,63 @@ trait CdmiRestServiceHandlers { self: CdmiRestService
 
   def handleRootNoSlashCall(request: Request): Future[Response] = notAllowed(request)
 
-  def handleCapabilitiesCall(request: Request): Future[Response] = {
-    def NotAllowed() = notAllowed(request)
-    val method = request.method
-
-    method match {
-      case Get ⇒ GET_capabilities(request)
-      case _          ⇒ NotAllowed()
-    }
-  }
+  def handleCapabilitiesCall(request: Request, path: CdmiPath): Future[Response] = dispatch(request, path)
 
   def handleCapabilitiesNoSlashCall(request: Request): Future[Response] =
     badRequest(
       request,
       StdErrorRef.BR012,
-      "Probably you meant to call /cdmi_capabilities/ instead of /cdmi_capabilities"
+      s"Probably you meant to call ${request.path}/ instead of ${request.path}"
     )
 
-  def handleObjectByIdCall(request: Request, objectIdPath: List[String]): Future[Response] = {
+  /**
+   * Resolves `/cdmi_objectid/<objectID>/<rest>` through `index` to the path it stands for, if there is one.
+   * Anything after the objectID is only allowed when it is the objectID of a container.
+   */
+  def resolveObjectId(index: ObjectIDIndex, path: CdmiPath): Option[CdmiPath] = {
+    val objectID = path(0)
+    val rest = path.remainder.substring(objectID.length)
+
+    index.pathOf(objectID) match {
+      case Some(base) if rest.isEmpty ⇒ Some(pathRouter.route(base))
+      case Some(base) if base.endsWith("/") ⇒ Some(pathRouter.route(base + rest.substring(1)))
+      case _ ⇒ None
+    }
+  }
+
+  def handleObjectByIdCall(request: Request, path: CdmiPath): Future[Response] = {
     def NotAllowed() = notAllowed(request)
+    def objectIdPath = path.toList
     val method = request.method
 
-    method match {
-      case Get ⇒ GET_objectById(request, objectIdPath)
-      case Post ⇒ POST_objectById(request, objectIdPath)
-      case Put ⇒ PUT_objectById(request, objectIdPath)
-      case _ ⇒ NotAllowed()
+    // A streamed body that is not going to reach a data object is not read
+    def Unread(response: Future[Response]): Future[Response] = {
+      if(request.isChunked) { request.reader.discard() }
+      response
+    }
+
+    self match {
+      case indexing: CdmiObjectIDIndexing if path.nonEmpty ⇒
+        resolveObjectId(indexing.objectIDIndex, path) match {
+          case None ⇒ Unread(notFound(request))
+          case Some(resolved) ⇒
+            resolved.kind match {
+              case RouteKind.Root ⇒ // the objectID of the root container
+                val rootContainer = new CdmiPath(RouteKind.Container, resolved.path, resolved.from, resolved.lastIsSlash)
+                Unread(handleContainerCall(request, rootContainer))
+              case RouteKind.Container ⇒ Unread(handleContainerCall(request, resolved))
+              case RouteKind.ObjectOrQueue ⇒ handleObjectOrQueueCall(request, resolved)
+              case _ ⇒ Unread(NotAllowed())
+            }
+        }
+
+      case _ ⇒
+        method match {
+          case Get ⇒ measured(request, Operation.GET_objectById) { GET_objectById(request, objectIdPath) }
+          case Post ⇒ measured(request, Operation.POST_objectById) { POST_objectById(request, objectIdPath) }
+          case Put ⇒ measured(request, Operation.PUT_objectById) { PUT_objectById(request, objectIdPath) }
+          case _ ⇒ NotAllowed()
+        }
     }
   }
 }
@@ -17,21 +17,30 @@
 
 package gr.grnet.cdmi.service
 
+import com.fasterxml.jackson.core.JsonProcessingException
 import com.twitter.finagle.httpx.Status
+import com.twitter.io.Reader
 import com.twitter.util.Future
-import gr.grnet.cdmi.http.CdmiMediaType
-import gr.grnet.common.json.Json
+import gr.grnet.cdmi.json.CdmiRequestJson
 
 trait CdmiRestServiceMethods { self: CdmiRestService with CdmiRestServiceTypes with CdmiRestServiceResponse ⇒
   /**
    * Return the capabilities of this CDMI implementation.
    */
-  def GET_capabilities(request: Request): Future[Response] = {
-    val caps = systemWideCapabilities
-    val jsonCaps = Json.objectToJsonString(caps)
+  def GET_capabilities(request: Request): Future[Response] =
+    okAppCdmiCapability(request, capabilityRegistry.root)
 
-    response(request, Status.Ok, CdmiMediaType.Application_CdmiCapability, jsonCaps).future
-  }
+  /**
+   * Return one of the children of the root capabilities object, e.g. `/cdmi_capabilities/dataobject/`.
+   */
+  def GET_capabilities(request: Request, capabilitiesPath: List[String]): Future[Response] =
+    capabilityRegistry.get(capabilitiesPath.mkString("/")) match {
+      case Some(entry) ⇒
+        okAppCdmiCapability(request, entry)
+
+      case None ⇒
+        notFound(request)
+    }
 
   def GET_objectById(request: Request, objectIdPath: List[String]): Future[Response] =
     notImplemented(request)
@@ -70,6 +79,38 @@ trait CdmiRestServiceMethods { self: CdmiRestService with CdmiRestServiceTypes w
    */
   def PUT_object_noncdmi(request: Request, objectPath: List[String], contentType: String): Future[Response] =
     notImplemented(request)
+
+  /**
+   * Creates/updates a data object using non-CDMI content type, with the value given as a stream.
+   * The given `contentType` is guaranteed to be not null.
+   *
+   * Backends that can drain `body` chunk by chunk should override this, so that memory use
+   * does not depend on the size of the data object. The default buffers the whole of `body`,
+   * which is then subject to `maxRequestSize`, and delegates to `PUT_object_noncdmi`.
+   *
+   * @note Section 8.3 of CDMI 1.0.2: Create a Data Object using a Non-CDMI Content Type
+   * @note Section 8.7 of CDMI 1.0.2: Update a Data Object using a Non-CDMI Content Type
+   */
+  def PUT_object_noncdmi_stream(
+    request: Request,
+    objectPath: List[String],
+    contentType: String,
+    body: Reader
+  ): Future[Response] =
+    if(!request.isChunked) {
+      PUT_object_noncdmi(request, objectPath, contentType)
+    }
+    else {
+      Bodies.readAll(body, maxRequestBytes, streamChunkBytes) flatMap {
+        case Some(buf) ⇒
+          request.setChunked(false)
+          request.content = buf
+          PUT_object_noncdmi(request, objectPath, contentType)
+
+        case None ⇒
+          requestEntityTooLarge(request, s"Request body exceeds ${maxRequestSize()} MB")
+      }
+    }
   /////////////////////////////////////////////////////////////
   //- Create/Update a data object /////////////////////////////
   /////////////////////////////////////////////////////////////
@@ -80,6 +121,8 @@ trait CdmiRestServiceMethods { self: CdmiRestService with CdmiRestServiceTypes w
   /////////////////////////////////////////////////////////////
   /**
    * Read a data object using CDMI content type.
+   * Backends providing [[gr.grnet.cdmi.service.ObjectValue]]s can use the `okAppCdmiObject` variant
+   * that takes one, which honors `?value:<range>`.
    *
    * @note Section 8.4 of CDMI 1.0.2: Read a Data Object using CDMI Content Type
    */
@@ -88,11 +131,24 @@ trait CdmiRestServiceMethods { self: CdmiRestService with CdmiRestServiceTypes w
 
   /**
    * Read a data object using non-CDMI content type.
+   * Large values should be streamed using one of the `okStream` variants.
+   *
+   * If the backend mixes in [[gr.grnet.cdmi.service.CdmiObjectValueMethods]], the value is served
+   * from `GET_object_value`, honoring any `Range` header.
    *
    * @note Section 8.5 of CDMI 1.0.2: Read a Data Object using a Non-CDMI Content Type
    */
   def GET_object_noncdmi(request: Request, objectPath: List[String]): Future[Response] =
-    notImplemented(request)
+    self match {
+      case values: CdmiObjectValueMethods ⇒
+        values.GET_object_value(request, objectPath) flatMap {
+          case Some(value) ⇒ okObjectValue(request, value)
+          case None ⇒ notFound(request)
+        }
+
+      case _ ⇒
+        notImplemented(request)
+    }
   /////////////////////////////////////////////////////////////
   //- Read a data object //////////////////////////////////////
   /////////////////////////////////////////////////////////////
@@ -174,10 +230,36 @@ trait CdmiRestServiceMethods { self: CdmiRestService with CdmiRestServiceTypes w
   /**
    * Lists the contents of a container using CDMI content type.
    *
+   * If the backend mixes in [[gr.grnet.cdmi.service.CdmiContainerListingMethods]], the children are
+   * streamed page by page, honoring any `children:<range>` in the query.
+   *
    * @note Section 9.4 of CDMI 1.0.2: Read a Container Object using CDMI Content Type
    */
   def GET_container_cdmi(request: Request, containerPath: List[String]): Future[Response] =
-    notImplemented(request)
+    self match {
+      case listing: CdmiContainerListingMethods ⇒
+        val query = CdmiQuery.ofUri(request.uri)
+        query.childrenRangeArg match {
+          case Some(arg) if query.childrenRange.isEmpty ⇒
+            badRequest(request, StdErrorRef.BR023, s"Invalid children range '$arg'")
+
+          case _ ⇒
+            val (first, last) = query.childrenRange.getOrElse((0L, Long.MaxValue))
+            listing.GET_container_model(request, containerPath) flatMap {
+              case Some(model) ⇒
+                listing.GET_container_children(request, containerPath, first) map { cursor ⇒
+                  val body = ContainerListing.reader(model, query, cursor, first, last, listingPageChildren)
+                  streamResponse(request, Status.Ok, MediaTypes.Application_CdmiContainer, body)
+                }
+
+              case None ⇒
+                notFound(request)
+            }
+        }
+
+      case _ ⇒
+        notImplemented(request)
+    }
 
   /**
    * Lists the contents of a container using non-CDMI content type.
@@ -263,11 +345,93 @@ trait CdmiRestServiceMethods { self: CdmiRestService with CdmiRestServiceTypes w
   /////////////////////////////////////////////////////////////
   //+ Queue object and queue object values operations /////////
   /////////////////////////////////////////////////////////////
+  /**
+   * Reads a queue together with the values that `?value:<index>` or `?value:<first>-<last>` ask for.
+   * Indices count from the oldest value, which is also what is read without a query.
+   *
+   * If the backend mixes in [[gr.grnet.cdmi.service.CdmiQueueMethods]], the values are read
+   * without removing them, in one batch.
+   *
+   * @note Section 11.3 of CDMI 1.0.2: Read a Queue Object using CDMI Content Type
+   */
   def GET_queue_cdmi(request: Request, queuePath: List[String]): Future[Response] =
-    notImplemented(request)
+    self match {
+      case queues: CdmiQueueMethods ⇒
+        val arg = CdmiQuery.ofUri(request.uri).argOf("value").getOrElse("")
+        CdmiQuery.parseQueueRange(arg) match {
+          case None ⇒
+            badRequest(request, StdErrorRef.BR026, s"Invalid queue value range '$arg'")
+
+          case Some((first, last)) ⇒
+            queues.GET_queue(request, queuePath) flatMap {
+              case Some((model, queue)) ⇒
+                val size = queue.size
+                val values = queue.read(first, math.min(last - first + 1, Int.MaxValue).toInt)
+                okAppCdmiQueue(request, model.copy(queueValues = if(size == 0) "" else s"0-${size - 1}"), values)
+
+              case None ⇒
+                notFound(request)
+            }
+        }
+
+      case _ ⇒
+        notImplemented(request)
+    }
 
+  /**
+   * Enqueues one value, or several if `value` is an array. Values enqueued by one request are contiguous.
+   *
+   * @note Section 11.6 of CDMI 1.0.2: Enqueue a New Queue Value using CDMI Content Type
+   */
   def POST_queue_value_cdmi(request: Request, queuePath: List[String]): Future[Response] =
-    notImplemented(request)
+    self match {
+      case queues: CdmiQueueMethods ⇒
+        queues.GET_queue(request, queuePath) flatMap {
+          case Some((_, queue)) ⇒
+            Future { CdmiRequestJson.parse(request.content, allowArrays = true) } flatMap { body ⇒
+              queue.enqueue(body.queueValues(MediaTypes.Text_Plain))
+              noContent(request)
+            } rescue {
+              case e: JsonProcessingException ⇒
+                badRequest(request, StdErrorRef.BR025, s"Invalid request body: ${e.getOriginalMessage}")
+            }
+
+          case None ⇒
+            notFound(request)
+        }
+
+      case _ ⇒
+        notImplemented(request)
+    }
+
+  /**
+   * Removes the oldest values of a queue, as many as `?value:<count>` says or just one.
+   * Backends call this from `DELETE_object_or_queue_or_queuevalue_cdmi`.
+   *
+   * @note Section 11.7 of CDMI 1.0.2: Delete a Queue Object Value using CDMI Content Type
+   */
+  def DELETE_queue_values_cdmi(request: Request, queuePath: List[String]): Future[Response] =
+    self match {
+      case queues: CdmiQueueMethods ⇒
+        val arg = CdmiQuery.ofUri(request.uri).argOf("value").getOrElse("")
+        CdmiQuery.parseCount(arg) match {
+          case None ⇒
+            badRequest(request, StdErrorRef.BR026, s"Invalid queue value count '$arg'")
+
+          case Some(count) ⇒
+            queues.GET_queue(request, queuePath) flatMap {
+              case Some((_, queue)) ⇒
+                queue.ack(count)
+                noContent(request)
+
+              case None ⇒
+                notFound(request)
+            }
+        }
+
+      case _ ⇒
+        notImplemented(request)
+    }
 
   def PUT_queue_cdmi_create(request: Request, queuePath: List[String]): Future[Response] =
     notImplemented(request)
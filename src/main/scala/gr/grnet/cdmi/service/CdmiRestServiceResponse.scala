@@ -17,14 +17,22 @@
 
 package gr.grnet.cdmi.service
 
+import java.io.InputStream
 import java.nio.charset.StandardCharsets
+import java.util.Base64
+import java.util.concurrent.ThreadLocalRandom
 
 import com.twitter.finagle.httpx.Status
-import com.twitter.io.Buf
+import com.twitter.io.{Buf, Reader}
 import com.twitter.util.Future
 import gr.grnet.cdmi.http.CdmiMediaType
+import gr.grnet.cdmi.json.CdmiJson
+import gr.grnet.cdmi.model.{CapabilityModel, ContainerModel, ObjectModel, QueueModel}
+import gr.grnet.cdmi.queue.QueueValue
 import gr.grnet.common.http.{IMediaType, StdMediaType}
 
+import scala.collection.immutable.Seq
+
 trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes ⇒
   def response(
     request: Request,
@@ -38,18 +46,52 @@ trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes
       log.info(devbody.toString)
     }
     else {
-      log.info(s"$status, '${HeaderNames.Content_Type}: ${contentType.value()}', '${HeaderNames.Content_Length}: ${body.length()}'")
+      log.ifDebug(s"$status, '${HeaderNames.Content_Type}: ${contentType.value()}', '${HeaderNames.Content_Length}: ${body.length()}'")
     }
 
+    val bytes = body.toString.getBytes(StandardCharsets.UTF_8)
+    newResponse(request, status, contentType, Buf.ByteArray.Owned(bytes))
+  }
+
+  /**
+   * Like `response` but with an already encoded body, which is not copied.
+   */
+  def bufResponse(
+    request: Request,
+    status: Status,
+    contentType: IMediaType,
+    body: Buf
+  ): Response = {
+    log.ifDebug(s"$status, '${HeaderNames.Content_Type}: ${contentType.value()}', '${HeaderNames.Content_Length}: ${body.length}'")
+
+    newResponse(request, status, contentType, body)
+  }
+
+  private[this] def newResponse(request: Request, status: Status, contentType: IMediaType, body: Buf): Response = {
     val response = request.response
     response.status = status
     response.headerMap.add(HeaderNames.X_CDMI_Specification_Version, currentCdmiVersion)
     response.contentType = contentType.value()
+    response.content = body
+    response.contentLength = body.length
 
-    val bytes = body.toString.getBytes(StandardCharsets.UTF_8)
-    val buf = Buf.ByteArray.Owned(bytes)
-    response.content = buf
-    response.contentLength = buf.length
+    response
+  }
+
+  /**
+   * A response whose body is streamed from `body`, using chunked transfer encoding.
+   */
+  def streamResponse(
+    request: Request,
+    status: Status,
+    contentType: String,
+    body: Reader
+  ): Response = {
+    log.ifDebug(s"$status, '${HeaderNames.Content_Type}: $contentType', (chunked)")
+
+    val response = Response(request.version, status, body)
+    response.headerMap.add(HeaderNames.X_CDMI_Specification_Version, currentCdmiVersion)
+    response.contentType = contentType
 
     response
   }
@@ -72,6 +114,7 @@ trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes
 
 
   def internalServerError(request: Request, t: Throwable, ref: IErrorRef): Future[Response] = {
+    requestMetrics.errorRef(ref)
     val errMsg = s"[$ref] Internal Server Error"
     val devErrMsg = s"$errMsg $t"
     log.error(t, devErrMsg)
@@ -93,6 +136,122 @@ trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes
   ): Future[Response] =
     response(request, Status.NotImplemented, body = body, contentType = StdMediaType.Text_Plain).future
 
+  def conflict(
+    request: Request,
+    body: CharSequence = "",
+    contentType: IMediaType = StdMediaType.Text_Plain
+  ): Future[Response] =
+    response(request, Status.Conflict, body = body, contentType = StdMediaType.Text_Plain).future
+
+  /**
+   * A response without a body, e.g. `204 No Content` or `201 Created` for non-CDMI creations.
+   */
+  def emptyResponse(request: Request, status: Status): Future[Response] = {
+    log.ifDebug(s"$status")
+
+    val response = request.response
+    response.status = status
+    response.headerMap.add(HeaderNames.X_CDMI_Specification_Version, currentCdmiVersion)
+    response.contentLength = 0L
+
+    response.future
+  }
+
+  def noContent(request: Request): Future[Response] = emptyResponse(request, Status.NoContent)
+
+  def requestEntityTooLarge(
+    request: Request,
+    body: CharSequence = "",
+    contentType: IMediaType = StdMediaType.Text_Plain
+  ): Future[Response] =
+    response(request, Status.RequestEntityTooLarge, body = body, contentType = StdMediaType.Text_Plain).future
+
+  /**
+   * A `503 Service Unavailable` response, telling the client when to retry.
+   */
+  def serviceUnavailable(request: Request, retryAfterSeconds: Int, body: CharSequence = ""): Future[Response] = {
+    val unavailable = response(request, Status.ServiceUnavailable, StdMediaType.Text_Plain, body)
+    unavailable.headerMap.add(HeaderNames.Retry_After, retryAfterSeconds.toString)
+    unavailable.future
+  }
+
+  /**
+   * A `304 Not Modified` response, which has no body.
+   */
+  def notModified(request: Request, etag: String): Future[Response] =
+    notModified(request, Validators.ofETag(etag))
+
+  /**
+   * A `304 Not Modified` response carrying the current `validators`.
+   */
+  def notModified(request: Request, validators: Validators): Future[Response] = {
+    log.ifDebug(s"${Status.NotModified}, $validators")
+
+    val response = request.response
+    response.status = Status.NotModified
+    response.headerMap.add(HeaderNames.X_CDMI_Specification_Version, currentCdmiVersion)
+    addValidators(response, validators)
+
+    response.future
+  }
+
+  def preconditionFailed(request: Request): Future[Response] =
+    response(request, Status.PreconditionFailed, StdMediaType.Text_Plain).future
+
+  /**
+   * Adds `ETag` and `Last-Modified` to a response, unless it already has them.
+   */
+  def addValidators(response: Response, validators: Validators): Response = {
+    val headers = response.headerMap
+    for(etag ← validators.etag if !headers.contains(HeaderNames.ETag)) {
+      headers.add(HeaderNames.ETag, etag)
+    }
+    for(millis ← validators.lastModified if !headers.contains(HeaderNames.Last_Modified)) {
+      headers.add(HeaderNames.Last_Modified, Preconditions.formatHttpDate(millis))
+    }
+    response
+  }
+
+  /**
+   * Adds `headers` to the `Vary` of a response, keeping what is there.
+   */
+  def addVary(response: Response, headers: String): Response = {
+    response.headerMap.get(HeaderNames.Vary) match {
+      case Some(vary) if vary.nonEmpty ⇒ response.headerMap(HeaderNames.Vary) = s"$vary, $headers"
+      case _ ⇒ response.headerMap(HeaderNames.Vary) = headers
+    }
+    response
+  }
+
+  /**
+   * `response` with the same version, status and headers but with `body` streamed instead.
+   */
+  def restreamed(response: Response, body: Reader): Response = {
+    val streamed = Response(response.version, response.status, body)
+    val headers = response.headerMap
+    for(name ← headers.keySet; value ← headers.getAll(name)) {
+      streamed.headerMap.add(name, value)
+    }
+    streamed
+  }
+
+  /**
+   * The streamed `response`, with the size of each chunk passed to `meter` as it is read.
+   */
+  def metered(response: Response, meter: Long ⇒ Unit): Response =
+    restreamed(response, Bodies.metered(response.reader, meter))
+
+  /**
+   * `response`, with `done` called once it has been sent: at once if its content is all there,
+   * otherwise when its reader has been read to the end, has failed or has been discarded.
+   */
+  def whenSent(response: Response)(done: ⇒ Unit): Response =
+    if(!response.isChunked) {
+      done
+      response
+    }
+    else restreamed(response, Bodies.ensuring(response.reader)(done))
+
   def notFound(
     request: Request,
     body: CharSequence = "",
@@ -106,6 +265,7 @@ trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes
     body: CharSequence = "",
     contentType: IMediaType = StdMediaType.Text_Plain
   ): Future[Response] = {
+    requestMetrics.errorRef(ref)
     val errBody = s"[$ref] $body"
     response(request, Status.BadRequest, StdMediaType.Text_Plain, errBody).future
   }
@@ -124,6 +284,120 @@ trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes
   ): Future[Response] =
     appJson(request, Status.Ok, body, devbody)
 
+  /**
+   * Streams the value of a data object, using chunked transfer encoding.
+   * This is meant for `GET_object_noncdmi`.
+   */
+  def okStream(
+    request: Request,
+    contentType: String,
+    body: Reader
+  ): Future[Response] =
+    streamResponse(request, Status.Ok, contentType, body).future
+
+  /**
+   * Streams the value of a data object from `in`, which is closed when exhausted.
+   * Chunks are at most `streamChunkSize` in size.
+   */
+  def okStream(
+    request: Request,
+    contentType: String,
+    in: InputStream
+  ): Future[Response] =
+    okStream(request, contentType, Bodies.readerOf(in, streamChunkBytes))
+
+  /**
+   * Serves `value` using a non-CDMI content type, honoring any `Range` header.
+   * A single range results in a `206 Partial Content` response, multiple ranges in a
+   * `multipart/byteranges` one and unsatisfiable ranges in `416 Requested Range Not Satisfiable`.
+   *
+   * @note Section 8.5 of CDMI 1.0.2: Read a Data Object using a Non-CDMI Content Type
+   */
+  def okObjectValue(request: Request, value: ObjectValue): Future[Response] = {
+    val size = value.size
+    val chunkSize = streamChunkBytes
+    val rangesOpt = request.headerMap.get(HeaderNames.Range).flatMap(ByteRange.parseHttp(_, size))
+
+    rangesOpt match {
+      case None ⇒
+        val response = streamResponse(request, Status.Ok, value.mimetype, value.readAll(chunkSize))
+        response.headerMap.add(HeaderNames.Accept_Ranges, "bytes")
+        response.future
+
+      case Some(Nil) ⇒
+        val response = this.response(request, Status.RequestedRangeNotSatisfiable, StdMediaType.Text_Plain)
+        response.headerMap.add(HeaderNames.Content_Range, s"bytes */$size")
+        response.future
+
+      case Some(range :: Nil) ⇒
+        val body = value.read(range.first, range.length, chunkSize)
+        val response = streamResponse(request, Status.PartialContent, value.mimetype, body)
+        response.headerMap.add(HeaderNames.Content_Range, range.toContentRange(size))
+        response.future
+
+      case Some(ranges) ⇒
+        val boundary = java.lang.Long.toHexString(ThreadLocalRandom.current().nextLong())
+        def text(s: String): () ⇒ Reader = () ⇒ Reader.fromBuf(Buf.Utf8(s))
+
+        val parts =
+          ranges.flatMap { range ⇒
+            val partHeader =
+              s"\r\n--$boundary\r\n" +
+              s"${HeaderNames.Content_Type}: ${value.mimetype}\r\n" +
+              s"${HeaderNames.Content_Range}: ${range.toContentRange(size)}\r\n\r\n"
+
+            List(text(partHeader), () ⇒ value.read(range.first, range.length, chunkSize))
+          } :+ text(s"\r\n--$boundary--\r\n")
+
+        streamResponse(
+          request,
+          Status.PartialContent,
+          s"multipart/byteranges; boundary=$boundary",
+          Bodies.concat(parts)
+        ).future
+    }
+  }
+
+  /**
+   * Reads the value-related fields of an [[gr.grnet.cdmi.model.ObjectModel]] from `value`,
+   * honoring any `?value:<range>` query. Textual values are transferred as `utf-8`,
+   * anything else, including ranges of textual values, as `base64`.
+   *
+   * @note Section 8.4 of CDMI 1.0.2: Read a Data Object using CDMI Content Type
+   */
+  def cdmiValueFieldsOf(request: Request, value: ObjectValue): Future[ObjectValueFields] =
+    readCdmiValue(request, value) map { case (valuetransferencoding, valuerange, buf) ⇒
+      val bytes = Buf.ByteArray.Owned.extract(buf)
+      val encodedValue =
+        if(valuetransferencoding == "utf-8") new String(bytes, StandardCharsets.UTF_8)
+        else Base64.getEncoder.encodeToString(bytes)
+
+      ObjectValueFields(valuetransferencoding, valuerange, encodedValue)
+    }
+
+  /**
+   * Reads the bytes of `value` that the request asks for, honoring any `?value:<range>` query.
+   * Returns the `valuetransferencoding` and `valuerange` to report, together with the (unencoded) bytes.
+   */
+  def readCdmiValue(request: Request, value: ObjectValue): Future[(String, String, Buf)] = {
+    val size = value.size
+    val rangeOpt = CdmiQuery.ofUri(request.uri).valueRange(size)
+    val range = rangeOpt.getOrElse(ByteRange(0L, size - 1))
+    val isText = rangeOpt.isEmpty && value.mimetype.startsWith("text/")
+    val valuetransferencoding = if(isText) "utf-8" else "base64"
+    val valuerange = if(size == 0) "" else range.toCdmi
+
+    if(range.length > Int.MaxValue) {
+      Future.exception(new IllegalArgumentException(s"Value range $valuerange is too large"))
+    }
+    else {
+      val reader = value.read(range.first, range.length, streamChunkBytes)
+      Bodies.readFully(reader, range.length.toInt, streamChunkBytes) map { buf ⇒
+        (valuetransferencoding, valuerange, buf)
+      }
+    }
+  }
+
   def okAppCdmiObject(
     request: Request,
     body: CharSequence,
@@ -149,4 +423,93 @@ trait CdmiRestServiceResponse { self: CdmiRestService with CdmiRestServiceTypes
       body = body,
       devbody = devbody
     ).future
+
+  /**
+   * Encodes `model` straight into the response body.
+   */
+  def okAppCdmiObject(request: Request, model: ObjectModel): Future[Response] =
+    bufResponse(request, Status.Ok, CdmiMediaType.Application_CdmiObject, CdmiJson.encode(model)).future
+
+  /**
+   * Encodes `model` straight into the response body, taking the value from `value` and honoring any
+   * `?value:<range>` query. Base64 encoding of the value happens while writing the response body.
+   * The `valuetransferencoding`, `valuerange` and `value` of `model` are not used.
+   *
+   * @note Section 8.4 of CDMI 1.0.2: Read a Data Object using CDMI Content Type
+   */
+  def okAppCdmiObject(request: Request, model: ObjectModel, value: ObjectValue): Future[Response] =
+    readCdmiValue(request, value) map { case (valuetransferencoding, valuerange, buf) ⇒
+      val body = CdmiJson.encode(model, valuetransferencoding, valuerange, buf)
+      bufResponse(request, Status.Ok, CdmiMediaType.Application_CdmiObject, body)
+    }
+
+  /**
+   * Encodes `model` straight into the response body.
+   */
+  def okAppCdmiContainer(request: Request, model: ContainerModel): Future[Response] =
+    bufResponse(request, Status.Ok, CdmiMediaType.Application_CdmiContainer, CdmiJson.encode(model)).future
+
+  /**
+   * Encodes `model` and `values` straight into the response body.
+   *
+   * @note Section 11.3.7 of CDMI 1.0.2: Response Message Body
+   */
+  def okAppCdmiQueue(request: Request, model: QueueModel, values: Seq[QueueValue]): Future[Response] =
+    bufResponse(request, Status.Ok, CdmiMediaType.Application_CdmiQueue, CdmiJson.encode(model, values)).future
+
+  /**
+   * Encodes the newly created `model` straight into the response body.
+   *
+   * @note Section 11.2.7 of CDMI 1.0.2: Response Message Body
+   */
+  def createdAppCdmiQueue(request: Request, model: QueueModel): Future[Response] =
+    bufResponse(request, Status.Created, CdmiMediaType.Application_CdmiQueue, CdmiJson.encode(model, Vector())).future
+
+  /**
+   * Encodes the newly created `model` straight into the response body.
+   *
+   * @note Section 8.2.8 of CDMI 1.0.2: Response Status
+   */
+  def createdAppCdmiObject(request: Request, model: ObjectModel): Future[Response] =
+    bufResponse(request, Status.Created, CdmiMediaType.Application_CdmiObject, CdmiJson.encode(model)).future
+
+  /**
+   * Encodes the newly created `model` straight into the response body.
+   *
+   * @note Section 9.2.8 of CDMI 1.0.2: Response Status
+   */
+  def createdAppCdmiContainer(request: Request, model: ContainerModel): Future[Response] =
+    bufResponse(request, Status.Created, CdmiMediaType.Application_CdmiContainer, CdmiJson.encode(model)).future
+
+  /**
+   * Encodes `model`, of a container that is still being created, straight into the response body.
+   *
+   * @note Section 9.2.8 of CDMI 1.0.2: Response Status
+   */
+  def acceptedAppCdmiContainer(request: Request, model: ContainerModel): Future[Response] =
+    bufResponse(request, Status.Accepted, CdmiMediaType.Application_CdmiContainer, CdmiJson.encode(model)).future
+
+  /**
+   * Encodes `model` straight into the response body.
+   */
+  def okAppCdmiCapability(request: Request, model: CapabilityModel): Future[Response] =
+    bufResponse(request, Status.Ok, CdmiMediaType.Application_CdmiCapability, CdmiJson.encode(model)).future
+
+  /**
+   * Serves a pre-encoded capabilities object, or `304 Not Modified` if the client already has it.
+   * If the client accepts it compressed, it gets the variant that the entry keeps.
+   */
+  def okAppCdmiCapability(request: Request, entry: CapabilityRegistry.Entry): Future[Response] =
+    request.headerMap.get(HeaderNames.If_None_Match) match {
+      case Some(ifNoneMatch) if EntityTags.noneMatchHits(ifNoneMatch, entry.etag) ⇒
+        notModified(request, entry.etag)
+
+      case _ ⇒
+        val response = bufResponse(request, Status.Ok, CdmiMediaType.Application_CdmiCapability, entry.body)
+        response.headerMap.add(HeaderNames.ETag, entry.etag)
+        responseCompression match {
+          case None ⇒ response.future
+          case Some(compressor) ⇒ compressor.applyPrecompressed(request, response, entry.bodyOf).future
+        }
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.ForkJoinPool
+
+import com.twitter.io.Reader
+import com.twitter.util.{Future, FuturePool}
+
+/**
+ * Backends that can serialize and deserialize data objects and container trees mix this in.
+ *
+ * A data object is created from the serialized form of another data object or container with a `serialize` field
+ * in the body of a CDMI `PUT`, and a data object or container tree is recreated with a `deserialize` or
+ * `deserializevalue` field. Mixing this in makes the server advertise `cdmi_serialization_json` and the
+ * respective container and data object capabilities.
+ *
+ * @note Section 15 of CDMI 1.0.2: Serialization/Deserialization
+ */
+trait CdmiSerializationMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  def serializationParallelism: Int = math.max(1, serializeParallelism())
+
+  def deserializationBatchSize: Int = math.max(1, deserializeBatchSize())
+
+  /**
+   * Where serialized forms are parsed. Parsing blocks while waiting for input, so at most
+   * `deserializeParallelism` trees are deserialized at a time.
+   */
+  lazy val deserializationPool: FuturePool =
+    FuturePool(new ForkJoinPool(math.max(1, deserializeParallelism())))
+
+  /**
+   * Streams the serialized form of the data object or container at `sourceUri`, which is either a path or
+   * a `/cdmi_objectid/` URI, together with the media type of the serialized form.
+   * The result is `None` if there is no such data object or container.
+   */
+  def serialize(request: Request, sourceUri: String): Future[Option[(String, Reader)]]
+
+  /**
+   * Recreates the data object at `targetPath`, or the container tree rooted there if `isContainer`,
+   * from its serialized form as read from `serialized`. The result is `true` iff the target was created.
+   */
+  def deserialize(request: Request, targetPath: List[String], isContainer: Boolean, serialized: Reader): Future[Boolean]
+}
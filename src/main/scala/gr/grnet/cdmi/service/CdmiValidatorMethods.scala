@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.util.Future
+
+/**
+ * Backends that can cheaply tell the version of a data object, queue or container mix this in.
+ *
+ * The handlers then evaluate `If-Match`, `If-None-Match`, `If-Modified-Since` and `If-Unmodified-Since`
+ * before calling any of the `GET_*`, `PUT_*` or `DELETE_*` methods, answering `304 Not Modified`
+ * or `412 Precondition Failed` without touching the payload. Successful reads carry `ETag` and `Last-Modified`.
+ *
+ * @note RFC 7232: Conditional Requests
+ */
+trait CdmiValidatorMethods { self: CdmiRestService with CdmiRestServiceTypes ⇒
+  /**
+   * The validators of the data object or queue at `objectPath`, or `None` if there is no such object.
+   * This must not read the object's value.
+   */
+  def GET_object_validators(request: Request, objectPath: List[String]): Future[Option[Validators]]
+
+  /**
+   * The validators of the container at `containerPath`, or `None` if there is no such container.
+   * They should change whenever the children of the container change.
+   */
+  def GET_container_validators(request: Request, containerPath: List[String]): Future[Option[Validators]]
+}
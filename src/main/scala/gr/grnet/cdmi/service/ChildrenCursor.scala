@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.util.Future
+
+import scala.collection.immutable.Seq
+
+/**
+ * A cursor over the children of a container, as provided by a backend.
+ * Children are returned in a stable order, page by page, so that the whole listing never needs to be in memory.
+ */
+trait ChildrenCursor {
+  /**
+   * The next at most `max` children. An empty result means that there are no more children.
+   * Container names end with a `/`.
+   */
+  def next(max: Int): Future[Seq[String]]
+
+  /**
+   * Releases any backend resources. Called exactly once, when the listing is done or has failed.
+   */
+  def close(): Unit = {}
+}
+
+object ChildrenCursor {
+  final val Empty: ChildrenCursor = ofIterator(Iterator.empty)
+
+  /**
+   * A cursor over an iterator, which is consumed lazily.
+   */
+  def ofIterator(children: Iterator[String]): ChildrenCursor = new ChildrenCursor {
+    def next(max: Int): Future[Seq[String]] = synchronized {
+      // Not `children.take(max)`, which leaves `children` unusable
+      val page = Vector.newBuilder[String]
+      var count = 0
+      while(count < max && children.hasNext) {
+        page += children.next()
+        count += 1
+      }
+      Future.value(page.result())
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.fasterxml.jackson.core.JsonEncoding
+import com.twitter.io.{Reader, Writer}
+import com.twitter.util.{Closable, Future}
+import gr.grnet.cdmi.json.{BufOutputStream, CdmiJson}
+import gr.grnet.cdmi.model.ContainerModel
+
+/**
+ * Streams the CDMI representation of a container, pulling its children from a
+ * [[gr.grnet.cdmi.service.ChildrenCursor]] one page at a time. Each page is written to the response
+ * before the next one is requested, so memory use depends on the page size and not on the number of children.
+ *
+ * Since the range of the returned children is known only at the end, `childrenrange` follows `children`.
+ */
+object ContainerListing {
+  /**
+   * Writes `model` and the children with indices `first` to `last` (inclusive) to `writer`,
+   * which is closed at the end. If `query` is not empty, only the fields it names are written.
+   * Once the [[gr.grnet.cdmi.service.RequestDeadline]] has passed, no more pages are fetched and `writer` is failed.
+   */
+  def write(
+    model: ContainerModel,
+    query: CdmiQuery,
+    cursor: ChildrenCursor,
+    first: Long,
+    last: Long,
+    pageSize: Int,
+    writer: Writer with Closable
+  ): Future[Unit] = {
+    def include(name: String) = query.isEmpty || query.contains(name)
+    val includeChildren = include(CdmiJson.Fields.children.getValue)
+    val includeChildrenRange = include(CdmiJson.Fields.childrenrange.getValue)
+
+    val out = new BufOutputStream()
+    val gen = CdmiJson.Factory.createGenerator(out, JsonEncoding.UTF8)
+
+    def flush(): Future[Unit] = {
+      gen.flush()
+      writer.write(out.drain())
+    }
+
+    def pages(index: Long): Future[Long] =
+      if(index > last) Future.value(index)
+      else {
+        // `last - index` does not overflow, `last - index + 1` may
+        val max = math.min(pageSize.toLong - 1, last - index).toInt + 1
+        RequestDeadline.check()
+        cursor.next(max) flatMap { page ⇒
+          if(page.isEmpty) {
+            Future.value(index)
+          }
+          else {
+            if(includeChildren) {
+              for(child ← page) { gen.writeString(child) }
+            }
+            flush() before pages(index + page.size)
+          }
+        }
+      }
+
+    val done =
+      Future {
+        gen.writeStartObject()
+        CdmiJson.writeContainerHead(gen, model, include)
+        if(includeChildren) {
+          gen.writeFieldName(CdmiJson.Fields.children)
+          gen.writeStartArray()
+        }
+      } before flush() before {
+        if(includeChildren || includeChildrenRange) pages(first) else Future.value(first)
+      } flatMap { end ⇒
+        if(includeChildren) {
+          gen.writeEndArray()
+        }
+        if(includeChildrenRange) {
+          val childrenrange = if(end == first) "" else s"$first-${end - 1}"
+          CdmiJson.writeStringField(gen, CdmiJson.Fields.childrenrange, childrenrange)
+        }
+        gen.writeEndObject()
+        gen.close()
+        writer.write(out.drain())
+      }
+
+    done respond { _ ⇒ cursor.close() } onFailure { writer.fail } before writer.close()
+  }
+
+  /**
+   * Like `write`, but gives back the reader from which the response body is read.
+   */
+  def reader(
+    model: ContainerModel,
+    query: CdmiQuery,
+    cursor: ChildrenCursor,
+    first: Long,
+    last: Long,
+    pageSize: Int
+  ): Reader = {
+    val writable = Reader.writable()
+    write(model, query, cursor, first, last, pageSize, writable)
+    writable
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service;
+
+/**
+ * The codings that response bodies are compressed with, by the {@code token} that names them in
+ * {@code Accept-Encoding} and {@code Content-Encoding}. See {@link ResponseCompression}.
+ */
+public enum ContentCoding {
+    Identity("identity"),
+    Gzip("gzip"),        // RFC 1952
+    Deflate("deflate");  // zlib, RFC 1950
+
+    public final String token;
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+}
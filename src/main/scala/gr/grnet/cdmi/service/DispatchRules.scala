@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.httpx.{Method, Request}
+import com.twitter.finagle.httpx.Method.{Delete, Get, Post, Put}
+import gr.grnet.cdmi.http.{CdmiHeader, CdmiMediaType}
+import gr.grnet.common.http.StdHeader
+
+import scala.collection.immutable.Seq
+
+/**
+ * What a request is dispatched to.
+ */
+sealed trait DispatchOutcome
+
+object DispatchOutcome {
+  final case class Perform(operation: Operation) extends DispatchOutcome
+
+  /**
+   * A `400 Bad Request` with `ref`, whose message is made from the request.
+   */
+  final case class Reject(ref: StdErrorRef, message: Request ⇒ String) extends DispatchOutcome
+
+  case object NotAllowed extends DispatchOutcome
+}
+
+/**
+ * A dispatch rule, which applies to requests for `kind` with the given `method`, presence of
+ * `X-CDMI-Specification-Version` and classes of `Content-Type` and `Accept`. A `None` or an empty set matches anything.
+ */
+final case class DispatchRule(
+  kind: RouteKind,
+  method: Option[Method],
+  cdmi: Option[Boolean],
+  contentType: Set[MediaClass],
+  accept: Set[MediaClass],
+  outcome: DispatchOutcome
+) {
+  def matches(method: Method, kind: RouteKind, cdmi: Boolean, contentType: MediaClass, accept: MediaClass): Boolean =
+    kind == this.kind &&
+    this.method.forall(_ == method) &&
+    this.cdmi.forall(_ == cdmi) &&
+    (this.contentType.isEmpty || this.contentType(contentType)) &&
+    (this.accept.isEmpty || this.accept(accept))
+}
+
+/**
+ * The rules by which requests for containers, data objects and queues, domains and capabilities are dispatched,
+ * following the sections of CDMI 1.0.2 noted next to them. For each kind of resource the first rule that matches
+ * wins; requests that match no rule are not allowed. [[gr.grnet.cdmi.service.DispatchTable]] compiles them
+ * into a lookup table.
+ *
+ * Separation of queues and data objects is not well defined and the rules for them are an approximation.
+ * The common requirement for queue operations is the presence of `X-CDMI-Specification-Version`.
+ */
+object DispatchRules {
+  import DispatchOutcome._
+  import MediaClass.{Any ⇒ AnyMedia, Container ⇒ ContainerMedia, None ⇒ Absent, Object ⇒ ObjectMedia, Other, OtherCdmi, Queue ⇒ QueueMedia}
+
+  private[this] final val Cdmi = Some(true)
+  private[this] final val NonCdmi = Some(false)
+  private[this] final val Anything = Set[MediaClass]()
+  private[this] final val CdmiLike = Set(ContainerMedia, ObjectMedia, QueueMedia, OtherCdmi)
+  private[this] final val Present = Set(AnyMedia, ContainerMedia, ObjectMedia, QueueMedia, OtherCdmi, Other)
+
+  private[this] final val Accept = StdHeader.Accept.headerName()
+  private[this] final val Content_Type = StdHeader.Content_Type.headerName()
+  private[this] final val X_CDMI_Specification_Version = CdmiHeader.X_CDMI_Specification_Version.headerName()
+  private[this] final val Application_CdmiContainer = CdmiMediaType.Application_CdmiContainer.value()
+  private[this] final val Application_CdmiObject = CdmiMediaType.Application_CdmiObject.value()
+  private[this] final val Application_CdmiQueue = CdmiMediaType.Application_CdmiQueue.value()
+
+  private[this] def header(request: Request, name: String): String = request.headerMap.get(name).orNull
+
+  private[this] def rule(
+    kind: RouteKind,
+    method: Method,
+    cdmi: Option[Boolean] = None,
+    contentType: Set[MediaClass] = Anything,
+    accept: Set[MediaClass] = Anything
+  )(outcome: DispatchOutcome) = DispatchRule(kind, Some(method), cdmi, contentType, accept, outcome)
+
+  private[this] def shouldBeOf(name: String, mediaTypes: String*): String =
+    if(mediaTypes.isEmpty) ""
+    else mediaTypes.map(mediaType ⇒ s"'$name: $mediaType'").mkString(". Should be ", " or ", "")
+
+  private[this] def badAccept(ref: StdErrorRef, shouldBe: String*) =
+    Reject(ref, request ⇒
+      s"Bad use of '$Accept: ${header(request, Accept)}' with the '$X_CDMI_Specification_Version' present" +
+      shouldBeOf(Accept, shouldBe: _*)
+    )
+
+  private[this] def badContentType(ref: StdErrorRef, shouldBe: String*) =
+    Reject(ref, request ⇒
+      s"Bad use of '$Content_Type: ${header(request, Content_Type)}' with the '$X_CDMI_Specification_Version' present" +
+      shouldBeOf(Content_Type, shouldBe: _*)
+    )
+
+  private[this] def noContentType(ref: StdErrorRef) = Reject(ref, _ ⇒ s"'$Content_Type' is not set")
+
+  final val Containers: Seq[DispatchRule] = {
+    val kind = RouteKind.Container
+
+    Seq(
+      rule(kind, Get, Cdmi, accept = Set(ContainerMedia, AnyMedia, Absent)) {
+        Perform(Operation.GET_container_cdmi)
+      },
+      rule(kind, Get, Cdmi, accept = CdmiLike) {
+        badAccept(StdErrorRef.BR017, Application_CdmiContainer)
+      },
+      rule(kind, Get, Cdmi) {
+        badAccept(StdErrorRef.BR018, Application_CdmiContainer)
+      },
+      // Section 9.2 Create a Container Object using CDMI Content Type
+      rule(kind, Put, Cdmi, contentType = Set(ContainerMedia), accept = Set(ContainerMedia, AnyMedia)) {
+        Perform(Operation.PUT_container_cdmi_create)
+      },
+      // Section 9.2 Create a Container Object using CDMI Content Type
+      // Section 9.5 Update a Container Object using CDMI Content Type
+      rule(kind, Put, Cdmi, contentType = Set(ContainerMedia), accept = Set(Absent)) {
+        Perform(Operation.PUT_container_cdmi_create_or_update)
+      },
+      rule(kind, Put, Cdmi, contentType = CdmiLike) {
+        badContentType(StdErrorRef.BR019, Application_CdmiContainer)
+      },
+      rule(kind, Put, Cdmi, contentType = Set(Other)) {
+        badContentType(StdErrorRef.BR020)
+      },
+      rule(kind, Put, Cdmi) {
+        noContentType(StdErrorRef.BR021)
+      },
+      // Section 9.8 Create (POST) a New Data Object using CDMI Content Type
+      rule(kind, Post, Cdmi, contentType = Set(ObjectMedia), accept = Set(ObjectMedia, AnyMedia, Absent)) {
+        Perform(Operation.POST_object_to_container_cdmi)
+      },
+      // Section 9.10 Create (POST) a New Queue Object using CDMI Content Type
+      rule(kind, Post, Cdmi, contentType = Set(QueueMedia), accept = Set(QueueMedia, AnyMedia, Absent)) {
+        Perform(Operation.POST_queue_to_container_cdmi)
+      },
+      // Section 9.6 Delete a Container Object using CDMI Content Type
+      rule(kind, Delete, Cdmi) {
+        Perform(Operation.DELETE_container_cdmi)
+      },
+      rule(kind, Get, NonCdmi) {
+        Reject(StdErrorRef.BR022, _ ⇒ s"Requested to read a container without setting $X_CDMI_Specification_Version")
+      }
+    )
+  }
+
+  final val ObjectsAndQueues: Seq[DispatchRule] = {
+    val kind = RouteKind.ObjectOrQueue
+
+    Seq(
+      // Section 11.3 Read a Queue Object using CDMI Content Type
+      rule(kind, Get, Cdmi, accept = Set(QueueMedia)) {
+        Perform(Operation.GET_queue_cdmi)
+      },
+      // If `Accept` is not present or it is '*/*', we default to data objects.
+      // Section 8.4 Read a Data Object using CDMI Content Type
+      rule(kind, Get, Cdmi, accept = Set(ObjectMedia, AnyMedia, Absent)) {
+        Perform(Operation.GET_object_cdmi)
+      },
+      rule(kind, Get, Cdmi, accept = CdmiLike) {
+        badAccept(StdErrorRef.BR006, Application_CdmiObject, Application_CdmiQueue)
+      },
+      // There must be an irrelevant media type in `Accept`
+      rule(kind, Get, Cdmi, accept = Present) {
+        badAccept(StdErrorRef.BR004)
+      },
+      // Section 11.2 Create a Queue Object using CDMI Content Type
+      rule(kind, Put, Cdmi, contentType = Set(QueueMedia), accept = Set(QueueMedia)) {
+        Perform(Operation.PUT_queue_cdmi_create)
+      },
+      // Section 11.4 Update a Queue Object using CDMI Content Type
+      rule(kind, Put, Cdmi, contentType = Set(QueueMedia)) {
+        Perform(Operation.PUT_queue_cdmi_update)
+      },
+      // Section 8.2 Create a Data Object Using CDMI Content Type
+      rule(kind, Put, Cdmi, contentType = Set(ObjectMedia), accept = Set(ObjectMedia, AnyMedia)) {
+        Perform(Operation.PUT_object_cdmi_create)
+      },
+      // Section 8.2 Create a Data Object Using CDMI Content Type
+      // Section 8.6 Update a Data Object using CDMI Content Type
+      rule(kind, Put, Cdmi, contentType = Set(ObjectMedia)) {
+        Perform(Operation.PUT_object_cdmi_create_or_update)
+      },
+      rule(kind, Put, Cdmi, contentType = CdmiLike) {
+        badContentType(StdErrorRef.BR007, Application_CdmiObject, Application_CdmiQueue)
+      },
+      // This is an irrelevant content type
+      rule(kind, Put, Cdmi, contentType = Set(Other)) {
+        badContentType(StdErrorRef.BR016)
+      },
+      rule(kind, Put, Cdmi) {
+        noContentType(StdErrorRef.BR005)
+      },
+      // Section 11.6 Enqueue a New Queue Value using CDMI Content Type
+      rule(kind, Post, Cdmi, contentType = Set(QueueMedia)) {
+        Perform(Operation.POST_queue_value_cdmi)
+      },
+      // No other way to understand if this is about a data object or a queue object or a queue object value
+      // Section  8.8 Delete a Data Object using CDMI Content Type
+      // Section 11.5 Delete a Queue Object using CDMI Content Type
+      // Section 11.7 Delete a Queue Object Value using CDMI Content Type
+      rule(kind, Delete, Cdmi) {
+        Perform(Operation.DELETE_object_or_queue_or_queuevalue_cdmi)
+      },
+
+      // Section 8.5 Read a Data Object using a Non-CDMI Content Type
+      rule(kind, Get, NonCdmi, accept = Set(AnyMedia, Absent)) {
+        Perform(Operation.GET_object_noncdmi)
+      },
+      rule(kind, Get, NonCdmi, accept = CdmiLike) {
+        Reject(StdErrorRef.BR013, request ⇒
+          s"Bad use of CDMI-aware '$Accept: ${header(request, Accept)}' without the presence of '$X_CDMI_Specification_Version'"
+        )
+      },
+      // Let the implementation handle any other value for the `Accept` header.
+      rule(kind, Get, NonCdmi) {
+        Perform(Operation.GET_object_noncdmi)
+      },
+      rule(kind, Put, NonCdmi, contentType = CdmiLike) {
+        Reject(StdErrorRef.BR014, request ⇒
+          s"Bad use of CDMI-aware '$Content_Type: ${header(request, Content_Type)}' without the presence of '$X_CDMI_Specification_Version'"
+        )
+      },
+      // Section 8.3 Create a Data Object using a Non-CDMI Content Type
+      // Section 8.7 Update a Data Object using a Non-CDMI Content Type
+      rule(kind, Put, NonCdmi, contentType = Set(Other)) {
+        Perform(Operation.PUT_object_noncdmi)
+      },
+      rule(kind, Put, NonCdmi) {
+        noContentType(StdErrorRef.BR015)
+      },
+      // Section 8.9 Delete a Data Object using a Non-CDMI Content Type
+      rule(kind, Delete, NonCdmi) {
+        Perform(Operation.DELETE_object_noncdmi)
+      }
+    )
+  }
+
+  final val Domains: Seq[DispatchRule] = {
+    val kind = RouteKind.Domain
+
+    Seq(
+      rule(kind, Get) { Perform(Operation.GET_domain_cdmi) },
+      rule(kind, Put) { Perform(Operation.PUT_domain_cdmi) },
+      rule(kind, Delete) { Perform(Operation.DELETE_domain_cdmi) }
+    )
+  }
+
+  final val Capabilities: Seq[DispatchRule] =
+    Seq(
+      rule(RouteKind.Capabilities, Get) { Perform(Operation.GET_capabilities) }
+    )
+
+  final val All: Seq[DispatchRule] = Containers ++ ObjectsAndQueues ++ Domains ++ Capabilities
+}
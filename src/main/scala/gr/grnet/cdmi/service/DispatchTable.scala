@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.httpx.Method
+
+import scala.collection.immutable.Seq
+import scala.reflect.ClassTag
+
+/**
+ * [[gr.grnet.cdmi.service.DispatchRules]] compiled into a dense array, with one cell for each method,
+ * [[gr.grnet.cdmi.service.RouteKind]], presence of `X-CDMI-Specification-Version` and
+ * [[gr.grnet.cdmi.service.MediaClass]] of `Content-Type` and of `Accept`. Every cell holds what `bind`
+ * makes of the outcome of the first matching rule, or of `NotAllowed`; equal outcomes are bound once.
+ * Looking up a request is then an index computation.
+ */
+final class DispatchTable[A <: AnyRef : ClassTag](rules: Seq[DispatchRule], bind: DispatchOutcome ⇒ A) {
+  import DispatchTable._
+
+  private[this] val cells: Array[A] = {
+    val bound = new java.util.HashMap[DispatchOutcome, A]()
+    def bindOnce(outcome: DispatchOutcome): A = {
+      val existing = bound.get(outcome)
+      if(existing ne null) existing
+      else {
+        val created = bind(outcome)
+        bound.put(outcome, created)
+        created
+      }
+    }
+
+    val cells = new Array[A](Methods.length * Kinds.length * 2 * Classes.length * Classes.length)
+    for {
+      (method, m) ← Methods.zipWithIndex
+      kind ← Kinds
+      cdmi ← List(false, true)
+      contentType ← Classes
+      accept ← Classes
+    } {
+      val outcome = rules.find(_.matches(method, kind, cdmi, contentType, accept)) match {
+        case Some(rule) ⇒ rule.outcome
+        case None ⇒ DispatchOutcome.NotAllowed
+      }
+      cells(indexOf(m, kind, cdmi, contentType, accept)) = bindOnce(outcome)
+    }
+    cells
+  }
+
+  // Whether the cells of a kind differ by anything but the method, so that requests for it must be negotiated
+  private[this] val negotiatedKinds: Array[Boolean] = {
+    val perKind = Classes.length * Classes.length * 2
+    Kinds map { kind ⇒
+      (0 until Methods.length) exists { m ⇒
+        val from = indexOf(m, kind, false, Classes(0), Classes(0))
+        (from until from + perKind) exists { i ⇒ cells(i) ne cells(from) }
+      }
+    }
+  }
+
+  /**
+   * Whether the cell for a request of `kind` depends on its [[gr.grnet.cdmi.service.Negotiated]] headers.
+   * If not, `Negotiated.Empty` will do.
+   */
+  def isNegotiated(kind: RouteKind): Boolean = negotiatedKinds(kind.ordinal())
+
+  def apply(method: Method, kind: RouteKind, negotiated: Negotiated): A =
+    cells(indexOf(methodIndexOf(method), kind, negotiated.hasSpecVersion, negotiated.contentTypeClass, negotiated.acceptClass))
+}
+
+object DispatchTable {
+  /**
+   * The methods the rules distinguish; any other method counts as the last one.
+   */
+  final val Methods: Array[Method] = Array(Method.Get, Method.Put, Method.Post, Method.Delete, Method("OTHER"))
+
+  private final val Kinds = RouteKind.values()
+  private final val Classes = MediaClass.values()
+
+  def methodIndexOf(method: Method): Int =
+    if(method == Method.Get) 0
+    else if(method == Method.Put) 1
+    else if(method == Method.Post) 2
+    else if(method == Method.Delete) 3
+    else 4
+
+  private def indexOf(method: Int, kind: RouteKind, cdmi: Boolean, contentType: MediaClass, accept: MediaClass): Int =
+    (((method * Kinds.length + kind.ordinal()) * 2 + (if(cdmi) 1 else 0)) * Classes.length + contentType.ordinal()) *
+      Classes.length + accept.ordinal()
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.security.MessageDigest
+
+import com.twitter.io.Buf
+
+/**
+ * Entity tags, as used by `ETag`, `If-None-Match` and `If-Match`.
+ *
+ * @note RFC 7232 Section 2.3: ETag
+ */
+object EntityTags {
+  private[this] final val HexDigits = "0123456789abcdef".toCharArray
+
+  /**
+   * A strong entity tag for the given representation, derived from its SHA-1 digest.
+   */
+  def strongOf(body: Buf): String = {
+    val digest = MessageDigest.getInstance("SHA-1").digest(Buf.ByteArray.Owned.extract(body))
+    val sb = new java.lang.StringBuilder(digest.length * 2 + 2)
+    sb.append('"')
+    for(b ← digest) {
+      sb.append(HexDigits((b >> 4) & 0xF)).append(HexDigits(b & 0xF))
+    }
+    sb.append('"').toString
+  }
+
+  def isWeak(etag: String): Boolean = etag.startsWith("W/")
+
+  def opaqueOf(etag: String): String = if(isWeak(etag)) etag.substring(2) else etag
+
+  /**
+   * The tag of one representation of the resource that `etag` tags, e.g. `"v42-cdmi"` for `"v42"` and `cdmi`.
+   * The result is weak if `etag` is, or if `weak`.
+   */
+  def ofRepresentation(etag: String, representation: String, weak: Boolean): String = {
+    val opaque = opaqueOf(etag)
+    val tagged = opaque.substring(0, opaque.length - 1) + "-" + representation + "\""
+    if(weak || isWeak(etag)) "W/" + tagged else tagged
+  }
+
+  /**
+   * Parses a comma-separated list of entity tags, as in `If-None-Match`. The result is `None` for `*`.
+   */
+  def parseList(header: String): Option[List[String]] =
+    if(header.trim == "*") None
+    else Some(header.split(',').toList.map(_.trim).filter(_.nonEmpty))
+
+  /**
+   * Whether an `If-None-Match` header matches `etag`, using the weak comparison function.
+   *
+   * @note RFC 7232 Section 3.2: If-None-Match
+   */
+  def noneMatchHits(header: String, etag: String): Boolean =
+    parseList(header) match {
+      case None ⇒ true
+      case Some(etags) ⇒
+        val opaque = opaqueOf(etag)
+        etags.exists(opaqueOf(_) == opaque)
+    }
+}
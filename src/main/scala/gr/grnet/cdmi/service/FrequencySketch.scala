@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Estimates how often keys have been seen lately, with a count-min sketch of four rows of 4-bit counters,
+ * so that [[gr.grnet.cdmi.service.ResponseCache]] can tell hot paths from one-off ones in constant space.
+ *
+ * Once `10 * width` increments have been counted all counters are halved, so that old popularity fades.
+ * Counters are updated without synchronization: a lost increment only makes an estimate slightly lower.
+ */
+final class FrequencySketch(capacity: Int) {
+  private[this] val width = Integer.highestOneBit(math.max(64, capacity) - 1) << 1
+  private[this] val mask = width - 1
+  private[this] val counters = new Array[Byte](FrequencySketch.Depth * width)
+  private[this] val sampleSize = 10 * width
+  private[this] val increments = new AtomicInteger()
+
+  private[this] def indexOf(hash: Int, row: Int): Int = {
+    val h = hash * FrequencySketch.Seeds(row)
+    row * width + ((h ^ (h >>> 15)) & mask)
+  }
+
+  /**
+   * The estimated number of recent increments of `hash`, at most 15.
+   */
+  def frequency(hash: Int): Int = {
+    var min = FrequencySketch.MaxCount
+    var row = 0
+    while(row < FrequencySketch.Depth) {
+      min = math.min(min, counters(indexOf(hash, row)).toInt)
+      row += 1
+    }
+    min
+  }
+
+  def increment(hash: Int): Unit = {
+    var row = 0
+    while(row < FrequencySketch.Depth) {
+      val i = indexOf(hash, row)
+      if(counters(i) < FrequencySketch.MaxCount) counters(i) = (counters(i) + 1).toByte
+      row += 1
+    }
+
+    if(increments.incrementAndGet() == sampleSize) age()
+  }
+
+  private[this] def age(): Unit = synchronized {
+    var i = 0
+    while(i < counters.length) {
+      counters(i) = (counters(i) >> 1).toByte
+      i += 1
+    }
+    increments.set(0)
+  }
+}
+
+object FrequencySketch {
+  final val Depth = 4
+  final val MaxCount = 15
+
+  private final val Seeds = Array(0x97CB3127, 0xB492B66F, 0x9AE16A3B, 0xC2B2AE35)
+}
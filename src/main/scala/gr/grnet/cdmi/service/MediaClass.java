@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service;
+
+/**
+ * Classifies the media type of {@code Content-Type}, or the preferred one of {@code Accept}, for dispatching.
+ * See {@link Negotiated} and {@link DispatchRules}.
+ */
+public enum MediaClass {
+    None,       // the header is absent
+    Any,        // "*/*", only in Accept
+    Container,  // "application/cdmi-container"
+    Object,     // "application/cdmi-object"
+    Queue,      // "application/cdmi-queue"
+    OtherCdmi,  // any other "application/cdmi-..."
+    Other,      // anything else, including an empty value
+}
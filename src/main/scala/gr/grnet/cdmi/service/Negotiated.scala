@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+
+import com.twitter.finagle.httpx.Request
+import gr.grnet.cdmi.http.{CdmiHeader, CdmiMediaType}
+import gr.grnet.common.http.StdHeader
+
+/**
+ * What a request says about the representation it sends and the one it wants back, as bit flags:
+ * the media type of `Content-Type`, the preferred media type of `Accept` and the presence of
+ * `X-CDMI-Specification-Version`. The handlers take their routing decisions by testing these flags.
+ *
+ * The preferred media type of `Accept` is the one with the highest `q` weight, the first of them if several share it.
+ * Media types with a zero weight are not acceptable and are ignored.
+ *
+ * Being a value class, a `Negotiated` is just an `Int`. Parsed header values are cached, see [[gr.grnet.cdmi.service.Negotiated.of]].
+ */
+final class Negotiated(val bits: Int) extends AnyVal {
+  import Negotiated._
+
+  @inline private[this] def accept(kind: Int): Boolean = (bits & kind) != 0
+  @inline private[this] def contentType(kind: Int): Boolean = ((bits >>> ContentTypeShift) & kind) != 0
+
+  def hasAccept: Boolean = accept(Present)
+  def isAnyAccept: Boolean = accept(Any)
+  def isCdmiLikeAccept: Boolean = accept(CdmiLike)
+  def isCapabilityAccept: Boolean = accept(Capability)
+  def isContainerAccept: Boolean = accept(Container)
+  def isDomainAccept: Boolean = accept(Domain)
+  def isObjectAccept: Boolean = accept(Object)
+  def isQueueAccept: Boolean = accept(Queue)
+
+  def hasContentType: Boolean = contentType(Present)
+  def isCdmiLikeContentType: Boolean = contentType(CdmiLike)
+  def isCapabilityContentType: Boolean = contentType(Capability)
+  def isContainerContentType: Boolean = contentType(Container)
+  def isDomainContentType: Boolean = contentType(Domain)
+  def isObjectContentType: Boolean = contentType(Object)
+  def isQueueContentType: Boolean = contentType(Queue)
+
+  def hasSpecVersion: Boolean = (bits & SpecVersion) != 0
+
+  def acceptClass: MediaClass = MediaClasses(bits & 0xff)
+
+  def contentTypeClass: MediaClass = MediaClasses((bits >>> ContentTypeShift) & 0xff)
+
+  override def toString: String = f"Negotiated(0x$bits%05x)"
+}
+
+object Negotiated {
+  // What a media type is. The flags of `Accept` take the lowest byte, those of `Content-Type` the next one.
+  final val Present    = 0x01
+  final val Any        = 0x02 // "*/*", only in `Accept`
+  final val CdmiLike   = 0x04 // "application/cdmi-..."
+  final val Capability = 0x08
+  final val Container  = 0x10
+  final val Domain     = 0x20
+  final val Object     = 0x40
+  final val Queue      = 0x80
+
+  final val ContentTypeShift = 8
+  final val SpecVersion = 0x10000
+
+  /**
+   * How many distinct values of each header are cached. Clients send few distinct values, so this is only
+   * a bound against requests crafted to fill the cache; values beyond it are parsed every time.
+   */
+  final val CacheCapacity = 1024
+
+  private final val MediaClasses: Array[MediaClass] =
+    Array.tabulate(256) { kind ⇒
+      if((kind & Present) == 0) MediaClass.None
+      else if((kind & Any) != 0) MediaClass.Any
+      else if((kind & Container) != 0) MediaClass.Container
+      else if((kind & Object) != 0) MediaClass.Object
+      else if((kind & Queue) != 0) MediaClass.Queue
+      else if((kind & CdmiLike) != 0) MediaClass.OtherCdmi
+      else MediaClass.Other
+    }
+
+  private[this] final val AcceptHeader = StdHeader.Accept.headerName()
+  private[this] final val ContentTypeHeader = StdHeader.Content_Type.headerName()
+  private[this] final val SpecVersionHeader = CdmiHeader.X_CDMI_Specification_Version.headerName()
+
+  private[this] final val KnownKinds = Map(
+    CdmiMediaType.Application_CdmiCapability.value() → Capability,
+    CdmiMediaType.Application_CdmiContainer.value() → Container,
+    CdmiMediaType.Application_CdmiDomain.value() → Domain,
+    CdmiMediaType.Application_CdmiObject.value() → Object,
+    CdmiMediaType.Application_CdmiQueue.value() → Queue
+  )
+
+  /**
+   * The flags of a single media type, without parameters, in lower case.
+   */
+  def kindOf(mediaType: String): Int =
+    if(mediaType == "*/*") Present | Any
+    else {
+      val cdmiLike = if(mediaType.startsWith("application/cdmi-")) CdmiLike else 0
+      Present | cdmiLike | KnownKinds.getOrElse(mediaType, 0)
+    }
+
+  private[this] def mediaTypeOf(range: String): String = {
+    val semi = range.indexOf(';')
+    (if(semi < 0) range else range.substring(0, semi)).trim.toLowerCase(Locale.ENGLISH)
+  }
+
+  /**
+   * The `q` parameter of an element of `Accept`, 1 if it is missing or malformed.
+   */
+  private[this] def weightOf(range: String): Double = {
+    var weight = 1.0
+    for(param ← range.split(';').iterator.drop(1)) {
+      val eq = param.indexOf('=')
+      if(eq > 0 && param.substring(0, eq).trim.equalsIgnoreCase("q")) {
+        weight =
+          try math.min(1.0, math.max(0.0, param.substring(eq + 1).trim.toDouble))
+          catch { case _: NumberFormatException ⇒ 1.0 }
+      }
+    }
+    weight
+  }
+
+  /**
+   * The flags of the preferred media type of an `Accept` value, or just `Present` if none is acceptable.
+   */
+  def parseAccept(value: String): Int = {
+    var best = Present
+    var bestWeight = 0.0
+    for(range ← value.split(',')) {
+      val mediaType = mediaTypeOf(range)
+      if(mediaType.nonEmpty) {
+        val weight = weightOf(range)
+        if(weight > bestWeight) {
+          best = kindOf(mediaType)
+          bestWeight = weight
+        }
+      }
+    }
+    best
+  }
+
+  def parseContentType(value: String): Int = {
+    val mediaType = mediaTypeOf(value)
+    if(mediaType.isEmpty || mediaType == "*/*") Present else kindOf(mediaType)
+  }
+
+  private[this] final class Cache(parse: String ⇒ Int) {
+    private[this] val parsed = new ConcurrentHashMap[String, Integer]()
+
+    def apply(value: String): Int =
+      parsed.get(value) match {
+        case null ⇒
+          val kind = parse(value)
+          if(parsed.size() < CacheCapacity) { parsed.putIfAbsent(value, kind) }
+          kind
+
+        case kind ⇒
+          kind.intValue()
+      }
+  }
+
+  private[this] val acceptCache = new Cache(parseAccept)
+  private[this] val contentTypeCache = new Cache(parseContentType)
+
+  /**
+   * No `Accept`, no `Content-Type` and no `X-CDMI-Specification-Version`.
+   */
+  final val Empty = new Negotiated(0)
+
+  def apply(accept: String, contentType: String, specVersion: String): Negotiated = {
+    val acceptBits = if(accept eq null) 0 else acceptCache(accept)
+    val contentTypeBits = if(contentType eq null) 0 else contentTypeCache(contentType)
+    val specVersionBits = if(specVersion eq null) 0 else SpecVersion
+    new Negotiated(acceptBits | (contentTypeBits << ContentTypeShift) | specVersionBits)
+  }
+
+  /**
+   * Negotiates `request` from its headers, each of which is looked up once.
+   */
+  def of(request: Request): Negotiated = {
+    val headers = request.headerMap
+    Negotiated(
+      headers.get(AcceptHeader).orNull,
+      headers.get(ContentTypeHeader).orNull,
+      headers.get(SpecVersionHeader).orNull
+    )
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.io.{File, IOException}
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.Future
+
+/**
+ * The value of a data object, as provided by a backend.
+ * Any part of the value can be read, which is what byte-range requests need.
+ */
+trait ObjectValue {
+  /**
+   * The size of the value in bytes.
+   */
+  def size: Long
+
+  def mimetype: String
+
+  /**
+   * Streams the `length` bytes starting at `offset`, using chunks of at most `chunkSize` bytes.
+   */
+  def read(offset: Long, length: Long, chunkSize: Int): Reader
+
+  def readAll(chunkSize: Int): Reader = read(0L, size, chunkSize)
+}
+
+/**
+ * The value-related fields of an [[gr.grnet.cdmi.model.ObjectModel]].
+ */
+final case class ObjectValueFields(valuetransferencoding: String, valuerange: String, value: String)
+
+object ObjectValue {
+  def apply(mimetype: String, buf: Buf): ObjectValue = new BufObjectValue(mimetype, buf)
+
+  def apply(mimetype: String, file: File): ObjectValue = new FileObjectValue(mimetype, file)
+}
+
+final class BufObjectValue(val mimetype: String, val buf: Buf) extends ObjectValue {
+  def size: Long = buf.length
+
+  def read(offset: Long, length: Long, chunkSize: Int): Reader =
+    Reader.fromBuf(buf.slice(offset.toInt, (offset + length).toInt))
+}
+
+/**
+ * A value backed by a file. The file is memory-mapped, so that its contents are written to the socket
+ * straight from the page cache and are never copied to the heap.
+ *
+ * @note `size` is taken when the instance is created.
+ */
+final class FileObjectValue(val mimetype: String, val file: File) extends ObjectValue {
+  val size: Long = file.length()
+
+  def read(offset: Long, length: Long, chunkSize: Int): Reader =
+    new MappedFileReader(file, offset, length, chunkSize)
+}
+
+/**
+ * Reads a region of a file by mapping successive windows of it.
+ * The file is opened on the first read and closed as soon as the region is exhausted or discarded.
+ */
+final class MappedFileReader(file: File, offset: Long, length: Long, chunkSize: Int) extends Reader {
+  private[this] val end = offset + length
+  private[this] var position = offset
+  private[this] var channel: FileChannel = _
+  private[this] var window: MappedByteBuffer = _
+  private[this] var windowStart = 0L
+
+  private[this] def close(): Unit = {
+    position = end
+    window = null
+    if(channel ne null) {
+      try channel.close() catch { case _: IOException ⇒ }
+      channel = null
+    }
+  }
+
+  private[this] def windowEnd: Long = if(window eq null) -1L else windowStart + window.capacity()
+
+  def read(max: Int): Future[Option[Buf]] = synchronized {
+    if(position >= end) {
+      close()
+      Future.None
+    }
+    else {
+      try {
+        val n = math.min(math.min(max, chunkSize).toLong, end - position).toInt
+
+        if(position + n > windowEnd) {
+          if(channel eq null) {
+            channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+          }
+          windowStart = position
+          val windowSize = math.min(math.max(MappedFileReader.WindowSize, n.toLong), end - position)
+          window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize)
+        }
+
+        val from = (position - windowStart).toInt
+        val chunk = window.duplicate()
+        chunk.position(from)
+        chunk.limit(from + n)
+        position += n
+
+        Future.value(Some(Buf.ByteBuffer.Owned(chunk.slice())))
+      }
+      catch {
+        case e: IOException ⇒
+          close()
+          Future.exception(e)
+      }
+    }
+  }
+
+  def discard(): Unit = synchronized { close() }
+}
+
+object MappedFileReader {
+  final val WindowSize = 8L * 1024 * 1024
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service;
+
+/**
+ * Enumerates the operations a request is resolved to by {@link CdmiRestServiceHandlers}.
+ * Each value is named after the method of {@link CdmiRestServiceMethods} that implements it.
+ */
+public enum Operation {
+    GET_capabilities,
+
+    GET_objectById,
+    POST_objectById,
+    PUT_objectById,
+
+    GET_object_cdmi,
+    GET_object_noncdmi,
+    PUT_object_cdmi_create,
+    PUT_object_cdmi_create_or_update,
+    PUT_object_noncdmi,
+    DELETE_object_noncdmi,
+
+    GET_container_cdmi,
+    PUT_container_cdmi_create,
+    PUT_container_cdmi_create_or_update,
+    POST_object_to_container_cdmi,
+    POST_queue_to_container_cdmi,
+    DELETE_container_cdmi,
+
+    GET_domain_cdmi,
+    PUT_domain_cdmi,
+    DELETE_domain_cdmi,
+
+    GET_queue_cdmi,
+    PUT_queue_cdmi_create,
+    PUT_queue_cdmi_update,
+    POST_queue_value_cdmi,
+
+    DELETE_object_or_queue_or_queuevalue_cdmi,
+}
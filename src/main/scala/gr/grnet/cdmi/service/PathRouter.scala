@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import scala.collection.immutable.Seq
+
+/**
+ * A reserved top-level path segment, e.g. `cdmi_capabilities`, together with the routes it resolves to.
+ * A `null` route means that the generic container (trailing slash) or object/queue (no trailing slash)
+ * rules apply, with the reserved segment being part of the path.
+ *
+ * @param segment       The reserved segment, without any slashes.
+ * @param exactSlash    The route for `/segment/`
+ * @param exactNoSlash  The route for `/segment`
+ * @param deeperSlash   The route for `/segment/.../`
+ * @param deeperNoSlash The route for `/segment/...`
+ */
+final case class ReservedPrefix(
+  segment: String,
+  exactSlash: RouteKind,
+  exactNoSlash: RouteKind,
+  deeperSlash: RouteKind,
+  deeperNoSlash: RouteKind
+)
+
+object ReservedPrefix {
+  def capabilities(segment: String) =
+    ReservedPrefix(segment, RouteKind.Capabilities, RouteKind.CapabilitiesNoSlash, RouteKind.Capabilities, RouteKind.CapabilitiesNoSlash)
+
+  def objectById(segment: String) =
+    ReservedPrefix(segment, RouteKind.ObjectById, RouteKind.ObjectById, RouteKind.ObjectById, RouteKind.ObjectById)
+
+  // According to Section 10.1 CDMI 1.0.2, this prefix is reserved for domain URIs
+  def domains(segment: String) =
+    ReservedPrefix(segment, RouteKind.Domain, RouteKind.DomainNoSlash, RouteKind.Domain, null)
+
+  final val Cdmi: Seq[ReservedPrefix] = Seq(
+    capabilities("cdmi_capabilities"),
+    objectById("cdmi_objectid"),
+    objectById("cdmi_objectId"),
+    objectById("cdmi_objectID"),
+    domains("cdmi_domains")
+  )
+}
+
+/**
+ * Routes request paths in a single scan, using a trie of the reserved top-level segments.
+ * The trie is built once and is read-only afterwards, so an instance can be shared by all requests.
+ *
+ * The routing decisions are those of the original list-based pattern matching of `routingTable`:
+ *
+ *  - `""` is [[gr.grnet.cdmi.service.RouteKind#RootNoSlash]] and `/` is [[gr.grnet.cdmi.service.RouteKind#Root]].
+ *  - Reserved segments route according to their [[gr.grnet.cdmi.service.ReservedPrefix]].
+ *  - Anything else that starts with `/` is a container if it ends with `/`, otherwise an object or queue.
+ *  - Anything else is [[gr.grnet.cdmi.service.RouteKind#CatchAll]].
+ */
+final class PathRouter(val prefixes: Seq[ReservedPrefix]) {
+  private[this] final class Node {
+    val next = new Array[Node](PathRouter.Fanout)
+    var prefix: ReservedPrefix = _
+  }
+
+  private[this] val root = new Node
+
+  for(prefix ← prefixes) {
+    val segment = prefix.segment
+    require(segment.nonEmpty && segment.indexOf('/') == -1, s"Bad reserved segment '$segment'")
+
+    var node = root
+    for(c ← segment) {
+      require(c < PathRouter.Fanout, s"Non-ASCII reserved segment '$segment'")
+      if(node.next(c) eq null) {
+        node.next(c) = new Node
+      }
+      node = node.next(c)
+    }
+    require(node.prefix eq null, s"Duplicate reserved segment '$segment'")
+    node.prefix = prefix
+  }
+
+  private[this] def isAllSlashes(path: String, from: Int): Boolean = {
+    var i = from
+    val n = path.length
+    while(i < n) {
+      if(path.charAt(i) != '/') { return false }
+      i += 1
+    }
+    true
+  }
+
+  def route(path: String): CdmiPath = {
+    val n = path.length
+    if(n == 0) {
+      return new CdmiPath(RouteKind.RootNoSlash, path, 0, false)
+    }
+
+    val lastIsSlash = path.charAt(n - 1) == '/'
+    if(path.charAt(0) != '/') {
+      return new CdmiPath(RouteKind.CatchAll, path, 0, lastIsSlash)
+    }
+    if(isAllSlashes(path, 1)) {
+      return new CdmiPath(RouteKind.Root, path, 1, lastIsSlash)
+    }
+
+    // Walk the first segment down the trie
+    var node = root
+    var i = 1
+    while(i < n && (node ne null)) {
+      val c = path.charAt(i)
+      if(c == '/') {
+        val prefix = node.prefix
+        if(prefix ne null) {
+          val kind =
+            if(isAllSlashes(path, i + 1)) prefix.exactSlash
+            else if(lastIsSlash) prefix.deeperSlash
+            else prefix.deeperNoSlash
+
+          if(kind ne null) {
+            return new CdmiPath(kind, path, i + 1, lastIsSlash)
+          }
+        }
+        node = null
+      }
+      else if(c < PathRouter.Fanout) {
+        node = node.next(c)
+        i += 1
+      }
+      else {
+        node = null
+      }
+    }
+
+    if((i == n) && (node ne null) && (node.prefix ne null) && (node.prefix.exactNoSlash ne null)) {
+      return new CdmiPath(node.prefix.exactNoSlash, path, n, lastIsSlash)
+    }
+
+    val kind = if(lastIsSlash) RouteKind.Container else RouteKind.ObjectOrQueue
+    new CdmiPath(kind, path, 1, lastIsSlash)
+  }
+}
+
+object PathRouter {
+  private final val Fanout = 128
+
+  final val Cdmi = new PathRouter(ReservedPrefix.Cdmi)
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service;
+
+/**
+ * The outcome of evaluating the conditional headers of a request.
+ *
+ * @see gr.grnet.cdmi.service.Preconditions
+ */
+public enum PreconditionOutcome {
+    /** Carry on with the request */
+    Proceed,
+    /** Reply with {@code 304 Not Modified} */
+    NotModified,
+    /** Reply with {@code 412 Precondition Failed} */
+    Failed,
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import java.text.{ParseException, SimpleDateFormat}
+import java.util.{Date, Locale, TimeZone}
+
+import com.twitter.finagle.httpx.{Method, Request}
+
+/**
+ * Evaluation of conditional requests.
+ *
+ * @note RFC 7232 Section 6: Precedence
+ */
+object Preconditions {
+  final val If_Match = "If-Match"
+  final val If_None_Match = "If-None-Match"
+  final val If_Modified_Since = "If-Modified-Since"
+  final val If_Unmodified_Since = "If-Unmodified-Since"
+
+  private[this] final val HttpDateFormat = new ThreadLocal[SimpleDateFormat] {
+    override def initialValue(): SimpleDateFormat = {
+      val format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US)
+      format.setTimeZone(TimeZone.getTimeZone("GMT"))
+      format
+    }
+  }
+
+  /**
+   * Parses an IMF-fixdate, e.g. `Sun, 06 Nov 1994 08:49:37 GMT`, into milliseconds since the epoch.
+   */
+  def parseHttpDate(date: String): Option[Long] =
+    try Some(HttpDateFormat.get().parse(date).getTime)
+    catch { case _: ParseException ⇒ None }
+
+  def formatHttpDate(millis: Long): String = HttpDateFormat.get().format(new Date(millis))
+
+  def isSafe(method: Method): Boolean = method == Method.Get || method == Method.Head
+
+  def hasConditionalHeaders(request: Request): Boolean = {
+    val headers = request.headerMap
+    headers.contains(If_Match) ||
+      headers.contains(If_None_Match) ||
+      headers.contains(If_Modified_Since) ||
+      headers.contains(If_Unmodified_Since)
+  }
+
+  /**
+   * Dates in HTTP have a resolution of one second.
+   */
+  private[this] def seconds(millis: Long) = millis / 1000
+
+  private[this] def strongMatch(header: String, current: Option[String]): Boolean =
+    EntityTags.parseList(header) match {
+      case None ⇒ current.isDefined
+      case Some(etags) ⇒
+        current match {
+          case Some(etag) if !EntityTags.isWeak(etag) ⇒ etags.contains(etag)
+          case _ ⇒ false
+        }
+    }
+
+  private[this] def weakMatch(header: String, current: Option[String]): Boolean =
+    current match {
+      case Some(etag) ⇒ EntityTags.noneMatchHits(header, etag)
+      case None ⇒ false
+    }
+
+  /**
+   * Evaluates the conditional headers of `request` against the `current` validators,
+   * where `None` means that there is no current representation.
+   */
+  def evaluate(request: Request, current: Option[Validators]): PreconditionOutcome = {
+    val headers = request.headerMap
+    val etag = current.flatMap(_.etag)
+    val lastModified = current.flatMap(_.lastModified)
+
+    def ifMatchFails =
+      headers.get(If_Match) match {
+        case Some(header) ⇒ !strongMatch(header, etag)
+        case None ⇒
+          headers.get(If_Unmodified_Since).flatMap(parseHttpDate) match {
+            case Some(since) ⇒ lastModified.exists(seconds(_) > seconds(since))
+            case None ⇒ false
+          }
+      }
+
+    def noneMatchHits =
+      headers.get(If_None_Match) match {
+        case Some(header) ⇒
+          if(EntityTags.parseList(header).isEmpty) current.isDefined else weakMatch(header, etag)
+        case None ⇒
+          isSafe(request.method) && (
+            headers.get(If_Modified_Since).flatMap(parseHttpDate) match {
+              case Some(since) ⇒ lastModified.exists(seconds(_) <= seconds(since))
+              case None ⇒ false
+            })
+      }
+
+    if(ifMatchFails) PreconditionOutcome.Failed
+    else if(noneMatchHits) {
+      if(isSafe(request.method)) PreconditionOutcome.NotModified else PreconditionOutcome.Failed
+    }
+    else PreconditionOutcome.Proceed
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.{Comparator, HashMap, PriorityQueue}
+
+import com.twitter.finagle.stats.StatsReceiver
+import com.twitter.util.{Duration, Future, Promise, Time, Timer, TimerTask}
+
+/**
+ * Schedules requests by the domain they are in, as the [[gr.grnet.cdmi.service.QosSpec]] that `specOf` gives for it asks.
+ *
+ * A throttled domain has a token bucket that fills at its `cdmi_throughput` bytes per second, up to `BurstSeconds`
+ * worth of them. A request of the domain starts while the bucket is not empty. It is charged a body that was received
+ * before it started as it starts, and the bytes that it streams in or out as they flow, so that a large transfer leaves
+ * the bucket in debt and the requests after it wait until it is repaid. Waiting requests start earliest deadline first: one of a latency sensitive
+ * domain is due `cdmi_latency` after it arrived, or at its `deadline` if that is sooner, any other one at its `deadline`.
+ * A request that is still waiting at its deadline is shed.
+ *
+ * Each domain keeps moving averages of the latency and the throughput that its requests get, which are `provided`
+ * as its `cdmi_latency_provided` and `cdmi_throughput_provided`.
+ *
+ * Domains are spread over `stripes` locks, so that requests of different domains rarely wait for each other.
+ * Reported to `receiver` are the `admitted`, `throttled` and `shed` counters.
+ */
+final class QosScheduler(
+  specOf: String ⇒ QosSpec,
+  timer: Timer,
+  receiver: StatsReceiver,
+  stripes: Int = QosScheduler.DefaultStripes
+) {
+  import QosScheduler._
+
+  private[this] final class Waiter(val bytes: Long, val due: Time, val sequence: Long) extends Promise[Boolean] {
+    @volatile var timeout: TimerTask = _
+  }
+
+  private[this] final class Domain(val uri: String, now: Long) {
+    var spec: QosSpec = specOf(uri)
+    var tokens: Double = spec.throughput * BurstSeconds
+    var refilledAt: Long = now
+    val waiters = new PriorityQueue[Waiter](16, WaiterOrder)
+    var wakeup: TimerTask = _
+
+    var latencyMicros = 0.0
+    var throughput = 0.0
+    var windowStart: Long = now
+    var windowBytes = 0L
+
+    def refill(now: Long): Unit = {
+      if(spec.isThrottled) {
+        val rate = spec.throughput.toDouble
+        tokens = math.min(rate * BurstSeconds, tokens + (now - refilledAt) * rate / NanosPerSecond)
+      }
+      refilledAt = now
+    }
+
+    def mayStart: Boolean = !spec.isThrottled || tokens > 0
+
+    def charge(bytes: Long): Unit = if(spec.isThrottled) { tokens -= bytes }
+
+    // Folds the bytes of the last window into `throughput` once the window is over
+    def measure(now: Long): Unit = {
+      val elapsed = now - windowStart
+      if(elapsed >= WindowNanos) {
+        val rate = windowBytes * NanosPerSecond / elapsed
+        throughput = if(throughput == 0.0) rate else throughput + (rate - throughput) * Smoothing
+        windowStart = now
+        windowBytes = 0L
+      }
+    }
+  }
+
+  private[this] val WaiterOrder = new Comparator[Waiter] {
+    def compare(a: Waiter, b: Waiter): Int = {
+      val byDue = a.due.compare(b.due)
+      if(byDue != 0) byDue else java.lang.Long.compare(a.sequence, b.sequence)
+    }
+  }
+
+  private[this] val locks = Array.fill(math.max(1, stripes))(new Object)
+  private[this] val tables = Array.fill(locks.length)(new HashMap[String, Domain]())
+  private[this] val sequence = new AtomicLong()
+
+  private[this] val admitted = receiver.counter("admitted")
+  private[this] val throttled = receiver.counter("throttled")
+  private[this] val shed = receiver.counter("shed")
+
+  private[this] def stripeOf(domainURI: String): Int = (domainURI.hashCode & Int.MaxValue) % locks.length
+
+  // Called with the lock of `stripe` held
+  private[this] def domainAt(stripe: Int, domainURI: String, now: Long): Domain = {
+    val table = tables(stripe)
+    var domain = table.get(domainURI)
+    if(domain eq null) {
+      domain = new Domain(domainURI, now)
+      table.put(domainURI, domain)
+    }
+    domain
+  }
+
+  // Called with the lock of `stripe` held. Wakes the waiters of `domain` once its bucket is no longer empty.
+  private[this] def scheduleWakeup(stripe: Int, domain: Domain): Unit =
+    if((domain.wakeup eq null) && !domain.waiters.isEmpty) {
+      val nanos =
+        if(domain.mayStart) 0L
+        else (-domain.tokens * NanosPerSecond / domain.spec.throughput).toLong + 1L
+      domain.wakeup = timer.schedule(Time.now + Duration.fromNanoseconds(math.max(nanos, MinWakeupNanos))) {
+        wake(stripe, domain)
+      }
+    }
+
+  private[this] def wake(stripe: Int, domain: Domain): Unit = {
+    var started: List[Waiter] = Nil
+
+    locks(stripe).synchronized {
+      domain.wakeup = null
+      domain.spec = specOf(domain.uri)
+      domain.refill(System.nanoTime())
+      while(!domain.waiters.isEmpty && domain.mayStart) {
+        val waiter = domain.waiters.poll()
+        domain.charge(waiter.bytes)
+        started = waiter :: started
+      }
+      scheduleWakeup(stripe, domain)
+    }
+
+    for(waiter ← started.reverse) {
+      if(waiter.timeout ne null) { waiter.timeout.cancel() }
+      admitted.incr()
+      waiter.setValue(true)
+    }
+  }
+
+  private[this] def expire(stripe: Int, domain: Domain, waiter: Waiter): Unit =
+    if(locks(stripe).synchronized(domain.waiters.remove(waiter))) {
+      shed.incr()
+      waiter.setValue(false)
+    }
+
+  /**
+   * Resolves to `true` when a request of the domain `domainURI`, with a body of `bytes`, may start, after which the
+   * caller must `complete` it, or to `false` when it is shed.
+   */
+  def acquire(domainURI: String, bytes: Long, deadline: Time): Future[Boolean] = {
+    val stripe = stripeOf(domainURI)
+    var domain: Domain = null
+    var waiter: Waiter = null
+    var start = false
+
+    locks(stripe).synchronized {
+      val now = System.nanoTime()
+      domain = domainAt(stripe, domainURI, now)
+      domain.spec = specOf(domainURI)
+      domain.refill(now)
+
+      if(domain.waiters.isEmpty && domain.mayStart) {
+        domain.charge(bytes)
+        start = true
+      }
+      else if(deadline > Time.now) {
+        val latency = domain.spec.latency
+        val due =
+          if(latency <= 0) deadline
+          else {
+            val latencyDue = Time.now + Duration.fromMilliseconds(latency)
+            if(latencyDue < deadline) latencyDue else deadline
+          }
+        waiter = new Waiter(bytes, due, sequence.incrementAndGet())
+        domain.waiters.add(waiter)
+        scheduleWakeup(stripe, domain)
+      }
+    }
+
+    if(start) {
+      admitted.incr()
+      Future.True
+    }
+    else if(waiter ne null) {
+      throttled.incr()
+      val queued = waiter
+      val of = domain
+      if(deadline < Time.Top) {
+        queued.timeout = timer.schedule(deadline) { expire(stripe, of, queued) }
+      }
+      queued.setInterruptHandler { case _ ⇒ expire(stripe, of, queued) }
+      queued
+    }
+    else {
+      shed.incr()
+      Future.False
+    }
+  }
+
+  /**
+   * Charges the domain `domainURI` the `bytes` that one of its requests moved in or out after it started,
+   * as a streamed body does chunk by chunk.
+   */
+  def charge(domainURI: String, bytes: Long): Unit = {
+    val stripe = stripeOf(domainURI)
+    locks(stripe).synchronized {
+      val now = System.nanoTime()
+      val domain = domainAt(stripe, domainURI, now)
+      domain.windowBytes += bytes
+      domain.measure(now)
+      domain.charge(bytes)
+    }
+  }
+
+  /**
+   * Completes a request of the domain `domainURI` that `acquire` let start at `startNanos` (as in `System.nanoTime()`),
+   * with the body of `requestBytes` that it was charged as it started. What it moves afterwards is charged separately.
+   */
+  def complete(domainURI: String, requestBytes: Long, startNanos: Long): Unit = {
+    val stripe = stripeOf(domainURI)
+    locks(stripe).synchronized {
+      val now = System.nanoTime()
+      val domain = domainAt(stripe, domainURI, now)
+      val latencyMicros = (now - startNanos) / 1000L
+      domain.latencyMicros =
+        if(domain.latencyMicros == 0.0) latencyMicros.toDouble
+        else domain.latencyMicros + (latencyMicros - domain.latencyMicros) * Smoothing
+      domain.windowBytes += requestBytes
+      domain.measure(now)
+    }
+  }
+
+  /**
+   * The `cdmi_throughput_provided`, in bytes per second, and `cdmi_latency_provided`, in milliseconds, of the domain
+   * `domainURI`, or `None` if none of its requests have completed yet.
+   */
+  def provided(domainURI: String): Option[(Long, Long)] = {
+    val stripe = stripeOf(domainURI)
+    locks(stripe).synchronized {
+      tables(stripe).get(domainURI) match {
+        case null ⇒ None
+        case domain if domain.latencyMicros == 0.0 ⇒ None
+        case domain ⇒
+          domain.measure(System.nanoTime())
+          Some((domain.throughput.toLong, math.round(domain.latencyMicros / 1000.0)))
+      }
+    }
+  }
+}
+
+object QosScheduler {
+  final val DefaultStripes = 16
+
+  /**
+   * How many seconds of its throughput a throttled domain may use up at once.
+   */
+  final val BurstSeconds = 1.0
+
+  /**
+   * The weight of the latest measurement in the moving averages.
+   */
+  final val Smoothing = 0.2
+
+  private final val NanosPerSecond = 1e9
+  private final val WindowNanos = 1000L * 1000L * 1000L
+  private final val MinWakeupNanos = 1000L * 1000L
+}
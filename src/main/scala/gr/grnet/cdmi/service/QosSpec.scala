@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+/**
+ * The quality of service that a domain asks for: its `cdmi_throughput`, in bytes per second, and its `cdmi_latency`,
+ * in milliseconds. Zero means that nothing is asked for.
+ *
+ * @note Section 16.4 of CDMI 1.0.2: Data System Metadata
+ */
+final case class QosSpec(throughput: Long, latency: Long) {
+  def isThrottled: Boolean = throughput > 0
+
+  def isLatencySensitive: Boolean = latency > 0
+
+  def isBestEffort: Boolean = !isThrottled && !isLatencySensitive
+}
+
+object QosSpec {
+  final val BestEffort = QosSpec(0L, 0L)
+
+  /**
+   * Parses comma-separated `<domain>=<throughput>/<latency>` entries, e.g. `bulk=10485760/0,web=0/50`,
+   * into the specs of the domains `<domainsURI><domain>/`.
+   */
+  def parseDomains(spec: String, domainsURI: String): Map[String, QosSpec] =
+    spec.split(',').map(_.trim).filter(_.nonEmpty).map { entry ⇒
+      def fail() = throw new IllegalArgumentException(s"Expected <domain>=<throughput>/<latency> instead of '$entry'")
+
+      entry.split('=') match {
+        case Array(domain, values) if domain.nonEmpty && !domain.contains('/') ⇒
+          values.split('/') match {
+            case Array(throughput, latency) ⇒
+              try { (s"$domainsURI$domain/", QosSpec(math.max(0L, throughput.trim.toLong), math.max(0L, latency.trim.toLong))) }
+              catch { case _: NumberFormatException ⇒ fail() }
+            case _ ⇒
+              fail()
+          }
+        case _ ⇒
+          fail()
+      }
+    }.toMap
+}
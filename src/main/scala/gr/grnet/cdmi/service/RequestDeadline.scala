@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.context.Contexts
+import com.twitter.util.{Duration, Time}
+
+/**
+ * The time by which the request being served must be done, as set by `Filters.AdmissionControl` from `requestTimeout`.
+ * It travels along with the futures of the request, so `CdmiRestServiceMethods`, the backends and the body readers
+ * see it without it being passed around. Outside of a request, or when there is no timeout, it is `Time.Top`.
+ */
+object RequestDeadline {
+  private[this] val key = new Contexts.local.Key[Time]
+
+  def let[R](deadline: Time)(f: ⇒ R): R = Contexts.local.let(key, deadline)(f)
+
+  def current: Time =
+    Contexts.local.get(key) match {
+      case Some(deadline) ⇒ deadline
+      case None ⇒ Time.Top
+    }
+
+  def remaining: Duration = current - Time.now
+
+  def isExpired: Boolean = {
+    val deadline = current
+    deadline < Time.Top && deadline <= Time.now
+  }
+
+  /**
+   * Throws a [[gr.grnet.cdmi.service.DeadlineExceededException]] if the deadline has passed.
+   * Long-running loops call this between steps, so that their future fails instead of running on.
+   */
+  def check(): Unit =
+    if(isExpired) {
+      throw new DeadlineExceededException(current)
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.twitter.finagle.httpx.{Request, Response}
+import com.twitter.finagle.stats.{Counter, StatsReceiver}
+import com.twitter.util.{Future, Return, Throw}
+
+import scala.util.control.NonFatal
+
+/**
+ * Request metrics, overall and per resolved [[gr.grnet.cdmi.service.Operation]], reported to `statsReceiver`.
+ * All counters and stats are created up front, so that measuring a request does not build any names.
+ *
+ * For each of `requests` and `operation/<Operation>` there are:
+ *  - `requests` and `failures` (exceptions) counters,
+ *  - an `in_flight` gauge,
+ *  - a `latency_us` stat, in microseconds up to the response head,
+ *  - `request_bytes` and `response_bytes` counters, taken from `Content-Length`, so chunked bodies are not counted,
+ *  - `status/1XX` to `status/5XX` counters.
+ *
+ * Error references are counted under `error_ref/<ref>`.
+ */
+final class RequestMetrics(statsReceiver: StatsReceiver) {
+  final class Stats private[RequestMetrics](receiver: StatsReceiver) {
+    private[RequestMetrics] val inFlight = new AtomicInteger()
+    private[RequestMetrics] val inFlightGauge = receiver.addGauge("in_flight") { inFlight.get().toFloat }
+    private[RequestMetrics] val requests = receiver.counter("requests")
+    private[RequestMetrics] val failures = receiver.counter("failures")
+    private[RequestMetrics] val latency = receiver.stat("latency_us")
+    private[RequestMetrics] val requestBytes = receiver.counter("request_bytes")
+    private[RequestMetrics] val responseBytes = receiver.counter("response_bytes")
+    private[RequestMetrics] val statusClasses = Array.tabulate(5)(n ⇒ receiver.counter("status", s"${n + 1}XX"))
+  }
+
+  val total: Stats = new Stats(statsReceiver.scope("requests"))
+
+  private[this] val operations: Array[Stats] = {
+    val receiver = statsReceiver.scope("operation")
+    for(operation ← Operation.values()) yield new Stats(receiver.scope(operation.name()))
+  }
+
+  private[this] val errorRefReceiver = statsReceiver.scope("error_ref")
+  private[this] val stdErrorRefs: Array[Counter] =
+    for(ref ← StdErrorRef.values()) yield errorRefReceiver.counter(ref.name())
+  private[this] val otherErrorRefs = new ConcurrentHashMap[IErrorRef, Counter]()
+
+  def of(operation: Operation): Stats = operations(operation.ordinal())
+
+  private[this] def incr(counter: Counter, amount: Long): Unit = {
+    var left = amount
+    while(left > Int.MaxValue) {
+      counter.incr(Int.MaxValue)
+      left -= Int.MaxValue
+    }
+    if(left > 0) { counter.incr(left.toInt) }
+  }
+
+  def measure(request: Request, stats: Stats)(handle: ⇒ Future[Response]): Future[Response] = {
+    val start = System.nanoTime()
+    stats.requests.incr()
+    stats.inFlight.incrementAndGet()
+    request.contentLength match {
+      case Some(length) ⇒ incr(stats.requestBytes, length)
+      case None ⇒
+    }
+
+    val result = try handle catch { case NonFatal(e) ⇒ Future.exception(e) }
+
+    result respond { outcome ⇒
+      stats.inFlight.decrementAndGet()
+      stats.latency.add((System.nanoTime() - start) / 1000L)
+
+      outcome match {
+        case Return(response) ⇒
+          val statusClass = response.statusCode / 100
+          if(statusClass >= 1 && statusClass <= stats.statusClasses.length) {
+            stats.statusClasses(statusClass - 1).incr()
+          }
+          response.contentLength match {
+            case Some(length) ⇒ incr(stats.responseBytes, length)
+            case None ⇒
+          }
+
+        case Throw(_) ⇒
+          stats.failures.incr()
+      }
+    }
+  }
+
+  def measure(request: Request, operation: Operation)(handle: ⇒ Future[Response]): Future[Response] =
+    measure(request, of(operation))(handle)
+
+  def errorRef(ref: IErrorRef): Unit =
+    ref match {
+      case std: StdErrorRef ⇒
+        stdErrorRefs(std.ordinal()).incr()
+
+      case _ ⇒
+        val counter = otherErrorRefs.get(ref) match {
+          case null ⇒
+            val created = errorRefReceiver.counter(ref.toString)
+            otherErrorRefs.putIfAbsent(ref, created) match {
+              case null ⇒ created
+              case existing ⇒ existing
+            }
+
+          case existing ⇒
+            existing
+        }
+        counter.incr()
+    }
+}
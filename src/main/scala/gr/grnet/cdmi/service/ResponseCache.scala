@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service
+
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+import com.twitter.finagle.stats.StatsReceiver
+import com.twitter.io.Buf
+
+/**
+ * What [[gr.grnet.cdmi.service.ResponseCache]] keeps for a variant of a path.
+ */
+sealed abstract class Cached {
+  /**
+   * `System.nanoTime` after which this is not served any more.
+   */
+  def expiresAt: Long
+
+  /**
+   * Roughly the bytes this takes.
+   */
+  def size: Int
+}
+
+/**
+ * The head and body of a `200 OK` response. The body is kept off-heap.
+ */
+final class CachedResponse(val headers: Array[(String, String)], val body: ByteBuffer, val expiresAt: Long) extends Cached {
+  def size: Int = body.capacity() + headers.foldLeft(64)((n, h) ⇒ n + 2 * (h._1.length + h._2.length))
+}
+
+object CachedResponse {
+  def apply(headers: Array[(String, String)], body: Buf, expiresAt: Long): CachedResponse = {
+    val direct = ByteBuffer.allocateDirect(body.length)
+    direct.put(Buf.ByteBuffer.Owned.extract(body).duplicate())
+    direct.flip()
+    new CachedResponse(headers, direct.asReadOnlyBuffer(), expiresAt)
+  }
+}
+
+final class CachedValidators(val validators: Validators, val expiresAt: Long) extends Cached {
+  def size: Int = 128
+}
+
+/**
+ * A size-bounded cache of rendered responses and validators, keyed by path and then by variant,
+ * e.g. the operation and query the response is for.
+ *
+ * Paths are spread over `segments` segments by hash, each with its own lock and `maxBytes / segments` bytes, and
+ * kept in access order. A path that is not cached yet is only admitted over the least recently used path of its
+ * segment if it has been asked for more often, as estimated by a [[gr.grnet.cdmi.service.FrequencySketch]] of all
+ * lookups, so that a burst of one-off reads does not flush hot paths. Response bodies are copied off-heap.
+ *
+ * Every invalidation starts a new epoch of the segments it touches. What was loaded during an older epoch may be stale
+ * and is not cached. Invalidating everything under a prefix scans all paths, which is what keeps single-path
+ * invalidation cheap.
+ *
+ * Counters and gauges are reported to `statsReceiver`: `hits`, `misses`, `expired`, `admitted`, `rejected`,
+ * `stale`, `evictions`, `invalidations`, `bytes` and `paths`.
+ */
+final class ResponseCache(maxBytes: Long, segments: Int, statsReceiver: StatsReceiver) {
+  private[this] final class PathEntry(val variants: Map[String, Cached]) {
+    val bytes: Long = variants.foldLeft(0L)((n, kv) ⇒ n + kv._1.length + kv._2.size)
+  }
+
+  private[this] final class Segment(val budget: Long) {
+    val paths = new java.util.LinkedHashMap[String, PathEntry](16, 0.75f, true)
+    var bytes = 0L
+    @volatile var epoch = 0L
+  }
+
+  private[this] val segmentCount = Integer.highestOneBit(math.max(1, segments - 1)) << 1
+  private[this] val segmentMask = segmentCount - 1
+  private[this] val segmentArray = Array.fill(segmentCount)(new Segment(math.max(1L, maxBytes / segmentCount)))
+  private[this] val sketch = new FrequencySketch(math.max(1024L, math.min(maxBytes / 1024, 1L << 22)).toInt)
+  private[this] val totalBytes = new AtomicLong()
+  private[this] val totalPaths = new AtomicInteger()
+
+  private[this] val hits = statsReceiver.counter("hits")
+  private[this] val misses = statsReceiver.counter("misses")
+  private[this] val expired = statsReceiver.counter("expired")
+  private[this] val admitted = statsReceiver.counter("admitted")
+  private[this] val rejected = statsReceiver.counter("rejected")
+  private[this] val stale = statsReceiver.counter("stale")
+  private[this] val evictions = statsReceiver.counter("evictions")
+  private[this] val invalidations = statsReceiver.counter("invalidations")
+  private[this] val bytesGauge = statsReceiver.addGauge("bytes") { totalBytes.get().toFloat }
+  private[this] val pathsGauge = statsReceiver.addGauge("paths") { totalPaths.get().toFloat }
+
+  private[this] def hashOf(path: String): Int = {
+    val h = path.hashCode * 0x9E3779B9
+    h ^ (h >>> 16)
+  }
+
+  private[this] def segmentOf(hash: Int): Segment = segmentArray(hash & segmentMask)
+
+  /**
+   * Changes whenever something that could be cached for `path` is invalidated.
+   */
+  def epochOf(path: String): Long = segmentOf(hashOf(path)).epoch
+
+  /**
+   * The `variant` of `path`, if it is cached and has not expired, or else `null`.
+   * Every lookup counts towards the frequency of `path`.
+   */
+  def get(path: String, variant: String): Cached = {
+    val hash = hashOf(path)
+    sketch.increment(hash)
+    val segment = segmentOf(hash)
+    val entry = segment.synchronized { segment.paths.get(path) }
+    val cached = if(entry eq null) null else entry.variants.getOrElse(variant, null)
+
+    if(cached eq null) {
+      misses.incr()
+      null
+    }
+    else if(cached.expiresAt - System.nanoTime() < 0) {
+      expired.incr()
+      null
+    }
+    else {
+      hits.incr()
+      cached
+    }
+  }
+
+  private[this] def add(segment: Segment, path: String, entry: PathEntry): Unit = {
+    segment.paths.put(path, entry)
+    segment.bytes += entry.bytes
+    totalBytes.addAndGet(entry.bytes)
+    totalPaths.incrementAndGet()
+  }
+
+  private[this] def remove(segment: Segment, path: String): Unit =
+    segment.paths.remove(path) match {
+      case null ⇒
+      case entry ⇒
+        segment.bytes -= entry.bytes
+        totalBytes.addAndGet(-entry.bytes)
+        totalPaths.decrementAndGet()
+    }
+
+  /**
+   * Caches `cached` as the `variant` of `path`, unless there has been an invalidation since `loadedAt`,
+   * the epoch at which `cached` started being loaded, or `path` is not admitted.
+   */
+  def put(path: String, variant: String, cached: Cached, loadedAt: Long): Unit = {
+    val hash = hashOf(path)
+    val segment = segmentOf(hash)
+    segment.synchronized {
+      if(loadedAt != segment.epoch) {
+        stale.incr()
+      }
+      else {
+        val previous = segment.paths.get(path)
+        val base = if(previous eq null) Map.empty[String, Cached] else previous.variants
+        val entry = new PathEntry(base.filter(_._2.expiresAt - System.nanoTime() >= 0) + (variant → cached))
+
+        if(entry.bytes > segment.budget) {
+          rejected.incr()
+        }
+        else {
+          val frequency = sketch.frequency(hash)
+          val wasCached = previous ne null
+          if(wasCached) remove(segment, path)
+
+          var admit = true
+          while(admit && segment.bytes + entry.bytes > segment.budget) {
+            val eldest = segment.paths.keySet().iterator().next()
+            if(!wasCached && frequency <= sketch.frequency(hashOf(eldest))) {
+              admit = false
+            }
+            else {
+              remove(segment, eldest)
+              evictions.incr()
+            }
+          }
+
+          if(admit) {
+            add(segment, path, entry)
+            admitted.incr()
+          }
+          else rejected.incr()
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops everything cached for `path`.
+   */
+  def invalidate(path: String): Unit = {
+    invalidations.incr()
+    val segment = segmentOf(hashOf(path))
+    segment.synchronized {
+      segment.epoch += 1
+      remove(segment, path)
+    }
+  }
+
+  /**
+   * Drops everything cached for the paths that start with `prefix`.
+   */
+  def invalidateUnder(prefix: String): Unit = {
+    invalidations.incr()
+    for(segment ← segmentArray) {
+      segment.synchronized {
+        segment.epoch += 1
+        val entries = segment.paths.entrySet().iterator()
+        while(entries.hasNext) {
+          val entry = entries.next()
+          if(entry.getKey.startsWith(prefix)) {
+            entries.remove()
+            segment.bytes -= entry.getValue.bytes
+            totalBytes.addAndGet(-entry.getValue.bytes)
+            totalPaths.decrementAndGet()
+          }
+        }
+      }
+    }
+  }
+
+  def invalidateAll(): Unit = invalidateUnder("")
+}
+
+object ResponseCache {
+  final val DefaultSegments = 16
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.service
+
+import java.io.ByteArrayOutputStream
+import java.util.zip.{CRC32, Deflater}
+
+import com.twitter.finagle.httpx.{Method, Request, Response, Status}
+import com.twitter.finagle.stats.StatsReceiver
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.Future
+
+import scala.collection.immutable.Seq
+
+/**
+ * Compresses response bodies with the [[gr.grnet.cdmi.service.ContentCoding]] that the `Accept-Encoding` of the
+ * request prefers, at the given deflate `level`.
+ *
+ * Responses are left as they are if they are smaller than `minBytes`, if their `Content-Type` starts with any of
+ * the `skippedTypes`, which are compressed already, if they carry a byte range or no body at all, or if they are
+ * encoded already. Buffered bodies are compressed at once, streamed ones chunk by chunk as they are read, so that
+ * memory use is bounded by the chunk size. A compressed response gets a weak `ETag`, since it is no longer the same
+ * bytes, and every compressible one gets `Vary: Accept-Encoding`.
+ *
+ * Reported to `receiver` are the `compressed` and `skipped` counters, the `bytes_in` and `bytes_out` of compressed
+ * bodies and the `compress_us` spent on each of them.
+ *
+ * @note RFC 7231 Section 5.3.4: Accept-Encoding
+ */
+final class ResponseCompression(
+  minBytes: Int,
+  level: Int,
+  skippedTypes: Seq[String],
+  receiver: StatsReceiver
+) {
+  import ResponseCompression._
+
+  private[this] val compressed = receiver.counter("compressed")
+  private[this] val precompressed = receiver.counter("precompressed")
+  private[this] val skipped = receiver.counter("skipped")
+  private[this] val bytesIn = receiver.counter("bytes_in")
+  private[this] val bytesOut = receiver.counter("bytes_out")
+  private[this] val compressMicros = receiver.stat("compress_us")
+
+  private[this] def record(encoder: Encoder): Unit = {
+    compressed.incr()
+    bytesIn.incr(encoder.bytesIn.toInt)
+    bytesOut.incr(encoder.bytesOut.toInt)
+    compressMicros.add(encoder.nanos / 1000L)
+  }
+
+  def isSkippedType(contentType: String): Boolean = {
+    val lowered = contentType.toLowerCase
+    skippedTypes.exists(lowered.startsWith)
+  }
+
+  /**
+   * Whether the body of `response` to `request` may be compressed at all.
+   */
+  def isCompressible(request: Request, response: Response): Boolean =
+    request.method != Method.Head &&
+    response.status != Status.NoContent &&
+    response.status != Status.NotModified &&
+    response.status != Status.PartialContent &&
+    !response.headerMap.contains(ContentEncoding) &&
+    !response.headerMap.contains(ContentRange) &&
+    (response.contentType match {
+      case Some(contentType) ⇒ !isSkippedType(contentType)
+      case None ⇒ false
+    })
+
+  /**
+   * `response` to `request`, compressed if the client accepts it and it is worth it.
+   */
+  def apply(request: Request, response: Response): Response =
+    if(!isCompressible(request, response)) {
+      if(!response.headerMap.contains(ContentEncoding)) { skipped.incr() }
+      response
+    }
+    else {
+      varyOnAcceptEncoding(response)
+
+      negotiate(request.headerMap.get(AcceptEncoding).orNull) match {
+        case ContentCoding.Identity ⇒
+          response
+
+        case coding if !response.isChunked ⇒
+          if(response.length < minBytes) response
+          else {
+            val encoder = new Encoder(coding, level)
+            val body = encoder.encodeAll(response.content)
+            record(encoder)
+            response.content = body
+            response.contentLength = body.length
+            encoded(response, coding)
+          }
+
+        case coding ⇒
+          if(response.contentLength.exists(_ < minBytes)) response
+          else {
+            val streamed = Response(response.version, response.status, compressing(response.reader, coding))
+            val headers = response.headerMap
+            for(name ← headers.keySet if !name.equalsIgnoreCase(ContentLength); value ← headers.getAll(name)) {
+              streamed.headerMap.add(name, value)
+            }
+            encoded(streamed, coding)
+          }
+      }
+    }
+
+  /**
+   * Like `apply`, but with the compressed bodies of a static `response` given by `variantOf`, which is expected
+   * to keep them rather than compress them every time.
+   */
+  def applyPrecompressed(request: Request, response: Response, variantOf: (ContentCoding, Int) ⇒ Buf): Response =
+    if(response.isChunked || !isCompressible(request, response) || response.length < minBytes) {
+      apply(request, response)
+    }
+    else {
+      varyOnAcceptEncoding(response)
+
+      negotiate(request.headerMap.get(AcceptEncoding).orNull) match {
+        case ContentCoding.Identity ⇒
+          response
+
+        case coding ⇒
+          val body = variantOf(coding, level)
+          precompressed.incr()
+          response.content = body
+          response.contentLength = body.length
+          encoded(response, coding)
+      }
+    }
+
+  private[this] def varyOnAcceptEncoding(response: Response): Unit =
+    response.headerMap.get(Vary) match {
+      case Some(vary) if vary.nonEmpty ⇒ response.headerMap(Vary) = s"$vary, $AcceptEncoding"
+      case _ ⇒ response.headerMap(Vary) = AcceptEncoding
+    }
+
+  private[this] def encoded(response: Response, coding: ContentCoding): Response = {
+    response.headerMap(ContentEncoding) = coding.token
+    response.headerMap.get(ETag) match {
+      case Some(etag) if !EntityTags.isWeak(etag) ⇒ response.headerMap(ETag) = s"W/$etag"
+      case _ ⇒
+    }
+    response
+  }
+
+  /**
+   * Compresses `source` one chunk at a time, as it is read.
+   */
+  def compressing(source: Reader, coding: ContentCoding): Reader = new Reader {
+    private[this] val encoder = new Encoder(coding, level)
+    @volatile private[this] var finished = false
+
+    def read(max: Int): Future[Option[Buf]] =
+      if(finished) Future.None
+      else {
+        source.read(max) flatMap {
+          case Some(buf) ⇒
+            val out = encoder.update(buf)
+            if(out.length == 0) read(max) else Future.value(Some(out))
+
+          case None ⇒
+            finished = true
+            val out = encoder.finish()
+            record(encoder)
+            Future.value(Some(out))
+        } onFailure { _ ⇒
+          encoder.end()
+        }
+      }
+
+    def discard(): Unit = {
+      source.discard()
+      encoder.end()
+    }
+  }
+}
+
+object ResponseCompression {
+  final val AcceptEncoding = "Accept-Encoding"
+  final val ContentEncoding = "Content-Encoding"
+  final val ContentLength = "Content-Length"
+  final val ContentRange = "Content-Range"
+  final val ETag = "ETag"
+  final val Vary = "Vary"
+
+  /**
+   * The `Content-Type` prefixes of bodies that are compressed already.
+   */
+  final val DefaultSkippedTypes =
+    "image/,audio/,video/,application/zip,application/gzip,application/x-gzip,application/x-bzip2,application/x-xz,application/x-7z-compressed"
+
+  private final val BufferSize = 8192
+
+  private final val GzipHeader = Array[Byte](0x1f, 0x8b.toByte, 8, 0, 0, 0, 0, 0, 0, 0xff.toByte)
+
+  def parseTypes(spec: String): Seq[String] =
+    spec.split(',').map(_.trim.toLowerCase).filter(_.nonEmpty).toVector
+
+  private[this] def qualityOf(params: Array[String]): Double = {
+    var i = 1
+    while(i < params.length) {
+      val param = params(i).trim
+      if(param.startsWith("q=")) {
+        return try param.substring(2).trim.toDouble catch { case _: NumberFormatException ⇒ 0.0 }
+      }
+      i += 1
+    }
+    1.0
+  }
+
+  /**
+   * The coding that `acceptEncoding` prefers among those supported, gzip on a tie, or `Identity` if it accepts none
+   * of them or is absent (`null`).
+   */
+  def negotiate(acceptEncoding: String): ContentCoding =
+    if((acceptEncoding eq null) || acceptEncoding.isEmpty) ContentCoding.Identity
+    else {
+      var gzip = -1.0
+      var deflate = -1.0
+      var any = -1.0
+
+      for(part ← acceptEncoding.split(',')) {
+        val params = part.split(';')
+        val q = qualityOf(params)
+        params(0).trim.toLowerCase match {
+          case "gzip" | "x-gzip" ⇒ gzip = q
+          case "deflate" ⇒ deflate = q
+          case "*" ⇒ any = q
+          case _ ⇒
+        }
+      }
+
+      if(gzip < 0) { gzip = any }
+      if(deflate < 0) { deflate = any }
+
+      if(gzip > 0 && gzip >= deflate) ContentCoding.Gzip
+      else if(deflate > 0) ContentCoding.Deflate
+      else ContentCoding.Identity
+    }
+
+  /**
+   * Compresses the whole of `body` with `coding`.
+   */
+  def compress(body: Buf, coding: ContentCoding, level: Int): Buf =
+    if(coding == ContentCoding.Identity) body
+    else new Encoder(coding, level).encodeAll(body)
+
+  /**
+   * Compresses a body that arrives in chunks. Each chunk that is given to `update` is flushed, so that what has
+   * arrived so far can be decompressed from what has been returned so far.
+   */
+  final class Encoder(coding: ContentCoding, level: Int) {
+    private[this] val deflater = new Deflater(level, coding == ContentCoding.Gzip) // gzip has its own header
+    private[this] val crc = if(coding == ContentCoding.Gzip) new CRC32 else null
+    private[this] val buffer = new Array[Byte](BufferSize)
+    private[this] var started = false
+    private[this] var ended = false
+    private[this] var read = 0L
+    private[this] var written = 0L
+    private[this] var spent = 0L
+
+    def bytesIn: Long = synchronized(read)
+
+    def bytesOut: Long = synchronized(written)
+
+    def nanos: Long = synchronized(spent)
+
+    private[this] def start(out: ByteArrayOutputStream): Unit =
+      if(!started) {
+        started = true
+        if(crc ne null) { out.write(GzipHeader, 0, GzipHeader.length) }
+      }
+
+    private[this] def deflate(out: ByteArrayOutputStream, flush: Int): Unit = {
+      var n = deflater.deflate(buffer, 0, buffer.length, flush)
+      while(n > 0) {
+        out.write(buffer, 0, n)
+        n = if(n < buffer.length && deflater.needsInput()) 0 else deflater.deflate(buffer, 0, buffer.length, flush)
+      }
+    }
+
+    private[this] def input(out: ByteArrayOutputStream, chunk: Buf): Unit = {
+      val bytes = Buf.ByteArray.Owned.extract(chunk)
+      if(crc ne null) { crc.update(bytes, 0, bytes.length) }
+      read += bytes.length
+      deflater.setInput(bytes)
+      deflate(out, Deflater.NO_FLUSH)
+    }
+
+    private[this] def trailer(out: ByteArrayOutputStream): Unit = {
+      deflater.finish()
+      while(!deflater.finished()) {
+        val n = deflater.deflate(buffer)
+        out.write(buffer, 0, n)
+      }
+      if(crc ne null) {
+        writeIntLE(out, crc.getValue)
+        writeIntLE(out, read)
+      }
+    }
+
+    private[this] def writeIntLE(out: ByteArrayOutputStream, value: Long): Unit = {
+      out.write((value & 0xff).toInt)
+      out.write(((value >> 8) & 0xff).toInt)
+      out.write(((value >> 16) & 0xff).toInt)
+      out.write(((value >> 24) & 0xff).toInt)
+    }
+
+    private[this] def measured(f: ByteArrayOutputStream ⇒ Unit): Buf = {
+      val begin = System.nanoTime()
+      val out = new ByteArrayOutputStream(BufferSize)
+      f(out)
+      written += out.size()
+      spent += System.nanoTime() - begin
+      Buf.ByteArray.Owned(out.toByteArray)
+    }
+
+    def update(chunk: Buf): Buf = synchronized {
+      measured { out ⇒
+        start(out)
+        input(out, chunk)
+        deflate(out, Deflater.SYNC_FLUSH)
+      }
+    }
+
+    def finish(): Buf = synchronized {
+      val rest = measured { out ⇒
+        start(out)
+        trailer(out)
+      }
+      end()
+      rest
+    }
+
+    def encodeAll(body: Buf): Buf = synchronized {
+      val all = measured { out ⇒
+        start(out)
+        input(out, body)
+        trailer(out)
+      }
+      end()
+      all
+    }
+
+    def end(): Unit = synchronized {
+      if(!ended) {
+        ended = true
+        deflater.end()
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service;
+
+/**
+ * Enumerates the routing decisions taken for a request path.
+ * Each value corresponds to one of the top-level handlers in {@link CdmiRestServiceHandlers}.
+ */
+public enum RouteKind {
+    Root,                 // "/"
+    RootNoSlash,          // ""
+    Capabilities,         // "/cdmi_capabilities/"
+    CapabilitiesNoSlash,  // "/cdmi_capabilities"
+    ObjectById,           // "/cdmi_objectid/..."
+    Domain,               // "/cdmi_domains/.../"
+    DomainNoSlash,        // "/cdmi_domains"
+    Container,            // "/.../"
+    ObjectOrQueue,        // "/..."
+    CatchAll,             // anything else
+}
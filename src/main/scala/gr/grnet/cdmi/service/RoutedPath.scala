@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.context.Contexts
+import com.twitter.finagle.httpx.Request
+
+/**
+ * The [[gr.grnet.cdmi.service.CdmiPath]] that the request being served was routed to, as set by `Filters.Routing`,
+ * so that a request is routed only once. Like [[gr.grnet.cdmi.service.RequestDeadline]], it travels along with
+ * the futures of the request. It is kept together with the request, so that any other request made while serving
+ * this one is not taken for it.
+ */
+object RoutedPath {
+  private[this] final class Routed(val request: Request, val path: CdmiPath)
+
+  private[this] val key = new Contexts.local.Key[Routed]
+
+  def let[R](request: Request, path: CdmiPath)(f: ⇒ R): R = Contexts.local.let(key, new Routed(request, path))(f)
+
+  /**
+   * The path that `request` was routed to, if it is the request being served.
+   */
+  def of(request: Request): Option[CdmiPath] =
+    Contexts.local.get(key) match {
+      case Some(routed) if routed.request eq request ⇒ Some(routed.path)
+      case _ ⇒ None
+    }
+}
@@ -42,4 +42,9 @@ public enum StdErrorRef implements IErrorRef {
     BR020,
     BR021,
     BR022,
+    BR023,
+    BR024,
+    BR025,
+    BR026,
+    BR027,
 }
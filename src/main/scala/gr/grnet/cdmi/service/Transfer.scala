@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.service
+
+import java.util.concurrent.atomic.AtomicLong
+
+import com.twitter.util.{Future, Promise, Return, Throw, Try}
+
+/**
+ * The progress of a copy or move, which its target reports in `completionStatus` and `percentComplete`
+ * while it runs.
+ *
+ * The entries of a container tree are counted as they are found, so `percentComplete` is an estimate
+ * that can go down while the tree is still being walked. It is never 100 before the transfer is done.
+ *
+ * @note Section 9.2.7 of CDMI 1.0.2: Response Message Body
+ */
+final class Transfer {
+  private[this] val found = new AtomicLong(1L)
+  private[this] val transferred = new AtomicLong()
+  private[this] val result = new Promise[Unit]
+
+  /**
+   * Counts `count` more entries to transfer, besides the source itself.
+   */
+  def discovered(count: Int): Unit = found.addAndGet(count)
+
+  /**
+   * Counts `count` more entries as transferred.
+   */
+  def transferred(count: Int): Unit = transferred.addAndGet(count)
+
+  /**
+   * Satisfied when the transfer is done. Interrupting it does not stop the transfer.
+   */
+  def done: Future[Unit] = result
+
+  def isDone: Boolean = result.isDefined
+
+  def complete(outcome: Try[Unit]): Unit = result.updateIfEmpty(outcome)
+
+  def completionStatus: String =
+    result.poll match {
+      case None ⇒ Transfer.Processing
+      case Some(Return(_)) ⇒ Transfer.Complete
+      case Some(Throw(_)) ⇒ Transfer.Error
+    }
+
+  def percentComplete: String =
+    if(isDone) "100"
+    else math.min(99L, 100L * transferred.get() / math.max(1L, found.get())).toString
+}
+
+object Transfer {
+  final val Processing = "Processing"
+  final val Complete = "Complete"
+  final val Error = "Error"
+}
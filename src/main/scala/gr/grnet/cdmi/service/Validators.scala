@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+/**
+ * The validators of the current representation of a data object, queue or container.
+ *
+ * @param etag         An entity tag, including the quotes and any `W/` prefix, e.g. `"v42"`.
+ * @param lastModified The modification time, in milliseconds since the epoch.
+ */
+final case class Validators(etag: Option[String], lastModified: Option[Long]) {
+  def isEmpty: Boolean = etag.isEmpty && lastModified.isEmpty
+
+  /**
+   * The validators of one `representation` of the resource, see `EntityTags.ofRepresentation`.
+   */
+  def ofRepresentation(representation: String, weak: Boolean): Validators =
+    if(etag.isEmpty) this
+    else copy(etag = etag.map(EntityTags.ofRepresentation(_, representation, weak)))
+}
+
+object Validators {
+  final val Empty = Validators(None, None)
+
+  final val CdmiRepresentation = "cdmi"
+  final val RawRepresentation = "raw"
+
+  def ofETag(etag: String): Validators = Validators(Some(etag), None)
+
+  def ofLastModified(millis: Long): Validators = Validators(None, Some(millis))
+}
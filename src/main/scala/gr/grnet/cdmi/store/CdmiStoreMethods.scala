@@ -0,0 +1,842 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicReference
+
+import com.fasterxml.jackson.core.{JsonLocation, JsonParseException, JsonProcessingException}
+import com.twitter.finagle.httpx.Status
+import com.twitter.io.{Buf, Reader}
+import com.twitter.finagle.util.DefaultTimer
+import com.twitter.util.{Future, TimeoutException}
+import gr.grnet.cdmi.json.{BodyTooLargeException, CdmiRequestBody, CdmiRequestJson}
+import gr.grnet.cdmi.metadata.{NotificationQueuesMetadata, NotificationStatusMetadata, QueryQueueMetadata, QueryStatusMetadata, StorageSystemMetadata}
+import gr.grnet.cdmi.model.{ContainerModel, ObjectModel, QueueModel}
+import gr.grnet.cdmi.notification.{NotificationHub, Subscription}
+import gr.grnet.cdmi.objectid.ObjectIDIndex
+import gr.grnet.cdmi.query.{MetadataIndex, QueryEngine, QueryScope, ResultsSpecification}
+import gr.grnet.cdmi.queue.CdmiQueue
+import gr.grnet.cdmi.service._
+
+/**
+ * Implements data objects, containers, queues and access by objectID on top of a [[gr.grnet.cdmi.store.Store]].
+ *
+ * This is the reference backend: it is what the server runs when there is no external storage service,
+ * and the baseline against which performance changes are measured.
+ */
+trait CdmiStoreMethods extends CdmiRestServiceMethods
+  with CdmiObjectValueMethods
+  with CdmiContainerListingMethods
+  with CdmiValidatorMethods
+  with CdmiObjectIDIndexing
+  with CdmiSerializationMethods
+  with CdmiCopyMoveMethods
+  with CdmiQueueMethods
+  with CdmiQueryMethods
+  with CdmiNotificationMethods
+  with CdmiQosMethods
+  with CdmiObjectStreamMethods { self: CdmiRestService with CdmiRestServiceTypes with CdmiRestServiceResponse ⇒
+
+  def store: Store
+
+  def objectIDIndex: ObjectIDIndex = store.objectIDIndex
+
+  def domainURI: String = "/cdmi_domains/"
+
+  /**
+   * The domains given by the `qosDomains` flag. Each one holds the top-level container named after it.
+   */
+  lazy val qosDomainSpecs: Map[String, QosSpec] = QosSpec.parseDomains(qosDomains(), domainURI)
+
+  /**
+   * The domain of what is at `path`: the one named after its top-level container, if any, or the root domain.
+   */
+  def domainURIOf(path: List[String]): String =
+    if(path.isEmpty || qosDomainSpecs.isEmpty) domainURI
+    else {
+      val uri = s"$domainURI${path.head}/"
+      if(qosDomainSpecs.contains(uri)) uri else domainURI
+    }
+
+  def domainOf(request: Request, cdmiPath: CdmiPath): String =
+    cdmiPath.kind match {
+      case RouteKind.Container | RouteKind.ObjectOrQueue | RouteKind.Domain if cdmiPath.nonEmpty ⇒
+        domainURIOf(cdmiPath(0) :: Nil)
+      case _ ⇒
+        domainURI
+    }
+
+  def qosOf(domainURI: String): QosSpec = qosDomainSpecs.getOrElse(domainURI, QosSpec.BestEffort)
+
+  def parentURIOf(path: List[String]): String =
+    if(path.isEmpty) "" else path.init.map(_ + "/").mkString("/", "", "")
+
+  def objectModelOf(entry: StoredObject): ObjectModel = {
+    val domain = domainURIOf(entry.path)
+    ObjectModel(
+      objectID = entry.objectID,
+      objectName = entry.path.last,
+      parentURI = parentURIOf(entry.path),
+      parentID = entry.parentID,
+      domainURI = domain,
+      mimetype = entry.mimetype,
+      metadata = entry.metadata ++ qosProvided(domain) + (StorageSystemMetadata.cdmi_size.name() → entry.value.size.toString),
+      valuetransferencoding = "",
+      valuerange = "",
+      value = ""
+    )
+  }
+
+  def queueModelOf(queue: CdmiQueue): QueueModel = {
+    val size = queue.size
+    val domain = domainURIOf(queue.path)
+    QueueModel(
+      objectID = queue.objectID,
+      objectName = queue.path.last,
+      parentURI = parentURIOf(queue.path),
+      parentID = queue.parentID,
+      domainURI = domain,
+      metadata = queue.metadata ++ qosProvided(domain),
+      queueValues = if(size == 0) "" else s"0-${size - 1}"
+    )
+  }
+
+  /**
+   * The model of `entry`, which reports the progress of any copy or move into it.
+   */
+  def containerModelOf(entry: StoredContainer): ContainerModel = {
+    val domain = domainURIOf(entry.path)
+    val model = ContainerModel(
+      objectID = entry.objectID,
+      objectName = if(entry.path.isEmpty) "/" else entry.path.last + "/",
+      parentURI = parentURIOf(entry.path),
+      parentID = entry.parentID,
+      domainURI = domain,
+      metadata = entry.metadata ++ qosProvided(domain),
+      childrenrange = "",
+      children = Nil
+    )
+
+    transferInto(Store.indexPathOf(entry)) match {
+      case None ⇒ model
+      case Some(transfer) ⇒
+        val status = transfer.completionStatus
+        model.copy(
+          completionStatus = status,
+          percentComplete = if(status == Transfer.Processing) transfer.percentComplete else ""
+        )
+    }
+  }
+
+  /**
+   * Turns the failures that are the client's fault into the respective responses.
+   */
+  def storeFailures(request: Request): PartialFunction[Throwable, Future[Response]] = {
+    case e: StoreException ⇒
+      e.error match {
+        case StoreError.NoSuchParent ⇒ notFound(request, e.getMessage)
+        case StoreError.NameConflict ⇒ conflict(request, e.getMessage)
+        case StoreError.InvalidName  ⇒ badRequest(request, StdErrorRef.BR024, e.getMessage)
+        case StoreError.NotAllowed   ⇒ notAllowed(request, e.getMessage)
+        case StoreError.NoSuchSource ⇒ badRequest(request, StdErrorRef.BR027, e.getMessage)
+      }
+
+    case e: JsonProcessingException ⇒
+      badRequest(request, StdErrorRef.BR025, s"Invalid request body: ${e.getOriginalMessage}")
+
+    case _: BodyTooLargeException ⇒
+      requestEntityTooLarge(request, s"Request body exceeds ${maxRequestSize()} MB")
+  }
+
+  def parseRequestBody(request: Request): Future[CdmiRequestBody] = Future { CdmiRequestJson.parse(request.content) }
+
+  /**
+   * Fails if there is a queue at `path`, since queues share the namespace of data objects and containers.
+   */
+  def checkNotQueue(path: List[String]): Future[Unit] =
+    if(store.queues.contains(path)) {
+      Future.exception(new StoreException(StoreError.NameConflict, s"/${Store.keyOf(path)} is a queue"))
+    }
+    else Future.Done
+
+  /////////////////////////////////////////////////////////////
+  //+ Data objects ////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  def mimetypeOf(body: CdmiRequestBody, previous: Option[StoredObject]): String =
+    body.mimetype.orElse(previous.map(_.mimetype)).getOrElse(Store.DefaultMimetype)
+
+  def metadataOf(body: CdmiRequestBody, previous: Option[StoredObject]): Map[String, String] =
+    body.metadata.orElse(previous.map(_.metadata)).getOrElse(Map())
+
+  /**
+   * Creates or updates a data object from a CDMI body, which may also ask for the data object
+   * to be serialized from, deserialized into, copied or moved. A body that is still arriving is
+   * parsed as it arrives, see `putObjectStreamed`.
+   */
+  def putObjectCdmi(request: Request, objectPath: List[String]): Future[Response] =
+    if(request.isChunked) putObjectStreamed(request, objectPath)
+    else parseRequestBody(request) flatMap { body ⇒ putObjectBody(request, objectPath, body) } rescue storeFailures(request)
+
+  def putObjectBody(request: Request, objectPath: List[String], body: CdmiRequestBody): Future[Response] =
+    if(body.serialize.isDefined) putSerialized(request, objectPath, body)
+    else if(isDeserializing(body)) putDeserialized(request, objectPath, isContainer = false, body)
+    else if(isCopyingOrMoving(body)) putCopiedOrMoved(request, objectPath, isContainer = false, body)
+    else putObjectFields(request, objectPath, body)
+
+  /**
+   * As `putObjectCdmi`, for a body that is parsed while it arrives. A base64 value is staged in the store as it is
+   * decoded, and published with the `mimetype` and `metadata` of the whole body once that has been parsed, so that
+   * a body that turns out to be malformed after its value leaves the data object as it was.
+   */
+  def putObjectStreamed(request: Request, objectPath: List[String]): Future[Response] = {
+    val staging = new AtomicReference[Future[StagedObject]]()
+
+    (for {
+      _ ← checkNotQueue(objectPath)
+      previous ← store.getObject(objectPath)
+      (body, streamed) ← parseObjectBody(request) { (_, value) ⇒
+        val staged = store.stageObject(objectPath, value, streamChunkBytes)
+        staging.set(staged)
+        staged
+      } onFailure { _ ⇒
+        for(staged ← Option(staging.get)) staged onSuccess { _.discard() }
+      }
+      response ← streamed match {
+        case None ⇒
+          putObjectBody(request, objectPath, body)
+
+        case Some(staged) ⇒
+          for {
+            value ← staged
+            entry ← value.publish(mimetypeOf(body, previous), metadataOf(body, previous))
+            response ← if(previous.isEmpty) createdAppCdmiObject(request, objectModelOf(entry)) else noContent(request)
+          } yield response
+      }
+    } yield response) rescue storeFailures(request)
+  }
+
+  /**
+   * Creates or updates a data object from the fields of a CDMI body. Fields missing from an update are kept,
+   * including the value.
+   */
+  def putObjectFields(request: Request, objectPath: List[String], body: CdmiRequestBody): Future[Response] =
+    (for {
+      _ ← checkNotQueue(objectPath)
+      previous ← store.getObject(objectPath)
+      value = (body.value, previous) match {
+        case (None, Some(entry)) ⇒ entry.value.readAll(streamChunkBytes)
+        case _ ⇒ Reader.fromBuf(body.valueBuf)
+      }
+      entry ← store.putObject(objectPath, mimetypeOf(body, previous), metadataOf(body, previous), value, streamChunkBytes)
+      response ← if(previous.isEmpty) createdAppCdmiObject(request, objectModelOf(entry)) else noContent(request)
+    } yield response) rescue storeFailures(request)
+
+  override def PUT_object_cdmi_create_or_update(request: Request, objectPath: List[String]): Future[Response] =
+    putObjectCdmi(request, objectPath)
+
+  override def PUT_object_cdmi_create(request: Request, objectPath: List[String]): Future[Response] =
+    putObjectCdmi(request, objectPath)
+
+  override def PUT_object_noncdmi(request: Request, objectPath: List[String], contentType: String): Future[Response] =
+    PUT_object_noncdmi_stream(request, objectPath, contentType, Reader.fromBuf(request.content))
+
+  override def PUT_object_noncdmi_stream(
+    request: Request,
+    objectPath: List[String],
+    contentType: String,
+    body: Reader
+  ): Future[Response] =
+    (for {
+      _ ← checkNotQueue(objectPath)
+      previous ← store.getObject(objectPath)
+      metadata = previous.map(_.metadata).getOrElse(Map())
+      _ ← store.putObject(objectPath, contentType, metadata, body, streamChunkBytes)
+      response ← if(previous.isEmpty) emptyResponse(request, Status.Created) else noContent(request)
+    } yield response) rescue storeFailures(request)
+
+  override def GET_object_cdmi(request: Request, objectPath: List[String]): Future[Response] =
+    store.getObject(objectPath) flatMap {
+      case Some(entry) ⇒ okAppCdmiObject(request, objectModelOf(entry), entry.value)
+      case None ⇒ notFound(request)
+    }
+
+  def GET_object_value(request: Request, objectPath: List[String]): Future[Option[ObjectValue]] =
+    store.getObject(objectPath) map { _.map(_.value) }
+
+  def deleteObject(request: Request, objectPath: List[String]): Future[Response] =
+    store.deleteObject(objectPath) flatMap { deleted ⇒
+      forgetTransfer(Store.indexPathOf(objectPath, isContainer = false))
+      if(deleted) noContent(request) else notFound(request)
+    } rescue storeFailures(request)
+
+  override def DELETE_object_cdmi(request: Request, objectPath: List[String]): Future[Response] =
+    deleteObject(request, objectPath)
+
+  override def DELETE_object_noncdmi(request: Request, objectPath: List[String]): Future[Response] =
+    deleteObject(request, objectPath)
+
+  /**
+   * Deletes the oldest values of the queue at `path` if there is a `?value:<count>` query, the queue itself
+   * if there is not, or else the data object at `path`.
+   */
+  def DELETE_object_or_queue_or_queuevalue_cdmi(request: Request, path: List[String]): Future[Response] =
+    store.queues.get(path) match {
+      case Some(queue) ⇒
+        if(CdmiQuery.ofUri(request.uri).contains("value")) DELETE_queue_values_cdmi(request, path)
+        else DELETE_queue(request, path)
+
+      case None ⇒
+        deleteObject(request, path)
+    }
+
+  def GET_object_validators(request: Request, objectPath: List[String]): Future[Option[Validators]] =
+    store.getObject(objectPath) map { _.map(_.validators) }
+  /////////////////////////////////////////////////////////////
+  //- Data objects ////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Containers //////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  /**
+   * Creates a container or updates its metadata, or deserializes, copies or moves a container tree into it.
+   */
+  def putContainer(request: Request, containerPath: List[String], body: Future[CdmiRequestBody]): Future[Response] =
+    body flatMap { body ⇒
+      if(isDeserializing(body)) putDeserialized(request, containerPath, isContainer = true, body)
+      else if(isCopyingOrMoving(body)) putCopiedOrMoved(request, containerPath, isContainer = true, body)
+      else putContainerMetadata(request, containerPath, body)
+    } rescue storeFailures(request)
+
+  /**
+   * Creates a container or updates its metadata. Metadata missing from an update are kept.
+   */
+  def putContainerMetadata(request: Request, containerPath: List[String], body: CdmiRequestBody): Future[Response] =
+    (for {
+      _ ← checkNotQueue(containerPath)
+      previous ← store.getContainer(containerPath)
+      metadata = body.metadata.orElse(previous.map(_.metadata)).getOrElse(Map())
+      (entry, created) ← store.putContainer(containerPath, metadata)
+      response ← if(created) createdAppCdmiContainer(request, containerModelOf(entry)) else noContent(request)
+    } yield response) rescue storeFailures(request)
+
+  override def PUT_container_cdmi_create(request: Request, containerPath: List[String]): Future[Response] =
+    putContainer(request, containerPath, parseRequestBody(request))
+
+  override def PUT_container_cdmi_create_or_update(request: Request, containerPath: List[String]): Future[Response] =
+    putContainer(request, containerPath, parseRequestBody(request))
+
+  override def PUT_container_noncdmi(request: Request, containerPath: List[String], contentType: String): Future[Response] =
+    putContainer(request, containerPath, Future.value(CdmiRequestBody()))
+
+  def GET_container_model(request: Request, containerPath: List[String]): Future[Option[ContainerModel]] =
+    store.getContainer(containerPath) map { _.map(containerModelOf) }
+
+  def GET_container_children(request: Request, containerPath: List[String], offset: Long): Future[ChildrenCursor] =
+    store.children(containerPath, offset)
+
+  def deleteContainer(request: Request, containerPath: List[String]): Future[Response] =
+    store.deleteContainer(containerPath) flatMap { deleted ⇒
+      forgetTransfer(Store.indexPathOf(containerPath, isContainer = true))
+      if(deleted) {
+        store.queues.deleteUnder(containerPath)
+        noContent(request)
+      }
+      else notFound(request)
+    } rescue storeFailures(request)
+
+  override def DELETE_container_cdmi(request: Request, containerPath: List[String]): Future[Response] =
+    deleteContainer(request, containerPath)
+
+  override def DELETE_container_noncdmi(request: Request, containerPath: List[String]): Future[Response] =
+    deleteContainer(request, containerPath)
+
+  def GET_container_validators(request: Request, containerPath: List[String]): Future[Option[Validators]] =
+    store.getContainer(containerPath) map { _.map(_.validators) }
+  /////////////////////////////////////////////////////////////
+  //- Containers //////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Serialization ///////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  /**
+   * Resolves a path or a `/cdmi_objectid/` URI, as given in `serialize` and `deserialize`.
+   * Paths that end with a `/` are containers.
+   */
+  def entryOfUri(uri: String): Future[Option[StoredEntry]] = {
+    val path = uri.split('/').toList.filter(_.nonEmpty)
+    path match {
+      case ("cdmi_objectid" | "cdmi_objectId" | "cdmi_objectID") :: objectIdPath ⇒ entryById(objectIdPath)
+      case _ if uri.endsWith("/") ⇒ store.getContainer(path)
+      case _ ⇒ store.getObject(path)
+    }
+  }
+
+  def serialize(request: Request, sourceUri: String): Future[Option[(String, Reader)]] =
+    entryOfUri(sourceUri) map {
+      _ map { entry ⇒
+        val reader = TreeSerializer.reader(store, entry, serializationParallelism, listingPageChildren, streamChunkBytes)
+        (TreeSerializer.objectTypeOf(entry), reader)
+      }
+    }
+
+  def deserialize(request: Request, targetPath: List[String], isContainer: Boolean, serialized: Reader): Future[Boolean] =
+    for {
+      _ ← checkNotQueue(targetPath)
+      previous ← if(isContainer) store.getContainer(targetPath) else store.getObject(targetPath)
+      _ ← TreeDeserializer.read(
+        store, targetPath, isContainer, serialized, deserializationBatchSize, streamChunkBytes, deserializationPool
+      )
+    } yield previous.isEmpty
+
+  def isDeserializing(body: CdmiRequestBody): Boolean = body.deserialize.isDefined || body.deserializevalue.isDefined
+
+  /**
+   * The serialized form given by `deserializevalue`, or else by the value of the data object named by `deserialize`.
+   */
+  def serializedOf(body: CdmiRequestBody): Future[Reader] =
+    body.deserializevalue match {
+      case Some(serialized) ⇒
+        Future.value(Reader.fromBuf(Buf.Utf8(serialized)))
+
+      case None ⇒
+        val uri = body.deserialize.getOrElse("")
+        entryOfUri(uri) flatMap {
+          case Some(obj: StoredObject) ⇒ Future.value(obj.value.readAll(streamChunkBytes))
+          case _ ⇒ Future.exception(new StoreException(StoreError.NoSuchSource, s"No data object '$uri' to deserialize"))
+        }
+    }
+
+  /**
+   * Creates or replaces the data object at `objectPath` with the serialized form of what `serialize` names.
+   *
+   * @note Section 15 of CDMI 1.0.2: Serialization/Deserialization
+   */
+  def putSerialized(request: Request, objectPath: List[String], body: CdmiRequestBody): Future[Response] = {
+    val uri = body.serialize.getOrElse("")
+    (for {
+      _ ← checkNotQueue(objectPath)
+      previous ← store.getObject(objectPath)
+      source ← serialize(request, uri)
+      (objectType, serialized) ← source match {
+        case Some(s) ⇒ Future.value(s)
+        case None ⇒ Future.exception(new StoreException(StoreError.NoSuchSource, s"No data object or container '$uri' to serialize"))
+      }
+      mimetype = body.mimetype.getOrElse(objectType)
+      metadata = body.metadata.orElse(previous.map(_.metadata)).getOrElse(Map())
+      entry ← store.putObject(objectPath, mimetype, metadata, serialized, streamChunkBytes) onFailure { _ ⇒ serialized.discard() }
+      response ← if(previous.isEmpty) createdAppCdmiObject(request, objectModelOf(entry)) else noContent(request)
+    } yield response) rescue storeFailures(request)
+  }
+
+  /**
+   * Recreates the data object, or the container tree if `isContainer`, at `path` from the serialized form
+   * that `deserialize` or `deserializevalue` give.
+   *
+   * @note Section 15 of CDMI 1.0.2: Serialization/Deserialization
+   */
+  def putDeserialized(request: Request, path: List[String], isContainer: Boolean, body: CdmiRequestBody): Future[Response] =
+    (for {
+      serialized ← serializedOf(body)
+      created ← deserialize(request, path, isContainer, serialized) onFailure { _ ⇒ serialized.discard() }
+      entry ← if(isContainer) store.getContainer(path) else store.getObject(path)
+      response ← entry match {
+        case Some(container: StoredContainer) if created ⇒ createdAppCdmiContainer(request, containerModelOf(container))
+        case Some(obj: StoredObject) if created ⇒ createdAppCdmiObject(request, objectModelOf(obj))
+        case _ ⇒ noContent(request)
+      }
+    } yield response) rescue storeFailures(request)
+  /////////////////////////////////////////////////////////////
+  //- Serialization ///////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Copy and move ///////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  def isCopyingOrMoving(body: CdmiRequestBody): Boolean =
+    body.copyFrom.isDefined || body.moveFrom.isDefined || body.referenceTo.isDefined
+
+  /**
+   * The data object, or container if `isContainer`, at `uri`.
+   */
+  def sourceOf(uri: String, isContainer: Boolean): Future[Option[StoredEntry]] =
+    entryOfUri(uri) map { _.filter(_.isContainer == isContainer) }
+
+  private[this] def startTransfer(targetPath: List[String], isContainer: Boolean)(run: Transfer ⇒ Future[Unit]): Transfer =
+    track(Store.indexPathOf(targetPath, isContainer))(run) getOrElse {
+      throw new StoreException(StoreError.NameConflict, s"/${Store.keyOf(targetPath)} is being copied or moved into")
+    }
+
+  def copy(
+    request: Request,
+    sourceUri: String,
+    targetPath: List[String],
+    isContainer: Boolean,
+    mimetype: Option[String],
+    metadata: Option[Map[String, String]]
+  ): Future[Option[Transfer]] =
+    sourceOf(sourceUri, isContainer) map {
+      _ map { source ⇒
+        startTransfer(targetPath, isContainer) { transfer ⇒
+          TreeCopier.copy(
+            store, source, targetPath, mimetype, metadata,
+            copyMoveParallelism, listingPageChildren, streamChunkBytes, transfer
+          )
+        }
+      }
+    }
+
+  def move(request: Request, sourceUri: String, targetPath: List[String], isContainer: Boolean): Future[Option[Transfer]] =
+    sourceOf(sourceUri, isContainer) map {
+      _ map {
+        case source if source.isContainer && store.queues.hasUnder(source.path) ⇒
+          throw new StoreException(StoreError.NameConflict, s"/${Store.keyOf(source.path)}/ holds queues, which are not moved")
+
+        case source ⇒
+          startTransfer(targetPath, isContainer) { transfer ⇒
+            TreeCopier.move(store, source, targetPath, copyMoveParallelism, listingPageChildren, streamChunkBytes, transfer)
+          }
+      }
+    }
+
+  /**
+   * Creates or replaces the data object, or the container tree if `isContainer`, at `path` with a copy of what `copy`
+   * names, or moves what `move` names there. A copy or move of a container tree that takes longer than `copyMoveWait`
+   * is answered with `202 Accepted` and goes on in the background. References are not supported.
+   *
+   * @note Section 8.2 of CDMI 1.0.2: Create a Data Object using CDMI Content Type
+   * @note Section 9.2 of CDMI 1.0.2: Create a Container using CDMI Content Type
+   */
+  def putCopiedOrMoved(request: Request, path: List[String], isContainer: Boolean, body: CdmiRequestBody): Future[Response] =
+    if(body.referenceTo.isDefined && body.copyFrom.isEmpty && body.moveFrom.isEmpty) {
+      notImplemented(request, "References are not supported")
+    }
+    else {
+      val (uri, isMove) =
+        body.moveFrom match {
+          case Some(source) ⇒ (source, true)
+          case None ⇒ (body.copyFrom.getOrElse(""), false)
+        }
+      val what = if(isContainer) "container" else "data object"
+
+      (for {
+        _ ← checkNotQueue(path)
+        previous ← if(isContainer) store.getContainer(path) else store.getObject(path)
+        started ←
+          if(isMove) move(request, uri, path, isContainer)
+          else copy(request, uri, path, isContainer, body.mimetype, body.metadata)
+        transfer ← started match {
+          case Some(t) ⇒ Future.value(t)
+          case None ⇒ Future.exception(new StoreException(StoreError.NoSuchSource, s"No $what '$uri' to ${if(isMove) "move" else "copy"}"))
+        }
+        isDone ←
+          if(isContainer) {
+            transfer.done.within(DefaultTimer.twitter, copyMoveWait) map { _ ⇒ true } rescue {
+              case _: TimeoutException ⇒ Future.False
+            }
+          }
+          else transfer.done map { _ ⇒ true }
+        entry ← if(isContainer) store.getContainer(path) else store.getObject(path)
+        response ← entry match {
+          case Some(container: StoredContainer) if !isDone ⇒ acceptedAppCdmiContainer(request, containerModelOf(container))
+          case Some(container: StoredContainer) if previous.isEmpty ⇒ createdAppCdmiContainer(request, containerModelOf(container))
+          case Some(obj: StoredObject) if previous.isEmpty ⇒ createdAppCdmiObject(request, objectModelOf(obj))
+          case _ ⇒ noContent(request)
+        }
+      } yield response) rescue storeFailures(request)
+    }
+  /////////////////////////////////////////////////////////////
+  //- Copy and move ///////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Queues //////////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  /**
+   * Creates a queue or updates its metadata. Metadata missing from an update are kept.
+   */
+  def putQueue(request: Request, queuePath: List[String]): Future[Response] =
+    (for {
+      body ← parseRequestBody(request)
+      response ← store.queues.get(queuePath) match {
+        case Some(queue) ⇒
+          body.metadata match {
+            case Some(metadata) ⇒ updateQueue(request, queue, metadata)
+            case None ⇒ noContent(request)
+          }
+
+        case None ⇒
+          createQueue(request, queuePath, body.metadata.getOrElse(Map()))
+      }
+    } yield response) rescue storeFailures(request)
+
+  def updateQueue(request: Request, queue: CdmiQueue, metadata: Map[String, String]): Future[Response] =
+    Future { (queryOf(metadata), subscriptionOf(metadata)) } flatMap { case (query, subscription) ⇒
+      val previous = queue.metadata
+      val rerun = query.isDefined && QueryQueueKeys.exists(key ⇒ previous.get(key) != metadata.get(key))
+      val queryStatus =
+        if(query.isEmpty) None
+        else if(rerun) Some(QueryStatusKey → CdmiQueryMethods.Processing)
+        else previous.get(QueryStatusKey).map(QueryStatusKey → _)
+      val notificationStatus = subscription.map(_ ⇒ NotificationStatusKey → CdmiNotificationMethods.Active)
+
+      if(isNotificationQueue(previous) && subscription.isEmpty) notificationHub.unsubscribe(queue.objectID)
+      store.queues.updateMetadata(queue.path, metadata ++ queryStatus ++ notificationStatus)
+      for((scope, results) ← query if rerun) startQuery(queue, scope, results)
+      for(subscribe ← subscription) notificationHub.subscribe(subscribe(queue))
+      noContent(request)
+    }
+
+  def createQueue(request: Request, queuePath: List[String], metadata: Map[String, String]): Future[Response] =
+    for {
+      _ ← Future { Store.checkPath(queuePath) }
+      query ← Future { queryOf(metadata) }
+      subscription ← Future { subscriptionOf(metadata) }
+      existing ← store.getObject(queuePath) flatMap {
+        case None ⇒ store.getContainer(queuePath)
+        case some ⇒ Future.value(some)
+      }
+      parent ← store.getContainer(queuePath.init)
+      response ← (existing, parent) match {
+        case (Some(_), _) ⇒
+          conflict(request, s"/${Store.keyOf(queuePath)} is not a queue")
+
+        case (None, None) ⇒
+          notFound(request, s"There is no container /${Store.keyOf(queuePath.init)}")
+
+        case (None, Some(container)) ⇒
+          val queryStatus = query.map(_ ⇒ QueryStatusKey → CdmiQueryMethods.Processing)
+          val notificationStatus = subscription.map(_ ⇒ NotificationStatusKey → CdmiNotificationMethods.Active)
+          store.queues.create(queuePath, container.objectID, metadata ++ queryStatus ++ notificationStatus) match {
+            case Some(queue) ⇒
+              for((scope, results) ← query) startQuery(queue, scope, results)
+              for(subscribe ← subscription) notificationHub.subscribe(subscribe(queue))
+              createdAppCdmiQueue(request, queueModelOf(queue))
+            case None ⇒ noContent(request) // created concurrently
+          }
+      }
+    } yield response
+
+  override def PUT_queue_cdmi_create(request: Request, queuePath: List[String]): Future[Response] =
+    putQueue(request, queuePath)
+
+  override def PUT_queue_cdmi_update(request: Request, queuePath: List[String]): Future[Response] =
+    putQueue(request, queuePath)
+
+  def GET_queue(request: Request, queuePath: List[String]): Future[Option[(QueueModel, CdmiQueue)]] =
+    Future.value(store.queues.get(queuePath).map(queue ⇒ (queueModelOf(queue), queue)))
+
+  override def DELETE_queue(request: Request, queuePath: List[String]): Future[Response] =
+    store.queues.get(queuePath) match {
+      case Some(queue) if store.queues.delete(queuePath) ⇒
+        forgetQuery(queue.objectID)
+        if(isNotificationQueue(queue.metadata)) notificationHub.unsubscribe(queue.objectID)
+        noContent(request)
+      case _ ⇒
+        notFound(request)
+    }
+  /////////////////////////////////////////////////////////////
+  //- Queues //////////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Queries /////////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  lazy val metadataIndex: MetadataIndex = new MetadataIndex
+
+  /**
+   * Satisfied once the entries that were in the store at startup are indexed. Queries wait for it, so that they
+   * do not miss them.
+   */
+  lazy val metadataIndexed: Future[Unit] =
+    MetadataIndexer.attach(store, metadataIndex, serializationParallelism, listingPageChildren)
+
+  lazy val queryEngine: QueryEngine =
+    new QueryEngine(metadataIndex, objectIDIndex, domainURI, queryPool, queryBatchValues)
+
+  val QueryStatusKey = QueryStatusMetadata.cdmi_query_status.name()
+
+  /**
+   * The metadata whose change makes a query queue run its query again.
+   */
+  val QueryQueueKeys = Seq(
+    QueryQueueMetadata.cdmi_queue_type.name(),
+    QueryQueueMetadata.cdmi_scope_specification.name(),
+    QueryQueueMetadata.cdmi_results_specification.name()
+  )
+
+  /**
+   * The query of a queue with `metadata`, or `None` if it is not a query queue.
+   * Fails with a `JsonParseException` if the scope or results specification is malformed.
+   */
+  def queryOf(metadata: Map[String, String]): Option[(QueryScope, ResultsSpecification)] =
+    if(!metadata.get(QueryQueueMetadata.cdmi_queue_type.name()).contains(CdmiQueryMethods.QueryQueueType)) None
+    else {
+      val scope = metadata.get(QueryQueueMetadata.cdmi_scope_specification.name()) match {
+        case Some(json) ⇒ QueryScope.parse(json)
+        case None ⇒ throw new JsonParseException("A query queue needs a cdmi_scope_specification", JsonLocation.NA)
+      }
+      val results = metadata.get(QueryQueueMetadata.cdmi_results_specification.name()) match {
+        case Some(json) ⇒ ResultsSpecification.parse(json)
+        case None ⇒ ResultsSpecification.Default
+      }
+      Some((scope, results))
+    }
+
+  /**
+   * Enqueues the matches of `scope` into `queue` in the background and sets its `cdmi_query_status` to `Complete`,
+   * or `Error`, once done. The query runs over the index of all entries, once it is built.
+   */
+  def startQuery(queue: CdmiQueue, scope: QueryScope, results: ResultsSpecification): Unit =
+    trackQuery(queue.objectID) { isCurrent ⇒
+      metadataIndexed flatMap { _ ⇒
+        queryEngine.run(scope, results) { values ⇒
+          if(!isCurrent()) throw new CancellationException(s"Query of ${queue.objectID} superseded")
+          queue.enqueue(values)
+        }
+      } map { _ ⇒ () }
+    } { outcome ⇒
+      val status = if(outcome.isReturn) CdmiQueryMethods.Complete else CdmiQueryMethods.Error
+      for(current ← store.queues.get(queue.path) if current eq queue)
+        store.queues.modifyMetadata(queue.path)(_ + (QueryStatusKey → status))
+    }
+  /////////////////////////////////////////////////////////////
+  //- Queries /////////////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Notifications ///////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  lazy val notificationHub: NotificationHub =
+    StoreNotifications.attach(
+      store,
+      new NotificationHub(notificationRingCapacity, notificationBatchValues, domainURI, subscription ⇒
+        store.queues.modifyMetadata(subscription.queue.path) {
+          _ + (NotificationStatusKey → CdmiNotificationMethods.Overflowed)
+        }
+      )
+    )
+
+  val NotificationStatusKey = NotificationStatusMetadata.cdmi_notification_status.name()
+
+  def isNotificationQueue(metadata: Map[String, String]): Boolean =
+    metadata.get(NotificationQueuesMetadata.cdmi_queue_type.name()).contains(CdmiNotificationMethods.NotificationQueueType)
+
+  /**
+   * What makes the subscription of a queue with `metadata`, or `None` if it is not a notification queue.
+   * Fails with a `JsonParseException` if its events, scope or results specification is malformed.
+   */
+  def subscriptionOf(metadata: Map[String, String]): Option[CdmiQueue ⇒ Subscription] =
+    if(!isNotificationQueue(metadata)) None
+    else {
+      val events = metadata.get(NotificationQueuesMetadata.cdmi_notification_events.name()) match {
+        case Some(json) ⇒ Subscription.eventsOf(json)
+        case None ⇒ Subscription.AllEvents
+      }
+      val scope = metadata.get(NotificationQueuesMetadata.cdmi_scope_specification.name()) match {
+        case Some(json) ⇒ QueryScope.parse(json)
+        case None ⇒ QueryScope.All
+      }
+      val results = metadata.get(NotificationQueuesMetadata.cdmi_results_specification.name()) match {
+        case Some(json) ⇒ ResultsSpecification.parse(json)
+        case None ⇒ ResultsSpecification.Default
+      }
+      val limit = notificationQueueValues
+      Some(queue ⇒ new Subscription(queue, events, scope, results, limit))
+    }
+
+  /**
+   * Subscribes the notification queues that were there at startup.
+   */
+  def resumeNotifications(): Unit =
+    store.queues foreach { queue ⇒
+      try for(subscribe ← subscriptionOf(queue.metadata)) notificationHub.subscribe(subscribe(queue))
+      catch { case e: JsonProcessingException ⇒ log.warning(s"Not resuming notifications of /${queue.path.mkString("/")}: ${e.getOriginalMessage}") }
+    }
+  /////////////////////////////////////////////////////////////
+  //- Notifications ///////////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+
+
+  /////////////////////////////////////////////////////////////
+  //+ Access by objectID //////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+  /**
+   * Resolves `/cdmi_objectid/<objectID>/<rest>` to an entry. A non-empty `rest` is a path
+   * relative to the container with the given objectID.
+   */
+  def entryById(objectIdPath: List[String]): Future[Option[StoredEntry]] =
+    objectIdPath match {
+      case Nil ⇒
+        Future.None
+
+      case objectID :: Nil ⇒
+        store.getById(objectID)
+
+      case objectID :: rest ⇒
+        store.getById(objectID) flatMap {
+          case Some(container: StoredContainer) ⇒
+            val path = container.path ++ rest
+            store.getObject(path) flatMap {
+              case None ⇒ store.getContainer(path)
+              case some ⇒ Future.value(some)
+            }
+
+          case _ ⇒
+            Future.None
+        }
+    }
+
+  private[this] def isCdmiRequest(request: Request) =
+    request.headerMap.contains(HeaderNames.X_CDMI_Specification_Version)
+
+  override def GET_objectById(request: Request, objectIdPath: List[String]): Future[Response] =
+    entryById(objectIdPath) flatMap {
+      case Some(container: StoredContainer) ⇒ GET_container_cdmi(request, container.path)
+      case Some(obj: StoredObject) if isCdmiRequest(request) ⇒ GET_object_cdmi(request, obj.path)
+      case Some(obj: StoredObject) ⇒ GET_object_noncdmi(request, obj.path)
+      case None ⇒ notFound(request)
+    }
+
+  override def PUT_objectById(request: Request, objectIdPath: List[String]): Future[Response] =
+    entryById(objectIdPath) flatMap {
+      case Some(container: StoredContainer) ⇒
+        PUT_container_cdmi_create_or_update(request, container.path)
+
+      case Some(obj: StoredObject) if isCdmiRequest(request) ⇒
+        PUT_object_cdmi_create_or_update(request, obj.path)
+
+      case Some(obj: StoredObject) ⇒
+        val contentType = request.headerMap.getOrElse(HeaderNames.Content_Type, obj.mimetype)
+        PUT_object_noncdmi(request, obj.path, contentType)
+
+      case None ⇒
+        notFound(request)
+    }
+  /////////////////////////////////////////////////////////////
+  //- Access by objectID //////////////////////////////////////
+  /////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import java.io._
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file._
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.{Properties, UUID}
+import java.util.concurrent.atomic.AtomicLong
+
+import com.twitter.io.Reader
+import com.twitter.util.{Future, FuturePool}
+import gr.grnet.cdmi.objectid.{ObjectIDGenerator, ObjectIDIndex}
+import gr.grnet.cdmi.queue.{QueueEngine, SegmentLog}
+import gr.grnet.cdmi.service.{Bodies, ChildrenCursor, ObjectValue}
+
+import scala.collection.JavaConverters._
+
+/**
+ * A [[gr.grnet.cdmi.store.Store]] on a local filesystem.
+ *
+ * Containers are directories and data objects are files under `root/data`. The objectID, version,
+ * mimetype and metadata of an entry are kept in a small properties file next to it: `.cdmi` inside
+ * a container's directory and `.cdmi.<name>` for a data object named `name`.
+ *
+ * Values are written to a temporary file under `root/tmp` through a `FileChannel` and then atomically
+ * renamed into place, so readers see either the old or the new value. Values are read through memory
+ * mappings, see [[gr.grnet.cdmi.service.FileObjectValue]], and copied with `FileChannel.transferTo`.
+ * Blocking filesystem calls run on a `FuturePool`, never on the I/O threads.
+ *
+ * The objectID index is a memory-mapped [[gr.grnet.cdmi.objectid.ObjectIDIndex]] under `root/index`. It is built
+ * from the properties files only when there is none, e.g. the first time a tree is opened with this version.
+ * Files put under `root/data` by other means are served with an objectID derived from their path, but
+ * are not in the index.
+ *
+ * Queues live under `root/queues`, see [[gr.grnet.cdmi.queue.QueueEngine]].
+ *
+ * Versions start from the current time in milliseconds, shifted left by 12 bits, so that they keep increasing
+ * across restarts without having to look at every entry.
+ */
+final class FileStore private(
+  val root: File,
+  stripes: Int,
+  objectIDs: ObjectIDGenerator,
+  indexCapacity: Long,
+  queueSegmentSize: Int
+) extends Store with NativeTransfers {
+  def name: String = Store.FileSystem
+
+  private[this] val dataDir = new File(root, FileStore.DataDir)
+  private[this] val tmpDir = new File(root, FileStore.TmpDir)
+  private[this] val locks = new PathLocks(stripes)
+  private[this] val versions = new AtomicLong(System.currentTimeMillis() << 12)
+
+  lazy val objectIDIndex: ObjectIDIndex = ObjectIDIndex.open(new File(root, FileStore.IndexDir), indexCapacity)
+
+  lazy val queues: QueueEngine =
+    QueueEngine.open(new File(root, FileStore.QueuesDir), objectIDIndex, objectIDs, queueSegmentSize)
+  private[this] val pool = FuturePool.unboundedPool
+
+  private[this] object Keys {
+    final val ObjectID = "objectID"
+    final val ParentID = "parentID"
+    final val Version = "version"
+    final val Mimetype = "mimetype"
+    final val MetadataPrefix = "metadata."
+  }
+
+  private[this] def fileOf(path: List[String]): File = path.foldLeft(dataDir)(new File(_, _))
+
+  private[this] def sidecarOf(path: List[String], isContainer: Boolean): File =
+    if(isContainer) new File(fileOf(path), Store.ReservedPrefix)
+    else new File(fileOf(path.init), s"${Store.ReservedPrefix}.${path.last}")
+
+  private[this] def readProperties(file: File): Option[Properties] =
+    if(!file.isFile) None
+    else {
+      val properties = new Properties()
+      val in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)
+      try properties.load(in) finally in.close()
+      Some(properties)
+    }
+
+  private[this] def writeProperties(file: File, properties: Properties): Unit = {
+    val tmp = File.createTempFile("cdmi", ".properties", tmpDir)
+    try {
+      val out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)
+      try properties.store(out, null) finally out.close()
+      Files.move(tmp.toPath, file.toPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    }
+    finally Files.deleteIfExists(tmp.toPath)
+  }
+
+  private[this] def propertiesOf(
+    objectID: String,
+    parentID: String,
+    version: Long,
+    mimetype: Option[String],
+    metadata: Map[String, String]
+  ): Properties = {
+    val properties = new Properties()
+    properties.setProperty(Keys.ObjectID, objectID)
+    properties.setProperty(Keys.ParentID, parentID)
+    properties.setProperty(Keys.Version, version.toString)
+    for(m ← mimetype) properties.setProperty(Keys.Mimetype, m)
+    for((k, v) ← metadata) properties.setProperty(Keys.MetadataPrefix + k, v)
+    properties
+  }
+
+  private[this] def metadataOf(properties: Properties): Map[String, String] =
+    (for {
+      name ← properties.stringPropertyNames().asScala if name.startsWith(Keys.MetadataPrefix)
+    } yield (name.substring(Keys.MetadataPrefix.length), properties.getProperty(name))).toMap
+
+  private[this] def derivedObjectID(path: List[String]): String = {
+    val uuid = UUID.nameUUIDFromBytes(Store.keyOf(path).getBytes(StandardCharsets.UTF_8))
+    val data = new Array[Byte](16)
+    for(i ← 0 until 8) {
+      data(i) = (uuid.getMostSignificantBits >>> (56 - 8 * i)).toByte
+      data(8 + i) = (uuid.getLeastSignificantBits >>> (56 - 8 * i)).toByte
+    }
+    objectIDs.derived(data).toHex
+  }
+
+  private[this] def entryAt(path: List[String]): Option[StoredEntry] = {
+    val file = fileOf(path)
+    if(path.exists(!Store.isValidName(_))) None
+    else if(file.isDirectory) {
+      val properties = readProperties(sidecarOf(path, isContainer = true)).getOrElse(new Properties())
+      Some(StoredContainer(
+        path = path,
+        objectID = properties.getProperty(Keys.ObjectID, derivedObjectID(path)),
+        parentID = properties.getProperty(Keys.ParentID, ""),
+        metadata = metadataOf(properties),
+        version = properties.getProperty(Keys.Version, "0").toLong,
+        lastModified = file.lastModified() // changes with the children
+      ))
+    }
+    else if(file.isFile && path.nonEmpty) {
+      val properties = readProperties(sidecarOf(path, isContainer = false)).getOrElse(new Properties())
+      val mimetype = properties.getProperty(Keys.Mimetype, Store.DefaultMimetype)
+      Some(StoredObject(
+        path = path,
+        objectID = properties.getProperty(Keys.ObjectID, derivedObjectID(path)),
+        parentID = properties.getProperty(Keys.ParentID, ""),
+        mimetype = mimetype,
+        metadata = metadataOf(properties),
+        version = properties.getProperty(Keys.Version, "0").toLong,
+        lastModified = file.lastModified(),
+        value = ObjectValue(mimetype, file)
+      ))
+    }
+    else None
+  }
+
+  private[this] def parentOf(path: List[String]): StoredContainer =
+    entryAt(path.init) match {
+      case Some(parent: StoredContainer) ⇒ parent
+      case _ ⇒ throw new StoreException(StoreError.NoSuchParent, s"No container /${Store.keyOf(path.init)}")
+    }
+
+  private[this] def isSidecar(name: String): Boolean =
+    name == Store.ReservedPrefix || name.startsWith(Store.ReservedPrefix + ".")
+
+  // The index path of the entry whose properties are in `sidecar`
+  private[this] def indexPathOfSidecar(sidecar: Path): String = {
+    val dirPath = dataDir.toPath.relativize(sidecar.getParent).iterator().asScala.map(_.toString).filter(_.nonEmpty).toList
+    val name = sidecar.getFileName.toString
+    if(name == Store.ReservedPrefix) Store.indexPathOf(dirPath, isContainer = true)
+    else Store.indexPathOf(dirPath :+ name.substring(Store.ReservedPrefix.length + 1), isContainer = false)
+  }
+
+  // Also drops the objectIDs of what is deleted from the index, and tells the listeners
+  private[this] def deleteRecursively(dir: Path): Unit =
+    Files.walkFileTree(dir, new SimpleFileVisitor[Path] {
+      override def visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult = {
+        if(isSidecar(file.getFileName.toString)) {
+          for(properties ← readProperties(file.toFile); objectID ← Option(properties.getProperty(Keys.ObjectID))) {
+            objectIDIndex.remove(objectID)
+            unpublished(objectID, indexPathOfSidecar(file))
+          }
+        }
+        Files.delete(file)
+        FileVisitResult.CONTINUE
+      }
+
+      override def postVisitDirectory(dir: Path, e: IOException): FileVisitResult = {
+        if(e ne null) throw e
+        Files.delete(dir)
+        FileVisitResult.CONTINUE
+      }
+    })
+
+  /**
+   * Puts the objectIDs of the tree at `dir`, whose path is `path`, in the index, and makes sure that
+   * new versions are greater than the ones found.
+   */
+  private[this] def index(path: List[String], dir: File): Unit =
+    for(name ← Option(dir.list()).getOrElse(Array())) {
+      if(isSidecar(name)) {
+        val isContainer = name == Store.ReservedPrefix
+        val entryPath = if(isContainer) path else path :+ name.substring(Store.ReservedPrefix.length + 1)
+        for(properties ← readProperties(new File(dir, name))) {
+          objectIDIndex.put(properties.getProperty(Keys.ObjectID), Store.indexPathOf(entryPath, isContainer))
+          val version = properties.getProperty(Keys.Version, "0").toLong
+          if(version > versions.get()) versions.set(version)
+        }
+      }
+      else {
+        val child = new File(dir, name)
+        if(child.isDirectory) index(path :+ name, child)
+      }
+    }
+
+  def getObject(path: List[String]): Future[Option[StoredObject]] =
+    pool {
+      entryAt(path) collect { case entry: StoredObject ⇒ entry }
+    }
+
+  def getContainer(path: List[String]): Future[Option[StoredContainer]] =
+    pool {
+      entryAt(path) collect { case entry: StoredContainer ⇒ entry }
+    }
+
+  /**
+   * Stages the value in a temporary file under `root/tmp`, which publishing renames into place.
+   */
+  def stageObject(path: List[String], value: Reader, chunkSize: Int): Future[StagedObject] =
+    pool {
+      Store.checkPath(path)
+      if(path.isEmpty) {
+        throw new StoreException(StoreError.NameConflict, "The root is a container")
+      }
+      File.createTempFile("cdmi", ".value", tmpDir)
+    } flatMap { tmp ⇒
+      val channel = FileChannel.open(tmp.toPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+      def delete(): Unit = pool { Files.deleteIfExists(tmp.toPath) }
+
+      Bodies.copy(value, channel, chunkSize) ensure { channel.close() } map { _ ⇒
+        new StagedObject {
+          def publish(mimetype: String, metadata: Map[String, String]): Future[StoredObject] =
+            pool { publishObject(path, mimetype, metadata, tmp) } ensure { delete() }
+
+          def discard(): Unit = delete()
+        }
+      } onFailure { _ ⇒ delete() }
+    }
+
+  /**
+   * Renames the value written to `tmp` into place as the data object at `path`.
+   */
+  private[this] def publishObject(path: List[String], mimetype: String, metadata: Map[String, String], tmp: File): StoredObject = {
+    val key = Store.keyOf(path)
+    locks.locked(key) {
+      val parent = parentOf(path)
+      val file = fileOf(path)
+      val (objectID, isNew) =
+        entryAt(path) match {
+          case Some(_: StoredContainer) ⇒ throw new StoreException(StoreError.NameConflict, s"/$key/ is a container")
+          case Some(previous: StoredObject) ⇒ (previous.objectID, false)
+          case None ⇒ (objectIDs.nextHex(), true)
+        }
+
+      val version = versions.incrementAndGet()
+      val properties = propertiesOf(objectID, parent.objectID, version, Some(mimetype), metadata)
+      writeProperties(sidecarOf(path, isContainer = false), properties)
+      Files.move(tmp.toPath, file.toPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+      objectIDIndex.put(objectID, Store.indexPathOf(path, isContainer = false))
+
+      val entry = StoredObject(
+        path = path,
+        objectID = objectID,
+        parentID = parent.objectID,
+        mimetype = mimetype,
+        metadata = metadata,
+        version = version,
+        lastModified = file.lastModified(),
+        value = ObjectValue(mimetype, file)
+      )
+      published(entry, isNew)
+      entry
+    }
+  }
+
+  /**
+   * Copies the value of the data object at `from` to a temporary file with `transferTo`, which leaves the copying
+   * to the kernel, and then publishes it like `putObject` does.
+   */
+  def copyObject(from: StoredObject, to: List[String], mimetype: String, metadata: Map[String, String]): Future[StoredObject] =
+    pool {
+      Store.checkPath(to)
+      if(to.isEmpty) {
+        throw new StoreException(StoreError.NameConflict, "The root is a container")
+      }
+
+      val tmp = File.createTempFile("cdmi", ".value", tmpDir)
+      try {
+        val in =
+          try FileChannel.open(fileOf(from.path).toPath, StandardOpenOption.READ)
+          catch {
+            case _: NoSuchFileException ⇒
+              throw new StoreException(StoreError.NoSuchSource, s"No data object /${Store.keyOf(from.path)}")
+          }
+
+        try {
+          val out = FileChannel.open(tmp.toPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+          try {
+            val size = in.size()
+            var position = 0L
+            while(position < size) {
+              position += in.transferTo(position, size - position, out)
+            }
+          }
+          finally out.close()
+        }
+        finally in.close()
+
+        publishObject(to, mimetype, metadata, tmp)
+      }
+      finally Files.deleteIfExists(tmp.toPath)
+    }
+
+  /**
+   * Renames the file or directory of `from`, together with its properties file. The objectIDs of a container tree
+   * are then re-indexed under their new paths, which is why renames run `exclusive`ly.
+   */
+  def rename(from: StoredEntry, to: List[String]): Future[StoredEntry] =
+    pool {
+      Store.checkPath(to)
+      val key = Store.keyOf(to)
+
+      locks.exclusive {
+        val parent = parentOf(to)
+        val version = versions.incrementAndGet()
+
+        entryAt(from.path) match {
+          case Some(container: StoredContainer) ⇒
+            if(fileOf(to).exists()) {
+              throw new StoreException(StoreError.NameConflict, s"/$key already exists")
+            }
+            Files.move(fileOf(from.path).toPath, fileOf(to).toPath, StandardCopyOption.ATOMIC_MOVE)
+            val properties = propertiesOf(container.objectID, parent.objectID, version, None, container.metadata)
+            writeProperties(sidecarOf(to, isContainer = true), properties)
+            index(to, fileOf(to))
+
+          case Some(obj: StoredObject) ⇒
+            entryAt(to) match {
+              case Some(_: StoredContainer) ⇒ throw new StoreException(StoreError.NameConflict, s"/$key/ is a container")
+              case Some(previous: StoredObject) ⇒
+                objectIDIndex.remove(previous.objectID)
+                unpublished(previous.objectID, Store.indexPathOf(previous))
+              case None ⇒
+            }
+            val properties = propertiesOf(obj.objectID, parent.objectID, version, Some(obj.mimetype), obj.metadata)
+            writeProperties(sidecarOf(to, isContainer = false), properties)
+            Files.move(fileOf(from.path).toPath, fileOf(to).toPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+            Files.deleteIfExists(sidecarOf(from.path, isContainer = false).toPath)
+            objectIDIndex.put(obj.objectID, Store.indexPathOf(to, isContainer = false))
+
+          case None ⇒
+            throw new StoreException(StoreError.NoSuchSource, s"No data object or container /${Store.keyOf(from.path)}")
+        }
+
+        val moved = entryAt(to).get
+        unpublished(moved.objectID, Store.indexPathOf(from))
+        published(moved, isNew = true)
+        moved
+      }
+    }
+
+  def putContainer(path: List[String], metadata: Map[String, String]): Future[(StoredContainer, Boolean)] =
+    pool {
+      Store.checkPath(path)
+      val key = Store.keyOf(path)
+
+      locks.locked(key) {
+        val previous =
+          entryAt(path) match {
+            case Some(_: StoredObject) ⇒ throw new StoreException(StoreError.NameConflict, s"/$key is a data object")
+            case Some(previous: StoredContainer) ⇒ Some(previous)
+            case None ⇒ None
+          }
+
+        val (objectID, parentID) =
+          previous match {
+            case Some(container) ⇒ (container.objectID, container.parentID)
+            case None ⇒ (objectIDs.nextHex(), parentOf(path).objectID)
+          }
+
+        val dir = fileOf(path)
+        if(previous.isEmpty) {
+          Files.createDirectory(dir.toPath)
+        }
+
+        val version = versions.incrementAndGet()
+        writeProperties(sidecarOf(path, isContainer = true), propertiesOf(objectID, parentID, version, None, metadata))
+        objectIDIndex.put(objectID, Store.indexPathOf(path, isContainer = true))
+
+        val entry = StoredContainer(
+          path = path,
+          objectID = objectID,
+          parentID = parentID,
+          metadata = metadata,
+          version = version,
+          lastModified = dir.lastModified()
+        )
+        published(entry, previous.isEmpty)
+        (entry, previous.isEmpty)
+      }
+    }
+
+  def deleteObject(path: List[String]): Future[Boolean] =
+    pool {
+      val key = Store.keyOf(path)
+      locks.locked(key) {
+        entryAt(path) match {
+          case Some(entry: StoredObject) ⇒
+            Files.deleteIfExists(fileOf(path).toPath)
+            Files.deleteIfExists(sidecarOf(path, isContainer = false).toPath)
+            objectIDIndex.remove(entry.objectID)
+            unpublished(entry.objectID, Store.indexPathOf(entry))
+            true
+
+          case _ ⇒
+            false
+        }
+      }
+    }
+
+  def deleteContainer(path: List[String]): Future[Boolean] =
+    pool {
+      if(path.isEmpty) {
+        throw new StoreException(StoreError.NotAllowed, "The root container cannot be deleted")
+      }
+
+      locks.exclusive {
+        entryAt(path) match {
+          case Some(_: StoredContainer) ⇒
+            deleteRecursively(fileOf(path).toPath)
+            true
+
+          case _ ⇒
+            false
+        }
+      }
+    }
+
+  def children(path: List[String], offset: Long): Future[ChildrenCursor] =
+    pool {
+      val dir = fileOf(path)
+      dir.list() match {
+        case null ⇒ ChildrenCursor.Empty
+        case names ⇒
+          val children =
+            for(name ← names if Store.isValidName(name)) yield {
+              if(new File(dir, name).isDirectory) name + "/" else name
+            }
+          java.util.Arrays.sort(children.asInstanceOf[Array[Object]])
+          ChildrenCursor.ofIterator(children.iterator.drop(math.min(offset, Int.MaxValue).toInt))
+      }
+    }
+
+  def getById(objectID: String): Future[Option[StoredEntry]] =
+    objectIDIndex.pathOf(objectID) match {
+      case None ⇒ Future.None
+      case Some(indexPath) ⇒ pool { entryAt(Store.pathOfIndexPath(indexPath)) }
+    }
+
+  override def close(): Unit = {
+    queues.close()
+    objectIDIndex.close()
+  }
+
+  /**
+   * Prepares the directories, drops leftovers of interrupted writes and, if there is no index yet,
+   * indexes the objectIDs.
+   */
+  private def open(): this.type = {
+    dataDir.mkdirs()
+    tmpDir.mkdirs()
+    if(!dataDir.isDirectory || !tmpDir.isDirectory) {
+      throw new IOException(s"Cannot use $root as a store")
+    }
+
+    for(leftover ← Option(tmpDir.listFiles()).getOrElse(Array())) {
+      Files.deleteIfExists(leftover.toPath)
+    }
+
+    val rootSidecar = sidecarOf(Nil, isContainer = true)
+    if(!rootSidecar.isFile) {
+      writeProperties(rootSidecar, propertiesOf(objectIDs.nextHex(), "", 0L, None, Map()))
+    }
+
+    if(!objectIDIndex.isReopened) {
+      index(Nil, dataDir)
+      objectIDIndex.flush()
+    }
+
+    // Recovers the queues, which also puts them back in the index
+    queues
+    this
+  }
+}
+
+object FileStore {
+  final val DataDir = "data"
+  final val TmpDir = "tmp"
+  final val IndexDir = "index"
+  final val QueuesDir = "queues"
+
+  def open(
+    root: File,
+    stripes: Int = MemoryStore.DefaultStripes,
+    objectIDs: ObjectIDGenerator = ObjectIDGenerator.Default,
+    indexCapacity: Long = ObjectIDIndex.DefaultCapacity,
+    queueSegmentSize: Int = SegmentLog.DefaultSegmentSize
+  ): FileStore =
+    new FileStore(root, stripes, objectIDs, indexCapacity, queueSegmentSize).open()
+}
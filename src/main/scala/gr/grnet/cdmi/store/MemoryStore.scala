@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentSkipListSet}
+
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.Future
+import gr.grnet.cdmi.objectid.{ObjectIDGenerator, ObjectIDIndex}
+import gr.grnet.cdmi.queue.QueueEngine
+import gr.grnet.cdmi.service.{Bodies, BufObjectValue, ChildrenCursor, ObjectValue}
+
+import scala.collection.JavaConverters._
+
+/**
+ * A [[gr.grnet.cdmi.store.Store]] that keeps everything on the heap.
+ *
+ * Entries live in `stripes` concurrent maps, chosen by the hash of their path, and each stripe has
+ * its own lock for publishing updates, see [[gr.grnet.cdmi.store.PathLocks]]. Reads take no locks.
+ * A container's version changes whenever its children change.
+ * Copies of a data object share its value and moves re-key entries, see [[gr.grnet.cdmi.store.NativeTransfers]].
+ * The objectID index lives off-heap.
+ */
+final class MemoryStore(
+  stripes: Int = MemoryStore.DefaultStripes,
+  objectIDs: ObjectIDGenerator = ObjectIDGenerator.Default,
+  indexCapacity: Long = ObjectIDIndex.DefaultCapacity
+) extends Store with NativeTransfers {
+  def name: String = Store.Memory
+
+  val objectIDIndex: ObjectIDIndex = ObjectIDIndex.inMemory(indexCapacity)
+
+  val queues: QueueEngine = QueueEngine.inMemory(objectIDIndex, objectIDs)
+
+  private[this] val locks = new PathLocks(stripes)
+  private[this] val entries = Array.fill(locks.stripeCount)(new ConcurrentHashMap[String, StoredEntry]())
+  private[this] val children = new ConcurrentHashMap[String, ConcurrentSkipListSet[String]]()
+  private[this] val versions = new AtomicLong()
+
+  private[this] def stripeOf(key: String) = entries(locks.stripeOf(key))
+
+  private[this] def entryOf(key: String): StoredEntry = stripeOf(key).get(key)
+
+  private[this] def publish(key: String, entry: StoredEntry): Unit = {
+    val previous = stripeOf(key).put(key, entry)
+    objectIDIndex.put(entry.objectID, Store.indexPathOf(entry))
+    published(entry, previous eq null)
+  }
+
+  private[this] def unpublish(key: String, entry: StoredEntry): Unit = {
+    stripeOf(key).remove(key)
+    objectIDIndex.remove(entry.objectID)
+    unpublished(entry.objectID, Store.indexPathOf(entry))
+  }
+
+  /**
+   * Gives the container at `key` a new version. This does not take the container's lock,
+   * so it retries until it wins against concurrent updates.
+   */
+  @annotation.tailrec
+  private[this] def touch(key: String): Unit =
+    entryOf(key) match {
+      case container: StoredContainer ⇒
+        val touched = container.copy(version = versions.incrementAndGet(), lastModified = System.currentTimeMillis())
+        if(!stripeOf(key).replace(key, container, touched)) touch(key)
+
+      case _ ⇒
+    }
+
+  private[this] def parentOf(path: List[String]): StoredContainer =
+    entryOf(Store.keyOf(path.init)) match {
+      case parent: StoredContainer ⇒ parent
+      case _ ⇒ throw new StoreException(StoreError.NoSuchParent, s"No container /${Store.keyOf(path.init)}")
+    }
+
+  locally {
+    val root = StoredContainer(Nil, objectIDs.nextHex(), "", Map(), versions.incrementAndGet(), System.currentTimeMillis())
+    publish("", root)
+    children.put("", new ConcurrentSkipListSet[String]())
+  }
+
+  def getObject(path: List[String]): Future[Option[StoredObject]] =
+    Future.value(
+      entryOf(Store.keyOf(path)) match {
+        case entry: StoredObject ⇒ Some(entry)
+        case _ ⇒ None
+      }
+    )
+
+  def getContainer(path: List[String]): Future[Option[StoredContainer]] =
+    Future.value(
+      entryOf(Store.keyOf(path)) match {
+        case entry: StoredContainer ⇒ Some(entry)
+        case _ ⇒ None
+      }
+    )
+
+  /**
+   * Stages the value on the heap.
+   */
+  def stageObject(path: List[String], value: Reader, chunkSize: Int): Future[StagedObject] =
+    Future { Store.checkPath(path) } before {
+      if(path.isEmpty) {
+        Future.exception(new StoreException(StoreError.NameConflict, "The root is a container"))
+      }
+      else {
+        Bodies.readAll(value, Long.MaxValue, chunkSize) map { bufOpt ⇒
+          val buf = bufOpt.getOrElse(Buf.Empty)
+          new StagedObject {
+            def publish(mimetype: String, metadata: Map[String, String]): Future[StoredObject] =
+              Future { publishObject(path, mimetype, metadata, buf) }
+
+            def discard(): Unit = {}
+          }
+        }
+      }
+    }
+
+  private[this] def publishObject(path: List[String], mimetype: String, metadata: Map[String, String], buf: Buf): StoredObject = {
+    val key = Store.keyOf(path)
+    locks.locked(key) {
+      val parent = parentOf(path)
+      val objectID =
+        entryOf(key) match {
+          case _: StoredContainer ⇒ throw new StoreException(StoreError.NameConflict, s"/$key/ is a container")
+          case previous: StoredObject ⇒ previous.objectID
+          case _ ⇒ objectIDs.nextHex()
+        }
+
+      val entry = StoredObject(
+        path = path,
+        objectID = objectID,
+        parentID = parent.objectID,
+        mimetype = mimetype,
+        metadata = metadata,
+        version = versions.incrementAndGet(),
+        lastModified = System.currentTimeMillis(),
+        value = ObjectValue(mimetype, buf)
+      )
+      publish(key, entry)
+      if(children.get(Store.keyOf(path.init)).add(path.last)) touch(Store.keyOf(path.init))
+      entry
+    }
+  }
+
+  /**
+   * Shares the value of the data object at `from`, which is immutable, with the copy.
+   */
+  def copyObject(from: StoredObject, to: List[String], mimetype: String, metadata: Map[String, String]): Future[StoredObject] =
+    Future {
+      Store.checkPath(to)
+      if(to.isEmpty) {
+        throw new StoreException(StoreError.NameConflict, "The root is a container")
+      }
+
+      entryOf(Store.keyOf(from.path)) match {
+        case source: StoredObject ⇒
+          source.value match {
+            case value: BufObjectValue ⇒ publishObject(to, mimetype, metadata, value.buf)
+            case _ ⇒ throw new StoreException(StoreError.NoSuchSource, s"/${Store.keyOf(from.path)} has no value")
+          }
+
+        case _ ⇒
+          throw new StoreException(StoreError.NoSuchSource, s"No data object /${Store.keyOf(from.path)}")
+      }
+    }
+
+  /**
+   * Re-keys the entry at `key`, and everything in it, under `path`.
+   */
+  private[this] def moveTree(key: String, entry: StoredEntry, path: List[String], parentID: String): Unit = {
+    val moved =
+      entry match {
+        case container: StoredContainer ⇒ container.copy(path = path, parentID = parentID)
+        case obj: StoredObject ⇒ obj.copy(path = path, parentID = parentID)
+      }
+    stripeOf(key).remove(key)
+    unpublished(entry.objectID, Store.indexPathOf(entry))
+    publish(Store.keyOf(path), moved)
+
+    entry match {
+      case _: StoredContainer ⇒
+        val names = children.remove(key)
+        children.put(Store.keyOf(path), names)
+        for(child ← names.asScala) {
+          val name = child.stripSuffix("/")
+          val childKey = if(key.isEmpty) name else s"$key/$name"
+          val childEntry = entryOf(childKey)
+          if(childEntry ne null) moveTree(childKey, childEntry, path :+ name, entry.objectID)
+        }
+
+      case _ ⇒
+    }
+  }
+
+  def rename(from: StoredEntry, to: List[String]): Future[StoredEntry] =
+    Future {
+      Store.checkPath(to)
+      val key = Store.keyOf(to)
+      val fromKey = Store.keyOf(from.path)
+
+      locks.exclusive {
+        val parent = parentOf(to)
+        val source = entryOf(fromKey)
+        val name = if(source.isInstanceOf[StoredContainer]) to.last + "/" else to.last
+
+        (source, entryOf(key)) match {
+          case (null, _) ⇒
+            throw new StoreException(StoreError.NoSuchSource, s"No data object or container /$fromKey")
+
+          case (_, _: StoredContainer) | (_: StoredContainer, _: StoredObject) ⇒
+            throw new StoreException(StoreError.NameConflict, s"/$key already exists")
+
+          case (_, previous: StoredObject) ⇒
+            unpublish(key, previous)
+
+          case _ ⇒
+        }
+
+        moveTree(fromKey, source, to, parent.objectID)
+        touch(key)
+        children.get(Store.keyOf(from.path.init)).remove(if(source.isContainer) from.path.last + "/" else from.path.last)
+        touch(Store.keyOf(from.path.init))
+        children.get(Store.keyOf(to.init)).add(name)
+        touch(Store.keyOf(to.init))
+        entryOf(key)
+      }
+    }
+
+  def putContainer(path: List[String], metadata: Map[String, String]): Future[(StoredContainer, Boolean)] =
+    Future {
+      Store.checkPath(path)
+      val key = Store.keyOf(path)
+
+      locks.locked(key) {
+        val previous =
+          entryOf(key) match {
+            case _: StoredObject ⇒ throw new StoreException(StoreError.NameConflict, s"/$key is a data object")
+            case previous: StoredContainer ⇒ Some(previous)
+            case _ ⇒ None
+          }
+
+        val entry =
+          previous match {
+            case Some(container) ⇒
+              container.copy(
+                metadata = metadata,
+                version = versions.incrementAndGet(),
+                lastModified = System.currentTimeMillis()
+              )
+
+            case None ⇒
+              val parent = parentOf(path)
+              StoredContainer(
+                path = path,
+                objectID = objectIDs.nextHex(),
+                parentID = parent.objectID,
+                metadata = metadata,
+                version = versions.incrementAndGet(),
+                lastModified = System.currentTimeMillis()
+              )
+          }
+
+        if(previous.isEmpty) {
+          children.put(key, new ConcurrentSkipListSet[String]())
+          children.get(Store.keyOf(path.init)).add(path.last + "/")
+          touch(Store.keyOf(path.init))
+        }
+        publish(key, entry)
+        (entry, previous.isEmpty)
+      }
+    }
+
+  def deleteObject(path: List[String]): Future[Boolean] =
+    Future {
+      val key = Store.keyOf(path)
+      locks.locked(key) {
+        entryOf(key) match {
+          case entry: StoredObject ⇒
+            unpublish(key, entry)
+            children.get(Store.keyOf(path.init)).remove(path.last)
+            touch(Store.keyOf(path.init))
+            true
+
+          case _ ⇒
+            false
+        }
+      }
+    }
+
+  private[this] def deleteTree(key: String, entry: StoredEntry): Unit = {
+    entry match {
+      case _: StoredContainer ⇒
+        for(child ← children.remove(key).asScala) {
+          val childKey = if(key.isEmpty) child.stripSuffix("/") else s"$key/${child.stripSuffix("/")}"
+          val childEntry = entryOf(childKey)
+          if(childEntry ne null) deleteTree(childKey, childEntry)
+        }
+
+      case _ ⇒
+    }
+    unpublish(key, entry)
+  }
+
+  def deleteContainer(path: List[String]): Future[Boolean] =
+    Future {
+      if(path.isEmpty) {
+        throw new StoreException(StoreError.NotAllowed, "The root container cannot be deleted")
+      }
+
+      val key = Store.keyOf(path)
+      locks.exclusive {
+        entryOf(key) match {
+          case entry: StoredContainer ⇒
+            deleteTree(key, entry)
+            children.get(Store.keyOf(path.init)).remove(path.last + "/")
+            touch(Store.keyOf(path.init))
+            true
+
+          case _ ⇒
+            false
+        }
+      }
+    }
+
+  def children(path: List[String], offset: Long): Future[ChildrenCursor] =
+    Future.value(
+      children.get(Store.keyOf(path)) match {
+        case null ⇒ ChildrenCursor.Empty
+        case names ⇒
+          val iterator = names.iterator().asScala
+          var skipped = 0L
+          while(skipped < offset && iterator.hasNext) {
+            iterator.next()
+            skipped += 1
+          }
+          ChildrenCursor.ofIterator(iterator)
+      }
+    )
+
+  def getById(objectID: String): Future[Option[StoredEntry]] =
+    Future.value(
+      for {
+        indexPath ← objectIDIndex.pathOf(objectID)
+        entry ← Option(entryOf(Store.keyOf(Store.pathOfIndexPath(indexPath))))
+      } yield entry
+    )
+}
+
+object MemoryStore {
+  final val DefaultStripes = 64
+}
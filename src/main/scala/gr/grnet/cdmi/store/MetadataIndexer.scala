@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import com.twitter.concurrent.AsyncSemaphore
+import com.twitter.util.Future
+import gr.grnet.cdmi.query.{MetadataIndex, QueryDocument}
+import gr.grnet.cdmi.service.ChildrenCursor
+
+/**
+ * Keeps a [[gr.grnet.cdmi.query.MetadataIndex]] in step with a [[gr.grnet.cdmi.store.Store]].
+ *
+ * The index is a [[gr.grnet.cdmi.store.StoreListener]] of the store, so every entry that is published or dropped
+ * from then on is indexed at once. What is already in the store is indexed by walking its tree in the background,
+ * a page of children at a time with at most `parallelism` lookups pending. An entry that the walk reads just before
+ * it is updated is not indexed over the update, which has a greater version, and one that it reads just before it
+ * is deleted is dropped by the first query that finds it, see [[gr.grnet.cdmi.query.QueryEngine]].
+ */
+object MetadataIndexer {
+  def documentOf(entry: StoredEntry): QueryDocument =
+    entry match {
+      case obj: StoredObject ⇒
+        QueryDocument(
+          objectID = obj.objectID,
+          isContainer = false,
+          objectName = obj.path.last,
+          parentID = obj.parentID,
+          mimetype = obj.mimetype,
+          metadata = obj.metadata,
+          version = obj.version
+        )
+
+      case container: StoredContainer ⇒
+        QueryDocument(
+          objectID = container.objectID,
+          isContainer = true,
+          objectName = if(container.path.isEmpty) "/" else container.path.last + "/",
+          parentID = container.parentID,
+          mimetype = "",
+          metadata = container.metadata,
+          version = container.version
+        )
+    }
+
+  def listenerOf(index: MetadataIndex): StoreListener =
+    new StoreListener {
+      def published(entry: StoredEntry, isNew: Boolean): Unit = index.put(documentOf(entry))
+
+      def unpublished(objectID: String, indexPath: String): Unit = index.remove(objectID)
+    }
+
+  private[this] final class Walk(store: Store, index: MetadataIndex, parallelism: Int, pageSize: Int) {
+    private[this] val permits = new AsyncSemaphore(parallelism)
+
+    private[this] def limited[A](f: ⇒ Future[A]): Future[A] =
+      permits.acquire() flatMap { permit ⇒ f ensure { permit.release() } }
+
+    def container(path: List[String]): Future[Unit] =
+      store.children(path, 0L) flatMap { cursor ⇒
+        pages(path, cursor) ensure { cursor.close() }
+      }
+
+    private[this] def pages(path: List[String], cursor: ChildrenCursor): Future[Unit] =
+      cursor.next(pageSize) flatMap { page ⇒
+        if(page.isEmpty) Future.Done
+        else Future.join(page.map(child(path, _))) flatMap { _ ⇒ pages(path, cursor) }
+      }
+
+    // Children that are gone by the time they are looked up are skipped
+    private[this] def child(path: List[String], child: String): Future[Unit] = {
+      val childPath = path :+ child.stripSuffix("/")
+      if(child.endsWith("/")) {
+        limited { store.getContainer(childPath) } flatMap {
+          case Some(entry) ⇒
+            index.put(documentOf(entry))
+            container(childPath)
+          case None ⇒
+            Future.Done
+        }
+      }
+      else {
+        limited { store.getObject(childPath) } map {
+          case Some(entry) ⇒ index.put(documentOf(entry))
+          case None ⇒
+        }
+      }
+    }
+  }
+
+  /**
+   * Makes `index` follow `store` and indexes what is already there. The result is satisfied once it has all been indexed.
+   */
+  def attach(store: Store, index: MetadataIndex, parallelism: Int, pageSize: Int): Future[Unit] = {
+    store.addListener(listenerOf(index))
+
+    store.getContainer(Nil) flatMap { root ⇒
+      for(entry ← root) index.put(documentOf(entry))
+      new Walk(store, index, math.max(1, parallelism), math.max(1, pageSize)).container(Nil)
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.store
+
+import com.twitter.util.Future
+
+/**
+ * Stores that can copy a data object, or rename an entry, without streaming values through the server mix this in.
+ * [[gr.grnet.cdmi.store.TreeCopier]] uses these when they are there, and the plain [[gr.grnet.cdmi.store.Store]]
+ * methods when they are not.
+ */
+trait NativeTransfers { self: Store ⇒
+  /**
+   * Creates or replaces the data object at `to` with the current value of the data object at `from.path`.
+   * Fails with `NoSuchSource` if that is gone.
+   */
+  def copyObject(from: StoredObject, to: List[String], mimetype: String, metadata: Map[String, String]): Future[StoredObject]
+
+  /**
+   * Moves the data object or the container tree at `from.path` to `to`, keeping objectIDs, mimetypes and metadata.
+   * A data object at `to` is replaced, while a container there is a name conflict.
+   * Fails with `NoSuchSource` if the source is gone.
+   */
+  def rename(from: StoredEntry, to: List[String]): Future[StoredEntry]
+}
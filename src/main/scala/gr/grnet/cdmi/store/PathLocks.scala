@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import java.util.concurrent.locks.ReentrantReadWriteLock
+
+/**
+ * Locking for stores. Updates to a single path are serialized by one of `stripes` locks, chosen by the
+ * hash of the path, so that writers to unrelated paths do not contend. Updates that span a whole
+ * subtree, like deleting a container, run `exclusive`ly of all others.
+ */
+final class PathLocks(stripes: Int) {
+  val stripeCount: Int = Integer.highestOneBit(math.max(1, stripes - 1)) << 1
+
+  private[this] val stripeMask = stripeCount - 1
+  private[this] val locks = Array.fill(stripeCount)(new Object)
+  private[this] val namespace = new ReentrantReadWriteLock()
+
+  def stripeOf(key: String): Int = {
+    val h = key.hashCode
+    (h ^ (h >>> 16)) & stripeMask
+  }
+
+  def locked[A](key: String)(f: ⇒ A): A = {
+    val lock = namespace.readLock()
+    lock.lock()
+    try locks(stripeOf(key)).synchronized(f)
+    finally lock.unlock()
+  }
+
+  def exclusive[A](f: ⇒ A): A = {
+    val lock = namespace.writeLock()
+    lock.lock()
+    try f finally lock.unlock()
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import com.twitter.util.Future
+
+/**
+ * The value of a data object, written by `Store.stageObject` but not yet visible at its path.
+ * It is either published, once, or discarded.
+ */
+trait StagedObject {
+  /**
+   * Creates or replaces the data object with the staged value, and the given mimetype and metadata.
+   */
+  def publish(mimetype: String, metadata: Map[String, String]): Future[StoredObject]
+
+  /**
+   * Drops the staged value, leaving the data object as it was.
+   */
+  def discard(): Unit
+}
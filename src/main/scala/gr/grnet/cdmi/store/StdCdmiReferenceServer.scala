@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import com.twitter.app.{App, GlobalFlag}
+import com.twitter.logging.Logging
+import gr.grnet.cdmi.objectid.ObjectIDGenerator
+import gr.grnet.cdmi.service._
+
+import scala.collection.immutable.Seq
+
+/**
+ * A standalone CDMI server backed by the reference [[gr.grnet.cdmi.store.Store]], either in memory
+ * or on the local filesystem, as selected by the `backend` and `backendRoot` flags.
+ */
+object StdCdmiReferenceServer extends CdmiRestService
+  with CdmiRestServiceTypes
+  with CdmiReadThroughCache
+  with CdmiStoreMethods
+  with CdmiRestServiceResponse
+  with App
+  with Logging {
+
+  override def flags: Seq[GlobalFlag[_]] =
+    super.flags ++ Seq(backend, backendRoot, objectIdEnterpriseNumber, objectIdIndexCapacity, queueSegmentSize, qosDomains)
+
+  lazy val store: Store =
+    Store(
+      backend(),
+      backendRoot(),
+      new ObjectIDGenerator(objectIdEnterpriseNumber()),
+      objectIdIndexCapacity(),
+      queueSegmentSize() << 20
+    )
+
+  override def main(): Unit = {
+    log.info(s"Store: ${store.name}")
+    sys.addShutdownHook { store.close() }
+    metadataIndexed onSuccess { _ ⇒ log.info(s"Indexed ${metadataIndex.size} entries for queries") }
+    resumeNotifications()
+    super.main()
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+
+import com.twitter.io.Reader
+import com.twitter.util.Future
+import gr.grnet.cdmi.objectid.{ObjectIDGenerator, ObjectIDIndex}
+import gr.grnet.cdmi.queue.{QueueEngine, SegmentLog}
+import gr.grnet.cdmi.service.ChildrenCursor
+
+/**
+ * Storage for data objects and containers, as used by [[gr.grnet.cdmi.store.CdmiStoreMethods]].
+ *
+ * Paths are given as lists of names, with the root container being `Nil`. Data objects and containers
+ * share one namespace, so `a/b` cannot be both. Failures that are the client's fault are reported
+ * as failed futures holding a [[gr.grnet.cdmi.store.StoreException]].
+ *
+ * Every entry is in the `objectIDIndex`, under the path given by `Store.indexPathOf`.
+ *
+ * Queue objects are kept apart, in `queues`, and share the index with data objects.
+ *
+ * [[gr.grnet.cdmi.store.StoreListener]]s are told about every entry that is published or dropped, after the index.
+ */
+trait Store {
+  private[this] val listeners = new CopyOnWriteArrayList[StoreListener]()
+
+  def addListener(listener: StoreListener): Unit = listeners.add(listener)
+
+  protected def published(entry: StoredEntry, isNew: Boolean): Unit = {
+    val i = listeners.iterator()
+    while(i.hasNext) i.next().published(entry, isNew)
+  }
+
+  protected def unpublished(objectID: String, indexPath: String): Unit = {
+    val i = listeners.iterator()
+    while(i.hasNext) i.next().unpublished(objectID, indexPath)
+  }
+
+  def name: String
+
+  def objectIDIndex: ObjectIDIndex
+
+  def queues: QueueEngine
+
+  def getObject(path: List[String]): Future[Option[StoredObject]]
+
+  def getContainer(path: List[String]): Future[Option[StoredContainer]]
+
+  /**
+   * Drains `value` in chunks of `chunkSize` bytes into storage for the data object at `path`, without changing
+   * what is at `path` until the result is published.
+   */
+  def stageObject(path: List[String], value: Reader, chunkSize: Int): Future[StagedObject]
+
+  /**
+   * Creates or replaces the data object at `path`, draining `value` in chunks of `chunkSize` bytes.
+   * Readers never see a partially written value.
+   */
+  def putObject(
+    path: List[String],
+    mimetype: String,
+    metadata: Map[String, String],
+    value: Reader,
+    chunkSize: Int
+  ): Future[StoredObject] =
+    stageObject(path, value, chunkSize) flatMap { _.publish(mimetype, metadata) }
+
+  /**
+   * Creates the container at `path`, or replaces the metadata of an existing one.
+   * The boolean is `true` iff the container was created.
+   */
+  def putContainer(path: List[String], metadata: Map[String, String]): Future[(StoredContainer, Boolean)]
+
+  /**
+   * Deletes the data object at `path`. The result is `false` if there is no such data object.
+   */
+  def deleteObject(path: List[String]): Future[Boolean]
+
+  /**
+   * Deletes the container at `path` together with everything in it.
+   * The result is `false` if there is no such container.
+   */
+  def deleteContainer(path: List[String]): Future[Boolean]
+
+  /**
+   * The children of the container at `path` in lexicographic order, starting from child `offset`.
+   * Container names end with a `/`.
+   */
+  def children(path: List[String], offset: Long): Future[ChildrenCursor]
+
+  /**
+   * The entry with the given objectID, if any.
+   */
+  def getById(objectID: String): Future[Option[StoredEntry]]
+
+  /**
+   * Releases any resources held by the store.
+   */
+  def close(): Unit = {}
+}
+
+object Store {
+  final val Memory = "memory"
+  final val FileSystem = "fs"
+
+  /**
+   * Names starting with this prefix are reserved for the bookkeeping of stores.
+   */
+  final val ReservedPrefix = ".cdmi"
+
+  final val DefaultMimetype = "application/octet-stream"
+
+  def isValidName(name: String): Boolean =
+    name.nonEmpty &&
+    name != "." &&
+    name != ".." &&
+    !name.startsWith(ReservedPrefix) &&
+    name.indexOf('/') == -1 &&
+    name.indexOf('\u0000') == -1
+
+  def checkPath(path: List[String]): Unit =
+    for(name ← path if !isValidName(name)) {
+      throw new StoreException(StoreError.InvalidName, s"Invalid name '$name'")
+    }
+
+  def keyOf(path: List[String]): String = path.mkString("/")
+
+  /**
+   * The path of an entry in the [[gr.grnet.cdmi.objectid.ObjectIDIndex]], which is its URI path:
+   * `/a/b/` for a container and `/a/b` for a data object.
+   */
+  def indexPathOf(path: List[String], isContainer: Boolean): String =
+    if(path.isEmpty) "/"
+    else if(isContainer) path.mkString("/", "/", "/")
+    else path.mkString("/", "/", "")
+
+  def indexPathOf(entry: StoredEntry): String = indexPathOf(entry.path, entry.isContainer)
+
+  /**
+   * The inverse of `indexPathOf`.
+   */
+  def pathOfIndexPath(indexPath: String): List[String] = {
+    val key = indexPath.stripPrefix("/").stripSuffix("/")
+    if(key.isEmpty) Nil else key.split('/').toList
+  }
+
+  /**
+   * Creates a store of the given kind, which is one of `memory` and `fs`.
+   * For `fs`, `root` is the directory holding the data and `queueSegmentSize` the size of the
+   * files queue values are appended to.
+   */
+  def apply(
+    kind: String,
+    root: String,
+    objectIDs: ObjectIDGenerator = ObjectIDGenerator.Default,
+    indexCapacity: Long = ObjectIDIndex.DefaultCapacity,
+    queueSegmentSize: Int = SegmentLog.DefaultSegmentSize
+  ): Store =
+    kind match {
+      case Memory ⇒
+        new MemoryStore(objectIDs = objectIDs, indexCapacity = indexCapacity)
+
+      case FileSystem if (root eq null) || root.isEmpty ⇒
+        throw new IllegalArgumentException(s"The '$FileSystem' store needs a root directory")
+
+      case FileSystem ⇒
+        FileStore.open(new File(root), objectIDs = objectIDs, indexCapacity = indexCapacity, queueSegmentSize = queueSegmentSize)
+
+      case _ ⇒
+        throw new IllegalArgumentException(s"Unknown store '$kind'. Known stores are: $Memory, $FileSystem")
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store;
+
+/**
+ * Why a {@link gr.grnet.cdmi.store.Store} refused to carry out an operation.
+ */
+public enum StoreError {
+    /** The parent container does not exist */
+    NoSuchParent,
+    /** There is a container where a data object is expected, or vice versa */
+    NameConflict,
+    /** The name cannot be stored, e.g. it is reserved by the store */
+    InvalidName,
+    /** The operation is not allowed on this entry, e.g. deleting the root container */
+    NotAllowed,
+    /** The entry to serialize or deserialize from does not exist */
+    NoSuchSource,
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+/**
+ * Told by a [[gr.grnet.cdmi.store.Store]] about every data object and container that it publishes or drops,
+ * on the thread that does so and while it holds the lock of the path. Listeners must be quick and must not
+ * call back into the store.
+ *
+ * A moved entry is dropped from where it was and published, as new, where it is now. Whether the entries under
+ * a moved container are published again depends on the store: their objectIDs stay the same.
+ */
+trait StoreListener {
+  /**
+   * `isNew` iff there was no entry at the path of `entry` before.
+   */
+  def published(entry: StoredEntry, isNew: Boolean): Unit
+
+  /**
+   * `indexPath` is where the dropped entry was, as given by `Store.indexPathOf`.
+   */
+  def unpublished(objectID: String, indexPath: String): Unit
+}
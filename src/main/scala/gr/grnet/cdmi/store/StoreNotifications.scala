@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.grnet.cdmi.store
+
+import gr.grnet.cdmi.notification.{Notification, NotificationEvent, NotificationHub}
+
+/**
+ * Captures the changes of a [[gr.grnet.cdmi.store.Store]] for a [[gr.grnet.cdmi.notification.NotificationHub]].
+ * Being a [[gr.grnet.cdmi.store.StoreListener]], it sees every write, whichever path it comes from, and only
+ * publishes while some queue is listening.
+ */
+object StoreNotifications {
+  def listenerOf(hub: NotificationHub): StoreListener =
+    new StoreListener {
+      def published(entry: StoredEntry, isNew: Boolean): Unit =
+        if(hub.isListening) {
+          val event = if(isNew) NotificationEvent.Create else NotificationEvent.Modify
+          hub.publish(Notification(event, MetadataIndexer.documentOf(entry), Store.indexPathOf(entry), System.currentTimeMillis()))
+        }
+
+      def unpublished(objectID: String, indexPath: String): Unit =
+        if(hub.isListening) {
+          hub.publish(Notification.deleted(objectID, indexPath, System.currentTimeMillis()))
+        }
+    }
+
+  /**
+   * A hub that is told about the changes of `store`.
+   */
+  def attach(store: Store, hub: NotificationHub): NotificationHub = {
+    store.addListener(listenerOf(hub))
+    hub
+  }
+}
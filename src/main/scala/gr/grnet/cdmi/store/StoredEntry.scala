@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.store
+
+import gr.grnet.cdmi.service.{ObjectValue, Validators}
+
+/**
+ * What a [[gr.grnet.cdmi.store.Store]] knows about a data object or a container.
+ * Entries are immutable snapshots; every update produces a new `version`.
+ */
+sealed trait StoredEntry {
+  def path: List[String]
+  def objectID: String
+  def parentID: String
+  def metadata: Map[String, String]
+  def version: Long
+  /**
+   * Milliseconds since the epoch.
+   */
+  def lastModified: Long
+
+  def isContainer: Boolean
+
+  /**
+   * The tag of this version of the entry. Responses carry the tag of their representation, which is derived
+   * from this one, see `CdmiRestServiceHandlers.representationValidators`.
+   */
+  def etag: String =
+    "\"" + objectID + "-" + java.lang.Long.toHexString(version) + "-" + java.lang.Long.toHexString(lastModified) + "\""
+
+  def validators: Validators = Validators(Some(etag), Some(lastModified))
+}
+
+final case class StoredObject(
+  path: List[String],
+  objectID: String,
+  parentID: String,
+  mimetype: String,
+  metadata: Map[String, String],
+  version: Long,
+  lastModified: Long,
+  value: ObjectValue
+) extends StoredEntry {
+  def isContainer = false
+}
+
+final case class StoredContainer(
+  path: List[String],
+  objectID: String,
+  parentID: String,
+  metadata: Map[String, String],
+  version: Long,
+  lastModified: Long
+) extends StoredEntry {
+  def isContainer = true
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.store
+
+import com.twitter.concurrent.AsyncSemaphore
+import com.twitter.util.Future
+import gr.grnet.cdmi.service.{ChildrenCursor, Transfer}
+
+/**
+ * Copies and moves data objects and container trees within a [[gr.grnet.cdmi.store.Store]].
+ *
+ * Data objects are copied with the store's [[gr.grnet.cdmi.store.NativeTransfers]] if it has them, e.g. with
+ * `transferTo` between files, and else by streaming their value into a new data object. A container tree is copied
+ * a page of children at a time: the containers of a page are copied concurrently, each one after it is created,
+ * and at most `parallelism` store calls of the whole tree are pending at any time. Moves are renames if the store
+ * can rename and else copies followed by deleting the source. Progress is counted in `transfer`.
+ */
+object TreeCopier {
+  private[this] final class Run(store: Store, parallelism: Int, pageSize: Int, chunkSize: Int, transfer: Transfer) {
+    private[this] val permits = new AsyncSemaphore(parallelism)
+
+    private[this] def limited[A](f: ⇒ Future[A]): Future[A] =
+      permits.acquire() flatMap { permit ⇒ f ensure { permit.release() } }
+
+    def copyObject(from: StoredObject, to: List[String], mimetype: String, metadata: Map[String, String]): Future[Unit] =
+      limited {
+        store match {
+          case native: NativeTransfers ⇒
+            native.copyObject(from, to, mimetype, metadata)
+
+          case _ ⇒
+            val value = from.value.readAll(chunkSize)
+            store.putObject(to, mimetype, metadata, value, chunkSize) onFailure { _ ⇒ value.discard() }
+        }
+      } map { _ ⇒ transfer.transferred(1) }
+
+    def copyContainer(from: StoredContainer, to: List[String], metadata: Map[String, String]): Future[Unit] =
+      limited { store.putContainer(to, metadata) } flatMap { _ ⇒
+        transfer.transferred(1)
+        store.children(from.path, 0L) flatMap { cursor ⇒
+          pages(from.path, to, cursor) ensure { cursor.close() }
+        }
+      }
+
+    private[this] def pages(from: List[String], to: List[String], cursor: ChildrenCursor): Future[Unit] =
+      cursor.next(pageSize) flatMap { page ⇒
+        if(page.isEmpty) Future.Done
+        else {
+          transfer.discovered(page.size)
+          Future.join(page.map(copyChild(from, to, _))) before pages(from, to, cursor)
+        }
+      }
+
+    // Children that are gone by the time they are looked up are counted as transferred
+    private[this] def copyChild(from: List[String], to: List[String], child: String): Future[Unit] = {
+      val name = child.stripSuffix("/")
+      if(child.endsWith("/")) {
+        limited { store.getContainer(from :+ name) } flatMap {
+          case Some(container) ⇒ copyContainer(container, to :+ name, container.metadata)
+          case None ⇒ Future { transfer.transferred(1) }
+        }
+      }
+      else {
+        limited { store.getObject(from :+ name) } flatMap {
+          case Some(obj) ⇒ copyObject(obj, to :+ name, obj.mimetype, obj.metadata)
+          case None ⇒ Future { transfer.transferred(1) }
+        }
+      }
+    }
+  }
+
+  private[this] def checkTarget(source: StoredEntry, target: List[String]): Future[Unit] =
+    Future {
+      Store.checkPath(target)
+      if(source.path.isEmpty) {
+        throw new StoreException(StoreError.NotAllowed, "The root container cannot be copied or moved")
+      }
+      if(target == source.path || (source.isContainer && target.startsWith(source.path))) {
+        throw new StoreException(StoreError.NameConflict, s"/${Store.keyOf(target)} is within /${Store.keyOf(source.path)}")
+      }
+    }
+
+  /**
+   * Copies `source` to `target`. A given `mimetype` or `metadata` replaces that of `source`, but not of what is in it.
+   */
+  def copy(
+    store: Store,
+    source: StoredEntry,
+    target: List[String],
+    mimetype: Option[String],
+    metadata: Option[Map[String, String]],
+    parallelism: Int,
+    pageSize: Int,
+    chunkSize: Int,
+    transfer: Transfer
+  ): Future[Unit] =
+    checkTarget(source, target) before {
+      val run = new Run(store, parallelism, pageSize, chunkSize, transfer)
+      source match {
+        case container: StoredContainer ⇒
+          run.copyContainer(container, target, metadata.getOrElse(container.metadata))
+
+        case obj: StoredObject ⇒
+          run.copyObject(obj, target, mimetype.getOrElse(obj.mimetype), metadata.getOrElse(obj.metadata))
+      }
+    }
+
+  /**
+   * Moves `source` to `target`.
+   */
+  def move(
+    store: Store,
+    source: StoredEntry,
+    target: List[String],
+    parallelism: Int,
+    pageSize: Int,
+    chunkSize: Int,
+    transfer: Transfer
+  ): Future[Unit] =
+    store match {
+      case native: NativeTransfers ⇒
+        checkTarget(source, target) before native.rename(source, target) map { _ ⇒ transfer.transferred(1) }
+
+      case _ ⇒
+        copy(store, source, target, None, None, parallelism, pageSize, chunkSize, transfer) before {
+          if(source.isContainer) store.deleteContainer(source.path).unit
+          else store.deleteObject(source.path).unit
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.store
+
+import com.fasterxml.jackson.core.{JsonParseException, JsonParser, JsonToken}
+import com.twitter.io.{Buf, Reader}
+import com.twitter.util.{Await, Future, FuturePool}
+import gr.grnet.cdmi.http.CdmiMediaType
+import gr.grnet.cdmi.json.{BufOutputStream, CdmiJson, CdmiRequestJson, JsonField, ReaderInputStream}
+import gr.grnet.cdmi.service.RequestDeadline
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * Recreates a data object or a container tree in a [[gr.grnet.cdmi.store.Store]] from its serialized form,
+ * as written by [[gr.grnet.cdmi.store.TreeSerializer]], while the serialized form is being read.
+ *
+ * Containers are created as soon as their `children` start, so the serialized form must give the `objectName`
+ * of a container before its `children`. Data objects are created in batches of `batchSize`, concurrently,
+ * and a batch is started while the previous one is being written; parsing waits only when two batches are
+ * pending. Memory use thus depends on `batchSize` and the size of values, but not on the number of entries.
+ *
+ * Parsing is blocking, so it runs in a `pool`. ObjectIDs are not preserved; the store assigns new ones.
+ *
+ * @note Section 15 of CDMI 1.0.2: Serialization/Deserialization
+ */
+object TreeDeserializer {
+  private[this] final class Run(store: Store, batchSize: Int, chunkSize: Int, parser: JsonParser) {
+    private[this] var pending: Future[Unit] = Future.Done
+    private[this] var batch = new ArrayBuffer[Future[StoredObject]](batchSize)
+
+    private[this] def fail(message: String) = throw new JsonParseException(message, parser.getCurrentLocation)
+
+    /**
+     * Waits for the previous batch and starts waiting for the current one.
+     */
+    private[this] def nextBatch(): Unit = {
+      RequestDeadline.check()
+      Await.result(pending)
+      pending = Future.collect(batch).unit
+      batch = new ArrayBuffer[Future[StoredObject]](batchSize)
+    }
+
+    private[this] def createObject(path: List[String], mimetype: String, metadata: Map[String, String], value: Buf): Unit = {
+      batch += store.putObject(path, mimetype, metadata, Reader.fromBuf(value), chunkSize)
+      if(batch.size >= batchSize) nextBatch()
+    }
+
+    /**
+     * Waits for all data objects to be created.
+     */
+    def finish(): Unit = {
+      nextBatch()
+      Await.result(pending)
+    }
+
+    private[this] def pathOf(parent: List[String], objectName: String): List[String] = {
+      val name = objectName.stripSuffix("/")
+      Store.checkPath(List(name))
+      parent :+ name
+    }
+
+    /**
+     * Reads the entry that starts at the current token, whose path is `fixedPath` if given,
+     * or else its `objectName` under `parent`. If `isContainer` is given, the entry must be a container iff it is.
+     */
+    def entry(parent: List[String], fixedPath: Option[List[String]], isContainer: Option[Boolean]): Unit = {
+      if(parser.getCurrentToken != JsonToken.START_OBJECT) fail("Expected a serialized object")
+
+      var objectType: String = null
+      var objectName: String = null
+      var mimetype: String = null
+      var metadata: Map[String, String] = null
+      var encoding: String = null
+      var value: Buf = null
+      var valueText: String = null
+      var container: StoredContainer = null
+      var containerMetadata: Map[String, String] = null
+
+      def path: List[String] =
+        fixedPath match {
+          case Some(p) ⇒ p
+          case None if objectName eq null ⇒ fail(s"Missing '${JsonField.objectName.jsonField}'")
+          case None ⇒ pathOf(parent, objectName)
+        }
+
+      def expect(container: Boolean): Unit =
+        if(isContainer.exists(_ != container)) {
+          fail(s"The serialized object is not ${if(container) "a data object" else "a container"}")
+        }
+
+      def createContainer(): StoredContainer = {
+        expect(container = true)
+        containerMetadata = if(metadata eq null) Map() else metadata
+        Await.result(store.putContainer(path, containerMetadata))._1
+      }
+
+      while(parser.nextToken() == JsonToken.FIELD_NAME) {
+        parser.getCurrentName match {
+          case JsonField.objectType.jsonField ⇒
+            objectType = CdmiRequestJson.stringOf(parser, JsonField.objectType.jsonField)
+          case JsonField.objectName.jsonField ⇒
+            objectName = CdmiRequestJson.stringOf(parser, JsonField.objectName.jsonField)
+          case JsonField.mimetype.jsonField ⇒
+            mimetype = CdmiRequestJson.stringOf(parser, JsonField.mimetype.jsonField)
+          case JsonField.metadata.jsonField ⇒
+            metadata = CdmiRequestJson.mapOf(parser, JsonField.metadata.jsonField)
+          case JsonField.valuetransferencoding.jsonField ⇒
+            encoding = CdmiRequestJson.stringOf(parser, JsonField.valuetransferencoding.jsonField)
+          case JsonField.value.jsonField if encoding == "base64" ⇒
+            parser.nextToken()
+            val decoded = new BufOutputStream()
+            parser.readBinaryValue(CdmiJson.Base64, decoded)
+            value = decoded.toBuf
+          case JsonField.value.jsonField ⇒
+            // The encoding may follow
+            valueText = CdmiRequestJson.stringOf(parser, JsonField.value.jsonField)
+          case "children" ⇒
+            if(parser.nextToken() != JsonToken.START_ARRAY) fail("Expected an array for 'children'")
+            container = createContainer()
+            while(parser.nextToken() != JsonToken.END_ARRAY) {
+              entry(container.path, None, None)
+            }
+          case _ ⇒
+            parser.nextToken()
+            parser.skipChildren()
+        }
+      }
+
+      val isSerializedContainer =
+        if(objectType ne null) objectType == CdmiMediaType.Application_CdmiContainer.value()
+        else (container ne null) || ((objectName ne null) && objectName.endsWith("/"))
+
+      if(isSerializedContainer) {
+        if(container eq null) createContainer()
+        else if((metadata ne null) && (metadata ne containerMetadata)) {
+          // The metadata followed the children
+          Await.result(store.putContainer(path, metadata))
+        }
+      }
+      else if((objectType eq null) || objectType == CdmiMediaType.Application_CdmiObject.value()) {
+        expect(container = false)
+        val bytes =
+          if(value ne null) value
+          else if(valueText eq null) Buf.Empty
+          else if(encoding == "base64") Buf.ByteArray.Owned(CdmiJson.Base64.decode(valueText))
+          else Buf.Utf8(valueText)
+        createObject(path, if(mimetype eq null) Store.DefaultMimetype else mimetype, if(metadata eq null) Map() else metadata, bytes)
+      }
+      else fail(s"Cannot deserialize '$objectType'")
+    }
+  }
+
+  /**
+   * Parses the serialized form read from `serialized` in `pool`, recreating it at `target`, which must be
+   * a container iff `isContainer`. Malformed input fails with a [[com.fasterxml.jackson.core.JsonProcessingException]];
+   * entries created up to that point are kept.
+   */
+  def read(
+    store: Store,
+    target: List[String],
+    isContainer: Boolean,
+    serialized: Reader,
+    batchSize: Int,
+    chunkSize: Int,
+    pool: FuturePool
+  ): Future[Unit] =
+    pool {
+      val parser = CdmiJson.Factory.createParser(new ReaderInputStream(serialized, chunkSize))
+      try {
+        if(parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new JsonParseException("Expected a serialized object", parser.getCurrentLocation)
+        }
+
+        val run = new Run(store, math.max(1, batchSize), chunkSize, parser)
+        run.entry(Nil, Some(target), Some(isContainer))
+        run.finish()
+      }
+      finally parser.close()
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package gr.grnet.cdmi.store
+
+import com.fasterxml.jackson.core.JsonEncoding
+import com.twitter.io.{Buf, Reader, Writer}
+import com.twitter.util.{Closable, Future}
+import gr.grnet.cdmi.http.CdmiMediaType
+import gr.grnet.cdmi.json.{BufOutputStream, CdmiJson}
+import gr.grnet.cdmi.service.{ChildrenCursor, RequestDeadline}
+
+import scala.collection.immutable.Seq
+
+/**
+ * Streams the serialized form of a data object or of a container tree of a [[gr.grnet.cdmi.store.Store]]
+ * as a single JSON document. A container carries its children, serialized in turn, in `children`; a data object
+ * carries its value base64-encoded. `metadata` always precedes `children` and `value`, so that the document
+ * can be deserialized while it is being read, see [[gr.grnet.cdmi.store.TreeDeserializer]].
+ *
+ * Containers are walked depth first, a page of children at a time. The children of a page are looked up
+ * `parallelism` at a time, and the lookups of the next window are issued while the current one is being written.
+ * Values are encoded chunk by chunk, as they are read. Output is written as soon as a chunk of it is ready
+ * and the walk waits for it to be read, so memory use depends on the depth of the tree, the page size
+ * and `parallelism`, but not on the number of entries or the size of values.
+ *
+ * @note Section 15 of CDMI 1.0.2: Serialization/Deserialization
+ */
+object TreeSerializer {
+  final val ValueTransferEncoding = "base64"
+
+  def objectTypeOf(entry: StoredEntry): String =
+    if(entry.isContainer) CdmiMediaType.Application_CdmiContainer.value()
+    else CdmiMediaType.Application_CdmiObject.value()
+
+  def objectNameOf(entry: StoredEntry): String =
+    entry.path match {
+      case Nil ⇒ "/"
+      case path if entry.isContainer ⇒ path.last + "/"
+      case path ⇒ path.last
+    }
+
+  private[this] final class Walk(store: Store, parallelism: Int, pageSize: Int, chunkSize: Int, writer: Writer) {
+    private[this] val out = new BufOutputStream()
+    private[this] val gen = CdmiJson.Factory.createGenerator(out, JsonEncoding.UTF8)
+    private[this] var drained = 0L
+
+    def flush(): Future[Unit] = {
+      gen.flush()
+      drained = out.size
+      writer.write(out.drain())
+    }
+
+    /**
+     * Flushes once at least a chunk of output is ready.
+     */
+    def flushChunk(): Future[Unit] = {
+      gen.flush()
+      if(out.size - drained >= chunkSize) flush() else Future.Done
+    }
+
+    def close(): Future[Unit] = {
+      gen.close()
+      drained = out.size
+      writer.write(out.drain())
+    }
+
+    private[this] def writeHead(entry: StoredEntry): Unit = {
+      gen.writeStartObject()
+      CdmiJson.writeStringField(gen, CdmiJson.Fields.objectType, objectTypeOf(entry))
+      CdmiJson.writeStringField(gen, CdmiJson.Fields.objectID, entry.objectID)
+      CdmiJson.writeStringField(gen, CdmiJson.Fields.objectName, objectNameOf(entry))
+    }
+
+    def entry(entry: StoredEntry): Future[Unit] =
+      entry match {
+        case obj: StoredObject ⇒ dataObject(obj)
+        case container: StoredContainer ⇒ this.container(container)
+      }
+
+    private[this] def dataObject(obj: StoredObject): Future[Unit] = {
+      writeHead(obj)
+      CdmiJson.writeStringField(gen, CdmiJson.Fields.mimetype, obj.mimetype)
+      CdmiJson.writeMap(gen, CdmiJson.Fields.metadata, obj.metadata)
+      CdmiJson.writeStringField(gen, CdmiJson.Fields.valuetransferencoding, ValueTransferEncoding)
+
+      // The value is written raw, a chunk at a time, between the quotes
+      gen.writeFieldName(CdmiJson.Fields.value)
+      gen.writeRawValue("\"")
+      val reader = obj.value.readAll(chunkSize)
+      value(reader, Buf.Empty) onFailure { _ ⇒ reader.discard() } map { _ ⇒
+        gen.writeRaw('"')
+        gen.writeEndObject()
+      }
+    }
+
+    /**
+     * Encodes the value read from `reader`. Only whole groups of three bytes are encoded before the end,
+     * so that padding is only added at the end; the rest is carried over to the next chunk.
+     */
+    private[this] def value(reader: Reader, carry: Buf): Future[Unit] =
+      reader.read(chunkSize) flatMap {
+        case None ⇒
+          gen.writeRaw(CdmiJson.Base64.encode(Buf.ByteArray.Owned.extract(carry)))
+          Future.Done
+
+        case Some(chunk) ⇒
+          val all = carry concat chunk
+          val whole = all.length - all.length % 3
+          gen.writeRaw(CdmiJson.Base64.encode(Buf.ByteArray.Owned.extract(all.slice(0, whole))))
+          flushChunk() before value(reader, all.slice(whole, all.length))
+      }
+
+    private[this] def container(container: StoredContainer): Future[Unit] = {
+      writeHead(container)
+      CdmiJson.writeMap(gen, CdmiJson.Fields.metadata, container.metadata)
+      gen.writeFieldName(CdmiJson.Fields.children)
+      gen.writeStartArray()
+
+      store.children(container.path, 0L) flatMap { cursor ⇒
+        pages(container.path, cursor) ensure { cursor.close() }
+      } map { _ ⇒
+        gen.writeEndArray()
+        gen.writeEndObject()
+      }
+    }
+
+    private[this] def pages(path: List[String], cursor: ChildrenCursor): Future[Unit] = {
+      RequestDeadline.check()
+      cursor.next(pageSize) flatMap { page ⇒
+        if(page.isEmpty) Future.Done
+        else windows(path, page, 0, lookup(path, page, 0)) before pages(path, cursor)
+      }
+    }
+
+    /**
+     * Looks up the children of the window of `page` that starts at `from`.
+     * Children that are gone by now are skipped.
+     */
+    private[this] def lookup(path: List[String], page: Seq[String], from: Int): Future[Seq[StoredEntry]] = {
+      val lookups =
+        for(name ← page.slice(from, from + parallelism)) yield {
+          if(name.endsWith("/")) store.getContainer(path :+ name.substring(0, name.length - 1))
+          else store.getObject(path :+ name)
+        }
+      Future.collect(lookups) map { _.flatten.toVector }
+    }
+
+    private[this] def windows(path: List[String], page: Seq[String], from: Int, window: Future[Seq[StoredEntry]]): Future[Unit] =
+      window flatMap { entries ⇒
+        val next = from + parallelism
+        if(next < page.size) {
+          val nextWindow = lookup(path, page, next)
+          all(entries.iterator) before windows(path, page, next, nextWindow)
+        }
+        else all(entries.iterator)
+      }
+
+    private[this] def all(entries: Iterator[StoredEntry]): Future[Unit] =
+      if(entries.hasNext) entry(entries.next()) before flushChunk() before all(entries)
+      else Future.Done
+  }
+
+  /**
+   * Writes the serialized form of `root` to `writer`, which is closed at the end.
+   * Once the [[gr.grnet.cdmi.service.RequestDeadline]] has passed, no more pages are fetched and `writer` is failed.
+   */
+  def write(store: Store, root: StoredEntry, parallelism: Int, pageSize: Int, chunkSize: Int, writer: Writer with Closable): Future[Unit] = {
+    val walk = new Walk(store, math.max(1, parallelism), math.max(1, pageSize), math.max(3, chunkSize), writer)
+    val done = Future.Done flatMap { _ ⇒ walk.entry(root) } before walk.close()
+    done onFailure { writer.fail } before writer.close()
+  }
+
+  /**
+   * Like `write`, but gives back the reader from which the serialized form is read.
+   */
+  def reader(store: Store, root: StoredEntry, parallelism: Int, pageSize: Int, chunkSize: Int): Reader = {
+    val writable = Reader.writable()
+    write(store, root, parallelism, pageSize, chunkSize, writable)
+    writable
+  }
+}
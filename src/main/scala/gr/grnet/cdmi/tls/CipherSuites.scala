@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.tls
+
+/**
+ * Translates the OpenSSL names of cipher suites, e.g. `ECDHE-RSA-AES128-GCM-SHA256`, to the JDK ones,
+ * e.g. `TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256`, so that the cipher suites given for OpenSSL also work when
+ * the JDK provider is used instead.
+ */
+object CipherSuites {
+  private[this] def keyExchangeOf(parts: List[String]): (String, List[String]) =
+    parts match {
+      case "ECDHE" :: "RSA" :: rest ⇒ ("ECDHE_RSA", rest)
+      case "ECDHE" :: "ECDSA" :: rest ⇒ ("ECDHE_ECDSA", rest)
+      case "ECDH" :: "RSA" :: rest ⇒ ("ECDH_RSA", rest)
+      case "ECDH" :: "ECDSA" :: rest ⇒ ("ECDH_ECDSA", rest)
+      case ("DHE" | "EDH") :: "RSA" :: rest ⇒ ("DHE_RSA", rest)
+      case ("DHE" | "EDH") :: "DSS" :: rest ⇒ ("DHE_DSS", rest)
+      case rest ⇒ ("RSA", rest)
+    }
+
+  private[this] def cipherOf(parts: List[String]): Option[String] =
+    parts match {
+      case List(aes @ ("AES128" | "AES256"), "GCM", mac) ⇒ Some(s"AES_${aes.substring(3)}_GCM_$mac")
+      case List(aes @ ("AES128" | "AES256"), mac) ⇒ Some(s"AES_${aes.substring(3)}_CBC_$mac")
+      case List("CHACHA20", "POLY1305") ⇒ Some("CHACHA20_POLY1305_SHA256")
+      case List("DES", "CBC3", "SHA") ⇒ Some("3DES_EDE_CBC_SHA")
+      case _ ⇒ None
+    }
+
+  /**
+   * The JDK name of the cipher suite `name`, the first of its candidates that is `supported`.
+   * Names that are not OpenSSL ones, or that cannot be translated, are returned as they are.
+   */
+  def jdkNameOf(name: String, supported: String ⇒ Boolean): String =
+    if(name.startsWith("TLS_") || name.startsWith("SSL_") || supported(name)) name
+    else {
+      val (keyExchange, rest) = keyExchangeOf(name.split('-').toList)
+      val candidates =
+        for {
+          cipher ← cipherOf(rest).toList
+          prefix ← List("TLS_", "SSL_")
+        } yield s"$prefix${keyExchange}_WITH_$cipher"
+
+      candidates.find(supported).getOrElse(name)
+    }
+}
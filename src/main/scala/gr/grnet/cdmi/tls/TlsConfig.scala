@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.tls
+
+import scala.collection.immutable.Seq
+
+/**
+ * How the HTTPS listener sets up TLS.
+ *
+ * @param certPath            PEM-encoded certificate
+ * @param keyPath             PEM-encoded private key
+ * @param provider            which TLS implementation to use
+ * @param protocols           the protocols enabled, e.g. `TLSv1.2`. If empty, those of the provider
+ * @param ciphers             the cipher suites enabled, named as the provider knows them. If empty, those of the provider
+ * @param sessionCacheSize    the number of sessions kept for resumption. Zero means no limit
+ * @param sessionTimeout      the seconds a session can be resumed for
+ * @param sessionTickets      whether sessions are also resumed with stateless session tickets
+ */
+case class TlsConfig(
+  certPath: String,
+  keyPath: String,
+  provider: TlsProvider = TlsProvider.Auto,
+  protocols: Seq[String] = Seq(),
+  ciphers: Seq[String] = Seq(),
+  sessionCacheSize: Int = TlsConfig.DefaultSessionCacheSize,
+  sessionTimeout: Int = TlsConfig.DefaultSessionTimeout,
+  sessionTickets: Boolean = true
+)
+
+object TlsConfig {
+  final val DefaultSessionCacheSize = 20480
+  final val DefaultSessionTimeout = 86400
+
+  /**
+   * Splits a comma-separated list, as given in a flag.
+   */
+  def listOf(s: String): Seq[String] =
+    if(s eq null) Seq()
+    else s.split(',').map(_.trim).filter(_.nonEmpty).toVector
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.tls
+
+import javax.net.ssl.{SSLContext, SSLEngine}
+
+import com.twitter.finagle.ssl.{Engine, OpenSSL, PEMEncodedKeyManager}
+
+import scala.collection.immutable.Seq
+import scala.util.control.NonFatal
+
+/**
+ * Creates the TLS engine of each connection to the HTTPS listener, as `config` says.
+ *
+ * With the JDK provider all connections share one `SSLContext`, whose server session cache holds up to
+ * `sessionCacheSize` sessions for `sessionTimeout` seconds, so that returning clients resume their session with an
+ * abbreviated handshake. Stateless session tickets are turned on through `jdk.tls.server.enableSessionTicketExtension`,
+ * unless that is given on the command line; JDKs before 13 ignore it and resume from the cache only.
+ *
+ * The OpenSSL provider needs the native library that Finagle links to. Its context is created once and cached
+ * by Finagle, with OpenSSL's own session cache, which Finagle gives no way to configure: the session settings of
+ * `config` are not applied, see `unappliedSettings`. The cipher suites use the OpenSSL names, which are translated
+ * for the JDK provider by [[gr.grnet.cdmi.tls.CipherSuites]], so that they still work if OpenSSL is not available.
+ *
+ * Unknown protocols or cipher suites fail the creation of the factory, so that the server does not start.
+ */
+final class TlsEngineFactory(val config: TlsConfig) extends (() ⇒ Engine) {
+  private[this] def openSslEngine(): Option[Engine] = {
+    val ciphers = if(config.ciphers.isEmpty) null else config.ciphers.mkString(":")
+    try OpenSSL.server(config.certPath, config.keyPath, null, ciphers, null, true)
+    catch { case NonFatal(_) | _: LinkageError ⇒ None }
+  }
+
+  private[this] def enabled(what: String, wanted: Seq[String], supported: Array[String]): Array[String] =
+    if(wanted.isEmpty) null
+    else {
+      val unsupported = wanted.filterNot(supported.contains)
+      if(unsupported.nonEmpty) {
+        throw new IllegalArgumentException(s"Unsupported TLS $what: ${unsupported.mkString(", ")}")
+      }
+      wanted.toArray
+    }
+
+  private[this] def newJdkContext(): SSLContext = {
+    if(System.getProperty(TlsEngineFactory.SessionTicketsProperty) eq null) {
+      System.setProperty(TlsEngineFactory.SessionTicketsProperty, config.sessionTickets.toString)
+    }
+
+    val context = SSLContext.getInstance("TLS")
+    context.init(PEMEncodedKeyManager(config.certPath, config.keyPath, None), null, null)
+
+    val sessions = context.getServerSessionContext
+    sessions.setSessionCacheSize(config.sessionCacheSize)
+    sessions.setSessionTimeout(config.sessionTimeout)
+    context
+  }
+
+  private[this] def jdkEngines(): () ⇒ Engine = {
+    val context = newJdkContext()
+    val supported = context.getSupportedSSLParameters
+    val protocols = enabled("protocols", config.protocols, supported.getProtocols)
+    val supportedCiphers = supported.getCipherSuites
+    val ciphers = enabled("cipher suites", config.ciphers.map(CipherSuites.jdkNameOf(_, supportedCiphers.contains)), supportedCiphers)
+
+    () ⇒ {
+      val engine = context.createSSLEngine()
+      engine.setUseClientMode(false)
+      if(protocols ne null) { engine.setEnabledProtocols(protocols) }
+      if(ciphers ne null) { engine.setEnabledCipherSuites(ciphers) }
+      Engine(engine)
+    }
+  }
+
+  private[this] def openSslEngines(probe: Engine): () ⇒ Engine = {
+    val protocols = enabled("protocols", config.protocols, probe.self.getSupportedProtocols)
+
+    () ⇒ {
+      val engine = openSslEngine().get
+      if(protocols ne null) { engine.self.setEnabledProtocols(protocols) }
+      engine
+    }
+  }
+
+  private[this] val (resolvedProvider, newEngine) =
+    config.provider match {
+      case TlsProvider.Jdk ⇒
+        (TlsProvider.Jdk, jdkEngines())
+
+      case provider ⇒
+        openSslEngine() match {
+          case Some(probe) ⇒
+            (TlsProvider.OpenSsl, openSslEngines(probe))
+
+          case None if provider == TlsProvider.OpenSsl ⇒
+            throw new IllegalStateException("The OpenSSL native library is not available")
+
+          case None ⇒
+            (TlsProvider.Jdk, jdkEngines())
+        }
+    }
+
+  /**
+   * The provider actually used, which is never `Auto`.
+   */
+  def provider: TlsProvider = resolvedProvider
+
+  def apply(): Engine = newEngine()
+
+  /**
+   * The settings of `config`, by name, that differ from the defaults but are not applied by the provider used.
+   */
+  def unappliedSettings: Seq[String] =
+    if(provider == TlsProvider.Jdk) Seq()
+    else {
+      val defaults = TlsConfig(config.certPath, config.keyPath)
+      Seq(
+        "sessionCacheSize" → (config.sessionCacheSize != defaults.sessionCacheSize),
+        "sessionTimeout" → (config.sessionTimeout != defaults.sessionTimeout),
+        "sessionTickets" → (config.sessionTickets != defaults.sessionTickets)
+      ) collect { case (name, true) ⇒ name }
+    }
+
+  /**
+   * The protocols and cipher suites of the engines created, for logging.
+   */
+  def describe(): String = {
+    val engine: SSLEngine = apply().self
+    try s"$provider, protocols ${engine.getEnabledProtocols.mkString(",")}, ciphers ${engine.getEnabledCipherSuites.mkString(",")}"
+    finally engine.closeOutbound()
+  }
+}
+
+object TlsEngineFactory {
+  final val SessionTicketsProperty = "jdk.tls.server.enableSessionTicketExtension"
+}
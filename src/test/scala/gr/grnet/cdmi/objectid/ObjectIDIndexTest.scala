@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.objectid
+
+import java.io.{File, RandomAccessFile}
+import java.nio.file.Files
+
+import org.junit.Assert._
+import org.junit.Test
+
+/**
+ * Puts, moves and removes object IDs in an [[gr.grnet.cdmi.objectid.ObjectIDIndex]], grows it past its capacity,
+ * and reopens it from its directory, both after it was closed and after it was abandoned as by a crash.
+ */
+class ObjectIDIndexTest {
+  final val Entries = 1000
+
+  // The head file starts with: magic, format, clean flag, generation, capacity, live count
+  final val HeadCleanAt = 12L
+  final val HeadLiveCountAt = 32L
+
+  def objectIDOf(n: Int): String = f"0000531300$n%08X"
+
+  def pathOf(n: Int): String = s"/photos/${n % 10}/IMG_$n.jpg"
+
+  def movedPathOf(n: Int): String = s"/archive/${n % 10}/IMG_$n.jpg"
+
+  def newIndexDir(): File = Files.createTempDirectory("objectid-index-test").toFile
+
+  def deleteDir(dir: File): Unit = {
+    for(file ← Option(dir.listFiles()).getOrElse(Array())) file.delete()
+    dir.delete()
+  }
+
+  /**
+   * Puts `Entries` object IDs, moves every third and removes every fifth that was not moved.
+   */
+  def populate(index: ObjectIDIndex): Unit = {
+    for(n ← 0 until Entries) index.put(objectIDOf(n), pathOf(n))
+    for(n ← 0 until Entries if n % 3 == 0) index.put(objectIDOf(n), movedPathOf(n))
+    for(n ← 0 until Entries if n % 3 != 0 && n % 5 == 0) assertTrue(index.remove(objectIDOf(n)))
+  }
+
+  def assertPopulated(index: ObjectIDIndex): Unit = {
+    var live = 0
+    for(n ← 0 until Entries) {
+      val id = objectIDOf(n)
+      if(n % 3 == 0) {
+        assertEquals(Some(movedPathOf(n)), index.pathOf(id))
+        assertEquals(Some(id), index.objectIDOf(movedPathOf(n)))
+        assertEquals(None, index.objectIDOf(pathOf(n)))
+        live += 1
+      }
+      else if(n % 5 == 0) {
+        assertEquals(None, index.pathOf(id))
+        assertEquals(None, index.objectIDOf(pathOf(n)))
+      }
+      else {
+        assertEquals(Some(pathOf(n)), index.pathOf(id))
+        assertEquals(Some(id), index.objectIDOf(pathOf(n)))
+        live += 1
+      }
+    }
+    assertEquals(live.toLong, index.size)
+  }
+
+  def update(file: File)(f: RandomAccessFile ⇒ Unit): Unit = {
+    val raf = new RandomAccessFile(file, "rw")
+    try f(raf) finally raf.close()
+  }
+
+  @Test
+  def putsMovesAndRemoves(): Unit = {
+    val index = ObjectIDIndex.inMemory(16)
+    val (a, b) = (objectIDOf(1), objectIDOf(2))
+
+    index.put(a, "/photos/")
+    index.put(b, "/photos/a.jpg")
+    assertEquals(Some("/photos/a.jpg"), index.pathOf(b))
+    assertEquals(Some(b), index.objectIDOf("/photos/a.jpg"))
+
+    // Moving `b` frees its previous path
+    index.put(b, "/photos/b.jpg")
+    assertEquals(Some("/photos/b.jpg"), index.pathOf(b))
+    assertEquals(None, index.objectIDOf("/photos/a.jpg"))
+    assertEquals(2L, index.size)
+
+    // A path that is put with another object ID drops the previous one
+    index.put(a, "/photos/b.jpg")
+    assertEquals(None, index.pathOf(b))
+    assertEquals(Some(a), index.objectIDOf("/photos/b.jpg"))
+    assertEquals(None, index.objectIDOf("/photos/"))
+    assertEquals(1L, index.size)
+
+    // Object IDs are matched regardless of the case of their hex digits
+    assertEquals(Some("/photos/b.jpg"), index.pathOf(a.toLowerCase))
+
+    assertTrue(index.remove(a))
+    assertFalse(index.remove(a))
+    assertFalse(index.remove("not hex"))
+    assertEquals(None, index.pathOf(a))
+    assertEquals(None, index.objectIDOf("/photos/b.jpg"))
+    assertEquals(0L, index.size)
+    index.close()
+  }
+
+  @Test
+  def rebuildsAsItGrows(): Unit = {
+    val index = ObjectIDIndex.inMemory(16)
+
+    populate(index)
+    assertTrue(s"Capacity ${index.capacity} for $Entries entries", index.capacity >= (Entries / ObjectIDIndex.LoadFactor).toLong)
+    assertPopulated(index)
+    index.close()
+  }
+
+  @Test
+  def reopensAfterAClose(): Unit = {
+    val dir = newIndexDir()
+    try {
+      val index = ObjectIDIndex.open(dir, 16)
+      assertFalse(index.isReopened)
+      populate(index)
+      index.close()
+
+      val reopened = ObjectIDIndex.open(dir, 16)
+      assertTrue(reopened.isReopened)
+      assertPopulated(reopened)
+
+      // Still usable, including after a rebuild of the reopened tables
+      val more = Entries + 1000
+      for(n ← Entries until more) reopened.put(objectIDOf(n), pathOf(n))
+      for(n ← Entries until more) assertEquals(Some(pathOf(n)), reopened.pathOf(objectIDOf(n)))
+      reopened.close()
+    }
+    finally deleteDir(dir)
+  }
+
+  @Test
+  def recountsAfterACrash(): Unit = {
+    val dir = newIndexDir()
+    try {
+      populate(ObjectIDIndex.open(dir, 16))
+
+      // The index above is abandoned, as if the process had crashed, with counts that cannot be trusted
+      val head = new File(dir, "head")
+      update(head) { raf ⇒
+        raf.seek(HeadCleanAt)
+        assertEquals("Clean flag of an index that was not closed", 0, raf.readInt())
+        raf.seek(HeadLiveCountAt)
+        raf.writeLong(Long.MaxValue)
+      }
+
+      val reopened = ObjectIDIndex.open(dir, 16)
+      assertTrue(reopened.isReopened)
+      assertPopulated(reopened)
+
+      val id = objectIDOf(Entries)
+      reopened.put(id, pathOf(Entries))
+      assertEquals(Some(pathOf(Entries)), reopened.pathOf(id))
+      reopened.close()
+
+      val again = ObjectIDIndex.open(dir, 16)
+      assertEquals(reopened.size, again.size)
+      assertEquals(Some(id), again.objectIDOf(pathOf(Entries)))
+      again.close()
+    }
+    finally deleteDir(dir)
+  }
+}
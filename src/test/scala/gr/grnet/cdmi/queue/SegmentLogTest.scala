@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.queue
+
+import java.io.{File, RandomAccessFile}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch}
+
+import com.twitter.io.Buf
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.JavaConverters._
+
+/**
+ * Appends to a [[gr.grnet.cdmi.queue.SegmentLog]] from concurrent writers, damages the segment files
+ * the way a crash in the middle of an append leaves them, and checks what a reopened log recovers.
+ */
+class SegmentLogTest {
+  final val Writers = 8
+  final val BatchesPerWriter = 200
+  final val BatchSize = 3
+  final val SegmentSize = 64 << 10
+  final val Mimetype = "text/plain"
+
+  // Records are: completion marker, mimetype length, logSeq, mimetype bytes, value length, value bytes, padding
+  final val RecordHeaderSize = 16
+
+  def valueOf(seq: Long): String = f"value $seq%08d"
+
+  def appendConcurrently(log: SegmentLog): List[QueueValue] = {
+    val nextSeq = new AtomicLong()
+    val appended = new ConcurrentLinkedQueue[QueueValue]()
+    val start = new CountDownLatch(1)
+    val writers =
+      for(_ ← 1 to Writers) yield new Thread(new Runnable {
+        def run(): Unit = {
+          start.await()
+          for(_ ← 1 to BatchesPerWriter) {
+            val firstSeq = nextSeq.getAndAdd(BatchSize)
+            val values = for(seq ← firstSeq until firstSeq + BatchSize) yield (Mimetype, Buf.Utf8(valueOf(seq)))
+            appended.addAll(log.append(firstSeq, values.toList).asJava)
+          }
+        }
+      })
+
+    writers.foreach(_.start())
+    start.countDown()
+    writers.foreach(_.join())
+    appended.asScala.toList.sortBy(_.logSeq)
+  }
+
+  /**
+   * The segment file and the offset of the record that holds the value with `logSeq` `seq`.
+   */
+  def recordOf(dir: File, seq: Long): (File, Int) = {
+    val needle = valueOf(seq).getBytes(StandardCharsets.UTF_8)
+    val found =
+      for {
+        file ← dir.listFiles().toList.sortBy(_.getName) if file.getName.startsWith(SegmentLog.SegmentPrefix)
+        bytes = Files.readAllBytes(file.toPath)
+        valueAt = indexOf(bytes, needle) if valueAt >= 0
+      } yield (file, valueAt - 4 - Mimetype.length - RecordHeaderSize)
+
+    assertEquals(s"Records with value '${valueOf(seq)}'", 1, found.size)
+    found.head
+  }
+
+  def indexOf(bytes: Array[Byte], needle: Array[Byte]): Int =
+    (0 to bytes.length - needle.length).find { at ⇒
+      var i = 0
+      while(i < needle.length && bytes(at + i) == needle(i)) { i += 1 }
+      i == needle.length
+    }.getOrElse(-1)
+
+  def update(file: File)(f: RandomAccessFile ⇒ Unit): Unit = {
+    val raf = new RandomAccessFile(file, "rw")
+    try f(raf) finally raf.close()
+  }
+
+  def contentOf(value: QueueValue): String = {
+    val Buf.Utf8(s) = value.value
+    s
+  }
+
+  def newLogDir(): File = Files.createTempDirectory("segment-log-test").toFile
+
+  @Test
+  def recoversTheRecordsAfterAnUnstampedReservation(): Unit = {
+    val dir = newLogDir()
+    try {
+      val appended = appendConcurrently(SegmentLog.open(dir, SegmentSize))
+      assertEquals(Writers * BatchesPerWriter * BatchSize, appended.size)
+
+      // An appender that reserved a batch and died before stamping it leaves the reservation zero-filled
+      val unstampedSeqs = (30L until 30L + BatchSize).toSet
+      val (unstampedFile, unstampedAt) = recordOf(dir, unstampedSeqs.min)
+      val (lastFile, lastAt) = recordOf(dir, unstampedSeqs.max)
+      assertEquals(unstampedFile, lastFile)
+      update(unstampedFile) { raf ⇒
+        raf.seek(lastAt)
+        val end = lastAt + raf.readInt()
+        raf.seek(unstampedAt)
+        raf.write(new Array[Byte](end - unstampedAt))
+      }
+
+      // One that died while copying a value in leaves a stamped record that is still marked incomplete
+      val incompleteSeq = 1000L
+      val (incompleteFile, incompleteAt) = recordOf(dir, incompleteSeq)
+      update(incompleteFile) { raf ⇒
+        raf.seek(incompleteAt)
+        val size = raf.readInt()
+        raf.seek(incompleteAt)
+        raf.writeInt(-size)
+      }
+
+      // The log above is abandoned, as if the process had crashed
+      val reopened = SegmentLog.open(dir, SegmentSize)
+      val recovered = reopened.recovered
+      val expectedSeqs = appended.map(_.logSeq).filterNot(seq ⇒ unstampedSeqs(seq) || seq == incompleteSeq)
+
+      assertEquals(expectedSeqs, recovered.map(_.logSeq).toList)
+      for(value ← recovered) {
+        assertEquals(Mimetype, value.mimetype)
+        assertEquals(valueOf(value.logSeq), contentOf(value))
+      }
+
+      // Appending after recovery continues in a new segment and survives another reopen
+      val nextSeq = appended.last.logSeq + 1
+      reopened.append(nextSeq, List((Mimetype, Buf.Utf8(valueOf(nextSeq)))))
+      reopened.close()
+      assertEquals(expectedSeqs :+ nextSeq, SegmentLog.open(dir, SegmentSize).recovered.map(_.logSeq).toList)
+    }
+    finally SegmentLog.open(dir, SegmentSize).delete()
+  }
+
+  @Test
+  def recoversOnlyUnacknowledgedValues(): Unit = {
+    val dir = newLogDir()
+    try {
+      val log = SegmentLog.open(dir, SegmentSize)
+      val appended = appendConcurrently(log)
+      val ackedBelow = appended(appended.size / 2).logSeq
+      log.ack(ackedBelow)
+
+      val recovered = SegmentLog.open(dir, SegmentSize).recovered
+      assertEquals(appended.map(_.logSeq).filter(_ >= ackedBelow), recovered.map(_.logSeq).toList)
+    }
+    finally SegmentLog.open(dir, SegmentSize).delete()
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.httpx.{Method, Request, Response, Status}
+import com.twitter.logging.{Level, Logger}
+import com.twitter.util.{Await, Future}
+import org.junit.Assert._
+import org.junit.Test
+
+/**
+ * A service whose operations are not run; `measured` answers with the name of the operation instead.
+ */
+class TaggingService extends CdmiRestService
+  with CdmiRestServiceTypes
+  with CdmiRestServiceHandlers
+  with CdmiRestServiceMethods
+  with CdmiRestServiceResponse {
+
+  val log: Logger = {
+    val logger = Logger.get("gr.grnet.cdmi.service.test")
+    logger.setLevel(Level.OFF)
+    logger
+  }
+
+  override def measured(request: Request, operation: Operation)(handle: ⇒ Future[Response]): Future[Response] = {
+    val response = request.response
+    response.status = Status.Ok
+    response.contentString = s"operation $operation"
+    Future.value(response)
+  }
+
+  def DELETE_object_or_queue_or_queuevalue_cdmi(request: Request, path: List[String]) =
+    Future.value(Response(Status.Ok))
+}
+
+/**
+ * Cross-checks the table that [[gr.grnet.cdmi.service.CdmiRestServiceHandlers]] dispatch by against
+ * the hand-written handlers in [[gr.grnet.cdmi.service.LegacyHandlers]], for every combination of method,
+ * path kind, specification version header, `Content-Type` and `Accept` below.
+ */
+class DispatchTableTest {
+  import DispatchTableTest.Outcome
+
+  final val SpecVersion = "X-CDMI-Specification-Version"
+  final val CdmiVersion = "1.0.2"
+
+  final val Methods = List(Method.Get, Method.Put, Method.Post, Method.Delete, Method.Head, Method.Options)
+
+  final val Paths = List(
+    "/cdmi_capabilities/",
+    "/cdmi_capabilities/container/",
+    "/cdmi_domains/users/",
+    "/photos/",
+    "/photos/2014/",
+    "/photos/IMG_0042.jpg",
+    "/jobs/pending"
+  )
+
+  final val MediaTypes = List(
+    "",
+    "*/*",
+    "application/*",
+    "application/cdmi-capability",
+    "application/cdmi-container",
+    "application/cdmi-domain",
+    "application/cdmi-object",
+    "application/cdmi-queue",
+    "application/cdmi-object; charset=utf-8",
+    "Application/CDMI-Container",
+    "application/cdmi-foo",
+    "application/json",
+    "text/plain",
+    "image/jpeg, */*;q=0.8",
+    "text/plain, application/cdmi-object;q=0.5",
+    "application/cdmi-queue;q=0, application/cdmi-object",
+    "application/cdmi-container;q=0"
+  )
+
+  def outcomeOf(service: TaggingService, method: Method, uri: String, spec: Boolean, contentType: String, accept: String): Outcome = {
+    val request = Request(method, uri)
+    if(spec) request.headerMap.add(SpecVersion, CdmiVersion)
+    if(contentType.nonEmpty) request.headerMap.add("Content-Type", contentType)
+    if(accept.nonEmpty) request.headerMap.add("Accept", accept)
+
+    val response = Await.result(service.routingTable(request))
+    Outcome(response.status, response.contentString)
+  }
+
+  @Test
+  def tableAnswersLikeTheHandlers(): Unit = {
+    val table = new TaggingService
+    val legacy = new TaggingService with LegacyHandlers
+
+    val mismatches =
+      for {
+        method ← Methods
+        uri ← Paths
+        spec ← List(true, false)
+        contentType ← MediaTypes
+        accept ← MediaTypes
+        expected = outcomeOf(legacy, method, uri, spec, contentType, accept)
+        actual = outcomeOf(table, method, uri, spec, contentType, accept)
+        if actual != expected
+      } yield
+        s"$method $uri spec=$spec Content-Type='$contentType' Accept='$accept'\n" +
+        s"  handlers: $expected\n" +
+        s"  table:    $actual"
+
+    assertTrue(s"${mismatches.size} mismatches:\n${mismatches.take(20).mkString("\n")}", mismatches.isEmpty)
+  }
+}
+
+object DispatchTableTest {
+  /**
+   * What a request is answered with, as far as dispatching goes.
+   */
+  final case class Outcome(status: Status, body: String)
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2010-2014 GRNET S.A.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gr.grnet.cdmi.service
+
+import com.twitter.finagle.httpx.Method.{Delete, Get, Post, Put}
+import com.twitter.util.Future
+
+/**
+ * The hand-written dispatch that `CdmiRestServiceHandlers` used before [[gr.grnet.cdmi.service.DispatchTable]].
+ * Kept as the reference that [[gr.grnet.cdmi.service.DispatchTableTest]] checks the table against.
+ */
+trait LegacyHandlers extends CdmiRestServiceHandlers { self: CdmiRestService
+                                                        with CdmiRestServiceTypes
+                                                        with CdmiRestServiceMethods
+                                                        with CdmiRestServiceResponse ⇒
+
+  override def handleContainerCall(request: Request, path: CdmiPath): Future[Response] = {
+    def NotAllowed() = notAllowed(request)
+    def containerPath = path.toList
+
+    val method = request.method
+    val negotiated = Negotiated.of(request)
+    def hContentType = request.headerMap.get(HeaderNames.Content_Type).orNull
+    def hAccept = request.headerMap.get(HeaderNames.Accept).orNull
+
+    val haveContentType = negotiated.hasContentType
+    val haveSpecVersion = negotiated.hasSpecVersion
+    val haveAccept = negotiated.hasAccept
+
+    val isContainerAccept = negotiated.isContainerAccept
+    val isObjectAccept = negotiated.isObjectAccept
+    val isAnyAccept = negotiated.isAnyAccept
+    val isQueueAccept = negotiated.isQueueAccept
+    val isContainerContentType = negotiated.isContainerContentType
+    val isObjectContentType = negotiated.isObjectContentType
+    val isQueueContentType = negotiated.isQueueContentType
+
+    def handleContainerCdmiCall(): Future[Response] =
+      method match {
+        case Get if OPTIONAL(isContainerAccept || isAnyAccept || !haveAccept) ⇒
+          measured(request, Operation.GET_container_cdmi) { GET_container_cdmi(request, containerPath) }
+
+        case Get if HELPER(negotiated.isCdmiLikeAccept) ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR017,
+            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
+            s". Should be '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiContainer}'"
+          )
+
+        case Get /*if HELPER(haveAccept) */⇒
+          badRequest(
+            request,
+            StdErrorRef.BR018,
+            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
+            s". Should be '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiContainer}'"
+          )
+
+        case Put if MANDATORY(isContainerContentType) && OPTIONAL(isContainerAccept || isAnyAccept) ⇒
+          // Section 9.2 Create a Container Object using CDMI Content Type
+          measured(request, Operation.PUT_container_cdmi_create) { PUT_container_cdmi_create(request, containerPath) }
+
+        case Put if MANDATORY(isContainerContentType) && OPTIONAL(!haveAccept) ⇒
+          // Section 9.2 Create a Container Object using CDMI Content Type
+          // Section 9.5 Update a Container Object using CDMI Content Type
+          measured(request, Operation.PUT_container_cdmi_create_or_update) { PUT_container_cdmi_create_or_update(request, containerPath) }
+
+        case Put if negotiated.isCdmiLikeContentType ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR019,
+            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
+            s". Should be '${HeaderNames.Content_Type}: ${MediaTypes.Application_CdmiContainer}'"
+          )
+
+        case Put if MANDATORY(haveContentType) ⇒
+          // This is an irrelevant content type
+          badRequest(
+            request,
+            StdErrorRef.BR020,
+            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present"
+          )
+
+        case Put ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR021,
+            s"'${HeaderNames.Content_Type}' is not set"
+          )
+
+        case Post if MANDATORY(isObjectContentType) && OPTIONAL(isObjectAccept || isAnyAccept || !haveAccept) ⇒
+          // Section 9.8 Create (POST) a New Data Object using CDMI Content Type
+          measured(request, Operation.POST_object_to_container_cdmi) { POST_object_to_container_cdmi(request, containerPath) }
+
+        case Post if MANDATORY(isQueueContentType) && OPTIONAL(isQueueAccept || isAnyAccept || !haveAccept) ⇒
+          // Section 9.10 Create (POST) a New Queue Object using CDMI Content Type
+          measured(request, Operation.POST_queue_to_container_cdmi) { POST_queue_to_container_cdmi(request, containerPath) }
+
+        case Post ⇒
+          // I could refine the errors more, just like I did with other cases but this manual procedure is getting
+          // tedious, it already is error prone and certainly is the wrong way to implement a specification, as far
+          // as I am concerned.
+          // We really need to derive an implementation automatically from the specification.
+          NotAllowed()
+
+        case Delete ⇒
+          // Section 9.6 Delete a Container Object using CDMI Content Type
+          measured(request, Operation.DELETE_container_cdmi) { DELETE_container_cdmi(request, containerPath) }
+
+        case _ ⇒
+          NotAllowed()
+      }
+
+    def handleContainerNonCdmiCall(): Future[Response] =
+      method match {
+        case Get ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR022,
+            s"Requested to read a container without setting ${HeaderNames.X_CDMI_Specification_Version}"
+          )
+        case Put ⇒
+          NotAllowed()
+        case Post ⇒
+          NotAllowed()
+        case Delete ⇒
+          NotAllowed()
+        case _ ⇒
+          NotAllowed()
+      }
+
+    def validators(methods: CdmiValidatorMethods) = methods.GET_container_validators(request, containerPath)
+
+    withPreconditions(request, validators) {
+      haveSpecVersion match {
+        case true  ⇒
+          log.debug("handleContainerCdmiCall")
+          handleContainerCdmiCall()
+
+        case false ⇒
+          log.debug("handleContainerNonCdmiCall")
+          handleContainerNonCdmiCall()
+      }
+    }
+  }
+
+  override def handleObjectOrQueueCall(request: Request, path: CdmiPath): Future[Response] = {
+    def NotAllowed() = notAllowed(request)
+    def pathList = path.toList
+    val method = request.method
+    val negotiated = Negotiated.of(request)
+    def hContentType = request.headerMap.get(HeaderNames.Content_Type).orNull
+    def hAccept = request.headerMap.get(HeaderNames.Accept).orNull
+
+    val haveContentType = negotiated.hasContentType
+    val haveSpecVersion = negotiated.hasSpecVersion
+    val haveAccept = negotiated.hasAccept
+
+    val isQueueContentType = negotiated.isQueueContentType
+    val isObjectContentType = negotiated.isObjectContentType
+    val isQueueAccept = negotiated.isQueueAccept
+    val isObjectAccept = negotiated.isObjectAccept
+    val isAnyAccept = negotiated.isAnyAccept
+
+    // Separation of queues and data objects is not well defined
+    // and this is an approximate solution/approach.
+    //
+    // In particular:
+    //  - Section 11.2 of CDMI 1.0.2 "Create a Queue Object using CDMI Content Type"
+    //      requires Content-Type: application/cdmi-queue and
+    //      requires the presence of X-CDMI-Specification-Version header
+    //  - Section 11.3 of CDMI 1.0.2 "Read a Queue Object using CDMI Content Type"
+    //      has an optional Accept header and
+    //      requires the presence of X-CDMI-Specification-Version header
+    //  - Section 11.4 of CDMI 1.0.2 "Update a Queue Object using CDMI Content Type"
+    //      requires Content-Type: application/cdmi-queue and
+    //      requires the presence of X-CDMI-Specification-Version header
+    //  - Section 11.5 of CDMI 1.0.2 "Delete a Queue Object using CDMI Content Type"
+    //      requires the presence of X-CDMI-Specification-Version header
+    //  - Section 11.6 of CDMI 1.0.2 "Enqueue a New Queue Value using CDMI Content Type"
+    //      requires Content-Type: application/cdmi-queue and
+    //      requires the presence of X-CDMI-Specification-Version header
+    //  - Section 11.7 of CDMI 1.0.2 "Delete a Queue Object Value using CDMI Content Type"
+    //      requires the presence of X-CDMI-Specification-Version header
+    //
+    //
+    // The common requirement for queue operations is the presence of X-CDMI-Specification-Version
+    // header and this is what we check first:
+
+    // Handles all cases when the header X-CDMI-Specification-Version is present
+    // That the version is valid must be guaranteed by the filters run before we reach here.
+    // This is true with the default setup.
+    def handleObjectOrQueueCdmiCall(): Future[Response] = {
+      method match {
+        //+ GET //////////////////////////////////////////////////////////////
+        case Get if OPTIONAL(isQueueAccept) ⇒
+          // Section 11.3 Read a Queue Object using CDMI Content Type
+          measured(request, Operation.GET_queue_cdmi) { GET_queue_cdmi(request, pathList) }
+
+        case Get if OPTIONAL(isObjectAccept || isAnyAccept) || HELPER(!haveAccept) ⇒
+          // If `Accept` is not present or it is '*/*', we default to data objects.
+          // Section 8.4 Read a Data Object using CDMI Content Type
+          measured(request, Operation.GET_object_cdmi) { GET_object_cdmi(request, pathList) }
+
+        case Get if HELPER(negotiated.isCdmiLikeAccept) ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR006,
+            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
+              s". Should be '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiObject}'" +
+              s" or '${HeaderNames.Accept}: ${MediaTypes.Application_CdmiQueue}'"
+          )
+
+        case Get if HELPER(haveAccept) ⇒
+          // There must be an irrelevant media type in `Accept`
+          badRequest(
+            request,
+            StdErrorRef.BR004,
+            s"Bad use of '${HeaderNames.Accept}: $hAccept' with the '${HeaderNames.X_CDMI_Specification_Version}' present"
+          )
+        //- GET //////////////////////////////////////////////////////////////
+
+        //+ PUT //////////////////////////////////////////////////////////////
+        case Put if MANDATORY(isQueueContentType) && MANDATORY(isQueueAccept) ⇒
+          // Section 11.2 Create a Queue Object using CDMI Content Type
+          measured(request, Operation.PUT_queue_cdmi_create) { PUT_queue_cdmi_create(request, pathList) }
+
+        case Put if MANDATORY(isQueueContentType) ⇒
+          // Section 11.4 Update a Queue Object using CDMI Content Type
+          measured(request, Operation.PUT_queue_cdmi_update) { PUT_queue_cdmi_update(request, pathList) }
+
+        case Put if MANDATORY(isObjectContentType) && OPTIONAL(isObjectAccept || isAnyAccept) ⇒
+          // Section 8.2 Create a Data Object Using CDMI Content Type
+          measured(request, Operation.PUT_object_cdmi_create) { PUT_object_cdmi_create(request, pathList) }
+
+        case Put if MANDATORY(isObjectContentType) ⇒
+          // Section 8.2 Create a Data Object Using CDMI Content Type
+          // Section 8.6 Update a Data Object using CDMI Content Type
+          measured(request, Operation.PUT_object_cdmi_create_or_update) { PUT_object_cdmi_create_or_update(request, pathList) }
+
+        case Put if MANDATORY(negotiated.isCdmiLikeContentType) ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR007,
+            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present" +
+              s". Should be '${HeaderNames.Content_Type}: ${MediaTypes.Application_CdmiObject}'" +
+              s" or '${HeaderNames.Content_Type}: ${MediaTypes.Application_CdmiQueue}'"
+          )
+
+        case Put if MANDATORY(haveContentType) ⇒
+          // This is an irrelevant content type
+          badRequest(
+            request,
+            StdErrorRef.BR016,
+            s"Bad use of '${HeaderNames.Content_Type}: $hContentType' with the '${HeaderNames.X_CDMI_Specification_Version}' present"
+          )
+
+        case Put ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR005,
+            s"'${HeaderNames.Content_Type}' is not set"
+          )
+        //- PUT //////////////////////////////////////////////////////////////
+
+        //+ POST /////////////////////////////////////////////////////////////
+        case Post if isQueueContentType ⇒
+          // Section 11.6 Enqueue a New Queue Value using CDMI Content Type
+          measured(request, Operation.POST_queue_value_cdmi) { POST_queue_value_cdmi(request, pathList) }
+
+        case Post ⇒
+          NotAllowed()
+
+        //- POST /////////////////////////////////////////////////////////////
+
+        //+ DELETE ///////////////////////////////////////////////////////////
+        case Delete ⇒
+          // No other way to understand if this is about a data object or a queue object or a queue object value
+          // Section  8.8 Delete a Data Object using CDMI Content Type
+          // Section 11.5 Delete a Queue Object using CDMI Content Type
+          // Section 11.7 Delete a Queue Object Value using CDMI Content Type
+          measured(request, Operation.DELETE_object_or_queue_or_queuevalue_cdmi) { DELETE_object_or_queue_or_queuevalue_cdmi(request, pathList) }
+
+        //- DELETE ///////////////////////////////////////////////////////////
+
+        case _ ⇒
+          NotAllowed()
+      }
+    }
+
+    // Handles all cases when the header X-CDMI-Specification-Version is absent.
+    def handleObjectOrQueueNonCdmiCall(): Future[Response] = {
+      method match {
+        //+ GET //////////////////////////////////////////////////////////////
+        case Get if HELPER(isAnyAccept) || HELPER(!haveAccept) ⇒
+          // Section 8.5 Read a Data Object using a Non-CDMI Content Type
+          measured(request, Operation.GET_object_noncdmi) { GET_object_noncdmi(request, pathList) }
+
+        case Get if HELPER(negotiated.isCdmiLikeAccept) ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR013,
+            s"Bad use of CDMI-aware '${HeaderNames.Accept}: $hAccept' without the presence of '${HeaderNames.X_CDMI_Specification_Version}'"
+          )
+
+        case Get ⇒
+          // Let the implementation handle any other value for the `Accept` header.
+          // Section 8.5 Read a Data Object using a Non-CDMI Content Type
+          measured(request, Operation.GET_object_noncdmi) { GET_object_noncdmi(request, pathList) }
+        //- GET //////////////////////////////////////////////////////////////
+
+        //+ PUT //////////////////////////////////////////////////////////////
+        case Put if MANDATORY(haveContentType) && MANDATORY(negotiated.isCdmiLikeContentType) ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR014,
+            s"Bad use of CDMI-aware '${HeaderNames.Content_Type}: $hContentType' without the presence of '${HeaderNames.X_CDMI_Specification_Version}'"
+          )
+
+        case Put if MANDATORY(haveContentType) ⇒
+          // Section 8.3 Create a Data Object using a Non-CDMI Content Type
+          // Section 8.7 Update a Data Object using a Non-CDMI Content Type
+          measured(request, Operation.PUT_object_noncdmi) { PUT_object_noncdmi_stream(request, pathList, hContentType, Bodies.readerOf(request)) }
+
+        case Put ⇒
+          badRequest(
+            request,
+            StdErrorRef.BR015,
+            s"'${HeaderNames.Content_Type}' is not set"
+          )
+        //- PUT //////////////////////////////////////////////////////////////
+
+        //+ POST /////////////////////////////////////////////////////////////
+        case Post ⇒
+          NotAllowed()
+        //- POST /////////////////////////////////////////////////////////////
+
+        //+ DELETE ///////////////////////////////////////////////////////////
+        case Delete ⇒
+          // Section 8.9 Delete a Data Object using a Non-CDMI Content Type
+          measured(request, Operation.DELETE_object_noncdmi) { DELETE_object_noncdmi(request, pathList) }
+        //+ DELETE ///////////////////////////////////////////////////////////
+
+        case _ ⇒
+          NotAllowed()
+      }
+    }
+
+    def validators(methods: CdmiValidatorMethods) = methods.GET_object_validators(request, pathList)
+
+    withPreconditions(request, validators) {
+      haveSpecVersion match {
+        case true  ⇒
+          log.debug("handleObjectOrQueueCdmiCall")
+          handleObjectOrQueueCdmiCall()
+
+        case false ⇒
+          log.debug("handleObjectOrQueueNonCdmiCall")
+          handleObjectOrQueueNonCdmiCall()
+      }
+    }
+  }
+
+  override def handleDomainCall(request: Request, path: CdmiPath): Future[Response] = {
+    def NotAllowed() = notAllowed(request)
+    def domainPath = path.toList
+    val method = request.method
+
+    method match {
+      case Get    ⇒ measured(request, Operation.GET_domain_cdmi) { GET_domain_cdmi(request, domainPath) }
+      case Put    ⇒ measured(request, Operation.PUT_domain_cdmi) { PUT_domain_cdmi(request, domainPath) }
+      case Delete ⇒ measured(request, Operation.DELETE_domain_cdmi) { DELETE_domain_cdmi(request, domainPath) }
+      case _             ⇒ NotAllowed()
+    }
+  }
+
+  override def handleCapabilitiesCall(request: Request, path: CdmiPath): Future[Response] = {
+    def NotAllowed() = notAllowed(request)
+    val method = request.method
+
+    method match {
+      case Get if path.isEmpty ⇒ measured(request, Operation.GET_capabilities) { GET_capabilities(request) }
+      case Get ⇒ measured(request, Operation.GET_capabilities) { GET_capabilities(request, path.toList) }
+      case _          ⇒ NotAllowed()
+    }
+  }
+}